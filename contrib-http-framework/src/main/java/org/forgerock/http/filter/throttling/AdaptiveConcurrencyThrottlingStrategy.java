@@ -0,0 +1,277 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.forgerock.util.Reject.checkNotNull;
+import static org.forgerock.util.promise.Promises.newResultPromise;
+import static org.forgerock.util.time.Duration.duration;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.guava.common.base.Ticker;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A throttling strategy limiting the number of concurrent requests (the requests accepted and not handled yet), with
+ * a limit adapted to the latency observed by the {@link ThrottlingFilter} (AIMD: additive increase, multiplicative
+ * decrease).
+ *
+ * <p>The {@link ThrottlingRate} is interpreted differently than with the other strategies: its
+ * {@literal numberOfRequests} is the maximum number of concurrent requests, and its {@literal duration} is the period
+ * over which the latency of the backend without load (the minimum latency) is measured.
+ *
+ * <p>The limit starts at the maximum. When a request takes more than twice the minimum latency (or the backend
+ * signals that it is overloaded), the limit is decreased by 10%, down to 1 concurrent request, at most once per average
+ * latency. Otherwise, it grows by 1 per round trip (as long as the limit is actually used) up to the maximum. A
+ * rejected request is advised to retry after the average latency.
+ */
+public class AdaptiveConcurrencyThrottlingStrategy implements CompletionAwareThrottlingStrategy {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveConcurrencyThrottlingStrategy.class);
+
+    /** A request taking more than TOLERANCE times the minimum latency decreases the limit. */
+    private static final int TOLERANCE = 2;
+
+    /** The ratio applied to the limit when it is decreased. */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /** The weight of a new sample in the average latency. */
+    private static final double SMOOTHING = 0.1;
+
+    /** Returned by {@link Limiter#tryAcquire(long)} when the limiter has been cleaned concurrently. */
+    private static final long RETIRED = -1L;
+
+    /**
+     * The concurrency limit of a partition.
+     */
+    private static final class Limiter {
+        private final ThrottlingRate rate;
+        private final int maxLimit;
+        private final long window;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile int currentLimit;
+        private volatile long retryAfter = 1L;
+        private volatile long lastActivity;
+        private volatile boolean retired;
+
+        // Guarded by this
+        private double limit;
+        private long minLatency = Long.MAX_VALUE;
+        private long windowMinLatency = Long.MAX_VALUE;
+        private long windowEnd;
+        private double averageLatency;
+        private long nextDecrease;
+
+        Limiter(final ThrottlingRate rate, final long now) {
+            this.rate = rate;
+            this.maxLimit = rate.getNumberOfRequests();
+            this.window = rate.getDuration().to(NANOSECONDS);
+            this.limit = maxLimit;
+            this.currentLimit = maxLimit;
+            this.lastActivity = now;
+            this.windowEnd = now + window;
+            this.nextDecrease = now;
+        }
+
+        long tryAcquire(final long now) {
+            lastActivity = now;
+            for (;;) {
+                int current = inFlight.get();
+                if (current >= currentLimit) {
+                    return retryAfter;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    if (retired) {
+                        // Cleaned meanwhile: the permit has to be taken from the limiter that replaces this one
+                        inFlight.decrementAndGet();
+                        return RETIRED;
+                    }
+                    return 0L;
+                }
+            }
+        }
+
+        synchronized void release(final long now, final long latency, final boolean overloaded) {
+            int current;
+            do {
+                current = inFlight.get();
+            } while (current > 0 && !inFlight.compareAndSet(current, current - 1));
+            lastActivity = now;
+
+            // The minimum latency is measured again on each window, so that a lasting change is eventually followed
+            if (now - windowEnd >= 0) {
+                if (windowMinLatency != Long.MAX_VALUE) {
+                    minLatency = windowMinLatency;
+                }
+                windowMinLatency = Long.MAX_VALUE;
+                windowEnd = now + window;
+            }
+            windowMinLatency = Math.min(windowMinLatency, latency);
+            minLatency = Math.min(minLatency, latency);
+            averageLatency = averageLatency == 0 ? latency : averageLatency + (latency - averageLatency) * SMOOTHING;
+
+            if (overloaded || latency > TOLERANCE * minLatency) {
+                // The requests completing within a round trip after a decrease were sent with the previous limit:
+                // they do not tell whether the decreased limit is still too high
+                if (now - nextDecrease >= 0) {
+                    limit = Math.max(1, limit * BACKOFF_RATIO);
+                    nextDecrease = now + (long) averageLatency;
+                }
+            } else if (current * 2 >= limit) {
+                // Only grow when the limit is actually reached, otherwise it would grow without any evidence
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            currentLimit = (int) limit;
+            retryAfter = Math.max(1, MILLISECONDS.convert((long) averageLatency, NANOSECONDS));
+        }
+
+        synchronized int getLimit() {
+            return (int) limit;
+        }
+
+        boolean isIdle(final long now) {
+            return inFlight.get() == 0 && now - lastActivity >= window;
+        }
+
+        /**
+         * Retires this limiter if it is idle: no permit can be acquired from it afterwards.
+         */
+        synchronized boolean retireIfIdle(final long now) {
+            if (isIdle(now)) {
+                retired = true;
+            }
+            return retired;
+        }
+    }
+
+    private class CleaningThread implements Runnable {
+
+        @Override
+        public void run() {
+            long now = ticker.read();
+            Iterator<Map.Entry<String, Limiter>> iterator = partitions.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Limiter> entry = iterator.next();
+                // Only remove the limiter that has been checked, a new one may have replaced it meanwhile
+                if (entry.getValue().retireIfIdle(now) && partitions.remove(entry.getKey(), entry.getValue())) {
+                    logger.trace("Cleaned the partition {}", entry.getKey());
+                }
+            }
+        }
+
+    }
+
+    private final Ticker ticker;
+    private final ConcurrentMap<String, Limiter> partitions = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> cleaningFuture;
+
+    /**
+     * Constructs a new {@link AdaptiveConcurrencyThrottlingStrategy}.
+     *
+     * @param ticker the {@link Ticker} to use to follow the timeline.
+     * @param scheduledExecutor the {@link ScheduledExecutorService} used to schedule cleaning tasks.
+     * @param cleaningInterval the interval between 2 cleaning tasks.
+     */
+    public AdaptiveConcurrencyThrottlingStrategy(Ticker ticker,
+                                                 ScheduledExecutorService scheduledExecutor,
+                                                 Duration cleaningInterval) {
+        this.ticker = checkNotNull(ticker);
+        if (cleaningInterval.isZero() || cleaningInterval.compareTo(duration(1, DAYS)) > 0) {
+            throw new IllegalArgumentException("Invalid value for cleaningInterval : "
+                                                       + "it has to be in the range ]0, 1 day]");
+        }
+        this.cleaningFuture = scheduledExecutor.scheduleWithFixedDelay(new CleaningThread(),
+                                                                       cleaningInterval.getValue(),
+                                                                       cleaningInterval.getValue(),
+                                                                       cleaningInterval.getUnit());
+    }
+
+    @Override
+    public Promise<Long, NeverThrowsException> throttle(String partitionKey, ThrottlingRate throttlingRate) {
+        final long now = ticker.read();
+        for (;;) {
+            long delay = selectLimiter(partitionKey, throttlingRate, now).tryAcquire(now);
+            if (delay != RETIRED) {
+                return newResultPromise(delay);
+            }
+        }
+    }
+
+    @Override
+    public void onCompletion(String partitionKey, ThrottlingRate throttlingRate, long latency, boolean overloaded) {
+        Limiter limiter = partitions.get(partitionKey);
+        if (limiter != null && limiter.rate.equals(throttlingRate)) {
+            limiter.release(ticker.read(), latency, overloaded);
+        }
+    }
+
+    /**
+     * Returns the current concurrency limit of the given partition.
+     *
+     * @param partitionKey the partition key
+     * @return the current limit, or -1 if there is no such partition
+     */
+    int getLimit(String partitionKey) {
+        Limiter limiter = partitions.get(partitionKey);
+        return limiter == null ? -1 : limiter.getLimit();
+    }
+
+    private Limiter selectLimiter(String partitionKey, ThrottlingRate rate, long now) {
+        for (;;) {
+            Limiter previous = partitions.get(partitionKey);
+            if (previous == null) {
+                Limiter limiter = new Limiter(rate, now);
+                previous = partitions.putIfAbsent(partitionKey, limiter);
+                if (previous == null) {
+                    return limiter;
+                }
+            }
+            if (previous.retired) {
+                // Being cleaned
+                partitions.remove(partitionKey, previous);
+                continue;
+            }
+            if (previous.rate.equals(rate)) {
+                return previous;
+            }
+            // The rate definition has changed: the requests in flight are not counted by the new limiter
+            Limiter limiter = new Limiter(rate, now);
+            if (partitions.replace(partitionKey, previous, limiter)) {
+                return limiter;
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        cleaningFuture.cancel(false);
+        partitions.clear();
+    }
+
+}
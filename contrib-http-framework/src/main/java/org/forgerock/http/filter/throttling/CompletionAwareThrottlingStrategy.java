@@ -0,0 +1,36 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+/**
+ * A throttling strategy that needs to know when the requests it has accepted have been handled, for example to limit
+ * the number of concurrent requests, or to adapt its decisions to the observed latency.
+ */
+public interface CompletionAwareThrottlingStrategy extends ThrottlingStrategy {
+
+    /**
+     * Notifies that a request accepted by this strategy has been handled. This method is called exactly once for each
+     * accepted request.
+     *
+     * @param partitionKey the key used to identify the different groups
+     * @param throttlingRate the throttling rate that has been applied to the request
+     * @param latency the time (in nanoseconds) spent to handle the request
+     * @param overloaded {@code true} if the response signals an overloaded backend (502, 503 or 504 status, or a
+     * runtime exception)
+     */
+    void onCompletion(String partitionKey, ThrottlingRate throttlingRate, long latency, boolean overloaded);
+
+}
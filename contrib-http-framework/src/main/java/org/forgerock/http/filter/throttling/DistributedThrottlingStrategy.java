@@ -0,0 +1,310 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.forgerock.util.Reject.checkNotNull;
+import static org.forgerock.util.promise.Promises.newResultPromise;
+import static org.forgerock.util.time.Duration.duration;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.guava.common.base.Ticker;
+import org.forgerock.util.AsyncFunction;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.promise.ResultHandler;
+import org.forgerock.util.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A throttling strategy enforcing the rates across several gateway instances, by consuming the tokens from buckets
+ * held in a shared {@link ThrottlingStore}.
+ *
+ * <p>To avoid a round trip to the store for each request, the tokens are leased locally by batches: a request
+ * consumes a token from the local lease (no I/O at all), and the next batch is acquired asynchronously when the lease
+ * is running low. A request only waits for the store when the local lease is empty. When the store does not grant any
+ * token, the requests of that partition are rejected locally until the delay advertised by the store has elapsed.
+ *
+ * <p>A batch holds at most a tenth of the rate's number of requests (and at most {@literal leaseSize} tokens), so
+ * that a single instance cannot starve the others. The leased tokens have to be used within the rate's duration:
+ * the tokens left in an expired lease are given back to the store, asynchronously.
+ *
+ * <p>If the store is not available, the decision is delegated to the {@literal fallback} strategy (typically a local
+ * {@link TokenBucketThrottlingStrategy}, enforcing the rate per instance) for one second, before trying the store
+ * again.
+ */
+public class DistributedThrottlingStrategy implements ThrottlingStrategy {
+
+    /** Default maximum number of tokens leased at once. */
+    public static final int DEFAULT_LEASE_SIZE = 100;
+
+    private static final Logger logger = LoggerFactory.getLogger(DistributedThrottlingStrategy.class);
+
+    /** A lease holds at most 1/LEASE_FRACTION of the rate's number of requests. */
+    private static final int LEASE_FRACTION = 10;
+
+    /** How long the fallback strategy is used once the store has failed. */
+    private static final long STORE_RETRY_DELAY = SECONDS.toNanos(1L);
+
+    private final ThrottlingStore store;
+    private final ThrottlingStrategy fallback;
+    private final Ticker ticker;
+    private final int leaseSize;
+    private final ConcurrentMap<String, Partition> partitions = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> cleaningFuture;
+    private volatile long storeUnavailableUntil;
+
+    /**
+     * The local lease of a partition.
+     */
+    private final class Partition {
+        private final String key;
+        private final ThrottlingRate rate;
+        private final int batchSize;
+        private final long leaseDuration;
+        private final AtomicInteger tokens = new AtomicInteger();
+        private volatile long leaseExpiration;
+        private volatile long deniedUntil;
+
+        // Guarded by this
+        private Promise<TokenLease, NeverThrowsException> acquisition;
+
+        Partition(final String key, final ThrottlingRate rate, final long now) {
+            this.key = key;
+            this.rate = rate;
+            this.batchSize = Math.max(1, Math.min(leaseSize, rate.getNumberOfRequests() / LEASE_FRACTION));
+            this.leaseDuration = rate.getDuration().to(NANOSECONDS);
+            this.leaseExpiration = now;
+            this.deniedUntil = now;
+        }
+
+        /**
+         * Takes a token from the local lease, and acquires the next batch if the lease is running low.
+         */
+        boolean take(final long now) {
+            if (leaseExpiration - now <= 0) {
+                reclaim();
+                return false;
+            }
+            for (;;) {
+                int available = tokens.get();
+                if (available <= 0) {
+                    return false;
+                }
+                if (tokens.compareAndSet(available, available - 1)) {
+                    if (available - 1 <= batchSize / 4 && deniedUntil - now <= 0) {
+                        // Prefetch the next batch, without waiting for it (unless the store has just denied one)
+                        acquire();
+                    }
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Acquires a new batch of tokens from the store, unless an acquisition is already in progress.
+         */
+        synchronized Promise<TokenLease, NeverThrowsException> acquire() {
+            if (acquisition != null && !acquisition.isDone()) {
+                return acquisition;
+            }
+            final PromiseImpl<TokenLease, NeverThrowsException> acquired = PromiseImpl.create();
+            acquisition = acquired;
+            store.acquire(key, rate, batchSize)
+                 .thenOnResult(new ResultHandler<TokenLease>() {
+                     @Override
+                     public void handleResult(TokenLease lease) {
+                         long now = ticker.read();
+                         if (lease.getTokens() > 0) {
+                             leaseExpiration = now + leaseDuration;
+                             tokens.addAndGet(lease.getTokens());
+                         } else {
+                             deniedUntil = now + MILLISECONDS.toNanos(lease.getRetryAfter());
+                         }
+                         acquired.handleResult(lease);
+                     }
+                 })
+                 .thenOnException(new ExceptionHandler<Exception>() {
+                     @Override
+                     public void handleException(Exception e) {
+                         logger.warn("Cannot acquire tokens for the partition {}, using the fallback strategy",
+                                     key,
+                                     e);
+                         storeUnavailableUntil = ticker.read() + STORE_RETRY_DELAY;
+                         acquired.handleResult(null);
+                     }
+                 });
+            return acquired;
+        }
+
+        /**
+         * Gives the unused tokens back to the store.
+         */
+        void reclaim() {
+            final int unused = tokens.getAndSet(0);
+            if (unused > 0) {
+                store.release(key, rate, unused)
+                     .thenOnException(new ExceptionHandler<Exception>() {
+                         @Override
+                         public void handleException(Exception e) {
+                             logger.debug("Cannot give {} unused tokens back for the partition {}", unused, key, e);
+                         }
+                     });
+            }
+        }
+
+        synchronized boolean isIdle(final long now) {
+            return leaseExpiration - now <= 0
+                    && deniedUntil - now <= 0
+                    && (acquisition == null || acquisition.isDone());
+        }
+    }
+
+    private class CleaningThread implements Runnable {
+
+        @Override
+        public void run() {
+            long now = ticker.read();
+            Iterator<Partition> iterator = partitions.values().iterator();
+            while (iterator.hasNext()) {
+                Partition partition = iterator.next();
+                if (partition.isIdle(now)) {
+                    iterator.remove();
+                    partition.reclaim();
+                    logger.trace("Cleaned the partition {}", partition.key);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Constructs a new {@link DistributedThrottlingStrategy}.
+     *
+     * @param store the store holding the shared buckets.
+     * @param fallback the strategy to use when the store is not available.
+     * @param ticker the {@link Ticker} to use to follow the timeline.
+     * @param scheduledExecutor the {@link ScheduledExecutorService} used to schedule cleaning tasks.
+     * @param cleaningInterval the interval between 2 cleaning tasks.
+     * @param leaseSize the maximum number of tokens leased at once.
+     */
+    public DistributedThrottlingStrategy(ThrottlingStore store,
+                                         ThrottlingStrategy fallback,
+                                         Ticker ticker,
+                                         ScheduledExecutorService scheduledExecutor,
+                                         Duration cleaningInterval,
+                                         int leaseSize) {
+        this.store = checkNotNull(store);
+        this.fallback = checkNotNull(fallback);
+        this.ticker = checkNotNull(ticker);
+        if (leaseSize <= 0) {
+            throw new IllegalArgumentException("Invalid value for leaseSize : it has to be greater than 0");
+        }
+        this.leaseSize = leaseSize;
+        if (cleaningInterval.isZero() || cleaningInterval.compareTo(duration(1, DAYS)) > 0) {
+            throw new IllegalArgumentException("Invalid value for cleaningInterval : "
+                                                       + "it has to be in the range ]0, 1 day]");
+        }
+        this.storeUnavailableUntil = ticker.read();
+        this.cleaningFuture = scheduledExecutor.scheduleWithFixedDelay(new CleaningThread(),
+                                                                       cleaningInterval.getValue(),
+                                                                       cleaningInterval.getValue(),
+                                                                       cleaningInterval.getUnit());
+    }
+
+    @Override
+    public Promise<Long, NeverThrowsException> throttle(final String partitionKey,
+                                                        final ThrottlingRate throttlingRate) {
+        final long now = ticker.read();
+        if (storeUnavailableUntil - now > 0) {
+            return fallback.throttle(partitionKey, throttlingRate);
+        }
+
+        final Partition partition = selectPartition(partitionKey, throttlingRate, now);
+        if (partition.take(now)) {
+            // Fast path: no interaction with the store
+            return newResultPromise(0L);
+        }
+        long denied = partition.deniedUntil - now;
+        if (denied > 0) {
+            return newResultPromise(Math.max(1, MILLISECONDS.convert(denied, NANOSECONDS)));
+        }
+
+        // The local lease is empty: wait for the next batch
+        return partition.acquire()
+                        .thenAsync(new AsyncFunction<TokenLease, Long, NeverThrowsException>() {
+                            @Override
+                            public Promise<Long, NeverThrowsException> apply(TokenLease lease) {
+                                if (lease == null) {
+                                    return fallback.throttle(partitionKey, throttlingRate);
+                                }
+                                if (partition.take(ticker.read())) {
+                                    return newResultPromise(0L);
+                                }
+                                if (lease.getTokens() == 0) {
+                                    return newResultPromise(Math.max(1, lease.getRetryAfter()));
+                                }
+                                // Tokens have been granted, but concurrent requests already used all of them
+                                return newResultPromise(Math.max(1, throttlingRate.delayBetweenRequests(MILLISECONDS)));
+                            }
+                        });
+    }
+
+    private Partition selectPartition(String partitionKey, ThrottlingRate rate, long now) {
+        for (;;) {
+            Partition previous = partitions.get(partitionKey);
+            if (previous == null) {
+                Partition partition = new Partition(partitionKey, rate, now);
+                previous = partitions.putIfAbsent(partitionKey, partition);
+                if (previous == null) {
+                    return partition;
+                }
+            }
+            if (previous.rate.equals(rate)) {
+                return previous;
+            }
+            // The rate definition has changed: the tokens leased for the previous rate are given back
+            Partition partition = new Partition(partitionKey, rate, now);
+            if (partitions.replace(partitionKey, previous, partition)) {
+                previous.reclaim();
+                return partition;
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        cleaningFuture.cancel(false);
+        for (Partition partition : partitions.values()) {
+            partition.reclaim();
+        }
+        partitions.clear();
+        fallback.stop();
+    }
+
+}
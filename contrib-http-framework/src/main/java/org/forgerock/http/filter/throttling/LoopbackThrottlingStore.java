@@ -0,0 +1,84 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.forgerock.util.Reject.checkNotNull;
+import static org.forgerock.util.promise.Promises.newResultPromise;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.guava.common.base.Ticker;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.Promises;
+import org.forgerock.util.time.Duration;
+
+/**
+ * An in-process {@link ThrottlingStore}: the buckets are held in memory and the promises are completed immediately.
+ * This is the reference implementation of the store contract, intended for tests and for sharing the buckets between
+ * several strategies of the same JVM.
+ *
+ * <p>Expired buckets are cleaned by the calling threads, at most once per cleaning interval.
+ */
+public class LoopbackThrottlingStore implements ThrottlingStore {
+
+    private final Ticker ticker;
+    private final TokenBucketPartitions buckets;
+    private final long cleaningInterval;
+    private final AtomicLong nextCleaning;
+
+    /**
+     * Constructs a new {@link LoopbackThrottlingStore}.
+     *
+     * @param ticker the {@link Ticker} to use to follow the timeline.
+     * @param cleaningInterval the interval between 2 cleanings of the expired buckets.
+     */
+    public LoopbackThrottlingStore(Ticker ticker, Duration cleaningInterval) {
+        if (cleaningInterval.isZero() || cleaningInterval.isUnlimited()) {
+            throw new IllegalArgumentException("Invalid value for cleaningInterval : it can't be zero nor unlimited");
+        }
+        this.ticker = checkNotNull(ticker);
+        this.cleaningInterval = cleaningInterval.to(NANOSECONDS);
+        this.buckets = new TokenBucketPartitions(ticker, this.cleaningInterval, Integer.MAX_VALUE);
+        this.nextCleaning = new AtomicLong(ticker.read() + this.cleaningInterval);
+    }
+
+    @Override
+    public Promise<TokenLease, Exception> acquire(String partitionKey, ThrottlingRate throttlingRate, int tokens) {
+        cleanIfNeeded();
+        TokenBucket bucket = buckets.select(partitionKey, throttlingRate);
+        int granted = bucket.consume(tokens);
+        long retryAfter = granted > 0 ? 0L : bucket.getDelayForNextToken();
+        return newResultPromise(new TokenLease(granted, retryAfter));
+    }
+
+    @Override
+    public Promise<Void, Exception> release(String partitionKey, ThrottlingRate throttlingRate, int tokens) {
+        TokenBucket bucket = buckets.get(partitionKey);
+        if (bucket != null && bucket.getThrottlingRate().equals(throttlingRate)) {
+            bucket.refund(tokens);
+        }
+        return Promises.<Void, Exception>newResultPromise(null);
+    }
+
+    private void cleanIfNeeded() {
+        long now = ticker.read();
+        long next = nextCleaning.get();
+        if (now - next >= 0 && nextCleaning.compareAndSet(next, now + cleaningInterval)) {
+            buckets.cleanExpired();
+        }
+    }
+}
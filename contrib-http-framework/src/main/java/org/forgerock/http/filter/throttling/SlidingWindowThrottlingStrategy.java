@@ -0,0 +1,187 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.forgerock.util.Reject.checkNotNull;
+import static org.forgerock.util.promise.Promises.newResultPromise;
+import static org.forgerock.util.time.Duration.duration;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import org.forgerock.guava.common.base.Ticker;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A throttling strategy counting the requests over a sliding window: at most {@literal numberOfRequests} requests are
+ * accepted during any period of {@literal duration}, and there is no burst at the boundary of 2 windows (unlike a
+ * fixed window), nor immediate refill (unlike a token bucket).
+ *
+ * <p>Instead of keeping the log of the requests' timestamps, each partition keeps 2 counters: the number of requests
+ * accepted in the current fixed window, and in the previous one. The number of requests in the sliding window is
+ * estimated by weighting the previous window's counter by its overlap with the sliding window, which assumes that the
+ * previous requests were evenly distributed.
+ */
+public class SlidingWindowThrottlingStrategy implements ThrottlingStrategy {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlidingWindowThrottlingStrategy.class);
+
+    /**
+     * The counters of a partition.
+     */
+    private static final class Window {
+        private final ThrottlingRate rate;
+        private final long capacity;
+        private final long duration;
+
+        // Guarded by this
+        private long start;
+        private long current;
+        private long previous;
+
+        Window(final ThrottlingRate rate, final long now) {
+            this.rate = rate;
+            this.capacity = rate.getNumberOfRequests();
+            this.duration = rate.getDuration().to(NANOSECONDS);
+            this.start = now;
+        }
+
+        synchronized long tryAccept(final long now) {
+            slide(now);
+            final long elapsed = now - start;
+            // The part of the previous window still covered by the sliding window
+            final double overlap = (double) (duration - elapsed) / duration;
+            if (previous * overlap + current + 1 <= capacity) {
+                current++;
+                return 0L;
+            }
+            final double delay;
+            if (current < capacity) {
+                // Wait for the previous window to weigh less
+                delay = duration * (1 - (double) (capacity - 1 - current) / previous) - elapsed;
+            } else {
+                // Wait for the next window, where the current one will be the previous one
+                delay = duration - elapsed + duration * (1 - (double) (capacity - 1) / current);
+            }
+            return Math.max(1, MILLISECONDS.convert((long) delay, NANOSECONDS));
+        }
+
+        synchronized boolean isExpired(final long now) {
+            slide(now);
+            return current == 0 && previous == 0;
+        }
+
+        private void slide(final long now) {
+            final long windows = (now - start) / duration;
+            if (windows == 1) {
+                previous = current;
+                current = 0;
+            } else if (windows > 1) {
+                previous = 0;
+                current = 0;
+            }
+            start += windows * duration;
+        }
+
+    }
+
+    private class CleaningThread implements Runnable {
+
+        @Override
+        public void run() {
+            long now = ticker.read();
+            Iterator<Map.Entry<String, Window>> iterator = partitions.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Window> entry = iterator.next();
+                if (entry.getValue().isExpired(now)) {
+                    iterator.remove();
+                    logger.trace("Cleaned the partition {}", entry.getKey());
+                }
+            }
+        }
+
+    }
+
+    private final Ticker ticker;
+    private final ConcurrentMap<String, Window> partitions = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> cleaningFuture;
+
+    /**
+     * Constructs a new {@link SlidingWindowThrottlingStrategy}.
+     *
+     * @param ticker the {@link Ticker} to use to follow the timeline.
+     * @param scheduledExecutor the {@link ScheduledExecutorService} used to schedule cleaning tasks.
+     * @param cleaningInterval the interval between 2 cleaning tasks.
+     */
+    public SlidingWindowThrottlingStrategy(Ticker ticker,
+                                           ScheduledExecutorService scheduledExecutor,
+                                           Duration cleaningInterval) {
+        this.ticker = checkNotNull(ticker);
+        if (cleaningInterval.isZero() || cleaningInterval.compareTo(duration(1, DAYS)) > 0) {
+            throw new IllegalArgumentException("Invalid value for cleaningInterval : "
+                                                       + "it has to be in the range ]0, 1 day]");
+        }
+        this.cleaningFuture = scheduledExecutor.scheduleWithFixedDelay(new CleaningThread(),
+                                                                       cleaningInterval.getValue(),
+                                                                       cleaningInterval.getValue(),
+                                                                       cleaningInterval.getUnit());
+    }
+
+    @Override
+    public Promise<Long, NeverThrowsException> throttle(String partitionKey, ThrottlingRate throttlingRate) {
+        final long now = ticker.read();
+        return newResultPromise(selectWindow(partitionKey, throttlingRate, now).tryAccept(now));
+    }
+
+    private Window selectWindow(String partitionKey, ThrottlingRate rate, long now) {
+        for (;;) {
+            Window previous = partitions.get(partitionKey);
+            if (previous == null) {
+                Window window = new Window(rate, now);
+                previous = partitions.putIfAbsent(partitionKey, window);
+                if (previous == null) {
+                    return window;
+                }
+            }
+            if (previous.rate.equals(rate)) {
+                return previous;
+            }
+            // The rate definition has changed: start counting again
+            Window window = new Window(rate, now);
+            if (partitions.replace(partitionKey, previous, window)) {
+                return window;
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        cleaningFuture.cancel(false);
+        partitions.clear();
+    }
+
+}
@@ -36,6 +36,9 @@ import org.forgerock.util.AsyncFunction;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
 import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.promise.Promises;
+import org.forgerock.util.promise.ResultHandler;
+import org.forgerock.util.promise.RuntimeExceptionHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,11 +48,21 @@ import org.slf4j.LoggerFactory;
  * that gives us the ability to handle rate limits through a sliding window. Multiple rates can be supported in
  * parallel with the support of a partition key (we first try to find the bucket to use for each incoming request, then
  * we apply the rate limit). Note that if no rate definition is found, this filter let the request goes through.
+ *
+ * <p>When the rate, the partition key and the throttling decision are already available (which is the case with the
+ * synchronous policies and strategies), the request is processed inline, without any intermediate promise.
+ *
+ * <p>A {@link CompletionAwareThrottlingStrategy} is notified once each accepted request has been handled, with the
+ * time spent by the next handler.
  */
 public class ThrottlingFilter implements Filter {
 
     private static final Logger logger = LoggerFactory.getLogger(ThrottlingFilter.class);
 
+    private static final int BAD_GATEWAY = 502;
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final int GATEWAY_TIMEOUT = 504;
+
     private final AsyncFunction<ContextAndRequest, String, Exception> requestGroupingPolicy;
     private final ThrottlingPolicy throttlingRatePolicy;
     private final ThrottlingStrategy throttlingStrategy;
@@ -85,65 +98,137 @@ public class ThrottlingFilter implements Filter {
                                                           final Handler next) {
         final Promise<ThrottlingRate, Exception> throttlingRatePromise =
                 throttlingRatePolicy.lookup(context, request);
-        final Promise<String, Exception> partitionKeyPromise =
-                newResultPromise(new ContextAndRequest(context, request))
-                        .thenAsync(requestGroupingPolicy);
+        final Promise<? extends String, ? extends Exception> partitionKeyPromise = partitionKey(context, request);
+
+        if (throttlingRatePromise.isDone() && partitionKeyPromise.isDone()) {
+            // Fast path: the rate and the partition key are already resolved, so decide inline
+            return throttle(context, request, next, throttlingRatePromise, partitionKeyPromise);
+        }
 
         return whenAllDone(throttlingRatePromise, partitionKeyPromise)
                 .thenAsync(new AsyncFunction<Void, Response, NeverThrowsException>() {
                     @Override
-                    public Promise<? extends Response, ? extends NeverThrowsException> apply(Void ignore) {
-                        try {
-                            String partitionKey = partitionKeyPromise.get();
-                            if (partitionKey == null) {
-                                logger.error("Did not expect a null value for the partition key after "
-                                                     + "having evaluated the function");
-                                return newResponsePromise(newInternalServerError());
-                            }
-
-                            ThrottlingRate throttlingRate = throttlingRatePromise.get();
-                            if (throttlingRate == null) {
-                                logger.trace("No throttling throttlingRate to apply.");
-                                // Can't apply any restrictions, continue the chain with no restriction
-                                return next.handle(context, request);
-                            }
-
-                            return throttlingStrategy.throttle(partitionKey, throttlingRate)
-                                                     .thenAsync(applyThrottlingDecision());
-                        } catch (ExecutionException | InterruptedException | IllegalArgumentException e) {
-                            return newResponsePromise(newInternalServerError(e));
-                        }
+                    public Promise<Response, NeverThrowsException> apply(Void ignore) {
+                        return throttle(context, request, next, throttlingRatePromise, partitionKeyPromise);
                     }
+                });
+    }
 
-                    private AsyncFunction<Long, Response, NeverThrowsException> applyThrottlingDecision() {
-                        return new AsyncFunction<Long, Response, NeverThrowsException>() {
-                            @Override
-                            public Promise<? extends Response, ? extends NeverThrowsException> apply(Long delay) {
-                                if (delay <= 0) {
-                                    return next.handle(context, request);
-                                }
-                                return newResponsePromise(tooManyRequests(delay));
-                            }
-                        };
-                    }
+    private Promise<? extends String, ? extends Exception> partitionKey(final Context context,
+                                                                        final Request request) {
+        try {
+            return requestGroupingPolicy.apply(new ContextAndRequest(context, request));
+        } catch (Exception e) {
+            return Promises.<String, Exception>newExceptionPromise(e);
+        }
+    }
 
-                    private Response tooManyRequests(long delay) {
-                        // http://tools.ietf.org/html/rfc6585#section-4
-                        Response response = new Response(Status.TOO_MANY_REQUESTS);
-                        // http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.37
-                        response.getHeaders().add("Retry-After", computeRetryAfter(delay));
-                        return response;
-                    }
+    /**
+     * Applies the throttling once both the rate and the partition key are resolved.
+     */
+    private Promise<Response, NeverThrowsException> throttle(final Context context,
+                                                             final Request request,
+                                                             final Handler next,
+                                                             final Promise<ThrottlingRate, Exception> ratePromise,
+                                                             final Promise<? extends String, ?> partitionKeyPromise) {
+        try {
+            final String partitionKey = partitionKeyPromise.get();
+            if (partitionKey == null) {
+                logger.error("Did not expect a null value for the partition key after having evaluated the function");
+                return newResponsePromise(newInternalServerError());
+            }
 
-                    private String computeRetryAfter(final long delay) {
-                        // According to the Javadoc of TimeUnit.convert : 999 ms => 0 sec, but we want to answer 1 sec.
-                        //  999 + 999 = 1998 => 1 second
-                        // 1000 + 999 = 1999 => 1 second
-                        // 1001 + 999 = 2000 => 2 seconds
-                        return Long.toString(SECONDS.convert(delay + 999L, MILLISECONDS));
-                    }
+            final ThrottlingRate throttlingRate = ratePromise.get();
+            if (throttlingRate == null) {
+                logger.trace("No throttling throttlingRate to apply.");
+                // Can't apply any restrictions, continue the chain with no restriction
+                return next.handle(context, request);
+            }
 
-                });
+            Promise<Long, NeverThrowsException> delayPromise = throttlingStrategy.throttle(partitionKey,
+                                                                                           throttlingRate);
+            if (delayPromise.isDone()) {
+                return applyThrottlingDecision(context,
+                                               request,
+                                               next,
+                                               partitionKey,
+                                               throttlingRate,
+                                               delayPromise.get());
+            }
+            return delayPromise.thenAsync(new AsyncFunction<Long, Response, NeverThrowsException>() {
+                @Override
+                public Promise<Response, NeverThrowsException> apply(Long delay) {
+                    return applyThrottlingDecision(context, request, next, partitionKey, throttlingRate, delay);
+                }
+            });
+        } catch (ExecutionException | InterruptedException | IllegalArgumentException e) {
+            return newResponsePromise(newInternalServerError(e));
+        }
+    }
+
+    private Promise<Response, NeverThrowsException> applyThrottlingDecision(final Context context,
+                                                                            final Request request,
+                                                                            final Handler next,
+                                                                            final String partitionKey,
+                                                                            final ThrottlingRate throttlingRate,
+                                                                            final long delay) {
+        if (delay > 0) {
+            return newResponsePromise(tooManyRequests(delay));
+        }
+        if (!(throttlingStrategy instanceof CompletionAwareThrottlingStrategy)) {
+            return next.handle(context, request);
+        }
+
+        final CompletionAwareThrottlingStrategy strategy = (CompletionAwareThrottlingStrategy) throttlingStrategy;
+        final long start = System.nanoTime();
+        final Promise<Response, NeverThrowsException> promise;
+        try {
+            promise = next.handle(context, request);
+        } catch (RuntimeException e) {
+            // The strategy expects exactly one completion per admitted request
+            strategy.onCompletion(partitionKey, throttlingRate, System.nanoTime() - start, true);
+            return newResponsePromise(newInternalServerError(e));
+        }
+        return promise
+                   .thenOnResult(new ResultHandler<Response>() {
+                       @Override
+                       public void handleResult(Response response) {
+                           strategy.onCompletion(partitionKey,
+                                                 throttlingRate,
+                                                 System.nanoTime() - start,
+                                                 isOverloaded(response));
+                       }
+                   })
+                   .thenOnRuntimeException(new RuntimeExceptionHandler() {
+                       @Override
+                       public void handleRuntimeException(RuntimeException exception) {
+                           strategy.onCompletion(partitionKey, throttlingRate, System.nanoTime() - start, true);
+                       }
+                   });
+    }
+
+    private static boolean isOverloaded(final Response response) {
+        if (response == null || response.getStatus() == null) {
+            return false;
+        }
+        int code = response.getStatus().getCode();
+        return code == BAD_GATEWAY || code == SERVICE_UNAVAILABLE || code == GATEWAY_TIMEOUT;
+    }
+
+    private static Response tooManyRequests(long delay) {
+        // http://tools.ietf.org/html/rfc6585#section-4
+        Response response = new Response(Status.TOO_MANY_REQUESTS);
+        // http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.37
+        response.getHeaders().add("Retry-After", computeRetryAfter(delay));
+        return response;
+    }
+
+    private static String computeRetryAfter(final long delay) {
+        // According to the Javadoc of TimeUnit.convert : 999 ms => 0 sec, but we want to answer 1 sec.
+        //  999 + 999 = 1998 => 1 second
+        // 1000 + 999 = 1999 => 1 second
+        // 1001 + 999 = 2000 => 2 seconds
+        return Long.toString(SECONDS.convert(delay + 999L, MILLISECONDS));
     }
 
     private static Promise<Void, NeverThrowsException> whenAllDone(final Promise<?, ?>... promises) {
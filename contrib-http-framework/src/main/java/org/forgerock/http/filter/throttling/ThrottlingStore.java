@@ -0,0 +1,50 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import org.forgerock.util.promise.Promise;
+
+/**
+ * This interface defines the contract of a store holding the token buckets shared by several gateway instances, used
+ * by the {@link DistributedThrottlingStrategy}. Implementations are expected to be backed by a shared service (a
+ * database, a distributed cache...) and to update the buckets atomically.
+ *
+ * @see LoopbackThrottlingStore
+ */
+public interface ThrottlingStore {
+
+    /**
+     * Consumes as many tokens as possible, up to {@literal tokens}, from the shared bucket identified by the given
+     * partition key and rate.
+     *
+     * @param partitionKey the key used to identify the different groups
+     * @param throttlingRate the throttling rate to apply
+     * @param tokens the maximum number of tokens to consume
+     * @return a {@link Promise} of the granted tokens, failed if the store is not available
+     */
+    Promise<TokenLease, Exception> acquire(String partitionKey, ThrottlingRate throttlingRate, int tokens);
+
+    /**
+     * Gives back tokens that have been acquired but not used.
+     *
+     * @param partitionKey the key used to identify the different groups
+     * @param throttlingRate the throttling rate to apply
+     * @param tokens the number of unused tokens
+     * @return a {@link Promise} completed once the tokens have been given back
+     */
+    Promise<Void, Exception> release(String partitionKey, ThrottlingRate throttlingRate, int tokens);
+
+}
@@ -18,7 +18,7 @@ package org.forgerock.http.filter.throttling;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import org.forgerock.guava.common.base.Ticker;
 import org.forgerock.util.Reject;
@@ -53,30 +53,41 @@ import org.forgerock.util.Reject;
  * }
  * </pre>
  *
+ * <p>The whole state of the bucket is packed into a single {@code long}: the <em>theoretical arrival time</em> of the
+ * next request (a.k.a. the Generic Cell Rate Algorithm). Each consumed token pushes that time forward by the delay
+ * between 2 tokens, and a token can be consumed as long as that time is not further in the future than the bucket's
+ * capacity allows. Consuming a token is then a single compare-and-set on a primitive field: no object is allocated,
+ * and a rejected call does not write anything (which avoids CAS retry storms on a hot, empty bucket).
+ *
  * @see https://en.wikipedia.org/wiki/Token_bucket
  */
 class TokenBucket {
 
     /**
-     * This value class holds the state of the enclosing TokenBucket.
+     * Value of the state before the first consumption.
      */
-    private static final class State {
-        private final long timestampLastRefill;
-        private final long counter;
+    private static final long UNUSED = Long.MIN_VALUE;
 
-        State(long counter, long timestampLastRefill) {
-            this.counter = counter;
-            this.timestampLastRefill = timestampLastRefill;
-        }
-    }
+    private static final AtomicLongFieldUpdater<TokenBucket> STATE =
+            AtomicLongFieldUpdater.newUpdater(TokenBucket.class, "theoreticalArrivalTime");
 
     private final Ticker ticker;
     private final ThrottlingRate throttlingRate;
     private final int capacity;
-    private final long duration; // in nanoseconds
-    private final AtomicReference<State> state;
     private final long nanosToWaitForNextToken;
 
+    /**
+     * How far in the future (in nanoseconds) the theoretical arrival time can be for a token to be consumed: a full
+     * bucket allows a burst of {@literal capacity} tokens.
+     */
+    private final long burstTolerance;
+
+    /**
+     * The ticker value (in nanoseconds) when the bucket will be full again, {@link #UNUSED} if no token has been
+     * consumed yet. Only accessed through {@link #STATE}.
+     */
+    private volatile long theoreticalArrivalTime = UNUSED;
+
     /**
      * Construct a TokenBucket.
      *
@@ -90,9 +101,8 @@ class TokenBucket {
         this.ticker = ticker;
         this.throttlingRate = rate;
         this.capacity = rate.getNumberOfRequests();
-        this.duration = rate.getDuration().to(NANOSECONDS);
         this.nanosToWaitForNextToken = rate.delayBetweenRequests(NANOSECONDS);
-        this.state = new AtomicReference<>();
+        this.burstTolerance = (capacity - 1) * nanosToWaitForNextToken;
     }
 
     /**
@@ -107,31 +117,16 @@ class TokenBucket {
         do {
             final long now = ticker.read();
 
-            final State currentState = state.get();
-            final State newState;
-            if (currentState == null) {
-                // First ticker, start at full capacity minus the current call.
-                newState = new State(capacity - 1, now);
-            } else {
-                long timestampLastRefill = currentState.timestampLastRefill;
-                long counter = currentState.counter;
-                long newTokens = tokensThatCanBeAdded(now, currentState);
-                // Refill the bucket as much as possible
-                if (newTokens > 0) {
-                    timestampLastRefill = now;
-                    counter = Math.min(capacity, currentState.counter + newTokens);
-                }
-
-                if (counter <= 0) {
-                    // We had not any opportunity to refill the bucket so we just give up
-                    long delayForNextRetry = (currentState.timestampLastRefill + this.nanosToWaitForNextToken) - now;
-                    // Return at least 1ms to indicate we did not consume a token
-                    return Math.max(1, MILLISECONDS.convert(delayForNextRetry, NANOSECONDS));
-                }
-                counter--;
-                newState = new State(counter, timestampLastRefill);
+            final long current = STATE.get(this);
+            final long arrivalTime = arrivalTime(current, now);
+            final long ahead = arrivalTime - now;
+            if (ahead > burstTolerance) {
+                // The bucket is empty: give up without touching the state
+                long delayForNextRetry = ahead - burstTolerance;
+                // Return at least 1ms to indicate we did not consume a token
+                return Math.max(1, MILLISECONDS.convert(delayForNextRetry, NANOSECONDS));
             }
-            if (state.compareAndSet(currentState, newState)) {
+            if (STATE.compareAndSet(this, current, arrivalTime + nanosToWaitForNextToken)) {
                 // We succeeded to consume a token and to update the bucket's state
                 return 0;
             }
@@ -139,32 +134,103 @@ class TokenBucket {
         } while (true);
     }
 
-    private long tokensThatCanBeAdded(long now, State state) {
-        final long elapsedTime = Math.min(duration, now - state.timestampLastRefill);
-        return elapsedTime / this.nanosToWaitForNextToken;
+    /**
+     * Consumes as many tokens as possible from the bucket, up to the given number, at once.
+     *
+     * @param maxTokens the maximum number of tokens to consume
+     * @return the number of consumed tokens, 0 if the bucket is empty
+     */
+    int consume(int maxTokens) {
+        do {
+            final long now = ticker.read();
+
+            final long current = STATE.get(this);
+            final long arrivalTime = arrivalTime(current, now);
+            final long ahead = arrivalTime - now;
+            if (ahead > burstTolerance || maxTokens <= 0) {
+                return 0;
+            }
+            final int tokens = (int) Math.min(maxTokens, (burstTolerance - ahead) / nanosToWaitForNextToken + 1);
+            if (STATE.compareAndSet(this, current, arrivalTime + tokens * nanosToWaitForNextToken)) {
+                return tokens;
+            }
+        } while (true);
+    }
+
+    /**
+     * Gives back tokens that have been consumed but finally not used.
+     *
+     * @param tokens the number of tokens to give back
+     */
+    void refund(int tokens) {
+        do {
+            final long current = STATE.get(this);
+            if (current == UNUSED || tokens <= 0) {
+                return;
+            }
+            // The bucket cannot be filled over its capacity: arrivalTime() brings a time in the past back to now
+            if (STATE.compareAndSet(this, current, current - tokens * nanosToWaitForNextToken)) {
+                return;
+            }
+        } while (true);
+    }
+
+    /**
+     * Returns the delay to wait before a token can be consumed, without consuming it.
+     *
+     * @return the delay (in milliseconds) to wait before a token can be consumed, 0 if one is available now
+     */
+    long getDelayForNextToken() {
+        final long now = ticker.read();
+        final long ahead = arrivalTime(STATE.get(this), now) - now;
+        if (ahead > burstTolerance) {
+            return Math.max(1, MILLISECONDS.convert(ahead - burstTolerance, NANOSECONDS));
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the theoretical arrival time to consider at the given instant: a bucket cannot be filled over its
+     * capacity, so a time in the past is brought back to now.
+     */
+    private static long arrivalTime(long state, long now) {
+        if (state == UNUSED || state - now < 0) {
+            return now;
+        }
+        return state;
     }
 
     long getRemainingTokensCount() {
-        State currentState = state.get();
-        return currentState == null ? capacity : currentState.counter;
+        final long now = ticker.read();
+        final long ahead = arrivalTime(STATE.get(this), now) - now;
+        if (ahead > burstTolerance) {
+            return 0;
+        }
+        return Math.min(capacity, (burstTolerance + nanosToWaitForNextToken - ahead) / nanosToWaitForNextToken);
     }
 
-    public ThrottlingRate getThrottlingRate() {
-        return throttlingRate;
+    /**
+     * Returns the ticker value (in nanoseconds) when this bucket will be full again, and thus expired, provided that no
+     * more token is consumed. A bucket that has not been used yet is considered as being about to be used.
+     * @return the ticker value when this bucket will expire
+     */
+    long getExpirationTime() {
+        final long current = STATE.get(this);
+        return current == UNUSED ? ticker.read() + nanosToWaitForNextToken : current;
     }
 
-    private long getTimestampLastRefill() {
-        State currentState = state.get();
-        return currentState.timestampLastRefill;
+    public ThrottlingRate getThrottlingRate() {
+        return throttlingRate;
     }
 
     /**
-     * Returns whether this token bucket is expired or not, meaning that the difference between now and the last refill
-     * is greater than the bucket's duration.
+     * Returns whether this token bucket is expired or not, meaning that it has not been used for long enough to be
+     * completely refilled: dropping it is harmless, as a new bucket would behave exactly the same.
      * @return whether this token bucket is expired or not
      */
     public boolean isExpired() {
-        return (ticker.read() - getTimestampLastRefill()) > duration;
+        final long current = STATE.get(this);
+        return current == UNUSED || ticker.read() - current >= 0;
     }
 
 }
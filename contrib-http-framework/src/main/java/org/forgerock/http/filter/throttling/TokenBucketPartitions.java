@@ -0,0 +1,280 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import static org.forgerock.util.Reject.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.forgerock.guava.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the {@link TokenBucket}s of a {@link TokenBucketThrottlingStrategy}, indexed by partition key, and orders them
+ * by expiration time so that the cleaning only touches the partitions that are due, instead of scanning all of them.
+ *
+ * <p>The expirations are grouped in slots of {@literal resolution} nanoseconds (the cleaning interval). A bucket is
+ * scheduled in the slot of its expiration time when it is created; consuming tokens does not touch the index. When its
+ * slot is due, a bucket is either removed (it is expired) or re-scheduled in the slot of its actual expiration time:
+ * a partition is visited at most once per expiration period, whatever the total number of partitions.
+ *
+ * <p>The number of partitions can also be bounded: once the bound is exceeded, the partitions that are the closest to
+ * their expiration (that is, the least recently used ones, weighted by their usage) are evicted. As these buckets are
+ * almost refilled, evicting them has the least impact on the throttling.
+ *
+ * <p>Lookups and insertions are lock-free. The ordered index is only accessed while holding a lock, by the cleaning
+ * task or by the thread that exceeded the bound (which never waits for the lock: if it is already held, the eviction is
+ * left to its owner). Newly created buckets are handed to the index through a concurrent queue.
+ */
+final class TokenBucketPartitions {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenBucketPartitions.class);
+
+    /**
+     * A scheduled expiration check.
+     */
+    private static final class Expiry {
+        private final String key;
+        private final TokenBucket bucket;
+        private long slot;
+
+        Expiry(final String key, final TokenBucket bucket) {
+            this.key = key;
+            this.bucket = bucket;
+        }
+    }
+
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Queue<Expiry> pending = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Guarded by lock
+    private final NavigableMap<Long, Deque<Expiry>> expirations = new TreeMap<>();
+
+    private final Ticker ticker;
+    private final long origin;
+    private final long resolution;
+    private final int maxPartitions;
+
+    /**
+     * Constructs a new {@link TokenBucketPartitions}.
+     *
+     * @param ticker the {@link Ticker} to use to follow the timeline.
+     * @param resolution the width of the expiration slots, in nanoseconds.
+     * @param maxPartitions the maximum number of partitions, {@link Integer#MAX_VALUE} for no bound.
+     */
+    TokenBucketPartitions(final Ticker ticker, final long resolution, final int maxPartitions) {
+        if (resolution <= 0 || maxPartitions <= 0) {
+            throw new IllegalArgumentException("The resolution and the maximum number of partitions have to be "
+                                                       + "greater than 0");
+        }
+        this.ticker = checkNotNull(ticker);
+        this.origin = ticker.read();
+        this.resolution = resolution;
+        this.maxPartitions = maxPartitions;
+    }
+
+    TokenBucket get(final String key) {
+        return buckets.get(key);
+    }
+
+    /**
+     * Returns the bucket to use for the given partition and rate, creating it (or replacing the bucket of a previous
+     * rate) if needed.
+     *
+     * @param key the partition key
+     * @param rate the rate to apply to this partition
+     * @return the bucket to use
+     */
+    TokenBucket select(final String key, final ThrottlingRate rate) {
+        for (;;) {
+            TokenBucket previousBucket = get(key);
+            if (previousBucket == null) {
+                TokenBucket newBucket = new TokenBucket(ticker, rate);
+                previousBucket = putIfAbsent(key, newBucket);
+                if (previousBucket == null) {
+                    // There was no previous TokenBucket, so go on with that freshly created one
+                    return newBucket;
+                }
+            }
+            if (previousBucket.getThrottlingRate().equals(rate)) {
+                // Same rate : let's continue with the previous one as it may already be processing some requests
+                return previousBucket;
+            }
+            // The rate definition has changed so try to assign this new TokenBucket
+            TokenBucket newBucket = new TokenBucket(ticker, rate);
+            if (replace(key, previousBucket, newBucket)) {
+                return newBucket;
+            }
+            // The rate definition was not the same but has already been updated,
+            // let's loop once more to see if we get more chance.
+        }
+    }
+
+    /**
+     * Adds the given bucket, unless there is already one for that key.
+     *
+     * @param key the partition key
+     * @param bucket the new bucket
+     * @return the existing bucket, or {@code null} if the given one has been added
+     */
+    TokenBucket putIfAbsent(final String key, final TokenBucket bucket) {
+        TokenBucket previous = buckets.putIfAbsent(key, bucket);
+        if (previous == null) {
+            pending.offer(new Expiry(key, bucket));
+            if (size.incrementAndGet() > maxPartitions) {
+                evict();
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Replaces the bucket of the given partition, only if it is still the expected one.
+     *
+     * @param key the partition key
+     * @param previous the expected bucket
+     * @param bucket the new bucket
+     * @return {@code true} if the bucket has been replaced
+     */
+    boolean replace(final String key, final TokenBucket previous, final TokenBucket bucket) {
+        if (buckets.replace(key, previous, bucket)) {
+            pending.offer(new Expiry(key, bucket));
+            return true;
+        }
+        return false;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Removes the expired buckets among those whose expiration slot is due.
+     */
+    void cleanExpired() {
+        lock.lock();
+        try {
+            final long now = slot(ticker.read());
+            drainPending(now);
+            while (!expirations.isEmpty() && expirations.firstKey() <= now) {
+                for (Expiry expiry : expirations.pollFirstEntry().getValue()) {
+                    if (!isCurrent(expiry)) {
+                        continue;
+                    }
+                    if (expiry.bucket.isExpired()) {
+                        remove(expiry);
+                        logger.trace("Cleaned the partition {}", expiry.key);
+                    } else {
+                        schedule(expiry, Math.max(slot(expiry.bucket.getExpirationTime()), now + 1));
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the buckets.
+     */
+    void clear() {
+        lock.lock();
+        try {
+            buckets.clear();
+            pending.clear();
+            expirations.clear();
+            size.set(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evict() {
+        if (!lock.tryLock()) {
+            // Someone else is already cleaning or evicting
+            return;
+        }
+        try {
+            drainPending(slot(ticker.read()));
+            while (size.get() > maxPartitions && !expirations.isEmpty()) {
+                Map.Entry<Long, Deque<Expiry>> first = expirations.firstEntry();
+                Expiry expiry = first.getValue().pollFirst();
+                if (first.getValue().isEmpty()) {
+                    expirations.remove(first.getKey());
+                }
+                if (expiry == null || !isCurrent(expiry)) {
+                    continue;
+                }
+                long actual = slot(expiry.bucket.getExpirationTime());
+                if (actual > expiry.slot) {
+                    // Used since it has been scheduled: put it back at its actual place
+                    schedule(expiry, actual);
+                } else {
+                    remove(expiry);
+                    logger.trace("Evicted the partition {}", expiry.key);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drainPending(final long now) {
+        Expiry expiry;
+        while ((expiry = pending.poll()) != null) {
+            long slot = slot(expiry.bucket.getExpirationTime());
+            // A bucket being created may not have been used yet: wait for the next cleaning before checking it
+            schedule(expiry, expiry.bucket.isExpired() ? Math.max(slot, now + 1) : slot);
+        }
+    }
+
+    private void schedule(final Expiry expiry, final long slot) {
+        expiry.slot = slot;
+        Deque<Expiry> expiries = expirations.get(slot);
+        if (expiries == null) {
+            expiries = new ArrayDeque<>();
+            expirations.put(slot, expiries);
+        }
+        expiries.addLast(expiry);
+    }
+
+    private boolean isCurrent(final Expiry expiry) {
+        return buckets.get(expiry.key) == expiry.bucket;
+    }
+
+    private void remove(final Expiry expiry) {
+        if (buckets.remove(expiry.key, expiry.bucket)) {
+            size.decrementAndGet();
+        }
+    }
+
+    private long slot(final long time) {
+        return (time - origin) / resolution;
+    }
+}
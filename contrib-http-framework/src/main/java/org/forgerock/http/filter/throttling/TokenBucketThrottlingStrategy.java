@@ -17,14 +17,11 @@
 package org.forgerock.http.filter.throttling;
 
 import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.forgerock.util.Reject.checkNotNull;
 import static org.forgerock.util.promise.Promises.newResultPromise;
 import static org.forgerock.util.time.Duration.duration;
 
-import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 
@@ -40,29 +37,23 @@ import org.slf4j.LoggerFactory;
  * that gives us the ability to handle rate limits through a sliding window. Multiple rates can be supported in
  * parallel with the support of a partition key (we first try to find the bucket to use for each incoming request, then
  * we apply the rate limit).
+ *
+ * <p>The partitions are indexed by expiration time, so the cleaning task only visits those whose expiration is due.
+ * The number of partitions can also be bounded, so that the memory stays flat even with a very large number of
+ * partition keys (for example, one per client IP address).
  */
 public class TokenBucketThrottlingStrategy implements ThrottlingStrategy {
 
     private static final Logger logger = LoggerFactory.getLogger(TokenBucketThrottlingStrategy.class);
 
-    private final Ticker ticker;
-    private final ConcurrentMap<String, TokenBucket> partitions;
+    private final TokenBucketPartitions partitions;
     private final ScheduledFuture<?> cleaningFuture;
 
     private class CleaningThread implements Runnable {
 
         @Override
         public void run() {
-            final ConcurrentMap<String, TokenBucket> buckets = TokenBucketThrottlingStrategy.this.partitions;
-            Iterator<Map.Entry<String, TokenBucket>> iterator = buckets.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<String, TokenBucket> entry = iterator.next();
-                TokenBucket tokenBucket = entry.getValue();
-                if (tokenBucket.isExpired()) {
-                    iterator.remove();
-                    logger.trace("Cleaned the partition {}", entry.getKey());
-                }
-            }
+            partitions.cleanExpired();
         }
 
     }
@@ -77,19 +68,29 @@ public class TokenBucketThrottlingStrategy implements ThrottlingStrategy {
     public TokenBucketThrottlingStrategy(Ticker ticker,
                                          ScheduledExecutorService scheduledExecutor,
                                          Duration cleaningInterval) {
-        this(ticker, new ConcurrentHashMap<String, TokenBucket>(), scheduledExecutor, cleaningInterval);
+        this(ticker, scheduledExecutor, cleaningInterval, Integer.MAX_VALUE);
     }
 
-    TokenBucketThrottlingStrategy(Ticker ticker,
-                                  ConcurrentMap<String, TokenBucket> partitions,
-                                  ScheduledExecutorService scheduledExecutor,
-                                  Duration cleaningInterval) {
-        this.ticker = checkNotNull(ticker);
-        this.partitions = checkNotNull(partitions);
+    /**
+     * Constructs a new {@link TokenBucketThrottlingStrategy} holding a bounded number of partitions.
+     *
+     * @param ticker the {@link Ticker} to use to follow the timeline.
+     * @param scheduledExecutor the {@link ScheduledExecutorService} used to schedule cleaning tasks.
+     * @param cleaningInterval the interval between 2 cleaning tasks.
+     * @param maxPartitions the maximum number of partitions: once exceeded, the partitions the closest to their
+     * expiration are evicted.
+     */
+    public TokenBucketThrottlingStrategy(Ticker ticker,
+                                         ScheduledExecutorService scheduledExecutor,
+                                         Duration cleaningInterval,
+                                         int maxPartitions) {
         if (cleaningInterval.isZero() || cleaningInterval.compareTo(duration(1, DAYS)) > 0) {
             throw new IllegalArgumentException("Invalid value for cleaningInterval : "
                                                        + "it has to be in the range ]0, 1 day]");
         }
+        this.partitions = new TokenBucketPartitions(checkNotNull(ticker),
+                                                    cleaningInterval.to(NANOSECONDS),
+                                                    maxPartitions);
         this.cleaningFuture = scheduledExecutor.scheduleWithFixedDelay(new CleaningThread(),
                                                                        0, // no delay
                                                                        cleaningInterval.getValue(),
@@ -98,36 +99,21 @@ public class TokenBucketThrottlingStrategy implements ThrottlingStrategy {
 
     @Override
     public Promise<Long, NeverThrowsException> throttle(String partitionKey, ThrottlingRate throttlingRate) {
-        TokenBucket bucket = selectTokenBucket(partitionKey, throttlingRate);
-        logger.trace("Applying rate {} ({} remaining tokens)",
-                     bucket.getThrottlingRate(),
-                     bucket.getRemainingTokensCount());
+        TokenBucket bucket = partitions.select(partitionKey, throttlingRate);
+        if (logger.isTraceEnabled()) {
+            logger.trace("Applying rate {} ({} remaining tokens)",
+                         bucket.getThrottlingRate(),
+                         bucket.getRemainingTokensCount());
+        }
         return newResultPromise(bucket.tryConsume());
     }
 
-    private TokenBucket selectTokenBucket(String partitionKey, ThrottlingRate rate) {
-        for (;;) {
-            TokenBucket previousBucket = partitions.get(partitionKey);
-            if (previousBucket == null) {
-                TokenBucket newBucket = new TokenBucket(ticker, rate);
-                previousBucket = partitions.putIfAbsent(partitionKey, newBucket);
-                if (previousBucket == null) {
-                    // There was no previous TokenBucket, so go on with that freshly created one
-                    return newBucket;
-                }
-            }
-            if (previousBucket.getThrottlingRate().equals(rate)) {
-                // Same rate : let's continue with the previous one as it may already be processing some requests
-                return previousBucket;
-            }
-            // The rate definition has changed so try to assign this new TokenBucket
-            TokenBucket newBucket = new TokenBucket(ticker, rate);
-            if (partitions.replace(partitionKey, previousBucket, newBucket)) {
-                return newBucket;
-            }
-            // The rate definition was not the same but has already been updated,
-            // let's loop once more to see if we get more chance.
-        }
+    /**
+     * Returns the current number of partitions.
+     * @return the current number of partitions
+     */
+    int getPartitionsCount() {
+        return partitions.size();
     }
 
     @Override
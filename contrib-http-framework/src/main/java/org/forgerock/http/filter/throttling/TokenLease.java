@@ -0,0 +1,63 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+package org.forgerock.http.filter.throttling;
+
+import static org.forgerock.util.Reject.ifTrue;
+
+/**
+ * The answer of a {@link ThrottlingStore} to a request for tokens: the number of tokens granted (that may be lower
+ * than the requested number), and when none has been granted, the delay to wait before the next token is available.
+ */
+public final class TokenLease {
+
+    private final int tokens;
+    private final long retryAfter;
+
+    /**
+     * Constructs a new {@link TokenLease}.
+     *
+     * @param tokens the number of granted tokens.
+     * @param retryAfter the delay (in milliseconds) to wait before a token is available, only meaningful when no token
+     * has been granted.
+     */
+    public TokenLease(int tokens, long retryAfter) {
+        ifTrue(tokens < 0, "The number of tokens can't be negative.");
+        ifTrue(retryAfter < 0, "The delay can't be negative.");
+        this.tokens = tokens;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns the number of granted tokens.
+     * @return the number of granted tokens
+     */
+    public int getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Returns the delay (in milliseconds) to wait before a token is available.
+     * @return the delay (in milliseconds) to wait before a token is available
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    @Override
+    public String toString() {
+        return tokens + " token(s), retry after " + retryAfter + " ms";
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.http.filter.throttling;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.http.filter.throttling.ThrottlingAssertions.assertAccepted;
+import static org.forgerock.http.filter.throttling.ThrottlingAssertions.assertRejected;
+import static org.forgerock.util.time.Duration.duration;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.util.time.Duration;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class AdaptiveConcurrencyThrottlingStrategyTest {
+
+    /** At most 4 concurrent requests, the minimum latency being measured over 10 seconds. */
+    private static final ThrottlingRate FOUR_CONCURRENT = new ThrottlingRate(4, duration(10, SECONDS));
+    private static final String FOO = "foo";
+    private static final String BAR = "bar";
+
+    private static final long FAST = MILLISECONDS.toNanos(10L);
+    private static final long SLOW = MILLISECONDS.toNanos(50L);
+
+    private static final Duration CLEANING_INTERVAL = Duration.duration("5 seconds");
+
+    AdaptiveConcurrencyThrottlingStrategy strategy;
+    FakeTicker ticker;
+    Runnable cleaning;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        ticker = new FakeTicker();
+        ScheduledExecutorService scheduledExecutor = mock(ScheduledExecutorService.class);
+        when(scheduledExecutor.scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class)))
+                .thenReturn(mock(ScheduledFuture.class));
+
+        strategy = new AdaptiveConcurrencyThrottlingStrategy(ticker, scheduledExecutor, CLEANING_INTERVAL);
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduledExecutor).scheduleWithFixedDelay(captor.capture(), anyLong(), anyLong(), any(TimeUnit.class));
+        cleaning = captor.getValue();
+    }
+
+    @AfterMethod
+    public void afterMethod() {
+        strategy.stop();
+    }
+
+    @Test
+    public void shouldLimitTheConcurrentRequests() throws Exception {
+        acceptRequests(FOO, 4);
+        assertRejected(strategy.throttle(FOO, FOUR_CONCURRENT).get());
+        assertAccepted(strategy.throttle(BAR, FOUR_CONCURRENT).get());
+
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, FAST, false);
+        assertAccepted(strategy.throttle(FOO, FOUR_CONCURRENT).get());
+        assertRejected(strategy.throttle(FOO, FOUR_CONCURRENT).get());
+    }
+
+    @Test
+    public void shouldDecreaseTheLimitWhenTheLatencyIncreases() throws Exception {
+        acceptRequests(FOO, 4);
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, FAST, false);
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, SLOW, false);
+        assertThat(strategy.getLimit(FOO)).isEqualTo(3);
+
+        // 2 requests in flight: a single one can be accepted
+        assertAccepted(strategy.throttle(FOO, FOUR_CONCURRENT).get());
+        long delay = strategy.throttle(FOO, FOUR_CONCURRENT).get();
+        assertRejected(delay);
+        // Advised to retry after the average latency
+        assertThat(delay).isBetween(10L, 50L);
+    }
+
+    @Test
+    public void shouldDecreaseTheLimitWhenTheBackendIsOverloaded() throws Exception {
+        acceptRequests(FOO, 4);
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, FAST, true);
+        assertThat(strategy.getLimit(FOO)).isEqualTo(3);
+
+        ticker.advance(10L, MILLISECONDS);
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, FAST, true);
+        ticker.advance(10L, MILLISECONDS);
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, FAST, true);
+        assertThat(strategy.getLimit(FOO)).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldDecreaseTheLimitAtMostOncePerRoundTrip() throws Exception {
+        acceptRequests(FOO, 4);
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, FAST, false);
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, SLOW, false);
+        assertThat(strategy.getLimit(FOO)).isEqualTo(3);
+
+        // These requests were sent before the limit was decreased
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, SLOW, false);
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, SLOW, true);
+        assertThat(strategy.getLimit(FOO)).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldIncreaseTheLimitBackWhenTheLatencyIsStable() throws Exception {
+        acceptRequests(FOO, 4);
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, FAST, false);
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, SLOW, false);
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, FAST, false);
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, FAST, false);
+        assertThat(strategy.getLimit(FOO)).isLessThan(4);
+
+        for (int round = 0; round < 10; round++) {
+            int accepted = 0;
+            while (strategy.throttle(FOO, FOUR_CONCURRENT).get() == 0) {
+                accepted++;
+            }
+            assertThat(accepted).isLessThanOrEqualTo(4);
+            for (int i = 0; i < accepted; i++) {
+                strategy.onCompletion(FOO, FOUR_CONCURRENT, FAST, false);
+            }
+        }
+        assertThat(strategy.getLimit(FOO)).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldIgnoreTheCompletionOfUnknownPartitions() throws Exception {
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, FAST, true);
+        assertThat(strategy.getLimit(FOO)).isEqualTo(-1);
+    }
+
+    @Test
+    public void shouldOnlyCleanTheIdlePartitions() throws Exception {
+        acceptRequests(FOO, 1);
+        acceptRequests(BAR, 1);
+        strategy.onCompletion(FOO, FOUR_CONCURRENT, SLOW, false);
+        ticker.advance(11L, SECONDS);
+
+        cleaning.run();
+
+        assertThat(strategy.getLimit(FOO)).isEqualTo(-1);
+        // A request is still in flight
+        assertThat(strategy.getLimit(BAR)).isEqualTo(4);
+
+        // A new limiter is used for the cleaned partition
+        acceptRequests(FOO, 4);
+        assertRejected(strategy.throttle(FOO, FOUR_CONCURRENT).get());
+    }
+
+    private void acceptRequests(String partitionKey, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            assertAccepted(strategy.throttle(partitionKey, FOUR_CONCURRENT).get());
+        }
+    }
+}
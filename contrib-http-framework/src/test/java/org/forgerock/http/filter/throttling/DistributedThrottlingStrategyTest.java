@@ -0,0 +1,202 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.http.filter.throttling;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.http.filter.throttling.ThrottlingAssertions.assertAccepted;
+import static org.forgerock.http.filter.throttling.ThrottlingAssertions.assertRejected;
+import static org.forgerock.util.time.Duration.duration;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.Promises;
+import org.forgerock.util.time.Duration;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class DistributedThrottlingStrategyTest {
+
+    private static final ThrottlingRate THROTTLING_RATE_100_PER_SEC = new ThrottlingRate(100, duration(1, SECONDS));
+    private static final ThrottlingRate THROTTLING_RATE_10_PER_SEC = new ThrottlingRate(10, duration(1, SECONDS));
+    private static final String FOO = "foo";
+
+    private static final Duration CLEANING_INTERVAL = duration("5 seconds");
+
+    private FakeTicker ticker;
+    private ScheduledExecutorService scheduledExecutor;
+    private ThrottlingStore store;
+    private ThrottlingStrategy fallback;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        ticker = new FakeTicker();
+        scheduledExecutor = mock(ScheduledExecutorService.class);
+        when(scheduledExecutor.scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class)))
+                .thenReturn(mock(ScheduledFuture.class));
+        store = spy(new LoopbackThrottlingStore(ticker, CLEANING_INTERVAL));
+        fallback = mock(ThrottlingStrategy.class);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRefuseInvalidLeaseSize() throws Exception {
+        newStrategy(0);
+    }
+
+    @Test
+    public void shouldEnforceTheRateAcrossSeveralInstances() throws Exception {
+        DistributedThrottlingStrategy first = newStrategy(DistributedThrottlingStrategy.DEFAULT_LEASE_SIZE);
+        DistributedThrottlingStrategy second = newStrategy(DistributedThrottlingStrategy.DEFAULT_LEASE_SIZE);
+
+        int accepted = 0;
+        for (int i = 0; i < 150; i++) {
+            if (throttle(first, THROTTLING_RATE_100_PER_SEC) == 0) {
+                accepted++;
+            }
+            if (throttle(second, THROTTLING_RATE_100_PER_SEC) == 0) {
+                accepted++;
+            }
+        }
+        assertThat(accepted).isEqualTo(100);
+
+        ticker.advance(1, SECONDS);
+        assertAccepted(throttle(first, THROTTLING_RATE_100_PER_SEC));
+        assertAccepted(throttle(second, THROTTLING_RATE_100_PER_SEC));
+    }
+
+    @Test
+    public void shouldConsumeTheLocalLeaseWithoutCallingTheStore() throws Exception {
+        DistributedThrottlingStrategy strategy = newStrategy(DistributedThrottlingStrategy.DEFAULT_LEASE_SIZE);
+
+        // Batches of 10 tokens: the first one is awaited, the second one is prefetched
+        for (int i = 0; i < 10; i++) {
+            assertAccepted(throttle(strategy, THROTTLING_RATE_100_PER_SEC));
+        }
+        verify(store, times(2)).acquire(FOO, THROTTLING_RATE_100_PER_SEC, 10);
+    }
+
+    @Test
+    public void shouldRejectLocallyUntilTheStoreGrantsTokensAgain() throws Exception {
+        DistributedThrottlingStrategy strategy = newStrategy(DistributedThrottlingStrategy.DEFAULT_LEASE_SIZE);
+        for (int i = 0; i < 10; i++) {
+            assertAccepted(throttle(strategy, THROTTLING_RATE_10_PER_SEC));
+        }
+        assertRejected(throttle(strategy, THROTTLING_RATE_10_PER_SEC));
+        assertRejected(throttle(strategy, THROTTLING_RATE_10_PER_SEC));
+        assertRejected(throttle(strategy, THROTTLING_RATE_10_PER_SEC));
+        // 10 batches of 1 token, and a single denied acquisition
+        verify(store, times(11)).acquire(FOO, THROTTLING_RATE_10_PER_SEC, 1);
+
+        ticker.advance(100, TimeUnit.MILLISECONDS);
+        assertAccepted(throttle(strategy, THROTTLING_RATE_10_PER_SEC));
+    }
+
+    @Test
+    public void shouldNotPrefetchWhileTheStoreDeniesTheTokens() throws Exception {
+        ThrottlingStore denyingStore = mock(ThrottlingStore.class);
+        when(denyingStore.acquire(anyString(), any(ThrottlingRate.class), anyInt()))
+                .thenReturn(Promises.<TokenLease, Exception>newResultPromise(new TokenLease(10, 0L)))
+                .thenReturn(Promises.<TokenLease, Exception>newResultPromise(new TokenLease(0, 500L)));
+        DistributedThrottlingStrategy strategy = new DistributedThrottlingStrategy(denyingStore,
+                                                                                   fallback,
+                                                                                   ticker,
+                                                                                   scheduledExecutor,
+                                                                                   CLEANING_INTERVAL,
+                                                                                   10);
+
+        // The prefetch of the second batch is denied: the last tokens of the lease do not trigger any other one
+        for (int i = 0; i < 10; i++) {
+            assertAccepted(throttle(strategy, THROTTLING_RATE_100_PER_SEC));
+        }
+        assertRejected(throttle(strategy, THROTTLING_RATE_100_PER_SEC));
+        verify(denyingStore, times(2)).acquire(FOO, THROTTLING_RATE_100_PER_SEC, 10);
+    }
+
+    @Test
+    public void shouldGiveTheUnusedTokensBackOnceTheLeaseHasExpired() throws Exception {
+        DistributedThrottlingStrategy strategy = newStrategy(DistributedThrottlingStrategy.DEFAULT_LEASE_SIZE);
+        assertAccepted(throttle(strategy, THROTTLING_RATE_100_PER_SEC));
+
+        ticker.advance(1, SECONDS);
+        assertAccepted(throttle(strategy, THROTTLING_RATE_100_PER_SEC));
+        verify(store).release(FOO, THROTTLING_RATE_100_PER_SEC, 9);
+    }
+
+    @Test
+    public void shouldGiveTheUnusedTokensBackWhenStopped() throws Exception {
+        DistributedThrottlingStrategy strategy = newStrategy(DistributedThrottlingStrategy.DEFAULT_LEASE_SIZE);
+        assertAccepted(throttle(strategy, THROTTLING_RATE_100_PER_SEC));
+
+        strategy.stop();
+        verify(store).release(FOO, THROTTLING_RATE_100_PER_SEC, 9);
+        verify(fallback).stop();
+    }
+
+    @Test
+    public void shouldUseTheFallbackStrategyWhenTheStoreIsNotAvailable() throws Exception {
+        ThrottlingStore failingStore = mock(ThrottlingStore.class);
+        when(failingStore.acquire(anyString(), any(ThrottlingRate.class), anyInt()))
+                .thenReturn(Promises.<TokenLease, Exception>newExceptionPromise(new Exception("Boom")));
+        when(fallback.throttle(eq(FOO), any(ThrottlingRate.class)))
+                .thenReturn(Promises.<Long, NeverThrowsException>newResultPromise(42L));
+        DistributedThrottlingStrategy strategy = new DistributedThrottlingStrategy(failingStore,
+                                                                                   fallback,
+                                                                                   ticker,
+                                                                                   scheduledExecutor,
+                                                                                   CLEANING_INTERVAL,
+                                                                                   10);
+
+        assertThat(throttle(strategy, THROTTLING_RATE_100_PER_SEC)).isEqualTo(42L);
+        assertThat(throttle(strategy, THROTTLING_RATE_100_PER_SEC)).isEqualTo(42L);
+        // The store is not called again before the retry delay
+        verify(failingStore, times(1)).acquire(anyString(), any(ThrottlingRate.class), anyInt());
+
+        ticker.advance(2, SECONDS);
+        throttle(strategy, THROTTLING_RATE_100_PER_SEC);
+        verify(failingStore, times(2)).acquire(anyString(), any(ThrottlingRate.class), anyInt());
+    }
+
+    private DistributedThrottlingStrategy newStrategy(int leaseSize) {
+        return new DistributedThrottlingStrategy(store,
+                                                 fallback,
+                                                 ticker,
+                                                 scheduledExecutor,
+                                                 CLEANING_INTERVAL,
+                                                 leaseSize);
+    }
+
+    private static long throttle(ThrottlingStrategy strategy, ThrottlingRate rate) throws Exception {
+        Promise<Long, NeverThrowsException> promise = strategy.throttle(FOO, rate);
+        assertThat(promise.isDone()).isTrue();
+        return promise.get();
+    }
+}
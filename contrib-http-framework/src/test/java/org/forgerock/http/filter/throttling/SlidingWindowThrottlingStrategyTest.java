@@ -0,0 +1,135 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.http.filter.throttling;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.forgerock.http.filter.throttling.ThrottlingAssertions.assertAccepted;
+import static org.forgerock.http.filter.throttling.ThrottlingAssertions.assertRejected;
+import static org.forgerock.util.time.Duration.duration;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.util.time.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class SlidingWindowThrottlingStrategyTest {
+
+    private static final ThrottlingRate TEN_PER_SEC = new ThrottlingRate(10, duration(1, SECONDS));
+    private static final ThrottlingRate TWENTY_PER_SEC = new ThrottlingRate(20, duration(1, SECONDS));
+    private static final String FOO = "foo";
+    private static final String BAR = "bar";
+
+    private static final Duration CLEANING_INTERVAL = Duration.duration("5 seconds");
+
+    SlidingWindowThrottlingStrategy strategy;
+    FakeTicker ticker;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        ticker = new FakeTicker();
+        ScheduledExecutorService scheduledExecutor = mock(ScheduledExecutorService.class);
+        when(scheduledExecutor.scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class)))
+                .thenReturn(mock(ScheduledFuture.class));
+
+        strategy = new SlidingWindowThrottlingStrategy(ticker, scheduledExecutor, CLEANING_INTERVAL);
+    }
+
+    @AfterMethod
+    public void afterMethod() {
+        strategy.stop();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRefuseAZeroCleaningInterval() throws Exception {
+        new SlidingWindowThrottlingStrategy(ticker, mock(ScheduledExecutorService.class), Duration.ZERO);
+    }
+
+    @Test
+    public void shouldNotAcceptMoreThanTheRateOverTheSlidingWindow() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertAccepted(strategy.throttle(FOO, TEN_PER_SEC).get());
+        }
+        assertRejected(strategy.throttle(FOO, TEN_PER_SEC).get());
+
+        ticker.advance(500, MILLISECONDS);
+        assertRejected(strategy.throttle(FOO, TEN_PER_SEC).get());
+
+        // A new fixed window has started, but 85% of the sliding window still overlaps the previous one:
+        // unlike with a fixed window, only a single request is accepted
+        ticker.advance(650, MILLISECONDS);
+        assertAccepted(strategy.throttle(FOO, TEN_PER_SEC).get());
+        assertRejected(strategy.throttle(FOO, TEN_PER_SEC).get());
+    }
+
+    @Test
+    public void shouldReturnTheDelayToWaitForTheNextAcceptedTry() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertAccepted(strategy.throttle(FOO, TEN_PER_SEC).get());
+        }
+        ticker.advance(1200, MILLISECONDS);
+        assertAccepted(strategy.throttle(FOO, TEN_PER_SEC).get());
+        assertAccepted(strategy.throttle(FOO, TEN_PER_SEC).get());
+
+        // The previous window has to weigh less than 7 requests: 300 ms after its end
+        long delay = strategy.throttle(FOO, TEN_PER_SEC).get();
+        assertRejected(delay);
+
+        ticker.advance(delay + 1, MILLISECONDS);
+        assertAccepted(strategy.throttle(FOO, TEN_PER_SEC).get());
+    }
+
+    @Test
+    public void shouldForgetTheRequestsOfTheOlderWindows() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertAccepted(strategy.throttle(FOO, TEN_PER_SEC).get());
+        }
+
+        ticker.advance(2, SECONDS);
+        for (int i = 0; i < 10; i++) {
+            assertAccepted(strategy.throttle(FOO, TEN_PER_SEC).get());
+        }
+        assertRejected(strategy.throttle(FOO, TEN_PER_SEC).get());
+    }
+
+    @Test
+    public void shouldIsolateThePartitions() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertAccepted(strategy.throttle(FOO, TEN_PER_SEC).get());
+        }
+        assertRejected(strategy.throttle(FOO, TEN_PER_SEC).get());
+        assertAccepted(strategy.throttle(BAR, TEN_PER_SEC).get());
+    }
+
+    @Test
+    public void shouldStartCountingAgainWhenTheRateChanges() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertAccepted(strategy.throttle(FOO, TEN_PER_SEC).get());
+        }
+        assertRejected(strategy.throttle(FOO, TEN_PER_SEC).get());
+        assertAccepted(strategy.throttle(FOO, TWENTY_PER_SEC).get());
+    }
+}
@@ -21,9 +21,11 @@ import static org.forgerock.http.protocol.Responses.newInternalServerError;
 import static org.forgerock.util.promise.Promises.newResultPromise;
 import static org.forgerock.util.time.Duration.duration;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -42,6 +44,7 @@ import org.forgerock.services.context.RootContext;
 import org.forgerock.util.AsyncFunction;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
 import org.forgerock.util.promise.Promises;
 import org.forgerock.util.time.Duration;
 import org.testng.annotations.AfterMethod;
@@ -145,6 +148,92 @@ public class ThrottlingFilterTest {
         assertThat(response.getHeaders().getFirst("Retry-After")).isEqualTo("1");
     }
 
+    @Test
+    public void shouldWaitForThePendingRateBeforeThrottling() throws Exception {
+        // Given
+        final PromiseImpl<ThrottlingRate, Exception> pendingRate = PromiseImpl.create();
+        ThrottlingPolicy throttlingRatePolicy = new ThrottlingPolicy() {
+            @Override
+            public Promise<ThrottlingRate, Exception> lookup(Context context, Request request) {
+                return pendingRate;
+            }
+        };
+        ThrottlingStrategy throttlingStrategy = mock(ThrottlingStrategy.class);
+        when(throttlingStrategy.throttle(eq("foo"), any(ThrottlingRate.class)))
+                .thenReturn(Promises.<Long, NeverThrowsException>newResultPromise(1L));
+        filter = new ThrottlingFilter(new StringRequestAsyncFunction("foo"), throttlingRatePolicy, throttlingStrategy);
+
+        // When
+        Promise<Response, NeverThrowsException> promise =
+                filter.filter(new RootContext(), new Request(), new ResponseHandler(Status.OK));
+
+        // Then
+        assertThat(promise.isDone()).isFalse();
+        verifyZeroInteractions(throttlingStrategy);
+        pendingRate.handleResult(new ThrottlingRate(1, duration("3 seconds")));
+        assertThat(promise.get().getStatus()).isEqualTo(Status.TOO_MANY_REQUESTS);
+    }
+
+    @Test
+    public void shouldWaitForThePendingThrottlingDecision() throws Exception {
+        // Given
+        PromiseImpl<Long, NeverThrowsException> pendingDecision = PromiseImpl.create();
+        ThrottlingStrategy throttlingStrategy = mock(ThrottlingStrategy.class);
+        when(throttlingStrategy.throttle(eq("foo"), any(ThrottlingRate.class))).thenReturn(pendingDecision);
+        filter = new ThrottlingFilter(new StringRequestAsyncFunction("foo"),
+                                      throttlingRatePolicy(1, duration("3 seconds")),
+                                      throttlingStrategy);
+
+        // When
+        Promise<Response, NeverThrowsException> promise =
+                filter.filter(new RootContext(), new Request(), new ResponseHandler(Status.OK));
+
+        // Then
+        assertThat(promise.isDone()).isFalse();
+        pendingDecision.handleResult(0L);
+        assertThat(promise.get().getStatus()).isEqualTo(Status.OK);
+    }
+
+    @Test
+    public void shouldNotifyTheCompletionOfTheAcceptedRequests() throws Exception {
+        // Given
+        CompletionAwareThrottlingStrategy throttlingStrategy = mock(CompletionAwareThrottlingStrategy.class);
+        when(throttlingStrategy.throttle(eq("foo"), any(ThrottlingRate.class)))
+                .thenReturn(Promises.<Long, NeverThrowsException>newResultPromise(0L),
+                            Promises.<Long, NeverThrowsException>newResultPromise(1L));
+        filter = new ThrottlingFilter(new StringRequestAsyncFunction("foo"),
+                                      throttlingRatePolicy(1, duration("3 seconds")),
+                                      throttlingStrategy);
+
+        // When
+        filter.filter(new RootContext(), new Request(), new ResponseHandler(Status.SERVICE_UNAVAILABLE)).get();
+        filter.filter(new RootContext(), new Request(), new ResponseHandler(Status.OK)).get();
+
+        // Then
+        verify(throttlingStrategy).onCompletion(eq("foo"), any(ThrottlingRate.class), anyLong(), eq(true));
+        verify(throttlingStrategy, never()).onCompletion(anyString(), any(ThrottlingRate.class), anyLong(), eq(false));
+    }
+
+    @Test
+    public void shouldNotifyTheCompletionOfARequestWhoseHandlerThrows() throws Exception {
+        // Given
+        CompletionAwareThrottlingStrategy throttlingStrategy = mock(CompletionAwareThrottlingStrategy.class);
+        when(throttlingStrategy.throttle(eq("foo"), any(ThrottlingRate.class)))
+                .thenReturn(Promises.<Long, NeverThrowsException>newResultPromise(0L));
+        filter = new ThrottlingFilter(new StringRequestAsyncFunction("foo"),
+                                      throttlingRatePolicy(1, duration("3 seconds")),
+                                      throttlingStrategy);
+        Handler handler = mock(Handler.class);
+        when(handler.handle(any(Context.class), any(Request.class))).thenThrow(new IllegalStateException("Boom"));
+
+        // When
+        Response response = filter.filter(new RootContext(), new Request(), handler).get();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(Status.INTERNAL_SERVER_ERROR);
+        verify(throttlingStrategy).onCompletion(eq("foo"), any(ThrottlingRate.class), anyLong(), eq(true));
+    }
+
     /**
      * A first request comes in : while it takes some time to process it, another request is coming in and thus has to
      * be processed concurrently. But since the first request consumed the single token from the bucket, the second
@@ -0,0 +1,124 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.http.filter.throttling;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.util.time.Duration.duration;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class TokenBucketPartitionsTest {
+
+    private static final long ONE_SECOND = SECONDS.toNanos(1L);
+
+    private FakeTicker ticker;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        ticker = new FakeTicker(0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRefuseInvalidMaximumNumberOfPartitions() throws Exception {
+        new TokenBucketPartitions(ticker, ONE_SECOND, 0);
+    }
+
+    @Test
+    public void shouldOnlyCleanTheExpiredPartitions() throws Exception {
+        TokenBucketPartitions partitions = new TokenBucketPartitions(ticker, ONE_SECOND, Integer.MAX_VALUE);
+        TokenBucket shortLived = consumedBucket(partitions, "short", new ThrottlingRate(1, duration("2 seconds")));
+        TokenBucket longLived = consumedBucket(partitions, "long", new ThrottlingRate(1, duration("10 seconds")));
+        partitions.cleanExpired();
+
+        ticker.advance(3, SECONDS);
+        partitions.cleanExpired();
+        assertThat(partitions.get("short")).isNull();
+        assertThat(partitions.get("long")).isSameAs(longLived);
+        assertThat(partitions.size()).isEqualTo(1);
+
+        // Still in use: the partition is re-scheduled instead of being cleaned
+        ticker.advance(8, SECONDS);
+        longLived.tryConsume();
+        partitions.cleanExpired();
+        assertThat(partitions.get("long")).isSameAs(longLived);
+
+        ticker.advance(10, SECONDS);
+        partitions.cleanExpired();
+        assertThat(partitions.get("long")).isNull();
+        assertThat(partitions.size()).isEqualTo(0);
+        assertThat(shortLived.isExpired()).isTrue();
+    }
+
+    @Test
+    public void shouldNotCleanAReplacedBucketTwice() throws Exception {
+        TokenBucketPartitions partitions = new TokenBucketPartitions(ticker, ONE_SECOND, Integer.MAX_VALUE);
+        TokenBucket previous = consumedBucket(partitions, "key", new ThrottlingRate(1, duration("2 seconds")));
+        TokenBucket replacement = new TokenBucket(ticker, new ThrottlingRate(1, duration("10 seconds")));
+        assertThat(partitions.replace("key", previous, replacement)).isTrue();
+        replacement.tryConsume();
+        partitions.cleanExpired();
+
+        ticker.advance(3, SECONDS);
+        partitions.cleanExpired();
+        assertThat(partitions.get("key")).isSameAs(replacement);
+        assertThat(partitions.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldEvictThePartitionsClosestToTheirExpiration() throws Exception {
+        TokenBucketPartitions partitions = new TokenBucketPartitions(ticker, ONE_SECOND, 2);
+        ThrottlingRate rate = new ThrottlingRate(10, duration("10 seconds"));
+        TokenBucket first = consumedBucket(partitions, "first", rate);
+        TokenBucket second = consumedBucket(partitions, "second", rate);
+        partitions.cleanExpired();
+
+        // "first" is used again, so "second" is now the least recently used partition
+        ticker.advance(2, SECONDS);
+        first.tryConsume();
+        first.tryConsume();
+        TokenBucket third = consumedBucket(partitions, "third", rate);
+
+        assertThat(partitions.size()).isEqualTo(2);
+        assertThat(partitions.get("first")).isSameAs(first);
+        assertThat(partitions.get("second")).isNull();
+        assertThat(partitions.get("third")).isSameAs(third);
+        assertThat(second.getRemainingTokensCount()).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldStayBoundedWithManyPartitions() throws Exception {
+        TokenBucketPartitions partitions = new TokenBucketPartitions(ticker, ONE_SECOND, 100);
+        ThrottlingRate rate = new ThrottlingRate(1, duration("1 minute"));
+        for (int i = 0; i < 10000; i++) {
+            consumedBucket(partitions, "client-" + i, rate);
+        }
+        assertThat(partitions.size()).isEqualTo(100);
+        assertThat(partitions.get("client-9999")).isNotNull();
+    }
+
+    private TokenBucket consumedBucket(final TokenBucketPartitions partitions,
+                                       final String key,
+                                       final ThrottlingRate rate) {
+        TokenBucket bucket = new TokenBucket(ticker, rate);
+        assertThat(partitions.putIfAbsent(key, bucket)).isNull();
+        bucket.tryConsume();
+        return bucket;
+    }
+}
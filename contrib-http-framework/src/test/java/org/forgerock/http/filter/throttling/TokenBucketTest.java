@@ -16,9 +16,13 @@
 package org.forgerock.http.filter.throttling;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.forgerock.util.time.Duration.duration;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.forgerock.util.time.Duration;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -100,5 +104,81 @@ public class TokenBucketTest {
         assertThat(bucket.tryConsume()).as("Consume fourth token").isGreaterThan(0);
     }
 
+    @Test
+    public void shouldNotConsumeMoreTokensThanTheCapacityWithConcurrentThreads() throws Exception {
+        final TokenBucket bucket = new TokenBucket(ticker, new ThrottlingRate(1000, duration("1 hour")));
+        final AtomicInteger consumed = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 500; j++) {
+                        if (bucket.tryConsume() == 0) {
+                            consumed.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(consumed.get()).isEqualTo(1000);
+        assertThat(bucket.getRemainingTokensCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldExpireOnceTheBucketIsFullAgain() throws Exception {
+        TokenBucket bucket = new TokenBucket(ticker, new ThrottlingRate(3, duration("3 seconds")));
+        assertThat(bucket.isExpired()).isTrue();
+
+        bucket.tryConsume();
+        bucket.tryConsume();
+        assertThat(bucket.isExpired()).isFalse();
+
+        ticker.advance(1, SECONDS);
+        assertThat(bucket.isExpired()).isFalse();
+        assertThat(bucket.getRemainingTokensCount()).isEqualTo(2);
+
+        ticker.advance(1, SECONDS);
+        assertThat(bucket.isExpired()).isTrue();
+        assertThat(bucket.getRemainingTokensCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldConsumeSeveralTokensAtOnce() throws Exception {
+        TokenBucket bucket = new TokenBucket(ticker, new ThrottlingRate(10, duration("10 seconds")));
+
+        assertThat(bucket.consume(4)).isEqualTo(4);
+        assertThat(bucket.consume(100)).isEqualTo(6);
+        assertThat(bucket.consume(1)).isEqualTo(0);
+        assertThat(bucket.getDelayForNextToken()).isEqualTo(1000L);
+
+        ticker.advance(2, SECONDS);
+        assertThat(bucket.getDelayForNextToken()).isEqualTo(0L);
+        assertThat(bucket.consume(5)).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotRefundOverTheCapacity() throws Exception {
+        TokenBucket bucket = new TokenBucket(ticker, new ThrottlingRate(10, duration("10 seconds")));
+        bucket.consume(10);
 
+        bucket.refund(3);
+        assertThat(bucket.getRemainingTokensCount()).isEqualTo(3);
+
+        bucket.refund(100);
+        assertThat(bucket.getRemainingTokensCount()).isEqualTo(10);
+        assertThat(bucket.consume(100)).isEqualTo(10);
+    }
 }
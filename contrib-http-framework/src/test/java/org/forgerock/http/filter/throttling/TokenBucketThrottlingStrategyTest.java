@@ -148,6 +148,23 @@ public class TokenBucketThrottlingStrategyTest {
         assertAccepted(delay);
     }
 
+    @Test
+    public void shouldBoundTheNumberOfPartitions() throws Exception {
+        ScheduledExecutorService scheduledExecutor = mock(ScheduledExecutorService.class);
+        when(scheduledExecutor.scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class)))
+                .thenReturn(mock(ScheduledFuture.class));
+        TokenBucketThrottlingStrategy bounded =
+                new TokenBucketThrottlingStrategy(ticker, scheduledExecutor, CLEANING_INTERVAL, 10);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                assertAccepted(bounded.throttle("client-" + i, THROTTLING_RATE_5_PER_SEC).get());
+            }
+            assertThat(bounded.getPartitionsCount()).isEqualTo(10);
+        } finally {
+            bounded.stop();
+        }
+    }
+
     @Test
     public void shouldReturnTheDelayToWaitForTheNextAcceptedTry() throws Exception {
         ThrottlingRate throttlingRate = new ThrottlingRate(1, duration(1, SECONDS));
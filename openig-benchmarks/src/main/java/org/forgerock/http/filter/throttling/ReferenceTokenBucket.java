@@ -0,0 +1,85 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.http.filter.throttling;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.forgerock.guava.common.base.Ticker;
+
+/**
+ * The previous {@link TokenBucket} implementation, kept as a baseline: its state is an immutable object, swapped with
+ * an {@link AtomicReference} (one allocation per consumed token).
+ */
+final class ReferenceTokenBucket {
+
+    private static final class State {
+        private final long timestampLastRefill;
+        private final long counter;
+
+        State(long counter, long timestampLastRefill) {
+            this.counter = counter;
+            this.timestampLastRefill = timestampLastRefill;
+        }
+    }
+
+    private final Ticker ticker;
+    private final int capacity;
+    private final long duration;
+    private final AtomicReference<State> state = new AtomicReference<>();
+    private final long nanosToWaitForNextToken;
+
+    ReferenceTokenBucket(Ticker ticker, ThrottlingRate rate) {
+        this.ticker = ticker;
+        this.capacity = rate.getNumberOfRequests();
+        this.duration = rate.getDuration().to(NANOSECONDS);
+        this.nanosToWaitForNextToken = rate.delayBetweenRequests(NANOSECONDS);
+    }
+
+    long tryConsume() {
+        do {
+            final long now = ticker.read();
+
+            final State currentState = state.get();
+            final State newState;
+            if (currentState == null) {
+                newState = new State(capacity - 1, now);
+            } else {
+                long timestampLastRefill = currentState.timestampLastRefill;
+                long counter = currentState.counter;
+                long elapsedTime = Math.min(duration, now - currentState.timestampLastRefill);
+                long newTokens = elapsedTime / nanosToWaitForNextToken;
+                if (newTokens > 0) {
+                    timestampLastRefill = now;
+                    counter = Math.min(capacity, currentState.counter + newTokens);
+                }
+
+                if (counter <= 0) {
+                    long delayForNextRetry = (currentState.timestampLastRefill + nanosToWaitForNextToken) - now;
+                    return Math.max(1, MILLISECONDS.convert(delayForNextRetry, NANOSECONDS));
+                }
+                counter--;
+                newState = new State(counter, timestampLastRefill);
+            }
+            if (state.compareAndSet(currentState, newState)) {
+                return 0;
+            }
+        } while (true);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.http.filter.throttling;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.forgerock.util.promise.Promises.newResultPromise;
+import static org.forgerock.util.time.Duration.duration;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.forgerock.guava.common.base.Ticker;
+import org.forgerock.http.ContextAndRequest;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.openig.handler.Handlers;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.forgerock.util.AsyncFunction;
+import org.forgerock.util.promise.Promise;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a request going through a {@link ThrottlingFilter} configured with a fixed rate, a constant partition key
+ * and a {@link TokenBucketThrottlingStrategy}: all of them complete synchronously.
+ *
+ * <p>Run it with {@literal -prof gc} to compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ThrottlingFilterBenchmark {
+
+    private static final AsyncFunction<ContextAndRequest, String, Exception> CONSTANT_KEY =
+            new AsyncFunction<ContextAndRequest, String, Exception>() {
+                @Override
+                public Promise<String, Exception> apply(ContextAndRequest contextAndRequest) {
+                    return newResultPromise("benchmark");
+                }
+            };
+
+    /**
+     * The number of requests accepted per second: a high rate measures the accepted requests, a low one the
+     * rejected ones.
+     */
+    @Param({ "1000000000", "1" })
+    public int requestsPerSecond;
+
+    private ScheduledExecutorService executor;
+    private ThrottlingFilter filter;
+    private Context context;
+    private Request request;
+
+    /**
+     * Builds the filter.
+     */
+    @Setup
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        filter = new ThrottlingFilter(CONSTANT_KEY,
+                                      new FixedRateThrottlingPolicy(new ThrottlingRate(requestsPerSecond,
+                                                                                       "1 second")),
+                                      new TokenBucketThrottlingStrategy(Ticker.systemTicker(),
+                                                                        executor,
+                                                                        duration("5 seconds")));
+        context = new RootContext();
+        request = new Request();
+    }
+
+    /**
+     * Stops the filter.
+     */
+    @TearDown
+    public void tearDown() {
+        filter.stop();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Handles a request through the filter.
+     *
+     * @return the response
+     * @throws Exception
+     *         should not happen
+     */
+    @Benchmark
+    public Response filter() throws Exception {
+        return filter.filter(context, request, Handlers.NO_CONTENT).get();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.http.filter.throttling;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import org.forgerock.guava.common.base.Ticker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the consumption of tokens from a single bucket shared by 1, 8 or 64 threads, comparing the packed
+ * {@link TokenBucket} with the previous implementation ({@link ReferenceTokenBucket}).
+ *
+ * <p>Run it with {@literal -prof gc} to compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TokenBucketBenchmark {
+
+    /**
+     * The bucket implementation: {@literal packed} or {@literal reference}.
+     */
+    @Param({ "packed", "reference" })
+    public String implementation;
+
+    /**
+     * The bucket's rate: a high rate mostly measures the successful consumptions, a low one the rejections.
+     */
+    @Param({ "1000000", "1000" })
+    public int requestsPerSecond;
+
+    private TokenBucket bucket;
+    private ReferenceTokenBucket reference;
+
+    /**
+     * Builds the shared bucket.
+     */
+    @Setup
+    public void setUp() {
+        ThrottlingRate rate = new ThrottlingRate(requestsPerSecond, "1 second");
+        bucket = new TokenBucket(Ticker.systemTicker(), rate);
+        reference = new ReferenceTokenBucket(Ticker.systemTicker(), rate);
+    }
+
+    /**
+     * Tries to consume a token, without contention.
+     *
+     * @return the delay before a token is available
+     */
+    @Benchmark
+    @Threads(1)
+    public long tryConsume() {
+        return consume();
+    }
+
+    /**
+     * Tries to consume a token, with 8 threads competing for the same bucket.
+     *
+     * @return the delay before a token is available
+     */
+    @Benchmark
+    @Threads(8)
+    public long tryConsume8Threads() {
+        return consume();
+    }
+
+    /**
+     * Tries to consume a token, with 64 threads competing for the same bucket.
+     *
+     * @return the delay before a token is available
+     */
+    @Benchmark
+    @Threads(64)
+    public long tryConsume64Threads() {
+        return consume();
+    }
+
+    private long consume() {
+        if ("packed".equals(implementation)) {
+            return bucket.tryConsume();
+        }
+        return reference.tryConsume();
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+/**
+ * JMH micro-benchmarks of the gateway hot path.
+ *
+ * <p>Each benchmark lives in the package of the code it measures, so that package-private classes can be exercised
+ * directly. {@link org.forgerock.openig.benchmarks.BenchmarkRunner} runs them and writes the results as JSON.
+ */
+package org.forgerock.openig.benchmarks;
@@ -0,0 +1,109 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.el;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.forgerock.openig.el.Bindings.bindings;
+
+import org.forgerock.http.protocol.Request;
+import org.forgerock.services.context.AttributesContext;
+import org.forgerock.services.context.RootContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the evaluation of typical route conditions, interpreted or compiled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExpressionBenchmark {
+
+    /** The evaluated condition. */
+    @Param({
+        "${request.uri.path == '/app/resource'}",
+        "${matches(request.uri.path, '^/app/')}",
+        "${request.method == 'POST' && request.headers['Host'][0] == 'example.com'}",
+        "${attributes.user == 'bjensen' || contexts.attributes.attributes.role == 'admin'}"
+    })
+    private String condition;
+
+    private Expression<Boolean> expression;
+    private ExpressionCompiler.Node compiled;
+    private Bindings bindings;
+
+    /**
+     * Parses the condition and builds the bindings.
+     *
+     * @throws Exception
+     *         should not happen
+     */
+    @Setup
+    public void setUp() throws Exception {
+        expression = Expression.valueOf(condition, Boolean.class);
+        compiled = ExpressionCompiler.compile(condition);
+        Request request = new Request().setMethod("POST").setUri("http://example.com/app/resource");
+        request.getHeaders().put("Host", "example.com");
+        AttributesContext context = new AttributesContext(new RootContext());
+        context.getAttributes().put("user", "bjensen");
+        context.getAttributes().put("role", "admin");
+        bindings = bindings(context, request);
+    }
+
+    /**
+     * Evaluates the condition with the EL interpreter.
+     *
+     * @return the result of the evaluation
+     */
+    @Benchmark
+    public Boolean interpreted() {
+        return expression.eval(bindings);
+    }
+
+    /**
+     * Evaluates the compiled condition.
+     *
+     * @return the result of the evaluation
+     */
+    @Benchmark
+    public Object compiled() {
+        return compiled.eval(bindings.asMap());
+    }
+
+    /**
+     * Builds the bindings of a request, as done for each evaluation by the filters and handlers.
+     *
+     * @return the bindings
+     */
+    @Benchmark
+    public Bindings bindingsCreation() {
+        return bindings(new AttributesContext(new RootContext()), new Request());
+    }
+}
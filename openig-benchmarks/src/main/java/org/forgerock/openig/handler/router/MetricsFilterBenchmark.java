@@ -0,0 +1,106 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.forgerock.util.promise.Promises.newResultPromise;
+import static org.forgerock.util.time.Duration.duration;
+
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.time.TimeService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+
+/**
+ * Measures the recording of the metrics of a monitored route by a {@link MetricsFilter}, with all the available
+ * threads sharing the same metrics, for both reservoirs sampling the response times.
+ *
+ * <p>Compare the scaling of the reservoirs by running it with different numbers of threads, for example with
+ * {@literal -t 1} and {@literal -t 32}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Threads(Threads.MAX)
+@Fork(1)
+public class MetricsFilterBenchmark {
+
+    private static final Handler OK = new Handler() {
+        // Shared by all the threads: it is already completed
+        private final Promise<Response, NeverThrowsException> response = newResultPromise(new Response(Status.OK));
+
+        @Override
+        public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+            return response;
+        }
+    };
+
+    /** The reservoir sampling the response times, as in the route's {@literal monitor} configuration. */
+    @Param({ "exponentiallyDecaying", "intervalHistogram" })
+    private String reservoir;
+
+    private MetricsFilter filter;
+    private Context context;
+    private Request request;
+
+    /**
+     * Builds the filter and its metrics.
+     */
+    @Setup
+    public void setUp() {
+        MonitoringMetrics metrics;
+        if ("intervalHistogram".equals(reservoir)) {
+            metrics = new MonitoringMetrics(new IntervalHistogramReservoir(TimeService.SYSTEM, duration("1 minute")));
+        } else {
+            metrics = new MonitoringMetrics(new ExponentiallyDecayingReservoir());
+        }
+        filter = new MetricsFilter(metrics);
+        context = new RootContext();
+        request = new Request();
+    }
+
+    /**
+     * Records the metrics of a request.
+     *
+     * @return the response
+     */
+    @Benchmark
+    public Promise<Response, NeverThrowsException> filter() {
+        return filter.filter(context, request, OK);
+    }
+}
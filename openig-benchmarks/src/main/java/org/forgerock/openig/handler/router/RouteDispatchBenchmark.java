@@ -0,0 +1,103 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.handler.router;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.http.handler.Handlers;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.openig.el.Expression;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the selection of the route handling a request, among N routes whose conditions test the request's path.
+ * The request matches the last route, which is the worst case for a sequential scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RouteDispatchBenchmark {
+
+    /** Number of routes. */
+    @Param({ "10", "100", "1000" })
+    private int routes;
+
+    /** Whether the routes are indexed or evaluated sequentially. */
+    @Param({ "false", "true" })
+    private boolean indexed;
+
+    private RouteIndex index;
+    private Context context;
+    private Request request;
+
+    /**
+     * Builds the routes.
+     *
+     * @throws Exception
+     *         should not happen
+     */
+    @Setup
+    public void setUp() throws Exception {
+        List<Route> list = new ArrayList<>();
+        for (int i = 0; i < routes; i++) {
+            Expression<Boolean> condition =
+                    Expression.valueOf(format("${matches(request.uri.path, '^/app%d/')}", i), Boolean.class);
+            list.add(new Route(Handlers.NO_CONTENT, "route-" + i, condition) {
+                @Override
+                public void start() {
+                }
+
+                @Override
+                public void destroy() {
+                }
+            });
+        }
+        index = new RouteIndex(list, indexed);
+        context = new RootContext();
+        request = new Request().setMethod("GET").setUri(format("http://example.com/app%d/resource", routes - 1));
+    }
+
+    /**
+     * Selects the route handling the request.
+     *
+     * @return the selected route
+     */
+    @Benchmark
+    public Route dispatch() {
+        return index.find(context, request);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.forgerock.services.context.ClientContext.buildExternalClientContext;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.openig.config.env.DefaultEnvironment;
+import org.forgerock.services.context.AttributesContext;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a full in-process request through the gateway, whose configuration routes all the requests to a static
+ * response handler (no network involved).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GatewayHttpApplicationBenchmark {
+
+    private static final String CONFIGURATION = "{\n"
+            + "  \"handler\": {\n"
+            + "    \"type\": \"StaticResponseHandler\",\n"
+            + "    \"config\": { \"status\": 200, \"entity\": \"Hello\" }\n"
+            + "  }\n"
+            + "}\n";
+
+    private Path base;
+    private GatewayHttpApplication application;
+    private Handler handler;
+    private Context context;
+
+    /**
+     * Writes the configuration and starts the gateway.
+     *
+     * @throws Exception
+     *         should not happen
+     */
+    @Setup
+    public void setUp() throws Exception {
+        base = Files.createTempDirectory("openig-benchmark");
+        Path config = Files.createDirectories(base.resolve("config"));
+        Files.write(config.resolve("config.json"), CONFIGURATION.getBytes(UTF_8));
+
+        application = new GatewayHttpApplication(new DefaultEnvironment(base.toFile()));
+        handler = application.start();
+        context = new AttributesContext(buildExternalClientContext(new RootContext())
+                                                .remoteAddress("125.12.34.52")
+                                                .build());
+    }
+
+    /**
+     * Stops the gateway and deletes its configuration.
+     *
+     * @throws Exception
+     *         should not happen
+     */
+    @TearDown
+    public void tearDown() throws Exception {
+        application.stop();
+        Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Handles a request.
+     *
+     * @return the response
+     * @throws Exception
+     *         should not happen
+     */
+    @Benchmark
+    public Response request() throws Exception {
+        Request request = new Request().setMethod("GET").setUri("http://example.com/app/resource");
+        Response response = handler.handle(context, request).get();
+        response.getEntity().close();
+        return response;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.jwt;
+
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.forgerock.util.time.Duration.duration;
+
+import java.security.KeyPairGenerator;
+
+import javax.crypto.KeyGenerator;
+
+import org.forgerock.http.header.CookieHeader;
+import org.forgerock.http.header.SetCookieHeader;
+import org.forgerock.http.protocol.Cookie;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.openig.heap.Name;
+import org.forgerock.openig.log.Logger;
+import org.forgerock.openig.log.NullLogSink;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the loading (decryption) and the saving (encryption) of a JWT session cookie, either with the RSA key
+ * wrapping or with the direct AES-GCM encryption.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JwtCookieSessionBenchmark {
+
+    private static final String COOKIE_NAME = "openig-jwt-session";
+
+    private final Logger logger = new Logger(new NullLogSink(), Name.of(JwtCookieSessionBenchmark.class));
+    private final Duration timeout = duration("30 minutes");
+    private JwtSessionCipher cipher;
+    private Request request;
+
+    /**
+     * The session encryption.
+     */
+    @Param({ JwtSessionManager.RSA_ENCRYPTION, JwtSessionManager.DIRECT_ENCRYPTION })
+    public String encryption;
+
+    /**
+     * Generates the keys and a session cookie.
+     *
+     * @throws Exception
+     *         should not happen
+     */
+    @Setup
+    public void setUp() throws Exception {
+        if (JwtSessionManager.DIRECT_ENCRYPTION.equals(encryption)) {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(128);
+            cipher = JwtSessionCipher.direct(generator.generateKey());
+        } else {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            cipher = JwtSessionCipher.rsa(generator.generateKeyPair());
+        }
+
+        Response response = save();
+        Cookie cookie = SetCookieHeader.valueOf(response).getCookies().get(0);
+        request = new Request();
+        request.getHeaders().add(
+                new CookieHeader(singletonList(new Cookie().setName(COOKIE_NAME).setValue(cookie.getValue()))));
+    }
+
+    /**
+     * Loads and reads the session from the request's cookie.
+     *
+     * @return the session's content
+     */
+    @Benchmark
+    public Object load() {
+        return newSession(request).get("user");
+    }
+
+    /**
+     * Creates a new session and saves it into a response's cookie.
+     *
+     * @return the response
+     * @throws Exception
+     *         should not happen
+     */
+    @Benchmark
+    public Response save() throws Exception {
+        JwtCookieSession session = newSession(new Request());
+        session.put("user", "bjensen");
+        session.put("roles", singletonList("admin"));
+        Response response = new Response();
+        session.save(response);
+        return response;
+    }
+
+    private JwtCookieSession newSession(final Request request) {
+        return new JwtCookieSession(request, cipher, COOKIE_NAME, logger, TimeService.SYSTEM, timeout, null);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.regex;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+import java.io.StringReader;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the extraction of a value located at the end of a large body (as done by the EntityExtractFilter).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StreamPatternExtractorBenchmark {
+
+    /** Body size (in lines). */
+    @Param({ "100", "10000" })
+    private int lines;
+
+    private StreamPatternExtractor extractor;
+    private String body;
+
+    /**
+     * Builds the extractor and the body.
+     */
+    @Setup
+    public void setUp() {
+        extractor = new StreamPatternExtractor();
+        extractor.getPatterns().put("token", Pattern.compile("name=\"token\" value=\"(.*)\""));
+        extractor.getTemplates().put("token", new PatternTemplate("$1"));
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            builder.append("<p>Some content of the page, line ").append(i).append("</p>\n");
+        }
+        builder.append("<input type=\"hidden\" name=\"token\" value=\"a1b2c3d4\"/>\n");
+        body = builder.toString();
+    }
+
+    /**
+     * Extracts the value.
+     *
+     * @return the extracted value
+     */
+    @Benchmark
+    public String extract() {
+        for (Map.Entry<String, String> entry : extractor.extract(new StringReader(body))) {
+            if ("token".equals(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+}
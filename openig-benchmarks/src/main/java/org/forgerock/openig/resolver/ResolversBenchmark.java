@@ -0,0 +1,94 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+
+package org.forgerock.openig.resolver;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.forgerock.http.protocol.Request;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the resolution of the elements accessed by expressions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResolversBenchmark {
+
+    private Map<String, Object> attributes;
+    private Request request;
+
+    /**
+     * Builds the resolved objects.
+     *
+     * @throws Exception
+     *         should not happen
+     */
+    @Setup
+    public void setUp() throws Exception {
+        attributes = new LinkedHashMap<>();
+        attributes.put("user", "bjensen");
+        request = new Request().setMethod("GET").setUri("http://example.com/app/resource");
+        request.getHeaders().put("Host", "example.com");
+    }
+
+    /**
+     * Resolves a map entry.
+     *
+     * @return the resolved value
+     */
+    @Benchmark
+    public Object mapEntry() {
+        return Resolvers.get(attributes, "user");
+    }
+
+    /**
+     * Resolves a bean property.
+     *
+     * @return the resolved value
+     */
+    @Benchmark
+    public Object beanProperty() {
+        return Resolvers.get(request, "method");
+    }
+
+    /**
+     * Resolves a request header.
+     *
+     * @return the resolved value
+     */
+    @Benchmark
+    public Object header() {
+        return Resolvers.get(request.getHeaders(), "Host");
+    }
+}
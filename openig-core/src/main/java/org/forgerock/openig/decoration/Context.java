@@ -53,4 +53,14 @@ public interface Context {
      * @see LazyReference
      */
     Heap getHeap();
+
+    /**
+     * Registers a callback to be invoked once the decorated heap object has been destroyed, along with its heap (for
+     * example, when the route declaring it is unloaded). This lets the decorators release whatever they keep for
+     * the decorated heap object.
+     *
+     * @param callback
+     *         invoked once the decorated heap object has been destroyed
+     */
+    void onDestroy(Runnable callback);
 }
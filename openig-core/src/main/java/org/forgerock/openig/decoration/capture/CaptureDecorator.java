@@ -18,16 +18,26 @@ package org.forgerock.openig.decoration.capture;
 
 import static java.lang.String.format;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.forgerock.json.JsonValueFunctions.enumConstant;
 import static org.forgerock.json.JsonValueFunctions.listOf;
 import static org.forgerock.openig.decoration.helper.LazyReference.newReference;
 import static org.forgerock.openig.heap.Keys.LOGSINK_HEAP_KEY;
 import static org.forgerock.openig.util.JsonValues.evaluated;
+import static org.forgerock.openig.util.JsonValues.expression;
 import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
 
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.http.Filter;
 import org.forgerock.http.Handler;
@@ -37,11 +47,13 @@ import org.forgerock.openig.decoration.Decorator;
 import org.forgerock.openig.decoration.helper.AbstractHandlerAndFilterDecorator;
 import org.forgerock.openig.decoration.helper.DecoratorHeaplet;
 import org.forgerock.openig.decoration.helper.LazyReference;
+import org.forgerock.openig.el.Expression;
 import org.forgerock.openig.heap.Heap;
 import org.forgerock.openig.heap.HeapException;
 import org.forgerock.openig.heap.Name;
 import org.forgerock.openig.log.LogSink;
 import org.forgerock.openig.log.Logger;
+import org.forgerock.util.time.TimeService;
 
 /**
  * The capture decorator can decorates both {@link Filter} and {@link Handler} instances. It enables
@@ -65,7 +77,12 @@ import org.forgerock.openig.log.Logger;
  *       "type": "CaptureDecorator",
  *       "config": {
  *           "captureEntity": false,
- *           "captureContext": false
+ *           "captureContext": false,
+ *           "maxEntityLength": -1,
+ *           "sampleRate": 1.0,
+ *           "condition": expression,
+ *           "asynchronous": false,
+ *           "queueSize": 1000
  *       }
  *     }
  *     }
@@ -77,6 +94,15 @@ import org.forgerock.openig.log.Logger;
  * The common {@literal logSink} attribute can be used to force message capture in a given sink. By default, messages
  * are sent to the heap object defined LogSink.
  * <p>
+ * To keep the capture enabled at a low cost, the captured exchanges can be sampled: the {@literal sampleRate}
+ * attribute is the proportion of the exchanges to capture (default to {@code 1.0}, every exchange), and the optional
+ * {@literal condition} expression has to be {@code true} for the exchange to be captured. Both the request and the
+ * response of a sampled exchange are captured. The {@literal maxEntityLength} attribute truncates the captured entities
+ * after this number of characters (default to {@code -1}, no limit). When {@literal asynchronous} is {@code true}
+ * (default to {@code false}), the captured messages are formatted and written by a dedicated thread: at most
+ * {@literal queueSize} messages (default to {@code 1000}) are waiting for it, the next ones are dropped (the number
+ * of dropped messages is logged at most once per minute).
+ * <p>
  * To decorate a component, just add the decorator declaration next to the {@code config} element:
  * <pre>
  *     {@code
@@ -99,6 +125,10 @@ public class CaptureDecorator extends AbstractHandlerAndFilterDecorator {
     private final LazyReference<LogSink> reference;
     private final boolean captureEntity;
     private final boolean captureContext;
+    private final int maxEntityLength;
+    private final double sampleRate;
+    private final Expression<Boolean> condition;
+    private final Executor executor;
 
     /**
      * Builds a new {@code capture} decorator with the given sink reference (possibly {@code null})
@@ -117,9 +147,43 @@ public class CaptureDecorator extends AbstractHandlerAndFilterDecorator {
     public CaptureDecorator(final LazyReference<LogSink> reference,
                             final boolean captureEntity,
                             final boolean captureContext) {
+        this(reference, captureEntity, captureContext, -1, 1.0, null, null);
+    }
+
+    /**
+     * Builds a new {@code capture} decorator with the given sink reference (possibly {@code null}), only capturing
+     * the sampled exchanges.
+     *
+     * @param reference
+     *         Log Sink reference for message capture (may be {@code null})
+     * @param captureEntity
+     *         {@code true} if the decorator needs to capture the entity, {@code false} otherwise
+     * @param captureContext
+     *         {@code true} if the decorator needs to capture the context,
+     *         {@code false} otherwise
+     * @param maxEntityLength
+     *         maximum number of characters of a captured entity, a negative value for no limit
+     * @param sampleRate
+     *         proportion of the exchanges to capture, between {@code 0} and {@code 1}
+     * @param condition
+     *         condition to evaluate against the request to capture the exchange (may be {@code null})
+     * @param executor
+     *         executor formatting and logging the captured messages, or {@code null} to do it synchronously
+     */
+    public CaptureDecorator(final LazyReference<LogSink> reference,
+                            final boolean captureEntity,
+                            final boolean captureContext,
+                            final int maxEntityLength,
+                            final double sampleRate,
+                            final Expression<Boolean> condition,
+                            final Executor executor) {
         this.reference = reference;
         this.captureEntity = captureEntity;
         this.captureContext = captureContext;
+        this.maxEntityLength = maxEntityLength;
+        this.sampleRate = sampleRate;
+        this.condition = condition;
+        this.executor = executor;
     }
 
     @Override
@@ -194,13 +258,22 @@ public class CaptureDecorator extends AbstractHandlerAndFilterDecorator {
                           .as(requiredHeapObject(heap, LogSink.class));
         }
         Name name = context.getName();
-        return new MessageCapture(new Logger(sink, name.decorated("Capture")), captureEntity, captureContext);
+        return new MessageCapture(new Logger(sink, name.decorated("Capture")),
+                                  captureEntity,
+                                  captureContext,
+                                  maxEntityLength,
+                                  sampleRate,
+                                  condition,
+                                  executor);
     }
 
     /**
      * Creates and initializes a CaptureDecorator in a heap environment.
      */
     public static class Heaplet extends DecoratorHeaplet {
+
+        private ExecutorService executor;
+
         @Override
         public Decorator create() throws HeapException {
             LazyReference<LogSink> reference = newReference(heap,
@@ -219,7 +292,88 @@ public class CaptureDecorator extends AbstractHandlerAndFilterDecorator {
             if (evaluated.isDefined("captureContext")) {
                 captureContext = evaluated.get("captureContext").asBoolean();
             }
-            return new CaptureDecorator(reference, captureEntity, captureContext);
+
+            int maxEntityLength = evaluated.get("maxEntityLength").defaultTo(-1).asInteger();
+            double sampleRate = evaluated.get("sampleRate").defaultTo(1.0).asDouble();
+            if (sampleRate < 0.0 || sampleRate > 1.0) {
+                throw new HeapException("The sample rate has to be between 0 and 1");
+            }
+            // The condition is evaluated for each exchange, not now
+            Expression<Boolean> condition = config.get("condition").as(expression(Boolean.class));
+            if (evaluated.get("asynchronous").defaultTo(false).asBoolean()) {
+                int queueSize = evaluated.get("queueSize").defaultTo(1000).asInteger();
+                executor = newCaptureExecutor(queueSize);
+            }
+            return new CaptureDecorator(reference,
+                                        captureEntity,
+                                        captureContext,
+                                        maxEntityLength,
+                                        sampleRate,
+                                        condition,
+                                        executor);
+        }
+
+        @Override
+        public void destroy() {
+            if (executor != null) {
+                executor.shutdown();
+            }
+            super.destroy();
+        }
+
+        /**
+         * Creates a single thread executor with a bounded queue, dropping the messages when it is full rather than
+         * slowing down the processing of the exchanges.
+         */
+        private ExecutorService newCaptureExecutor(final int queueSize) {
+            final String threadName = "OpenIG-Capture-" + name.getLeaf();
+            return new ThreadPoolExecutor(1, 1, 0L, MILLISECONDS,
+                                          new ArrayBlockingQueue<Runnable>(queueSize),
+                                          new ThreadFactory() {
+                                              @Override
+                                              public Thread newThread(final Runnable runnable) {
+                                                  Thread thread = new Thread(runnable, threadName);
+                                                  thread.setDaemon(true);
+                                                  return thread;
+                                              }
+                                          },
+                                          new DiscardAndCountPolicy(logger, TimeService.SYSTEM));
+        }
+    }
+
+    /**
+     * Drops the captured messages that the executor cannot accept, and logs the number of dropped messages at most
+     * once per minute.
+     */
+    static final class DiscardAndCountPolicy implements RejectedExecutionHandler {
+        private static final long REPORT_INTERVAL = MINUTES.toMillis(1L);
+
+        private final Logger logger;
+        private final TimeService time;
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong nextReport = new AtomicLong();
+
+        DiscardAndCountPolicy(final Logger logger, final TimeService time) {
+            this.logger = logger;
+            this.time = time;
+        }
+
+        @Override
+        public void rejectedExecution(final Runnable runnable, final ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                // The decorator is being destroyed
+                return;
+            }
+            final long count = dropped.incrementAndGet();
+            final long now = time.now();
+            final long next = nextReport.get();
+            if (now >= next && nextReport.compareAndSet(next, now + REPORT_INTERVAL)) {
+                logger.warning("%d captured messages have been dropped so far, as the capture queue is full", count);
+            }
+        }
+
+        long getDropped() {
+            return dropped.get();
         }
     }
 }
@@ -62,6 +62,9 @@ class CaptureFilter implements Filter {
     public Promise<Response, NeverThrowsException> filter(final Context context,
                                                           final Request request,
                                                           final Handler next) {
+        if (!capture.isSampled(context, request)) {
+            return delegate.filter(context, request, next);
+        }
         if (points.contains(REQUEST)) {
             capture.capture(context, request, REQUEST);
         }
@@ -57,6 +57,9 @@ class CaptureHandler implements Handler {
 
     @Override
     public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+        if (!capture.isSampled(context, request)) {
+            return delegate.handle(context, request);
+        }
         if (points.contains(REQUEST)) {
             capture.capture(context, request, REQUEST);
         }
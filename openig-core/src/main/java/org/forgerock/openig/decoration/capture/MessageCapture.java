@@ -18,24 +18,36 @@ package org.forgerock.openig.decoration.capture;
 
 import static groovy.json.JsonOutput.prettyPrint;
 import static groovy.json.JsonOutput.toJson;
+import static java.lang.Boolean.TRUE;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.forgerock.openig.el.Bindings.bindings;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.forgerock.http.header.ContentTypeHeader;
 import org.forgerock.http.protocol.Header;
 import org.forgerock.http.protocol.Message;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
+import org.forgerock.openig.el.Expression;
 import org.forgerock.openig.log.Logger;
 import org.forgerock.services.context.AttributesContext;
 import org.forgerock.services.context.Context;
@@ -43,6 +55,12 @@ import org.forgerock.util.annotations.VisibleForTesting;
 
 /**
  * Capture a message.
+ * <p>
+ * The exchanges to capture can be sampled, either randomly with a sample rate, or with a condition. The captured
+ * entities can be truncated after a maximum number of characters. When an {@link Executor} is given, the captured
+ * messages are formatted and logged by this executor rather than by the thread processing the message: this thread
+ * only takes immutable copies of the message (its start line, its header values and the first bytes of its entity)
+ * and of the context attributes.
  */
 public class MessageCapture {
 
@@ -53,9 +71,16 @@ public class MessageCapture {
                           "application/x-www-form-urlencoded", "application/soap+xml")
     ); // make all entries lower case
 
+    /** No charset encodes a character in more than 4 bytes. */
+    private static final int MAX_BYTES_PER_CHAR = 4;
+
     private final Logger logger;
     private final boolean captureEntity;
     private final boolean captureContext;
+    private final int maxEntityLength;
+    private final double sampleRate;
+    private final Expression<Boolean> condition;
+    private final Executor executor;
 
     /**
      * Builds a MessageCapture that will prints messages in the provided {@code logger}.
@@ -80,9 +105,59 @@ public class MessageCapture {
      *         capture the context content (excluding request and response object) as json
      */
     public MessageCapture(final Logger logger, final boolean captureEntity, final boolean captureContext) {
+        this(logger, captureEntity, captureContext, -1, 1.0, null, null);
+    }
+
+    /**
+     * Builds a MessageCapture that will prints the sampled messages in the provided {@code logger}.
+     *
+     * @param logger
+     *         where to write captured messages
+     * @param captureEntity
+     *         capture the entity content (if not binary)
+     * @param captureContext
+     *         capture the context content (excluding request and response object) as json
+     * @param maxEntityLength
+     *         maximum number of characters of a captured entity (the remaining ones are truncated),
+     *         a negative value for no limit
+     * @param sampleRate
+     *         proportion of the exchanges to capture, between {@code 0} and {@code 1}
+     * @param condition
+     *         condition to evaluate against the request to capture the exchange (may be {@code null})
+     * @param executor
+     *         executor formatting and logging the captured messages, or {@code null} to do it synchronously
+     */
+    public MessageCapture(final Logger logger,
+                          final boolean captureEntity,
+                          final boolean captureContext,
+                          final int maxEntityLength,
+                          final double sampleRate,
+                          final Expression<Boolean> condition,
+                          final Executor executor) {
         this.logger = logger;
         this.captureEntity = captureEntity;
         this.captureContext = captureContext;
+        this.maxEntityLength = maxEntityLength;
+        this.sampleRate = sampleRate;
+        this.condition = condition;
+        this.executor = executor;
+    }
+
+    /**
+     * Decides whether the exchange starting with the given request has to be captured: its request and its response
+     * are then both captured, or not at all.
+     *
+     * @param context
+     *         Context of the request
+     * @param request
+     *         Request starting the exchange
+     * @return {@literal true} if the messages of this exchange have to be captured
+     */
+    boolean isSampled(final Context context, final Request request) {
+        if (condition != null && !TRUE.equals(condition.eval(bindings(context, request)))) {
+            return false;
+        }
+        return sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
     }
 
     /**
@@ -96,28 +171,27 @@ public class MessageCapture {
      *         one of {@link CapturePoint#REQUEST},  {@link CapturePoint#FILTERED_REQUEST}
      */
     void capture(final Context context, final Request request, final CapturePoint mode) {
-        StringWriter out = new StringWriter();
-        PrintWriter writer = new PrintWriter(out);
-        String id = context.getId();
+        final String banner;
         switch (mode) {
         case REQUEST:
-            captureRequest(writer, request, id);
+            banner = "%n%n--- (request) id:%s --->%n%n";
             break;
         case FILTERED_REQUEST:
-            captureFilteredRequest(writer, request, id);
+            banner = "%n%n--- (filtered-request) id:%s --->%n%n";
             break;
         default:
             throw new IllegalArgumentException("The given mode is not accepted: " + mode.name());
         }
 
-        // Prints the context if required
-        if (captureContext) {
-            writer.println("Context's content as JSON:");
-            captureContextAsJson(writer, context);
+        CapturedMessage message = null;
+        if (request != null) {
+            message = new CapturedMessage(new String[] { request.getMethod(),
+                                                         String.valueOf(request.getUri()),
+                                                         request.getVersion() },
+                                          copyHeaders(request),
+                                          copyEntity(request));
         }
-
-        // Print the message
-        logger.info(out.toString());
+        log(banner, context, message);
     }
 
     /**
@@ -131,129 +205,161 @@ public class MessageCapture {
      *         one of {@link CapturePoint#FILTERED_RESPONSE} or {@link CapturePoint#RESPONSE}
      */
     void capture(final Context context, final Response response, final CapturePoint mode) {
-        StringWriter out = new StringWriter();
-        PrintWriter writer = new PrintWriter(out);
-        String id = context.getId();
+        final String banner;
         switch (mode) {
         case RESPONSE:
-            captureResponse(writer, response, id);
+            banner = "%n%n<--- (response) id:%s ---%n%n";
             break;
         case FILTERED_RESPONSE:
-            captureFilteredResponse(writer, response, id);
+            banner = "%n%n<--- (filtered-response) id:%s ---%n%n";
             break;
         default:
             throw new IllegalArgumentException("The given mode is not accepted: " + mode.name());
         }
 
+        CapturedMessage message = null;
+        if (response != null) {
+            String[] statusLine = response.getStatus() == null
+                    ? new String[] { response.getVersion(), "" }
+                    : new String[] { response.getVersion(),
+                                     String.valueOf(response.getStatus().getCode()),
+                                     response.getStatus().getReasonPhrase() };
+            message = new CapturedMessage(statusLine, copyHeaders(response), copyEntity(response));
+        }
+        log(banner, context, message);
+    }
+
+    private void log(final String banner, final Context context, final CapturedMessage message) {
+        final String id = context.getId();
+        // The attributes are copied now, as they (or the objects they hold) may change once the message is processed
+        final Map<String, Object> attributes = captureContext ? copyAttributes(context) : null;
+        if (executor == null) {
+            print(banner, id, message, attributes);
+            return;
+        }
+        // The executor may drop the message if it is overloaded
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    print(banner, id, message, attributes);
+                } catch (RuntimeException e) {
+                    // Nobody else would notice it
+                    logger.error("Cannot log a captured message");
+                    logger.error(e);
+                }
+            }
+        });
+    }
+
+    private void print(final String banner,
+                       final String id,
+                       final CapturedMessage message,
+                       final Map<String, Object> attributes) {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        writer.printf(banner, id);
+        if (message != null) {
+            message.print(writer);
+        }
+
         // Prints the context if required
         if (captureContext) {
             writer.println("Context's content as JSON:");
-            captureContextAsJson(writer, context);
+            if (attributes != null) {
+                writer.println(prettyPrint(toJson(attributes)));
+            }
         }
+        writer.flush();
 
         // Print the message
         logger.info(out.toString());
     }
 
-    private void captureContextAsJson(final PrintWriter writer, final Context context) {
+    private static Map<String, Object> copyAttributes(final Context context) {
         // TODO we restrict ourselves to attributes only here, we should pretty print the chain of contexts instead
-        if (context.containsContext(AttributesContext.class)) {
-            AttributesContext attributesContext = context.asContext(AttributesContext.class);
-            Map<String, Object> map = new LinkedHashMap<>(attributesContext.getAttributes());
-            map.remove("javax.servlet.http.HttpServletRequest");
-            map.remove("javax.servlet.http.HttpServletResponse");
-            writer.println(prettyPrint(toJson(map)));
-        }
-    }
-
-    private void captureRequest(PrintWriter writer, Request request, String id) {
-        writer.printf("%n%n--- (request) id:%s --->%n%n", id);
-        if (request != null) {
-            captureRequestMessage(writer, request);
+        if (!context.containsContext(AttributesContext.class)) {
+            return null;
         }
-    }
-
-    private void captureFilteredRequest(PrintWriter writer, Request request, String id) {
-        writer.printf("%n%n--- (filtered-request) id:%s --->%n%n", id);
-        if (request != null) {
-            captureRequestMessage(writer, request);
+        AttributesContext attributesContext = context.asContext(AttributesContext.class);
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> attribute : attributesContext.getAttributes().entrySet()) {
+            map.put(attribute.getKey(), copyValue(attribute.getValue()));
         }
+        map.remove("javax.servlet.http.HttpServletRequest");
+        map.remove("javax.servlet.http.HttpServletResponse");
+        return map;
     }
 
-    private void captureResponse(PrintWriter writer, Response response, String id) {
-        writer.printf("%n%n<--- (response) id:%s ---%n%n", id);
-        if (response != null) {
-            captureResponseMessage(writer, response);
+    /**
+     * Copies the maps, collections and arrays (recursively), the other values are expected to be immutable.
+     */
+    private static Object copyValue(final Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                copy.put(entry.getKey(), copyValue(entry.getValue()));
+            }
+            return copy;
         }
-    }
-
-    private void captureFilteredResponse(PrintWriter writer, Response response, String id) {
-        writer.printf("%n%n<--- (filtered-response) id:%s ---%n%n", id);
-        if (response != null) {
-            captureResponseMessage(writer, response);
+        if (value instanceof Collection) {
+            List<Object> copy = new ArrayList<>();
+            for (Object element : (Collection<?>) value) {
+                copy.add(copyValue(element));
+            }
+            return copy;
         }
-    }
-
-    private void captureRequestMessage(final PrintWriter writer, Request request) {
-        writer.println(request.getMethod() + " " + request.getUri() + " " + request.getVersion());
-        writeHeaders(writer, request);
-        writeEntity(writer, request);
-        writer.flush();
-    }
-
-    private void captureResponseMessage(final PrintWriter writer, Response response) {
-        writer.print(response.getVersion() + " ");
-        if (response.getStatus() != null) {
-            writer.print(response.getStatus().getCode() + " ");
-            writer.print(response.getStatus().getReasonPhrase());
+        if (value instanceof Object[]) {
+            return copyValue(Arrays.asList((Object[]) value));
         }
-        writer.println();
-        writeHeaders(writer, response);
-        writeEntity(writer, response);
-        writer.flush();
+        return value;
     }
 
-    private void writeHeaders(final PrintWriter writer, Message message) {
+    private static Map<String, List<String>> copyHeaders(final Message message) {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
         for (Map.Entry<String, Header> entry : message.getHeaders().asMapOfHeaders().entrySet()) {
-            for (String value : entry.getValue().getValues()) {
-                writer.println(entry.getKey() + ": " + value);
-            }
+            headers.put(entry.getKey(), new ArrayList<>(entry.getValue().getValues()));
         }
+        return headers;
     }
 
-    private void writeEntity(final PrintWriter writer, Message message) {
+    private CapturedEntity copyEntity(final Message message) {
         ContentTypeHeader contentType = ContentTypeHeader.valueOf(message);
         if (message.getEntity() == null || contentType.getType() == null) {
-            return;
+            return null;
         }
-        writer.println();
         if (!captureEntity) {
             // simply show presence of an entity
-            writer.println("[entity]");
-            return;
+            return new CapturedEntity("[entity]");
         }
         if (!isTextualContent(contentType)) {
-            writer.println("[binary entity]");
-            return;
+            return new CapturedEntity("[binary entity]");
         }
         try {
+            Charset charset = contentType.getCharset() != null ? contentType.getCharset() : ISO_8859_1;
+            // Enough bytes to decode the maximum number of characters, whatever the charset
+            int maxBytes = maxEntityLength < 0
+                    ? Integer.MAX_VALUE
+                    : (int) Math.min((long) maxEntityLength * MAX_BYTES_PER_CHAR, Integer.MAX_VALUE);
+            TruncatingOutputStream out = new TruncatingOutputStream(maxBytes);
             message.getEntity().push();
             try {
-                message.getEntity().copyDecodedContentTo(writer);
+                message.getEntity().copyDecodedContentTo(out);
+            } catch (EntityTruncatedException ete) {
+                // The remaining bytes are not needed
             } finally {
                 message.getEntity().pop();
             }
+            return new CapturedEntity(out.toByteArray(), charset, out.truncated);
         } catch (UnsupportedEncodingException uee) {
-            writer.println("[entity contains data in unsupported encoding]");
+            return CapturedEntity.failure("[entity contains data in unsupported encoding]");
         } catch (UnsupportedCharsetException uce) {
-            writer.println("[entity contains characters in unsupported character set]");
+            return CapturedEntity.failure("[entity contains characters in unsupported character set]");
         } catch (IllegalCharsetNameException icne) {
-            writer.println("[entity contains characters in illegal character set]");
+            return CapturedEntity.failure("[entity contains characters in illegal character set]");
         } catch (IOException e) {
-            writer.println("[IOException during entity writing] - " + e.getMessage());
+            return CapturedEntity.failure("[IOException during entity writing] - " + e.getMessage());
         }
-        // entity may not terminate with new line, so here it is
-        writer.println();
     }
 
     /**
@@ -273,4 +379,133 @@ public class MessageCapture {
                 || (type != null && (TEXT_TYPES.contains(type) || type.startsWith("text/")));
     }
 
+    /**
+     * Signals that the maximum length of the captured entity is reached, to stop decoding it.
+     */
+    private static final class EntityTruncatedException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Copies the first bytes of the entity, then fails with an {@link EntityTruncatedException}.
+     */
+    private static final class TruncatingOutputStream extends OutputStream {
+        private final ByteArrayOutputStream delegate = new ByteArrayOutputStream();
+        private int remaining;
+        private boolean truncated;
+
+        TruncatingOutputStream(final int maxLength) {
+            this.remaining = maxLength;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] buffer, final int offset, final int length) throws IOException {
+            if (length > remaining) {
+                delegate.write(buffer, offset, remaining);
+                remaining = 0;
+                truncated = true;
+                throw new EntityTruncatedException();
+            }
+            delegate.write(buffer, offset, length);
+            remaining -= length;
+        }
+
+        byte[] toByteArray() {
+            return delegate.toByteArray();
+        }
+    }
+
+    /**
+     * An immutable copy of a captured message, printed once handed off.
+     */
+    private final class CapturedMessage {
+        private final String[] startLine;
+        private final Map<String, List<String>> headers;
+        private final CapturedEntity entity;
+
+        CapturedMessage(final String[] startLine,
+                        final Map<String, List<String>> headers,
+                        final CapturedEntity entity) {
+            this.startLine = startLine;
+            this.headers = headers;
+            this.entity = entity;
+        }
+
+        void print(final PrintWriter writer) {
+            for (int i = 0; i < startLine.length; i++) {
+                writer.print(i == 0 ? startLine[i] : " " + startLine[i]);
+            }
+            writer.println();
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                for (String value : header.getValue()) {
+                    writer.println(header.getKey() + ": " + value);
+                }
+            }
+            if (entity != null) {
+                printEntity(writer);
+            }
+        }
+
+        private void printEntity(final PrintWriter writer) {
+            writer.println();
+            if (entity.note != null) {
+                writer.println(entity.note);
+                return;
+            }
+            if (entity.failure != null) {
+                writer.println(entity.failure);
+            } else {
+                String content = new String(entity.content, entity.charset);
+                if (maxEntityLength >= 0 && (entity.truncated || content.length() > maxEntityLength)) {
+                    writer.print(content.substring(0, Math.min(maxEntityLength, content.length())));
+                    writer.println();
+                    writer.printf("[entity truncated after %d characters]", maxEntityLength);
+                } else {
+                    writer.print(content);
+                }
+            }
+            // entity may not terminate with new line, so here it is
+            writer.println();
+        }
+    }
+
+    /**
+     * The first bytes of a captured entity, or the reason why they are not printed.
+     */
+    private static final class CapturedEntity {
+        private final String note;
+        private final String failure;
+        private final byte[] content;
+        private final Charset charset;
+        private final boolean truncated;
+
+        CapturedEntity(final String note) {
+            this(note, null, null, null, false);
+        }
+
+        CapturedEntity(final byte[] content, final Charset charset, final boolean truncated) {
+            this(null, null, content, charset, truncated);
+        }
+
+        private CapturedEntity(final String note,
+                               final String failure,
+                               final byte[] content,
+                               final Charset charset,
+                               final boolean truncated) {
+            this.note = note;
+            this.failure = failure;
+            this.content = content;
+            this.charset = charset;
+            this.truncated = truncated;
+        }
+
+        static CapturedEntity failure(final String failure) {
+            return new CapturedEntity(null, failure, null, null, false);
+        }
+    }
 }
@@ -16,12 +16,23 @@
 
 package org.forgerock.openig.decoration.timer;
 
+import static org.forgerock.openig.heap.Keys.ENDPOINT_REGISTRY_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.LOGSINK_HEAP_KEY;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
+import static org.forgerock.openig.util.StringUtil.slug;
+import static org.forgerock.util.promise.Promises.newResultPromise;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.forgerock.http.Filter;
 import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
 import org.forgerock.json.JsonValue;
 import org.forgerock.openig.decoration.Context;
 import org.forgerock.openig.decoration.Decorator;
@@ -30,8 +41,12 @@ import org.forgerock.openig.decoration.helper.DecoratorHeaplet;
 import org.forgerock.openig.heap.Heap;
 import org.forgerock.openig.heap.HeapException;
 import org.forgerock.openig.heap.Name;
+import org.forgerock.openig.http.EndpointRegistry;
 import org.forgerock.openig.log.LogSink;
 import org.forgerock.openig.log.Logger;
+import org.forgerock.util.annotations.VisibleForTesting;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
 
 /**
  * The {@literal timer} decorator can decorate both {@link Filter} and {@link Handler} instances.
@@ -60,15 +75,50 @@ import org.forgerock.openig.log.Logger;
  * </pre>
  *
  * There is no special configuration required for this decorator.
+ * <p>
+ * Instead of logging each request, the decorator can record the elapsed times of each decorated heap object into
+ * histograms:
+ * <pre>
+ *     {@code
+ *     {
+ *       "name": "timer",
+ *       "type": "TimerDecorator",
+ *       "config": {
+ *         "histogram": true
+ *       }
+ *     }
+ *     }
+ * </pre>
+ * The count, mean, median, 99th and 99.9th percentiles and maximum of the elapsed times of the decorated objects
+ * are then exposed (in milliseconds) by the endpoint of the decorator, for example {@literal
+ * /openig/api/system/objects/timer}. The histograms of an object are dropped once it is destroyed (for example,
+ * when its route is unloaded).
  *
  * A default {@literal timer} decorator is automatically created when OpenIG starts.
  */
 public class TimerDecorator extends AbstractHandlerAndFilterDecorator {
 
+    /** The histograms of the decorated objects, by name, or {@code null} to log the elapsed times. */
+    private final ConcurrentMap<String, TimerHistograms> histograms;
+
+    /**
+     * Creates a new decorator logging the elapsed times.
+     */
+    public TimerDecorator() {
+        this(false);
+    }
+
+    private TimerDecorator(final boolean histogram) {
+        this.histograms = histogram ? new ConcurrentHashMap<String, TimerHistograms>() : null;
+    }
+
     @Override
     protected Filter decorateFilter(final Filter delegate, final JsonValue decoratorConfig, final Context context)
             throws HeapException {
         if (decoratorConfig.as(evaluated()).asBoolean()) {
+            if (histograms != null) {
+                return new HistogramTimerFilter(delegate, newHistograms(context));
+            }
             return new TimerFilter(delegate, getLogger(context));
         }
         return delegate;
@@ -78,11 +128,34 @@ public class TimerDecorator extends AbstractHandlerAndFilterDecorator {
     protected Handler decorateHandler(final Handler delegate, final JsonValue decoratorConfig, final Context context)
             throws HeapException {
         if (decoratorConfig.as(evaluated()).asBoolean()) {
+            if (histograms != null) {
+                return new HistogramTimerHandler(delegate, newHistograms(context));
+            }
             return new TimerHandler(delegate, getLogger(context));
         }
         return delegate;
     }
 
+    private TimerHistograms newHistograms(final Context context) {
+        // A re-created heap object (for example, when its route is reloaded) starts with new histograms
+        final String name = context.getName().getFullyQualifiedName();
+        final TimerHistograms objectHistograms = new TimerHistograms();
+        histograms.put(name, objectHistograms);
+        context.onDestroy(new Runnable() {
+            @Override
+            public void run() {
+                // The re-created object may already have replaced these histograms
+                histograms.remove(name, objectHistograms);
+            }
+        });
+        return objectHistograms;
+    }
+
+    @VisibleForTesting
+    Map<String, TimerHistograms> getHistograms() {
+        return histograms;
+    }
+
     /**
      * Builds a new Logger dedicated for the heap object context.
      *
@@ -107,9 +180,49 @@ public class TimerDecorator extends AbstractHandlerAndFilterDecorator {
      * Creates and initializes a TimerDecorator in a heap environment.
      */
     public static class Heaplet extends DecoratorHeaplet {
+
+        private EndpointRegistry.Registration registration;
+
         @Override
         public Decorator create() throws HeapException {
-            return new TimerDecorator();
+            if (!config.get("histogram").as(evaluated()).defaultTo(false).asBoolean()) {
+                return new TimerDecorator();
+            }
+            TimerDecorator decorator = new TimerDecorator(true);
+            EndpointRegistry registry = heap.get(ENDPOINT_REGISTRY_HEAP_KEY, EndpointRegistry.class);
+            registration = registry.register(slug(name.getLeaf()), new HistogramsHandler(decorator.histograms));
+            return decorator;
+        }
+
+        @Override
+        public void destroy() {
+            if (registration != null) {
+                registration.unregister();
+            }
+            super.destroy();
+        }
+    }
+
+    /**
+     * Exposes the histograms of the decorated objects.
+     */
+    private static final class HistogramsHandler implements Handler {
+        private final Map<String, TimerHistograms> histograms;
+
+        HistogramsHandler(final Map<String, TimerHistograms> histograms) {
+            this.histograms = histograms;
+        }
+
+        @Override
+        public Promise<Response, NeverThrowsException> handle(final org.forgerock.services.context.Context context,
+                                                              final Request request) {
+            Map<String, Object> objects = new TreeMap<>();
+            for (Map.Entry<String, TimerHistograms> entry : histograms.entrySet()) {
+                objects.put(entry.getKey(), entry.getValue().toJson());
+            }
+            Response response = new Response(Status.OK);
+            response.getEntity().setJson(objects);
+            return newResultPromise(response);
         }
     }
 }
@@ -20,6 +20,7 @@ import org.forgerock.http.Filter;
 import org.forgerock.http.Handler;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
+import org.forgerock.openig.log.LogLevel;
 import org.forgerock.openig.log.LogTimer;
 import org.forgerock.openig.log.Logger;
 import org.forgerock.services.context.Context;
@@ -30,6 +31,8 @@ import org.forgerock.util.promise.Promise;
  * Log a {@literal started} message when an {@link Request} is flowing into this Filter and both a {@literal
  * elapsed} and (potentially, if not equals to the globally elapsed time) {@literal elapsed-within}
  * messages when the {@link Response} is flowing out, delegating to a given encapsulated {@link Filter} instance.
+ * <p>
+ * When the {@literal STAT} level is not loggable, the request is directly filtered by the delegate, without timing.
  */
 class TimerFilter implements Filter {
     private final Filter delegate;
@@ -44,6 +47,9 @@ class TimerFilter implements Filter {
     public Promise<Response, NeverThrowsException> filter(final Context context,
                                                           final Request request,
                                                           final Handler next) {
+        if (!logger.isLoggable(LogLevel.STAT)) {
+            return delegate.filter(context, request, next);
+        }
         final LogTimer timer = logger.getTimer().start();
         // Wraps the next handler to mark when the flow exits/re-enter the delegated filter
         // Used to pause/resume the timer
@@ -19,6 +19,7 @@ package org.forgerock.openig.decoration.timer;
 import org.forgerock.http.Handler;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
+import org.forgerock.openig.log.LogLevel;
 import org.forgerock.openig.log.LogTimer;
 import org.forgerock.openig.log.Logger;
 import org.forgerock.services.context.Context;
@@ -28,6 +29,8 @@ import org.forgerock.util.promise.Promise;
 /**
  * Log a {@literal started} message when a {@link Request} is flowing into this Handler and an {@literal elapsed}
  * message when the {@link Response} is flowing out, delegating to a given encapsulated {@link Handler} instance.
+ * <p>
+ * When the {@literal STAT} level is not loggable, the request is directly handled by the delegate, without timing.
  */
 class TimerHandler implements Handler {
     private final Handler delegate;
@@ -40,6 +43,9 @@ class TimerHandler implements Handler {
 
     @Override
     public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+        if (!logger.isLoggable(LogLevel.STAT)) {
+            return delegate.handle(context, request);
+        }
         final LogTimer timer = logger.getTimer().start();
         return delegate.handle(context, request)
                 .thenAlways(new Runnable() {
@@ -0,0 +1,114 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.decoration.timer;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.object;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+
+import org.forgerock.openig.util.AtomicHistogram;
+
+/**
+ * Records the elapsed times of a decorated heap object into histograms, in microseconds: the {@literal elapsed}
+ * time is the whole time spent in the object, and the {@literal elapsed-within} time excludes the time spent in the
+ * next handler (for a filter).
+ */
+class TimerHistograms {
+
+    /** The elapsed times above one hour are counted as one hour. */
+    private static final long HIGHEST_TRACKABLE_MICROS = HOURS.toMicros(1L);
+
+    private static final BigDecimal ONE_THOUSAND = BigDecimal.valueOf(1000);
+
+    private final AtomicHistogram elapsed = new AtomicHistogram(HIGHEST_TRACKABLE_MICROS);
+    private final AtomicHistogram elapsedWithin = new AtomicHistogram(HIGHEST_TRACKABLE_MICROS);
+
+    /**
+     * Starts a new timing, that will be recorded when stopped.
+     *
+     * @return a new started timing
+     */
+    Timing start() {
+        return new Timing();
+    }
+
+    /**
+     * Returns the count and the percentiles (in milliseconds) of the recorded elapsed times.
+     *
+     * @return the count and the percentiles of the recorded elapsed times
+     */
+    Map<String, Object> toJson() {
+        return object(field("elapsed", toJson(elapsed.getSnapshot())),
+                      field("elapsed-within", toJson(elapsedWithin.getSnapshot())));
+    }
+
+    private static Map<String, Object> toJson(final AtomicHistogram.Snapshot snapshot) {
+        return object(field("count", snapshot.getCount()),
+                      field("mean", toMilliseconds(snapshot.getMean())),
+                      field("p50", toMilliseconds(snapshot.getValue(0.5))),
+                      field("p99", toMilliseconds(snapshot.getValue(0.99))),
+                      field("p999", toMilliseconds(snapshot.getValue(0.999))),
+                      field("max", toMilliseconds(snapshot.getMax())));
+    }
+
+    private static BigDecimal toMilliseconds(final double micros) {
+        return BigDecimal.valueOf(micros)
+                         .divide(ONE_THOUSAND, 3, RoundingMode.HALF_DOWN);
+    }
+
+    /**
+     * The timing of a single request, that can be paused while the next handler processes it.
+     */
+    final class Timing {
+        private final long started = System.nanoTime();
+        private long paused = Long.MIN_VALUE; // indicates the timing is not paused
+        private long ignorable;
+
+        /**
+         * Marks the beginning of a pause (does nothing if already paused).
+         */
+        void pause() {
+            if (paused == Long.MIN_VALUE) {
+                paused = System.nanoTime();
+            }
+        }
+
+        /**
+         * Marks the end of a pause (does nothing if not paused).
+         */
+        void resume() {
+            if (paused != Long.MIN_VALUE) {
+                ignorable += System.nanoTime() - paused;
+                paused = Long.MIN_VALUE;
+            }
+        }
+
+        /**
+         * Stops this timing and records its elapsed times.
+         */
+        void stop() {
+            final long total = System.nanoTime() - started;
+            elapsed.record(NANOSECONDS.toMicros(total));
+            elapsedWithin.record(NANOSECONDS.toMicros(total - ignorable));
+        }
+    }
+}
@@ -19,9 +19,11 @@ package org.forgerock.openig.el;
 
 import static java.util.Collections.unmodifiableMap;
 
+import java.util.AbstractMap;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
@@ -37,6 +39,9 @@ public class Bindings {
 
     private final Map<String, Object> map = new LinkedHashMap<>();
 
+    /** Unmodifiable view of {@link #map}, reflecting its changes. */
+    private final Map<String, Object> view = unmodifiableMap(map);
+
     /**
      * Returns an empty {@link Bindings} instance (mutable).
      *
@@ -50,7 +55,9 @@ public class Bindings {
      * Returns a {@link Bindings} initialized with the given {@code context} and {@code request}.
      *
      * <p>The returned bindings contain a {@code contexts} entry that provides easy access to visible parent
-     * Contexts ({@code contexts.http, contexts.client, ...}).
+     * Contexts ({@code contexts.http, contexts.client, ...}). That entry is lazily computed: looking up a
+     * single context walks the context chain without allocating anything, and the whole chain is only flattened
+     * if the entry is iterated.
      *
      * <p>They also give access to the context's {@code attributes} from the
      * {@link org.forgerock.services.context.AttributesContext} and to the {@code session}
@@ -63,7 +70,7 @@ public class Bindings {
     public static Bindings bindings(Context context) {
         Bindings bindings = bindings("context", context);
         if (context != null) {
-            bindings.bind("contexts", flatten(context));
+            bindings.bind("contexts", new FlattenedContexts(context));
             if (context.containsContext(AttributesContext.class)) {
                 bindings.bind("attributes", context.asContext(AttributesContext.class).getAttributes());
             }
@@ -154,7 +161,7 @@ public class Bindings {
      * @return an unmodifiable {@code Map} view of this instance (never {@code null}).
      */
     public Map<String, Object> asMap() {
-        return unmodifiableMap(map);
+        return view;
     }
 
     /**
@@ -195,4 +202,44 @@ public class Bindings {
         return map.toString();
     }
 
+    /**
+     * Read-only {@link Map} view of a {@link Context} chain keyed by context name, as returned by
+     * {@link #flatten(Context)}. Lookups walk the chain from the leaf, the flattened map is only built when the
+     * entries are requested.
+     */
+    private static final class FlattenedContexts extends AbstractMap<String, Context> {
+        private final Context leaf;
+        private Map<String, Context> flattened;
+
+        FlattenedContexts(final Context leaf) {
+            this.leaf = leaf;
+        }
+
+        @Override
+        public Context get(final Object name) {
+            Context context = leaf;
+            while (context != null) {
+                if (context.getContextName().equals(name)) {
+                    // The closest context wins
+                    return context;
+                }
+                context = context.getParent();
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(final Object name) {
+            return get(name) != null;
+        }
+
+        @Override
+        public Set<Entry<String, Context>> entrySet() {
+            if (flattened == null) {
+                flattened = unmodifiableMap(flatten(leaf));
+            }
+            return flattened.entrySet();
+        }
+    }
+
 }
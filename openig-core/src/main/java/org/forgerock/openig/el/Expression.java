@@ -23,6 +23,7 @@ import java.beans.FeatureDescriptor;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.el.BeanELResolver;
 import javax.el.ELContext;
@@ -43,6 +44,16 @@ import de.odysseus.el.ExpressionFactoryImpl;
  * An Unified Expression Language expression. Creating an expression is the equivalent to
  * compiling it. Once created, an expression can be evaluated within a supplied scope. An
  * expression can safely be evaluated concurrently in multiple threads.
+ * <p>
+ * All the expressions share the same expression factory: identical expression strings (for instance the same
+ * condition used in several routes) are parsed only once. Evaluations re-use an {@link ELContext} confined to the
+ * evaluating thread instead of allocating a new one each time.
+ * <p>
+ * When the {@value #COMPILATION_PROPERTY} system property is set to {@literal true}, the expressions made of the
+ * most common constructs (property accesses on the request, equality tests, boolean operators, {@literal matches()}
+ * calls, ...) are additionally compiled into specialized evaluation trees that do not rely on the EL interpreter nor
+ * on reflection. The interpreter is still used for all the other expressions, for assignments, and whenever a
+ * compiled expression cannot evaluate the given values exactly like the interpreter would.
  *
  * @param <T> expected result type
  */
@@ -54,13 +65,35 @@ public final class Expression<T> {
     /** The original string used to create this expression. */
     private final String original;
 
+    /** The compiled form of this expression, {@code null} if it is not compiled. */
+    private final ExpressionCompiler.Node compiled;
+
     /** The expected type of this expression. */
     private Class<T> expectedType;
 
+    /** Name of the system property enabling the compilation of the expressions. */
+    public static final String COMPILATION_PROPERTY = "org.forgerock.openig.el.compile";
+
+    /** {@literal true} if the supported expressions have to be compiled. */
+    private static final boolean COMPILATION_ENABLED = Boolean.getBoolean(COMPILATION_PROPERTY);
+
     /** The expression plugins configured in META-INF/services. */
-    private static final Map<String, ExpressionPlugin> PLUGINS =
+    static final Map<String, ExpressionPlugin> PLUGINS =
             Collections.unmodifiableMap(Loader.loadMap(String.class, ExpressionPlugin.class));
 
+    /**
+     * The shared (thread-safe) expression factory, its tree cache ensures that a given expression string is parsed
+     * only once.
+     */
+    private static final ExpressionFactoryImpl FACTORY = new ExpressionFactoryImpl();
+
+    /**
+     * Idle evaluation contexts, re-used by successive evaluations. They are not bound to the (pooled) threads, so
+     * that they do not retain this class loader once the application is undeployed.
+     */
+    private static final AtomicReferenceArray<XLContext> CONTEXTS =
+            new AtomicReferenceArray<>(Runtime.getRuntime().availableProcessors() * 2);
+
     /**
      * Factory method to create an Expression.
      *
@@ -86,7 +119,6 @@ public final class Expression<T> {
         original = expression;
         this.expectedType = expectedType;
         try {
-            ExpressionFactoryImpl exprFactory = new ExpressionFactoryImpl();
             /*
              * We still use Object.class but use the expectedType in the evaluation. If we use the expectedType instead
              * of Object.class at the creation, then we had some breaking changes :
@@ -96,10 +128,11 @@ public final class Expression<T> {
              *
              * But note that by still using Object.class prevents from using our own TypeConverter.
              */
-            valueExpression = exprFactory.createValueExpression(new XLContext(null), expression, Object.class);
+            valueExpression = FACTORY.createValueExpression(new XLContext(null), expression, Object.class);
         } catch (ELException ele) {
             throw new ExpressionException(ele);
         }
+        compiled = COMPILATION_ENABLED ? ExpressionCompiler.compile(expression) : null;
     }
 
     /**
@@ -111,14 +144,22 @@ public final class Expression<T> {
      * @return the result of the expression evaluation, or {@code null} if it does not resolve or match the type.
      */
     public T eval(final Bindings bindings) {
+        if (compiled != null) {
+            try {
+                return cast(compiled.eval(bindings.asMap()));
+            } catch (ExpressionCompiler.FallbackException e) {
+                // Values not supported by the compiled form, let the interpreter evaluate them
+            }
+        }
+        XLContext context = acquire(bindings.asMap());
         try {
-            Object value = valueExpression.getValue(new XLContext(bindings.asMap()));
-            return (value != null && expectedType.isInstance(value) ? expectedType.cast(value) : null);
+            return cast(valueExpression.getValue(context));
         } catch (ELException ele) {
             // unresolved element yields null value
             return null;
+        } finally {
+            context.release();
         }
-
     }
 
     /**
@@ -140,20 +181,73 @@ public final class Expression<T> {
      */
     public void set(Bindings bindings, Object value) {
         Reject.ifNull(bindings);
+        XLContext context = acquire(bindings.asMap());
         try {
-            valueExpression.setValue(new XLContext(bindings.asMap()), value);
+            valueExpression.setValue(context, value);
         } catch (ELException ele) {
             // unresolved elements are simply ignored
+        } finally {
+            context.release();
         }
     }
 
+    private T cast(final Object value) {
+        return (value != null && expectedType.isInstance(value) ? expectedType.cast(value) : null);
+    }
+
+    /**
+     * Returns an idle evaluation context initialized with the given scope, or a new context if none is idle (many
+     * concurrent or nested evaluations).
+     */
+    private static XLContext acquire(final Object scope) {
+        XLContext context = null;
+        int length = CONTEXTS.length();
+        int start = slot(length);
+        for (int i = 0; i < length && context == null; i++) {
+            int index = (start + i) % length;
+            XLContext idle = CONTEXTS.get(index);
+            if (idle != null && CONTEXTS.compareAndSet(index, idle, null)) {
+                context = idle;
+            }
+        }
+        if (context == null) {
+            context = new XLContext(null);
+        }
+        context.setPropertyResolved(false);
+        context.elResolver.setScope(scope);
+        return context;
+    }
+
+    /**
+     * Returns the first slot of the idle contexts to look at from the current thread, to limit the contention.
+     */
+    private static int slot(final int length) {
+        return (int) (Thread.currentThread().getId() % length);
+    }
+
     private static class XLContext extends ELContext {
-        private final ELResolver elResolver;
+        private final XLResolver elResolver;
 
         public XLContext(Object scope) {
             elResolver = new XLResolver(scope);
         }
 
+        /**
+         * Releases this context once the evaluation is done, so it can be re-used by a next evaluation (it is simply
+         * dropped if there are already enough idle contexts).
+         */
+        void release() {
+            elResolver.setScope(null);
+            int length = CONTEXTS.length();
+            int start = slot(length);
+            for (int i = 0; i < length; i++) {
+                int index = (start + i) % length;
+                if (CONTEXTS.get(index) == null && CONTEXTS.compareAndSet(index, null, this)) {
+                    return;
+                }
+            }
+        }
+
         @Override
         public ELResolver getELResolver() {
             return elResolver;
@@ -172,11 +266,16 @@ public final class Expression<T> {
 
     private static class XLResolver extends ELResolver {
         private static final BeanELResolver RESOLVER = new BeanELResolver(true);
-        private final Object scope;
+        private static final Object EMPTY_SCOPE = new Object();
+        private Object scope;
 
         public XLResolver(final Object scope) {
+            setScope(scope);
+        }
+
+        void setScope(final Object scope) {
             // Resolvers.get() don't support null value
-            this.scope = (scope == null) ? new Object() : scope;
+            this.scope = (scope == null) ? EMPTY_SCOPE : scope;
         }
 
         @Override
@@ -0,0 +1,727 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.el;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.forgerock.http.MutableUri;
+import org.forgerock.http.protocol.Headers;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.openig.resolver.Resolver;
+import org.forgerock.openig.resolver.Resolvers;
+
+/**
+ * Compiles the most common shapes of expressions (the ones found in route conditions, dispatch and switch cases) into
+ * a tree of specialized evaluation nodes, bypassing the generic EL tree interpretation.
+ *
+ * <p>The supported subset is made of a single {@literal ${...}} evaluation containing:
+ * <ul>
+ *     <li>string, boolean, {@literal null} literals (and integer literals as indexes)</li>
+ *     <li>property accesses ({@literal a.b}, {@literal a['b']}, {@literal a[0]}), with direct accessors for
+ *     {@link Request}, {@link MutableUri} and {@link Headers}</li>
+ *     <li>{@literal ==}, {@literal !=}, {@literal &&}, {@literal ||}, {@literal !} (and their keyword forms)</li>
+ *     <li>direct calls to some of the {@link Functions} ({@literal matches}, {@literal contains},
+ *     {@literal toLowerCase}, {@literal toUpperCase}, {@literal trim}), literal patterns being compiled once</li>
+ *     <li>{@literal startsWith}, {@literal endsWith}, {@literal contains}, {@literal equals} and
+ *     {@literal equalsIgnoreCase} calls on strings</li>
+ * </ul>
+ * Expressions using any other construct are not compiled and stay interpreted. When a compiled expression meets a
+ * value it cannot handle exactly like the interpreter would (numeric comparisons, enums, method calls on other types,
+ * ...), or when a function call fails, it throws {@link FallbackException} and the caller has to interpret the
+ * expression instead (the interpreter evaluates a failing function call to a {@code null} expression).
+ */
+final class ExpressionCompiler {
+
+    /**
+     * Thrown (without stack trace) when a compiled expression cannot evaluate the given values exactly like the
+     * interpreter: the expression has to be interpreted.
+     */
+    static final class FallbackException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        static final FallbackException INSTANCE = new FallbackException();
+
+        private FallbackException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * A compiled expression node.
+     */
+    abstract static class Node {
+
+        /**
+         * Evaluates this node.
+         *
+         * @param scope
+         *         the bindings
+         * @return the value of this node
+         * @throws FallbackException
+         *         if the expression has to be interpreted
+         */
+        abstract Object eval(Map<String, Object> scope);
+    }
+
+    /**
+     * Thrown when the expression uses a construct that is not supported by the compiler.
+     */
+    private static final class UnsupportedSyntaxException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedSyntaxException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private ExpressionCompiler() {
+    }
+
+    /**
+     * Compiles the given expression.
+     *
+     * @param expression
+     *         the original expression string
+     * @return the compiled expression, or {@code null} if the expression uses constructs that are not supported
+     */
+    static Node compile(final String expression) {
+        if (expression == null || !expression.startsWith("${") || !expression.endsWith("}")) {
+            return null;
+        }
+        try {
+            Parser parser = new Parser(tokenize(expression.substring(2, expression.length() - 1)));
+            Node node = parser.or();
+            if (parser.peek() != null) {
+                return null;
+            }
+            return node;
+        } catch (UnsupportedSyntaxException e) {
+            return null;
+        }
+    }
+
+    // Lexical analysis
+
+    private enum Type {
+        IDENTIFIER, STRING, INTEGER, SYMBOL
+    }
+
+    private static final class Token {
+        private final Type type;
+        private final String text;
+
+        Token(final Type type, final String text) {
+            this.type = type;
+            this.text = text;
+        }
+
+        boolean is(final String symbol) {
+            return (type == Type.SYMBOL || type == Type.IDENTIFIER) && text.equals(symbol);
+        }
+    }
+
+    private static List<Token> tokenize(final String content) throws UnsupportedSyntaxException {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < content.length()) {
+            char c = content.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (Character.isJavaIdentifierStart(c) && c != '$') {
+                int start = i;
+                while (i < content.length() && Character.isJavaIdentifierPart(content.charAt(i))
+                        && content.charAt(i) != '$') {
+                    i++;
+                }
+                tokens.add(new Token(Type.IDENTIFIER, content.substring(start, i)));
+            } else if (c >= '0' && c <= '9') {
+                int start = i;
+                while (i < content.length() && content.charAt(i) >= '0' && content.charAt(i) <= '9') {
+                    i++;
+                }
+                if (i < content.length() && (content.charAt(i) == '.' || Character.isLetter(content.charAt(i)))) {
+                    // Floating point numbers and exponents are not supported
+                    throw new UnsupportedSyntaxException();
+                }
+                tokens.add(new Token(Type.INTEGER, content.substring(start, i)));
+            } else if (c == '\'' || c == '"') {
+                StringBuilder value = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= content.length()) {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    char d = content.charAt(i++);
+                    if (d == c) {
+                        break;
+                    }
+                    if (d == '\\' && i < content.length()) {
+                        char escaped = content.charAt(i);
+                        if (escaped == '\\' || escaped == '\'' || escaped == '"') {
+                            d = escaped;
+                            i++;
+                        }
+                    }
+                    value.append(d);
+                }
+                tokens.add(new Token(Type.STRING, value.toString()));
+            } else if (content.startsWith("==", i) || content.startsWith("!=", i)
+                    || content.startsWith("&&", i) || content.startsWith("||", i)) {
+                tokens.add(new Token(Type.SYMBOL, content.substring(i, i + 2)));
+                i += 2;
+            } else if ("!.[](),".indexOf(c) != -1) {
+                tokens.add(new Token(Type.SYMBOL, String.valueOf(c)));
+                i++;
+            } else {
+                // Arithmetic, relational, ternary, nested expressions...
+                throw new UnsupportedSyntaxException();
+            }
+        }
+        return tokens;
+    }
+
+    // Syntactic analysis
+
+    private static final class Parser {
+        private final List<Token> tokens;
+        private int position;
+
+        Parser(final List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        Token peek() {
+            return position < tokens.size() ? tokens.get(position) : null;
+        }
+
+        Token next() throws UnsupportedSyntaxException {
+            Token token = peek();
+            if (token == null) {
+                throw new UnsupportedSyntaxException();
+            }
+            position++;
+            return token;
+        }
+
+        boolean accept(final String... symbols) {
+            Token token = peek();
+            if (token != null) {
+                for (String symbol : symbols) {
+                    if (token.is(symbol)) {
+                        position++;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        void expect(final String symbol) throws UnsupportedSyntaxException {
+            if (!accept(symbol)) {
+                throw new UnsupportedSyntaxException();
+            }
+        }
+
+        Node or() throws UnsupportedSyntaxException {
+            Node node = and();
+            while (accept("||", "or")) {
+                node = new Or(node, and());
+            }
+            return node;
+        }
+
+        Node and() throws UnsupportedSyntaxException {
+            Node node = equality();
+            while (accept("&&", "and")) {
+                node = new And(node, equality());
+            }
+            return node;
+        }
+
+        Node equality() throws UnsupportedSyntaxException {
+            Node node = unary();
+            if (accept("==", "eq")) {
+                return new Equals(node, unary(), false);
+            }
+            if (accept("!=", "ne")) {
+                return new Equals(node, unary(), true);
+            }
+            return node;
+        }
+
+        Node unary() throws UnsupportedSyntaxException {
+            if (accept("!", "not")) {
+                return new Not(unary());
+            }
+            return suffixes(primary());
+        }
+
+        Node primary() throws UnsupportedSyntaxException {
+            Token token = next();
+            switch (token.type) {
+            case STRING:
+                return new Literal(token.text);
+            case IDENTIFIER:
+                if (token.is("true") || token.is("false")) {
+                    return new Literal(Boolean.valueOf(token.text));
+                }
+                if (token.is("null")) {
+                    return new Literal(null);
+                }
+                if (isReserved(token.text)) {
+                    throw new UnsupportedSyntaxException();
+                }
+                if (accept("(")) {
+                    return function(token.text, arguments());
+                }
+                ExpressionPlugin plugin = Expression.PLUGINS.get(token.text);
+                return plugin != null ? new Plugin(plugin) : new Identifier(token.text);
+            case SYMBOL:
+                if (token.is("(")) {
+                    Node node = or();
+                    expect(")");
+                    return node;
+                }
+                throw new UnsupportedSyntaxException();
+            default:
+                throw new UnsupportedSyntaxException();
+            }
+        }
+
+        Node suffixes(final Node primary) throws UnsupportedSyntaxException {
+            Node node = primary;
+            while (true) {
+                if (accept(".")) {
+                    Token name = next();
+                    if (name.type != Type.IDENTIFIER) {
+                        throw new UnsupportedSyntaxException();
+                    }
+                    if (accept("(")) {
+                        node = method(node, name.text, arguments());
+                    } else {
+                        node = new Property(node, name.text);
+                    }
+                } else if (accept("[")) {
+                    Token index = next();
+                    expect("]");
+                    if (index.type == Type.STRING) {
+                        node = new Property(node, index.text);
+                    } else if (index.type == Type.INTEGER) {
+                        // EL integer literals are longs
+                        try {
+                            node = new Property(node, Long.valueOf(index.text));
+                        } catch (NumberFormatException e) {
+                            throw new UnsupportedSyntaxException();
+                        }
+                    } else {
+                        throw new UnsupportedSyntaxException();
+                    }
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        List<Node> arguments() throws UnsupportedSyntaxException {
+            List<Node> arguments = new ArrayList<>();
+            if (accept(")")) {
+                return arguments;
+            }
+            do {
+                arguments.add(or());
+            } while (accept(","));
+            expect(")");
+            return arguments;
+        }
+
+        private static boolean isReserved(final String identifier) {
+            switch (identifier) {
+            case "and":
+            case "or":
+            case "not":
+            case "eq":
+            case "ne":
+            case "lt":
+            case "gt":
+            case "le":
+            case "ge":
+            case "div":
+            case "mod":
+            case "empty":
+            case "instanceof":
+                return true;
+            default:
+                return false;
+            }
+        }
+    }
+
+    private static Node function(final String name, final List<Node> arguments) throws UnsupportedSyntaxException {
+        if (arguments.size() == 2) {
+            switch (name) {
+            case "matches":
+                Node pattern = arguments.get(1);
+                if (pattern instanceof Literal) {
+                    return new LiteralMatches(arguments.get(0), toStringValue(((Literal) pattern).value));
+                }
+                return new Function(name, arguments);
+            case "contains":
+                return new Function(name, arguments);
+            default:
+                break;
+            }
+        } else if (arguments.size() == 1) {
+            switch (name) {
+            case "toLowerCase":
+            case "toUpperCase":
+            case "trim":
+                return new Function(name, arguments);
+            default:
+                break;
+            }
+        }
+        throw new UnsupportedSyntaxException();
+    }
+
+    private static Node method(final Node base, final String name, final List<Node> arguments)
+            throws UnsupportedSyntaxException {
+        if (arguments.size() == 1) {
+            switch (name) {
+            case "startsWith":
+            case "endsWith":
+            case "contains":
+            case "equals":
+            case "equalsIgnoreCase":
+                return new StringMethod(base, name, arguments.get(0));
+            default:
+                break;
+            }
+        }
+        throw new UnsupportedSyntaxException();
+    }
+
+    // EL coercion rules
+
+    private static String toStringValue(final Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof String) {
+            return (String) value;
+        }
+        if (value instanceof Enum) {
+            throw FallbackException.INSTANCE;
+        }
+        return value.toString();
+    }
+
+    private static boolean toBoolean(final Object value) {
+        if (value == null) {
+            return false;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof String) {
+            return Boolean.valueOf((String) value);
+        }
+        throw FallbackException.INSTANCE;
+    }
+
+    private static boolean isNumeric(final Object value) {
+        return value instanceof Number || value instanceof Character;
+    }
+
+    // Nodes
+
+    private static final class Literal extends Node {
+        private final Object value;
+
+        Literal(final Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object eval(final Map<String, Object> scope) {
+            return value;
+        }
+    }
+
+    private static final class Plugin extends Node {
+        private final ExpressionPlugin plugin;
+
+        Plugin(final ExpressionPlugin plugin) {
+            this.plugin = plugin;
+        }
+
+        @Override
+        Object eval(final Map<String, Object> scope) {
+            return plugin.getObject();
+        }
+    }
+
+    private static final class Identifier extends Node {
+        private final String name;
+
+        Identifier(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object eval(final Map<String, Object> scope) {
+            if ("class".equals(name)) {
+                // Bean property of the bindings map itself
+                return resolve(scope, name);
+            }
+            return scope.get(name);
+        }
+    }
+
+    private static final class Property extends Node {
+        private final Node base;
+        private final Object name;
+
+        Property(final Node base, final Object name) {
+            this.base = base;
+            this.name = name;
+        }
+
+        @Override
+        Object eval(final Map<String, Object> scope) {
+            Object object = base.eval(scope);
+            if (object == null) {
+                return null;
+            }
+            if (object instanceof Request) {
+                Request request = (Request) object;
+                if ("uri".equals(name)) {
+                    return request.getUri();
+                } else if ("method".equals(name)) {
+                    return request.getMethod();
+                } else if ("headers".equals(name)) {
+                    return request.getHeaders();
+                }
+            } else if (object instanceof MutableUri) {
+                MutableUri uri = (MutableUri) object;
+                if ("path".equals(name)) {
+                    return uri.getPath();
+                } else if ("host".equals(name)) {
+                    return uri.getHost();
+                } else if ("scheme".equals(name)) {
+                    return uri.getScheme();
+                } else if ("query".equals(name)) {
+                    return uri.getQuery();
+                }
+            } else if (object instanceof Headers) {
+                Headers headers = (Headers) object;
+                String key = name.toString();
+                if (headers.containsKey(key)) {
+                    return headers.get(key).getValues();
+                }
+            }
+            return resolve(object, name);
+        }
+    }
+
+    private static Object resolve(final Object object, final Object element) {
+        Object value = Resolvers.get(object, element);
+        return value != Resolver.UNRESOLVED ? value : null;
+    }
+
+    private static final class Equals extends Node {
+        private final Node left;
+        private final Node right;
+        private final boolean negated;
+
+        Equals(final Node left, final Node right, final boolean negated) {
+            this.left = left;
+            this.right = right;
+            this.negated = negated;
+        }
+
+        @Override
+        Object eval(final Map<String, Object> scope) {
+            return equal(left.eval(scope), right.eval(scope)) != negated;
+        }
+
+        private static boolean equal(final Object a, final Object b) {
+            if (a == b) {
+                return true;
+            }
+            if (a == null || b == null) {
+                return false;
+            }
+            if (isNumeric(a) || isNumeric(b) || a instanceof Enum || b instanceof Enum) {
+                throw FallbackException.INSTANCE;
+            }
+            if (a instanceof Boolean || b instanceof Boolean) {
+                return toBoolean(a) == toBoolean(b);
+            }
+            if (a instanceof String || b instanceof String) {
+                return toStringValue(a).equals(toStringValue(b));
+            }
+            return a.equals(b);
+        }
+    }
+
+    private static final class And extends Node {
+        private final Node left;
+        private final Node right;
+
+        And(final Node left, final Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(final Map<String, Object> scope) {
+            return toBoolean(left.eval(scope)) && toBoolean(right.eval(scope));
+        }
+    }
+
+    private static final class Or extends Node {
+        private final Node left;
+        private final Node right;
+
+        Or(final Node left, final Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object eval(final Map<String, Object> scope) {
+            return toBoolean(left.eval(scope)) || toBoolean(right.eval(scope));
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node operand;
+
+        Not(final Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Object eval(final Map<String, Object> scope) {
+            return !toBoolean(operand.eval(scope));
+        }
+    }
+
+    private static final class LiteralMatches extends Node {
+        private final Node value;
+        private final Pattern pattern;
+
+        LiteralMatches(final Node value, final String regex) {
+            this.value = value;
+            Pattern compiled;
+            try {
+                compiled = Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                // Functions.matches() ignores invalid patterns
+                compiled = null;
+            }
+            this.pattern = compiled;
+        }
+
+        @Override
+        Object eval(final Map<String, Object> scope) {
+            String string = toStringValue(value.eval(scope));
+            return pattern != null && pattern.matcher(string).find();
+        }
+    }
+
+    private static final class Function extends Node {
+        private final String name;
+        private final Node[] arguments;
+
+        Function(final String name, final List<Node> arguments) {
+            this.name = name;
+            this.arguments = arguments.toArray(new Node[arguments.size()]);
+        }
+
+        @Override
+        Object eval(final Map<String, Object> scope) {
+            try {
+                return call(scope);
+            } catch (FallbackException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                // Let the interpreter report the failure
+                throw FallbackException.INSTANCE;
+            }
+        }
+
+        private Object call(final Map<String, Object> scope) {
+            switch (name) {
+            case "matches":
+                return Functions.matches(toStringValue(arguments[0].eval(scope)),
+                                         toStringValue(arguments[1].eval(scope)));
+            case "contains":
+                return Functions.contains(arguments[0].eval(scope), arguments[1].eval(scope));
+            case "toLowerCase":
+                return Functions.toLowerCase(toStringValue(arguments[0].eval(scope)));
+            case "toUpperCase":
+                return Functions.toUpperCase(toStringValue(arguments[0].eval(scope)));
+            case "trim":
+                return Functions.trim(toStringValue(arguments[0].eval(scope)));
+            default:
+                throw FallbackException.INSTANCE;
+            }
+        }
+    }
+
+    private static final class StringMethod extends Node {
+        private final Node base;
+        private final String name;
+        private final Node argument;
+
+        StringMethod(final Node base, final String name, final Node argument) {
+            this.base = base;
+            this.name = name;
+            this.argument = argument;
+        }
+
+        @Override
+        Object eval(final Map<String, Object> scope) {
+            Object object = base.eval(scope);
+            Object parameter = argument.eval(scope);
+            if (!(object instanceof String) || !(parameter instanceof String)) {
+                throw FallbackException.INSTANCE;
+            }
+            String string = (String) object;
+            String value = (String) parameter;
+            switch (name) {
+            case "startsWith":
+                return string.startsWith(value);
+            case "endsWith":
+                return string.endsWith(value);
+            case "contains":
+                return string.contains(value);
+            case "equals":
+                return string.equals(value);
+            case "equalsIgnoreCase":
+                return string.equalsIgnoreCase(value);
+            default:
+                throw FallbackException.INSTANCE;
+            }
+        }
+    }
+}
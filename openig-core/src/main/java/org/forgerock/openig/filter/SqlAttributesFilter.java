@@ -20,7 +20,6 @@ package org.forgerock.openig.filter;
 import static java.lang.String.format;
 import static org.forgerock.json.JsonValueFunctions.listOf;
 import static org.forgerock.openig.el.Bindings.bindings;
-import static org.forgerock.openig.log.LogLevel.DEBUG;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.expression;
 
@@ -136,9 +135,7 @@ public class SqlAttributesFilter extends GenericHeapObject implements Filter {
                             result.put(rsmd.getColumnLabel(n), rs.getObject(n));
                         }
                     }
-                    if (logger.isLoggable(DEBUG)) {
-                        logger.debug("Result: " + result);
-                    }
+                    logger.debug("Result: %s", result);
                     rs.close();
                     ps.close();
                 } catch (SQLException sqle) {
@@ -158,7 +155,7 @@ public class SqlAttributesFilter extends GenericHeapObject implements Filter {
             }
 
             private PreparedStatement createPreparedStatement(final Connection connection) throws SQLException {
-                logger.debug(format("PreparedStatement %s", preparedStatement));
+                logger.debug("PreparedStatement %s", preparedStatement);
 
                 // probably cached in connection pool
                 PreparedStatement ps = connection.prepareStatement(preparedStatement);
@@ -177,7 +174,7 @@ public class SqlAttributesFilter extends GenericHeapObject implements Filter {
                     }
                     Object eval = expressions.next().eval(bindings);
                     ps.setObject(i + 1, eval);
-                    logger.debug(format(" Placeholder #%d -> %s", i + 1, eval));
+                    logger.debug(" Placeholder #%d -> %s", i + 1, eval);
                 }
 
                 // Output a warning if there are too many expressions compared to the number
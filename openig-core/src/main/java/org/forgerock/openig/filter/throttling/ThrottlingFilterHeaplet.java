@@ -27,11 +27,15 @@ import java.util.Locale;
 import java.util.concurrent.ScheduledExecutorService;
 
 import org.forgerock.guava.common.base.Ticker;
+import org.forgerock.http.filter.throttling.AdaptiveConcurrencyThrottlingStrategy;
 import org.forgerock.http.filter.throttling.FixedRateThrottlingPolicy;
 import org.forgerock.http.filter.throttling.ConstantThrottlingStrategy;
+import org.forgerock.http.filter.throttling.DistributedThrottlingStrategy;
+import org.forgerock.http.filter.throttling.SlidingWindowThrottlingStrategy;
 import org.forgerock.http.filter.throttling.ThrottlingFilter;
 import org.forgerock.http.filter.throttling.ThrottlingPolicy;
 import org.forgerock.http.filter.throttling.ThrottlingRate;
+import org.forgerock.http.filter.throttling.ThrottlingStore;
 import org.forgerock.http.filter.throttling.ThrottlingStrategy;
 import org.forgerock.http.filter.throttling.TokenBucketThrottlingStrategy;
 import org.forgerock.json.JsonValue;
@@ -57,12 +61,32 @@ import org.forgerock.util.time.Duration;
  *         "cleaningInterval"             : duration            [OPTIONAL - The interval to wait for cleaning outdated
  *                                                                          buckets. Cannot be neither zero nor
  *                                                                          unlimited.
+ *         "maxPartitions"                : integer             [OPTIONAL - The maximum number of partitions kept by
+ *                                                                          the bursty strategy: once exceeded, the
+ *                                                                          partitions the closest to their expiration
+ *                                                                          are evicted. Default : unbounded]
  *         "requestGroupingPolicy"        : expression<String>  [REQUIRED - Expression to evaluate whether a request
  *                                                                          matches when calculating a rate for a group
  *                                                                          of requests.]
  *         "strategy"                     : string              [OPTIONAL - The name of the throttling's strategy to
- *                                                                          use; one of : bursty or constant.
+ *                                                                          use; one of : bursty, constant, sliding
+ *                                                                          (sliding window) or adaptive (concurrency
+ *                                                                          limit adapted to the backend's latency:
+ *                                                                          the rate's numberOfRequests is the maximum
+ *                                                                          number of concurrent requests, and its
+ *                                                                          duration the period over which the minimum
+ *                                                                          latency is measured) or distributed (the
+ *                                                                          rate is enforced across the instances
+ *                                                                          sharing the store, and enforced per
+ *                                                                          instance by a bursty strategy when the
+ *                                                                          store is not available).
  *                                                                          Default : bursty]
+ *         "store"                        : reference           [REQUIRED by the distributed strategy - The
+ *                                                                          ThrottlingStore holding the shared
+ *                                                                          buckets.]
+ *         "leaseSize"                    : integer             [OPTIONAL - The maximum number of tokens leased at
+ *                                                                          once by the distributed strategy.
+ *                                                                          Default : 100]
  *         "rate": {
  *            "numberOfRequests"          : integer             [REQUIRED - The number of requests allowed to go through
  *                                                                          this filter during the duration window.]
@@ -98,13 +122,36 @@ public class ThrottlingFilterHeaplet extends GenericHeaplet {
     private ThrottlingStrategy throttlingStrategy(String throttlingStrategy,
                                                   Ticker ticker,
                                                   ScheduledExecutorService scheduledExecutor,
-                                                  Duration cleaningInterval) {
+                                                  Duration cleaningInterval,
+                                                  int maxPartitions) throws HeapException {
         switch (throttlingStrategy) {
         case "constant" :
             return new ConstantThrottlingStrategy(ticker, scheduledExecutor, cleaningInterval);
+        case "sliding":
+            return new SlidingWindowThrottlingStrategy(ticker, scheduledExecutor, cleaningInterval);
+        case "adaptive":
+            return new AdaptiveConcurrencyThrottlingStrategy(ticker, scheduledExecutor, cleaningInterval);
+        case "distributed":
+            ThrottlingStore store = config.get("store")
+                                          .required()
+                                          .as(requiredHeapObject(heap, ThrottlingStore.class));
+            int leaseSize = config.get("leaseSize")
+                                  .as(evaluated())
+                                  .defaultTo(DistributedThrottlingStrategy.DEFAULT_LEASE_SIZE)
+                                  .asInteger();
+            ThrottlingStrategy fallback = new TokenBucketThrottlingStrategy(ticker,
+                                                                            scheduledExecutor,
+                                                                            cleaningInterval,
+                                                                            maxPartitions);
+            return new DistributedThrottlingStrategy(store,
+                                                     fallback,
+                                                     ticker,
+                                                     scheduledExecutor,
+                                                     cleaningInterval,
+                                                     leaseSize);
         case "bursty":
         default:
-            return new TokenBucketThrottlingStrategy(ticker, scheduledExecutor, cleaningInterval);
+            return new TokenBucketThrottlingStrategy(ticker, scheduledExecutor, cleaningInterval, maxPartitions);
         }
     }
 
@@ -117,6 +164,13 @@ public class ThrottlingFilterHeaplet extends GenericHeaplet {
                                           .as(evaluated())
                                           .defaultTo("5 seconds")
                                           .as(duration());
+        int maxPartitions = config.get("maxPartitions")
+                                  .as(evaluated())
+                                  .defaultTo(Integer.MAX_VALUE)
+                                  .asInteger();
+        if (maxPartitions <= 0) {
+            throw new HeapException("maxPartitions has to be greater than 0");
+        }
 
         final Expression<String> requestGroupingPolicy =
                 getWithDeprecation(config, logger, "requestGroupingPolicy", "partitionKey")
@@ -144,7 +198,8 @@ public class ThrottlingFilterHeaplet extends GenericHeaplet {
                                                                          .toLowerCase(Locale.ROOT),
                                                                    ticker,
                                                                    executorService,
-                                                                   cleaningInterval);
+                                                                   cleaningInterval,
+                                                                   maxPartitions);
 
         return filter = new ThrottlingFilter(new ExpressionRequestAsyncFunction<>(requestGroupingPolicy),
                                              throttlingRatePolicy,
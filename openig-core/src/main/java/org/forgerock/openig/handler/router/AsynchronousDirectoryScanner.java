@@ -0,0 +1,86 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An {@link AsynchronousDirectoryScanner} performs the scans of its delegate in the given {@link Executor}, so that
+ * the caller (usually a request thread) never performs the directory scan, nor the routes build, by itself.
+ *
+ * <p>The very first scan is performed synchronously, so that the routes are available as soon as the router is
+ * started. At most one scan is pending at a given time: scans triggered while another one is pending are ignored.
+ */
+class AsynchronousDirectoryScanner implements DirectoryScanner {
+
+    /**
+     * Delegate.
+     */
+    private final DirectoryScanner delegate;
+
+    /**
+     * Executor running the scans.
+     */
+    private final Executor executor;
+
+    /**
+     * Has the initial (synchronous) scan been performed ?
+     */
+    private final AtomicBoolean initialized = new AtomicBoolean();
+
+    /**
+     * Is there a scan already submitted to the executor ?
+     */
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    /**
+     * Builds a new scanner that will delegates to the given {@link DirectoryScanner} in the given {@link Executor}.
+     * @param delegate real scanner
+     * @param executor executor running the scans
+     */
+    public AsynchronousDirectoryScanner(final DirectoryScanner delegate, final Executor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    @Override
+    public void scan(final FileChangeListener listener) {
+        if (initialized.compareAndSet(false, true)) {
+            delegate.scan(listener);
+            return;
+        }
+        if (pending.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            delegate.scan(listener);
+                        } finally {
+                            pending.set(false);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The executor is shutting down, the next scan will try again
+                pending.set(false);
+            }
+        }
+    }
+}
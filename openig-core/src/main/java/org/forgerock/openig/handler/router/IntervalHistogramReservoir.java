@@ -0,0 +1,184 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.forgerock.openig.util.AtomicHistogram;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A {@link Reservoir} recording the values (response times in microseconds) into an {@link AtomicHistogram}, so
+ * that the recording threads never take a lock, unlike with an {@link ExponentiallyDecayingReservoir}.
+ * <p>
+ * The snapshots only cover the recent values: the recording is split into intervals of the given duration, and a
+ * snapshot covers the values recorded since the beginning of the previous interval. The intervals are swapped when
+ * a snapshot is taken, so the recording threads never do anything else than incrementing a counter: the intervals
+ * are aligned on the creation time. When no snapshot has been taken during a whole interval, the values recorded
+ * during the previous interval cannot be told apart from the older ones: the values recorded since the last swap
+ * then stand for the previous interval, so that the snapshot is an approximation covering more than the last two
+ * intervals, rather than missing the values recorded in the meantime.
+ */
+class IntervalHistogramReservoir implements Reservoir {
+
+    /** The values above one hour are counted as one hour. */
+    private static final long HIGHEST_TRACKABLE_MICROS = HOURS.toMicros(1L);
+
+    /** The number of values returned by {@link Snapshot#getValues()}, as for the other reservoirs. */
+    private static final int SAMPLE_SIZE = 1028;
+
+    /**
+     * The snapshots of the histogram at the beginning of the previous and current intervals.
+     */
+    private static final class Intervals {
+        private final AtomicHistogram.Snapshot previous;
+        private final AtomicHistogram.Snapshot current;
+        private final long currentStart;
+
+        Intervals(final AtomicHistogram.Snapshot previous,
+                  final AtomicHistogram.Snapshot current,
+                  final long currentStart) {
+            this.previous = previous;
+            this.current = current;
+            this.currentStart = currentStart;
+        }
+    }
+
+    private final AtomicHistogram histogram = new AtomicHistogram(HIGHEST_TRACKABLE_MICROS);
+    private final TimeService time;
+    private final long interval;
+    private final AtomicReference<Intervals> intervals;
+
+    /**
+     * Creates a new reservoir.
+     *
+     * @param time
+     *            The time service used to swap the intervals
+     * @param interval
+     *            The duration of an interval (neither zero nor unlimited)
+     */
+    IntervalHistogramReservoir(final TimeService time, final Duration interval) {
+        if (interval.isZero() || interval.isUnlimited()) {
+            throw new IllegalArgumentException("The interval can be neither zero nor unlimited");
+        }
+        this.time = time;
+        this.interval = interval.to(MILLISECONDS);
+        final AtomicHistogram.Snapshot empty = histogram.getSnapshot();
+        this.intervals = new AtomicReference<>(new Intervals(empty, empty, time.now()));
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(getIntervalSnapshot().getCount(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void update(final long value) {
+        histogram.record(value);
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        return new HistogramSnapshot(getIntervalSnapshot());
+    }
+
+    private AtomicHistogram.Snapshot getIntervalSnapshot() {
+        final AtomicHistogram.Snapshot now = histogram.getSnapshot();
+        final long timestamp = time.now();
+        Intervals current = intervals.get();
+        final long elapsed = timestamp - current.currentStart;
+        if (elapsed >= interval) {
+            // Start a new interval: if another thread already did it, use its intervals
+            final long start = current.currentStart + elapsed / interval * interval;
+            // When more than one interval elapsed, the values recorded since the last swap approximate the previous
+            // interval, as they cannot be told apart
+            final Intervals swapped = new Intervals(current.current, now, start);
+            current = intervals.compareAndSet(current, swapped) ? swapped : intervals.get();
+        }
+        return now.minus(current.previous);
+    }
+
+    /**
+     * Adapts an {@link AtomicHistogram.Snapshot} to the Dropwizard {@link Snapshot}.
+     */
+    private static final class HistogramSnapshot extends Snapshot {
+        private final AtomicHistogram.Snapshot snapshot;
+
+        HistogramSnapshot(final AtomicHistogram.Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public double getValue(final double quantile) {
+            return snapshot.getValue(quantile);
+        }
+
+        /**
+         * Returns a sample of the recorded values, evenly spread over their distribution.
+         */
+        @Override
+        public long[] getValues() {
+            return snapshot.getValues(SAMPLE_SIZE);
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(snapshot.getCount(), Integer.MAX_VALUE);
+        }
+
+        @Override
+        public long getMax() {
+            return snapshot.getMax();
+        }
+
+        @Override
+        public double getMean() {
+            return snapshot.getMean();
+        }
+
+        @Override
+        public long getMin() {
+            return snapshot.getMin();
+        }
+
+        @Override
+        public double getStdDev() {
+            return snapshot.getStdDev();
+        }
+
+        @Override
+        public void dump(final OutputStream output) {
+            final PrintWriter writer = new PrintWriter(new OutputStreamWriter(output, UTF_8));
+            for (long value : getValues()) {
+                writer.println(value);
+            }
+            writer.flush();
+        }
+    }
+}
@@ -20,9 +20,15 @@ import com.codahale.metrics.Counter;
 import com.codahale.metrics.ExponentiallyDecayingReservoir;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Reservoir;
 
 /**
  * Holds the set of metrics needed for monitoring.
+ * <p>
+ * The counters and the meter are striped (they are backed by Dropwizard's {@literal LongAdder}), so they scale with
+ * the number of recording threads. The reservoir sampling the response times is the only possible contention point:
+ * the default {@link ExponentiallyDecayingReservoir} takes a lock for each update, whereas an {@link
+ * IntervalHistogramReservoir} never does.
  */
 class MonitoringMetrics {
     private final Counter totalResponseCount;
@@ -41,6 +47,16 @@ class MonitoringMetrics {
     private final Counter accumulatedResponseTime;
 
     public MonitoringMetrics() {
+        this(new ExponentiallyDecayingReservoir());
+    }
+
+    /**
+     * Creates a new set of metrics, sampling the response times into the given reservoir.
+     *
+     * @param responseTimeReservoir
+     *            The reservoir sampling the response times (in microseconds)
+     */
+    public MonitoringMetrics(final Reservoir responseTimeReservoir) {
         this.totalResponseCount = new Counter();
         this.informativeResponseCount = new Counter();
         this.successResponseCount = new Counter();
@@ -55,7 +71,7 @@ class MonitoringMetrics {
         this.activeRequestCount = new Counter();
 
         this.throughput = new Meter();
-        this.responseTime = new Histogram(new ExponentiallyDecayingReservoir());
+        this.responseTime = new Histogram(responseTimeReservoir);
         this.accumulatedResponseTime = new Counter();
     }
 
@@ -0,0 +1,202 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.forgerock.util.promise.Promises.newResultPromise;
+
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.openig.handler.router.RouteMetricsRegistry.RouteMetrics;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.Reject;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+
+import com.codahale.metrics.Snapshot;
+
+/**
+ * Exposes the metrics of all the monitored routes in the Prometheus text format, so that they can be scraped with a
+ * single request. Each sample is labelled with the fully qualified heap name of its {@literal router} (such as
+ * {@literal config.json+_router}) and with the name of its {@literal route}.
+ * <p>
+ * The text is written directly from the metrics, without building any intermediate representation.
+ */
+public class PrometheusMetricsHandler implements Handler {
+
+    /** The content type of the Prometheus text format. */
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double MICROS_PER_SECOND = MICROSECONDS.convert(1L, SECONDS);
+
+    private final RouteMetricsRegistry registry;
+
+    /**
+     * Creates a new handler exposing the metrics of the routes registered into the given registry.
+     *
+     * @param registry
+     *            The registry of the metrics of the routes, not {@code null}.
+     */
+    public PrometheusMetricsHandler(final RouteMetricsRegistry registry) {
+        this.registry = Reject.checkNotNull(registry);
+    }
+
+    @Override
+    public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+        StringBuilder text = new StringBuilder(1024);
+        write(text);
+        Response response = new Response(Status.OK);
+        response.setEntity(text.toString());
+        response.getHeaders().put("Content-Type", CONTENT_TYPE);
+        return newResultPromise(response);
+    }
+
+    /**
+     * Writes the metrics of all the registered routes, grouped by metric family.
+     */
+    void write(final StringBuilder text) {
+        family(text, "openig_route_requests_total", "counter", "Number of requests received by the route.");
+        for (RouteMetrics route : registry.getRoutes()) {
+            sample(text, "openig_route_requests_total", route, null, null,
+                   route.getMetrics().getTotalRequestCount().getCount());
+        }
+
+        family(text, "openig_route_active_requests", "gauge", "Number of requests being processed by the route.");
+        for (RouteMetrics route : registry.getRoutes()) {
+            sample(text, "openig_route_active_requests", route, null, null,
+                   route.getMetrics().getActiveRequestCount().getCount());
+        }
+
+        family(text, "openig_route_responses_total", "counter", "Number of responses by status family.");
+        for (RouteMetrics route : registry.getRoutes()) {
+            MonitoringMetrics metrics = route.getMetrics();
+            responses(text, route, "1xx", metrics.getInformativeResponseCount().getCount());
+            responses(text, route, "2xx", metrics.getSuccessResponseCount().getCount());
+            responses(text, route, "3xx", metrics.getRedirectResponseCount().getCount());
+            responses(text, route, "4xx", metrics.getClientErrorResponseCount().getCount());
+            responses(text, route, "5xx", metrics.getServerErrorResponseCount().getCount());
+            responses(text, route, "other", metrics.getOtherResponseCount().getCount());
+        }
+
+        family(text, "openig_route_error_responses_total", "counter", "Number of responses carrying an error.");
+        for (RouteMetrics route : registry.getRoutes()) {
+            sample(text, "openig_route_error_responses_total", route, null, null,
+                   route.getMetrics().getErrorsResponseCount().getCount());
+        }
+
+        family(text, "openig_route_null_responses_total", "counter", "Number of null responses.");
+        for (RouteMetrics route : registry.getRoutes()) {
+            sample(text, "openig_route_null_responses_total", route, null, null,
+                   route.getMetrics().getNullResponseCount().getCount());
+        }
+
+        family(text, "openig_route_response_time_seconds", "summary", "Response time of the route.");
+        for (RouteMetrics route : registry.getRoutes()) {
+            MonitoringMetrics metrics = route.getMetrics();
+            // The response times are recorded in microseconds
+            Snapshot snapshot = metrics.getResponseTime().getSnapshot();
+            quantile(text, route, 0.5, snapshot.getMedian());
+            for (Double percentile : route.getPercentiles()) {
+                if (percentile != 0.5) {
+                    quantile(text, route, percentile, snapshot.getValue(percentile));
+                }
+            }
+            sample(text, "openig_route_response_time_seconds_sum", route, null, null,
+                   metrics.getAccumulatedResponseTime().getCount() / MICROS_PER_SECOND);
+            sample(text, "openig_route_response_time_seconds_count", route, null, null,
+                   metrics.getResponseTime().getCount());
+        }
+    }
+
+    private static void responses(final StringBuilder text,
+                                  final RouteMetrics route,
+                                  final String status,
+                                  final long count) {
+        sample(text, "openig_route_responses_total", route, "status", status, count);
+    }
+
+    private static void quantile(final StringBuilder text,
+                                 final RouteMetrics route,
+                                 final double quantile,
+                                 final double micros) {
+        sample(text, "openig_route_response_time_seconds", route, "quantile", String.valueOf(quantile),
+               micros / MICROS_PER_SECOND);
+    }
+
+    private static void family(final StringBuilder text, final String name, final String type, final String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(final StringBuilder text,
+                               final String name,
+                               final RouteMetrics route,
+                               final String labelName,
+                               final String labelValue,
+                               final long value) {
+        labels(text, name, route, labelName, labelValue);
+        text.append(value).append('\n');
+    }
+
+    private static void sample(final StringBuilder text,
+                               final String name,
+                               final RouteMetrics route,
+                               final String labelName,
+                               final String labelValue,
+                               final double value) {
+        labels(text, name, route, labelName, labelValue);
+        text.append(value).append('\n');
+    }
+
+    private static void labels(final StringBuilder text,
+                               final String name,
+                               final RouteMetrics route,
+                               final String labelName,
+                               final String labelValue) {
+        text.append(name).append("{router=\"");
+        escape(text, route.getRouter());
+        text.append("\",route=\"");
+        escape(text, route.getRoute());
+        if (labelName != null) {
+            text.append("\",").append(labelName).append("=\"");
+            escape(text, labelValue);
+        }
+        text.append("\"} ");
+    }
+
+    private static void escape(final StringBuilder text, final String labelValue) {
+        for (int i = 0; i < labelValue.length(); i++) {
+            char c = labelValue.charAt(i);
+            switch (c) {
+            case '\\':
+                text.append("\\\\");
+                break;
+            case '"':
+                text.append("\\\"");
+                break;
+            case '\n':
+                text.append("\\n");
+                break;
+            default:
+                text.append(c);
+            }
+        }
+    }
+}
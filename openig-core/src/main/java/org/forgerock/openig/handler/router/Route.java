@@ -89,6 +89,11 @@ abstract class Route implements Handler {
      */
     private final Expression<Boolean> condition;
 
+    /**
+     * Statically analysed shape of the condition, used for indexed dispatch.
+     */
+    private final RouteCondition routeCondition;
+
     /**
      * Route's name (may be inferred from the file's name).
      */
@@ -106,6 +111,7 @@ abstract class Route implements Handler {
         this.handler = handler;
         this.name = name;
         this.condition = condition;
+        this.routeCondition = RouteCondition.analyze(condition);
     }
 
     /**
@@ -116,6 +122,14 @@ abstract class Route implements Handler {
         return name;
     }
 
+    /**
+     * Returns the statically analysed shape of this route's condition.
+     * @return the statically analysed shape of this route's condition.
+     */
+    RouteCondition getRouteCondition() {
+        return routeCondition;
+    }
+
     /**
      * Evaluate if this route will accept the given {@link Context} and {@link Request}.
      * @param context used to evaluate the condition against
@@ -22,11 +22,13 @@ import static org.forgerock.http.handler.Handlers.chainOf;
 import static org.forgerock.http.routing.RouteMatchers.requestUriMatcher;
 import static org.forgerock.http.routing.RoutingMode.EQUALS;
 import static org.forgerock.http.util.Json.readJsonLenient;
+import static org.forgerock.json.JsonValueFunctions.duration;
 import static org.forgerock.json.resource.Resources.newSingleton;
 import static org.forgerock.json.resource.http.CrestHttp.newHttpHandler;
 import static org.forgerock.openig.handler.router.MonitoringResourceProvider.DEFAULT_PERCENTILES;
 import static org.forgerock.openig.heap.Keys.ENDPOINT_REGISTRY_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.LOGSINK_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.ROUTE_METRICS_REGISTRY_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.TIME_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.expression;
@@ -46,6 +48,7 @@ import org.forgerock.http.Handler;
 import org.forgerock.http.routing.Router;
 import org.forgerock.http.session.SessionManager;
 import org.forgerock.json.JsonValue;
+import org.forgerock.json.JsonValueException;
 import org.forgerock.json.resource.RequestHandler;
 import org.forgerock.openig.el.Expression;
 import org.forgerock.openig.filter.HttpAccessAuditFilter;
@@ -57,8 +60,12 @@ import org.forgerock.openig.heap.Name;
 import org.forgerock.openig.http.EndpointRegistry;
 import org.forgerock.openig.log.LogSink;
 import org.forgerock.openig.log.Logger;
+import org.forgerock.util.time.Duration;
 import org.forgerock.util.time.TimeService;
 
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Reservoir;
+
 /**
  * Builder for new {@link Route}s.
  *
@@ -66,6 +73,10 @@ import org.forgerock.util.time.TimeService;
  */
 class RouteBuilder {
 
+    private static final String EXPONENTIALLY_DECAYING = "exponentiallyDecaying";
+    private static final String INTERVAL_HISTOGRAM = "intervalHistogram";
+    private static final String DEFAULT_RESERVOIR_INTERVAL = "1 minute";
+
     /**
      * Heap to be used as parent for routes built from this builder.
      */
@@ -146,14 +157,33 @@ class RouteBuilder {
                                       slug));
             }
 
-            return new Route(setupRouteHandler(routeHeap, config, routeRegistry, logger), routeName, condition) {
+            final MonitorConfig mc = getMonitorConfig(config.get("monitor"));
+            final MonitoringMetrics metrics =
+                    mc.isEnabled()
+                            ? new MonitoringMetrics(mc.newReservoir(routeHeap.get(TIME_SERVICE_HEAP_KEY,
+                                                                                  TimeService.class)))
+                            : null;
+            final Handler routeHandler = setupRouteHandler(routeHeap, config, routeRegistry, logger, mc, metrics);
+            final RouteMetricsRegistry metricsRegistry =
+                    routeHeap.get(ROUTE_METRICS_REGISTRY_HEAP_KEY, RouteMetricsRegistry.class);
+
+            return new Route(routeHandler, routeName, condition) {
 
                 private EndpointRegistry.Registration registration;
+                private RouteMetricsRegistry.Registration metricsRegistration;
 
                 @Override
                 public void start() {
                     // Register this route's endpoint into the parent registry
                     registration = registry.register(slug, thisRouteRouter);
+                    // Expose this route's metrics along with the metrics of the other routes
+                    if (metrics != null && metricsRegistry != null) {
+                        metricsRegistration = metricsRegistry.register(RouteBuilder.this.name,
+                                                                       routeHeapName,
+                                                                       routeName,
+                                                                       metrics,
+                                                                       mc.getPercentiles());
+                    }
                 }
 
                 @Override
@@ -161,6 +191,9 @@ class RouteBuilder {
                     if (registration != null) {
                         registration.unregister();
                     }
+                    if (metricsRegistration != null) {
+                        metricsRegistration.unregister();
+                    }
                     routeHeap.destroy();
                 }
             };
@@ -173,7 +206,9 @@ class RouteBuilder {
     private Handler setupRouteHandler(final HeapImpl routeHeap,
                                       final JsonValue config,
                                       final EndpointRegistry routeRegistry,
-                                      final Logger logger) throws HeapException {
+                                      final Logger logger,
+                                      final MonitorConfig mc,
+                                      final MonitoringMetrics metrics) throws HeapException {
 
         TimeService time = routeHeap.get(TIME_SERVICE_HEAP_KEY, TimeService.class);
 
@@ -189,9 +224,7 @@ class RouteBuilder {
             filters.add(new HttpAccessAuditFilter(auditService, time));
         }
 
-        MonitorConfig mc = getMonitorConfig(config.get("monitor"));
-        if (mc.isEnabled()) {
-            MonitoringMetrics metrics = new MonitoringMetrics();
+        if (metrics != null) {
             filters.add(new MetricsFilter(metrics));
             RequestHandler singleton = newSingleton(new MonitoringResourceProvider(metrics,
                                                                                    mc.getPercentiles()));
@@ -236,7 +269,19 @@ class RouteBuilder {
      *     }
      * </pre>
      *
-     * By default (if omitted), monitoring is disabled.
+     * <pre>
+     *     {@code
+     *       "monitor": {
+     *           "enabled": true,
+     *           "reservoir": "intervalHistogram",
+     *           "reservoirInterval": "1 minute"
+     *       }
+     *     }
+     * </pre>
+     *
+     * By default (if omitted), monitoring is disabled. The response times are sampled by an {@literal
+     * exponentiallyDecaying} reservoir by default, or by a lock-free {@literal intervalHistogram} reservoir whose
+     * snapshots cover the last one or two intervals (one minute by default), for the busiest routes.
      */
     private MonitorConfig getMonitorConfig(JsonValue monitor) {
         JsonValue evaluatedConfig = monitor.as(evaluated());
@@ -246,6 +291,18 @@ class RouteBuilder {
             mc.setEnabled(evaluatedConfig.get("enabled").defaultTo(false).asBoolean());
             // percentiles
             mc.setPercentiles(evaluatedConfig.get("percentiles").defaultTo(DEFAULT_PERCENTILES).asList(Double.class));
+            // reservoir
+            String reservoir = evaluatedConfig.get("reservoir").defaultTo(EXPONENTIALLY_DECAYING).asString();
+            if (!EXPONENTIALLY_DECAYING.equals(reservoir) && !INTERVAL_HISTOGRAM.equals(reservoir)) {
+                throw new JsonValueException(evaluatedConfig.get("reservoir"),
+                                             format("Expecting '%s' or '%s'",
+                                                    EXPONENTIALLY_DECAYING,
+                                                    INTERVAL_HISTOGRAM));
+            }
+            mc.setReservoir(reservoir);
+            mc.setReservoirInterval(evaluatedConfig.get("reservoirInterval")
+                                                   .defaultTo(DEFAULT_RESERVOIR_INTERVAL)
+                                                   .as(duration()));
         } else {
             // by default monitoring is disabled
             mc.setEnabled(evaluatedConfig.defaultTo(false).asBoolean());
@@ -279,6 +336,8 @@ class RouteBuilder {
     private static class MonitorConfig {
         private boolean enabled;
         private List<Double> percentiles = DEFAULT_PERCENTILES;
+        private String reservoir = EXPONENTIALLY_DECAYING;
+        private Duration reservoirInterval;
 
         public void setEnabled(boolean enabled) {
             this.enabled = enabled;
@@ -295,5 +354,20 @@ class RouteBuilder {
         public List<Double> getPercentiles() {
             return percentiles;
         }
+
+        public void setReservoir(String reservoir) {
+            this.reservoir = reservoir;
+        }
+
+        public void setReservoirInterval(Duration reservoirInterval) {
+            this.reservoirInterval = reservoirInterval;
+        }
+
+        public Reservoir newReservoir(TimeService time) {
+            if (INTERVAL_HISTOGRAM.equals(reservoir)) {
+                return new IntervalHistogramReservoir(time, reservoirInterval);
+            }
+            return new ExponentiallyDecayingReservoir();
+        }
     }
 }
@@ -0,0 +1,309 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.forgerock.openig.el.Expression;
+
+/**
+ * Statically analysed shape of a route's {@literal condition}, used by {@link RouteIndex} to look up candidate routes
+ * without evaluating their expression.
+ *
+ * <p>The following (top-level) shapes are recognized, possibly as one operand of a top-level {@literal &&}:
+ * <ul>
+ *     <li>{@code request.uri.path == '/literal'} (or {@code eq}, operands in any order)</li>
+ *     <li>{@code request.uri.path.startsWith('/literal')}</li>
+ *     <li>{@code matches(request.uri.path, '^/literal...')} (the literal prefix of the pattern is used as a guard)</li>
+ *     <li>{@code request.uri.host == 'literal'} (or {@code eq}, operands in any order)</li>
+ * </ul>
+ *
+ * <p>When the condition is made of a single recognized operand that fully decides the match, the condition is
+ * {@linkplain #isExact() exact}: a lookup hit is enough to accept the request. Otherwise, the lookup only acts as a
+ * guard and the expression still has to be evaluated. Conditions that cannot be classified are
+ * {@linkplain Kind#UNINDEXED un-indexed} and always evaluated in sequence.
+ */
+final class RouteCondition {
+
+    /**
+     * Kind of index lookup supported by a condition.
+     */
+    enum Kind {
+        /** No condition: the route accepts all requests. */
+        ANY,
+        /** The request's path has to be equal to the key. */
+        PATH_EQUALS,
+        /** The request's path has to start with the key. */
+        PATH_PREFIX,
+        /** The request's host has to be equal to the key. */
+        HOST_EQUALS,
+        /** The condition cannot be indexed. */
+        UNINDEXED
+    }
+
+    private static final RouteCondition ANY = new RouteCondition(Kind.ANY, null, true);
+    private static final RouteCondition UNINDEXED = new RouteCondition(Kind.UNINDEXED, null, false);
+
+    private static final String LITERAL = "(?:'([^'\\\\]*)'|\"([^\"\\\\]*)\")";
+    private static final String PATH = "request\\.uri\\.path";
+    private static final String HOST = "request\\.uri\\.host";
+    private static final String EQUALS = "\\s*(?:==|\\beq\\b)\\s*";
+
+    private static final Pattern PATH_EQUALS_LEFT = Pattern.compile(PATH + EQUALS + LITERAL);
+    private static final Pattern PATH_EQUALS_RIGHT = Pattern.compile(LITERAL + EQUALS + PATH);
+    private static final Pattern HOST_EQUALS_LEFT = Pattern.compile(HOST + EQUALS + LITERAL);
+    private static final Pattern HOST_EQUALS_RIGHT = Pattern.compile(LITERAL + EQUALS + HOST);
+    private static final Pattern PATH_STARTS_WITH = Pattern.compile(PATH + "\\.startsWith\\(\\s*" + LITERAL + "\\s*\\)");
+    private static final Pattern PATH_MATCHES = Pattern.compile("matches\\(\\s*" + PATH + "\\s*,\\s*" + LITERAL
+                                                                        + "\\s*\\)");
+
+    /** Characters having a special meaning in a regular expression. */
+    private static final String REGEX_META_CHARACTERS = "\\.[]{}()<>*+-=!?^$|";
+
+    private final Kind kind;
+    private final String key;
+    private final boolean exact;
+
+    private RouteCondition(final Kind kind, final String key, final boolean exact) {
+        this.kind = kind;
+        this.key = key;
+        this.exact = exact;
+    }
+
+    /**
+     * Returns the kind of lookup supported by this condition.
+     * @return the kind of lookup supported by this condition.
+     */
+    Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the lookup key (path, path prefix or host), {@code null} for {@link Kind#ANY} and
+     * {@link Kind#UNINDEXED}.
+     * @return the lookup key
+     */
+    String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns {@code true} if a lookup hit is enough to accept the request (no expression evaluation required).
+     * @return {@code true} if a lookup hit is enough to accept the request
+     */
+    boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Analyses the given route condition.
+     *
+     * @param condition
+     *         route condition (may be {@code null})
+     * @return the shape of the condition (never {@code null})
+     */
+    static RouteCondition analyze(final Expression<Boolean> condition) {
+        if (condition == null) {
+            return ANY;
+        }
+        String original = condition.toString().trim();
+        if (!original.startsWith("${") || !original.endsWith("}")) {
+            return UNINDEXED;
+        }
+        List<String> operands = splitConjunction(original.substring(2, original.length() - 1));
+        if (operands == null) {
+            return UNINDEXED;
+        }
+
+        RouteCondition best = UNINDEXED;
+        for (String operand : operands) {
+            RouteCondition candidate = analyzeOperand(operand);
+            if (candidate.kind.compareTo(best.kind) < 0
+                    || (candidate.kind == best.kind && candidate.kind == Kind.PATH_PREFIX
+                        && candidate.key.length() > best.key.length())) {
+                best = candidate;
+            }
+        }
+        if (best.exact && operands.size() > 1) {
+            // Other operands still need to be evaluated
+            return new RouteCondition(best.kind, best.key, false);
+        }
+        return best;
+    }
+
+    private static RouteCondition analyzeOperand(final String operand) {
+        Matcher matcher = PATH_EQUALS_LEFT.matcher(operand);
+        if (matcher.matches() || (matcher = PATH_EQUALS_RIGHT.matcher(operand)).matches()) {
+            return new RouteCondition(Kind.PATH_EQUALS, literal(matcher), true);
+        }
+        matcher = PATH_STARTS_WITH.matcher(operand);
+        if (matcher.matches()) {
+            return new RouteCondition(Kind.PATH_PREFIX, literal(matcher), true);
+        }
+        matcher = PATH_MATCHES.matcher(operand);
+        if (matcher.matches()) {
+            String prefix = literalPrefix(literal(matcher));
+            if (prefix != null && !prefix.isEmpty()) {
+                return new RouteCondition(Kind.PATH_PREFIX, prefix, false);
+            }
+            return UNINDEXED;
+        }
+        matcher = HOST_EQUALS_LEFT.matcher(operand);
+        if (matcher.matches() || (matcher = HOST_EQUALS_RIGHT.matcher(operand)).matches()) {
+            return new RouteCondition(Kind.HOST_EQUALS, literal(matcher), true);
+        }
+        return UNINDEXED;
+    }
+
+    private static String literal(final Matcher matcher) {
+        return matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+    }
+
+    /**
+     * Returns the literal prefix that any value matching the given (anchored) regular expression has to start with,
+     * or {@code null} if the pattern is not anchored to the beginning of the input.
+     */
+    static String literalPrefix(final String regex) {
+        if (!regex.startsWith("^")) {
+            return null;
+        }
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 1; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (REGEX_META_CHARACTERS.indexOf(c) != -1) {
+                if ((c == '?' || c == '*' || c == '{') && prefix.length() > 0) {
+                    // The previous character is optional or repeated
+                    prefix.setLength(prefix.length() - 1);
+                }
+                if (c == '|') {
+                    // Alternation: there is no common prefix
+                    return null;
+                }
+                break;
+            }
+            prefix.append(c);
+        }
+        // An alternation anywhere else in the pattern would also invalidate the prefix
+        if (regex.indexOf('|') != -1) {
+            return null;
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * Splits the given expression content into its top-level {@literal &&} operands, returns {@code null} if the
+     * content contains any top-level construct that would give another meaning to these operands (disjunction,
+     * ternary operator) or if it contains nested expressions.
+     */
+    private static List<String> splitConjunction(final String content) {
+        List<String> operands = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        char quote = 0;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+                continue;
+            }
+            switch (c) {
+            case '\'':
+            case '"':
+                quote = c;
+                break;
+            case '(':
+            case '[':
+                depth++;
+                break;
+            case ')':
+            case ']':
+                depth--;
+                break;
+            case '{':
+            case '}':
+            case '$':
+            case '#':
+                // Nested or composite expressions are not supported
+                return null;
+            default:
+                if (depth == 0) {
+                    if (c == '?' || c == ';' || c == '|' || isKeyword(content, i, "or")) {
+                        return null;
+                    }
+                    if (c == '&' && i + 1 < content.length() && content.charAt(i + 1) == '&') {
+                        operands.add(unwrap(content.substring(start, i)));
+                        start = i + 2;
+                        i++;
+                    } else if (isKeyword(content, i, "and")) {
+                        operands.add(unwrap(content.substring(start, i)));
+                        start = i + "and".length();
+                        i = start - 1;
+                    }
+                }
+            }
+        }
+        if (quote != 0 || depth != 0) {
+            return null;
+        }
+        operands.add(unwrap(content.substring(start)));
+        return operands;
+    }
+
+    private static boolean isKeyword(final String content, final int index, final String keyword) {
+        int end = index + keyword.length();
+        return content.startsWith(keyword, index)
+                && (index == 0 || !Character.isJavaIdentifierPart(content.charAt(index - 1)))
+                && (end == content.length() || !Character.isJavaIdentifierPart(content.charAt(end)));
+    }
+
+    private static String unwrap(final String operand) {
+        String trimmed = operand.trim();
+        while (trimmed.startsWith("(") && trimmed.endsWith(")") && isBalanced(trimmed, 1, trimmed.length() - 1)) {
+            trimmed = trimmed.substring(1, trimmed.length() - 1).trim();
+        }
+        return trimmed;
+    }
+
+    private static boolean isBalanced(final String value, final int start, final int end) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth < 0) {
+                return false;
+            }
+        }
+        return depth == 0;
+    }
+}
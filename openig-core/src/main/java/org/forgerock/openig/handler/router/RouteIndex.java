@@ -0,0 +1,224 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.http.protocol.Request;
+import org.forgerock.services.context.Context;
+
+/**
+ * Immutable dispatch table over an ordered collection of {@link Route}s.
+ *
+ * <p>When indexing is enabled, the {@link RouteCondition} of each route is used to put it in a hash index (exact
+ * path or host) or in a path prefix trie. Dispatching a request then only looks at the routes found through these
+ * lookups, plus the routes whose condition could not be classified (that are evaluated sequentially). The route
+ * selected is always the first one (in the original order) that accepts the request, exactly like a sequential
+ * scan would do.
+ *
+ * <p>When indexing is disabled, all the routes are evaluated sequentially.
+ */
+final class RouteIndex {
+
+    /**
+     * An empty index.
+     */
+    static final RouteIndex EMPTY = new RouteIndex(Collections.<Route>emptyList(), false);
+
+    private static final Comparator<Entry> BY_RANK = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry first, final Entry second) {
+            return Integer.compare(first.rank, second.rank);
+        }
+    };
+
+    private final Map<String, List<Entry>> paths = new HashMap<>();
+    private final Map<String, List<Entry>> hosts = new HashMap<>();
+    private final Node prefixes = new Node();
+
+    /** Routes that are evaluated sequentially, ordered by rank. */
+    private final Entry[] sequential;
+
+    /** First route accepting all requests, {@code null} if there is none. */
+    private final Entry any;
+
+    /**
+     * Builds a new index.
+     *
+     * @param routes
+     *         the routes, in dispatch order
+     * @param indexed
+     *         if {@code false}, all routes are evaluated sequentially
+     */
+    RouteIndex(final Collection<Route> routes, final boolean indexed) {
+        List<Entry> unindexed = new ArrayList<>();
+        Entry first = null;
+        int rank = 0;
+        for (Route route : routes) {
+            RouteCondition condition = route.getRouteCondition();
+            Entry entry = new Entry(rank++, route, condition.isExact());
+            if (!indexed) {
+                unindexed.add(entry);
+                continue;
+            }
+            switch (condition.getKind()) {
+            case ANY:
+                if (first == null) {
+                    first = entry;
+                }
+                break;
+            case PATH_EQUALS:
+                addTo(paths, condition.getKey(), entry);
+                break;
+            case HOST_EQUALS:
+                addTo(hosts, condition.getKey(), entry);
+                break;
+            case PATH_PREFIX:
+                prefixes.add(condition.getKey(), entry);
+                break;
+            default:
+                unindexed.add(entry);
+            }
+        }
+        this.sequential = unindexed.toArray(new Entry[unindexed.size()]);
+        this.any = first;
+    }
+
+    private static void addTo(final Map<String, List<Entry>> index, final String key, final Entry entry) {
+        List<Entry> entries = index.get(key);
+        if (entries == null) {
+            entries = new ArrayList<>(1);
+            index.put(key, entries);
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * Returns the first route accepting the given request, or {@code null} if none of the routes accept it.
+     *
+     * @param context
+     *         request context
+     * @param request
+     *         request
+     * @return the first route accepting the given request, or {@code null}
+     */
+    Route find(final Context context, final Request request) {
+        List<Entry> candidates = lookup(request);
+        int i = 0;
+        int j = 0;
+        while (i < candidates.size() || j < sequential.length) {
+            Entry entry;
+            if (j == sequential.length || (i < candidates.size() && candidates.get(i).rank < sequential[j].rank)) {
+                entry = candidates.get(i++);
+            } else {
+                entry = sequential[j++];
+            }
+            if (entry.exact || entry.route.accept(context, request)) {
+                return entry.route;
+            }
+        }
+        return null;
+    }
+
+    private List<Entry> lookup(final Request request) {
+        if (paths.isEmpty() && hosts.isEmpty() && prefixes.isEmpty() && any == null) {
+            return Collections.emptyList();
+        }
+        List<Entry> candidates = new ArrayList<>();
+        if (any != null) {
+            candidates.add(any);
+        }
+        String path = request.getUri().getPath();
+        if (path != null) {
+            List<Entry> entries = paths.get(path);
+            if (entries != null) {
+                candidates.addAll(entries);
+            }
+            prefixes.collect(path, candidates);
+        }
+        String host = request.getUri().getHost();
+        if (host != null) {
+            List<Entry> entries = hosts.get(host);
+            if (entries != null) {
+                candidates.addAll(entries);
+            }
+        }
+        if (candidates.size() > 1) {
+            Collections.sort(candidates, BY_RANK);
+        }
+        return candidates;
+    }
+
+    /**
+     * A route, with its rank in the dispatch order.
+     */
+    private static final class Entry {
+        private final int rank;
+        private final Route route;
+        private final boolean exact;
+
+        Entry(final int rank, final Route route, final boolean exact) {
+            this.rank = rank;
+            this.route = route;
+            this.exact = exact;
+        }
+    }
+
+    /**
+     * Character trie of path prefixes.
+     */
+    private static final class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private final List<Entry> entries = new ArrayList<>(1);
+
+        void add(final String prefix, final Entry entry) {
+            Node node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                Character c = prefix.charAt(i);
+                Node child = node.children.get(c);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            node.entries.add(entry);
+        }
+
+        void collect(final String path, final List<Entry> candidates) {
+            Node node = this;
+            candidates.addAll(node.entries);
+            for (int i = 0; i < path.length() && !node.children.isEmpty(); i++) {
+                node = node.children.get(path.charAt(i));
+                if (node == null) {
+                    return;
+                }
+                candidates.addAll(node.entries);
+            }
+        }
+
+        boolean isEmpty() {
+            return children.isEmpty() && entries.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.forgerock.openig.heap.Name;
+
+/**
+ * Gateway-wide registry of the {@link MonitoringMetrics} of the monitored routes, so that they can all be exposed
+ * at once (see {@link PrometheusMetricsHandler}).
+ * <p>
+ * The metrics of a route are registered when the route is started, and unregistered when it is destroyed.
+ */
+public final class RouteMetricsRegistry {
+
+    /**
+     * The metrics of a route, along with the names identifying the route.
+     */
+    static final class RouteMetrics {
+        private final String router;
+        private final String route;
+        private final MonitoringMetrics metrics;
+        private final List<Double> percentiles;
+
+        RouteMetrics(final String router,
+                     final String route,
+                     final MonitoringMetrics metrics,
+                     final List<Double> percentiles) {
+            this.router = router;
+            this.route = route;
+            this.metrics = metrics;
+            this.percentiles = percentiles;
+        }
+
+        String getRouter() {
+            return router;
+        }
+
+        String getRoute() {
+            return route;
+        }
+
+        MonitoringMetrics getMetrics() {
+            return metrics;
+        }
+
+        List<Double> getPercentiles() {
+            return percentiles;
+        }
+    }
+
+    /**
+     * Handle for un-registering the metrics of a route.
+     */
+    final class Registration {
+        private final String key;
+        private final RouteMetrics routeMetrics;
+
+        private Registration(final String key, final RouteMetrics routeMetrics) {
+            this.key = key;
+            this.routeMetrics = routeMetrics;
+        }
+
+        /**
+         * Un-registers the metrics of the route, unless they have already been replaced by the metrics of a new
+         * route with the same heap name.
+         */
+        void unregister() {
+            routes.remove(key, routeMetrics);
+        }
+    }
+
+    // Sorted by route heap name, so that the metrics are always exposed in the same order
+    private final ConcurrentMap<String, RouteMetrics> routes = new ConcurrentSkipListMap<>();
+
+    /**
+     * Registers the metrics of a route.
+     *
+     * @param routerName
+     *            The heap name of the router handling the route
+     * @param routeHeapName
+     *            The heap name of the route
+     * @param routeName
+     *            The name of the route
+     * @param metrics
+     *            The metrics of the route
+     * @param percentiles
+     *            The percentiles of the response time to expose
+     * @return a handle for later un-registration
+     */
+    Registration register(final Name routerName,
+                          final Name routeHeapName,
+                          final String routeName,
+                          final MonitoringMetrics metrics,
+                          final List<Double> percentiles) {
+        final String key = routeHeapName.getFullyQualifiedName();
+        // The routers are identified by their fully qualified name: nested routers often share the same leaf name
+        final RouteMetrics routeMetrics = new RouteMetrics(routerName.getFullyQualifiedName(),
+                                                           routeName,
+                                                           metrics,
+                                                           percentiles);
+        routes.put(key, routeMetrics);
+        return new Registration(key, routeMetrics);
+    }
+
+    /**
+     * Returns a live view of the metrics of the registered routes.
+     *
+     * @return a live view of the metrics of the registered routes
+     */
+    Collection<RouteMetrics> getRoutes() {
+        return routes.values();
+    }
+}
@@ -17,22 +17,36 @@
 package org.forgerock.openig.handler.router;
 
 import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.forgerock.http.routing.RouteMatchers.requestUriMatcher;
 import static org.forgerock.http.routing.RoutingMode.EQUALS;
+import static org.forgerock.json.JsonValueFunctions.duration;
 import static org.forgerock.openig.heap.Keys.ENVIRONMENT_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.TIME_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.optionalHeapObject;
+import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.forgerock.http.Handler;
 import org.forgerock.http.protocol.Request;
@@ -50,6 +64,7 @@ import org.forgerock.services.context.Context;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
 import org.forgerock.util.promise.Promises;
+import org.forgerock.util.time.Duration;
 import org.forgerock.util.time.TimeService;
 
 /**
@@ -64,14 +79,40 @@ import org.forgerock.util.time.TimeService;
  *     "config": {
  *       "directory": "/tmp/routes",
  *       "defaultHandler": "404NotFound",
- *       "scanInterval": 2
+ *       "scanInterval": 2,
+ *       "indexed": true,
+ *       "executor": "ScheduledExecutorService",
+ *       "watch": false,
+ *       "watchDebounce": "500 milliseconds",
+ *       "buildParallelism": 4
  *     }
  *   }
  *   }
  * </pre>
  *
  * Note that {@literal scanInterval} is defined in seconds. If {@literal -1} (or any negative value) is
- * provided, only an initial scan is performed at startup, synchronously.
+ * provided, only an initial scan is performed at startup, synchronously. Subsequent scans (and the build of the
+ * added or modified routes) are performed by the given {@literal executor} (defaults to a thread dedicated to this
+ * router, so that slow route builds never delay the tasks of the shared {@literal ScheduledExecutorService} heap
+ * object), so they never delay the incoming requests.
+ *
+ * <p>When {@literal watch} is {@literal true} (defaults to {@literal false}), the directory is not scanned periodically
+ * anymore: changes are notified by the file system (through a {@link java.nio.file.WatchService}) and handled in the
+ * background by the {@literal executor}, as soon as no other change has been notified during {@literal watchDebounce}
+ * (defaults to 500 milliseconds). {@literal scanInterval} is ignored in this mode.
+ *
+ * <p>When several route files are added or modified at once, up to {@literal buildParallelism} routes are built
+ * concurrently (defaults to {@literal 1}: routes are built sequentially), including the routes of the initial scan,
+ * that is performed once the heap declaring the router is initialized. The new routes are only made available once
+ * all of them have been built, and a report of the time spent building each route is logged.
+ *
+ * <p>The managed routes are published as an immutable snapshot: incoming requests never wait for a route
+ * reload to complete, they are dispatched to the previous set of routes until the new one is available.
+ *
+ * <p>When {@literal indexed} is {@literal true} (defaults to {@literal false}), the routes conditions are statically
+ * analysed and common shapes (exact path, path prefix, host) are indexed, so that only the routes whose condition
+ * cannot be classified are evaluated in sequence. The route selected for a given request is the same as without
+ * indexing.
  *
  * @since 2.2
  */
@@ -98,20 +139,36 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
     private SortedSet<Route> sorted = new TreeSet<>(new LexicographicalRouteComparator());
 
     /**
-     * Protect routes access.
+     * Immutable dispatch table built from the ordered set of managed routes, read without locking by the requests.
+     */
+    private volatile RouteIndex index = RouteIndex.EMPTY;
+
+    /**
+     * Whether the route conditions should be indexed.
+     */
+    private boolean indexed;
+
+    /**
+     * Optional pool used to build the routes concurrently.
      */
-    private final Lock read;
+    private ForkJoinPool buildPool;
 
     /**
-     * Protects write access to the routes.
+     * Serializes the changes to the managed routes (requests never acquire it).
      */
-    private final Lock write;
+    private final Lock write = new ReentrantLock();
+
+    /**
+     * Whether this handler has been stopped: the changes notified afterwards (by a pending scan) are ignored.
+     * Guarded by {@link #write}.
+     */
+    private boolean stopped;
 
     /**
      * The optional handler which should be invoked when no routes match the
      * request.
      */
-    private Handler defaultHandler;
+    private volatile Handler defaultHandler;
 
     /**
      * Builds a router that loads its configuration from the given directory.
@@ -121,9 +178,6 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
     public RouterHandler(final RouteBuilder builder, final DirectoryScanner scanner) {
         this.builder = builder;
         this.directoryScanner = scanner;
-        ReadWriteLock lock = new ReentrantReadWriteLock();
-        this.read = lock.readLock();
-        this.write = lock.writeLock();
     }
 
     /**
@@ -136,6 +190,39 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
             SortedSet<Route> newSet = new TreeSet<>(comparator);
             newSet.addAll(sorted);
             sorted = newSet;
+            reindex();
+        } finally {
+            write.unlock();
+        }
+    }
+
+    /**
+     * Enables or disables the indexing of the route conditions.
+     * @param indexed {@code true} to look up candidate routes through an index built from their conditions
+     */
+    public void setIndexed(final boolean indexed) {
+        write.lock();
+        try {
+            this.indexed = indexed;
+            reindex();
+        } finally {
+            write.unlock();
+        }
+    }
+
+    /**
+     * Sets the number of routes that can be built concurrently when several route files are added or modified at
+     * once. Builds are performed sequentially, in the scanning thread, when
+     * {@code parallelism} is lower than 2.
+     * @param parallelism maximum number of routes built concurrently
+     */
+    public void setBuildParallelism(final int parallelism) {
+        write.lock();
+        try {
+            if (buildPool != null) {
+                buildPool.shutdown();
+            }
+            buildPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
         } finally {
             write.unlock();
         }
@@ -150,34 +237,37 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
      *            request
      */
     public void setDefaultHandler(final Handler handler) {
-        write.lock();
-        try {
-            this.defaultHandler = handler;
-        } finally {
-            write.unlock();
-        }
+        this.defaultHandler = handler;
     }
 
     /**
-     * Starts this handler, executes an initial directory scan.
+     * Starts this handler, executes an initial directory scan. When the routes are built concurrently, the heap
+     * objects they refer to have to be available to any thread (see {@link HeapImpl#afterInitialization(Runnable)}).
      */
     public void start() {
         directoryScanner.scan(this);
     }
 
     /**
-     * Stops this handler, shutting down and clearing all the managed routes.
+     * Stops this handler, shutting down and clearing all the managed routes. The changes notified afterwards are
+     * ignored.
      */
     public void stop() {
         write.lock();
         try {
+            stopped = true;
             // Un-register all the routes
             sorted.clear();
+            reindex();
             // Destroy the routes
             for (Route route : routes.values()) {
                 route.destroy();
             }
             routes.clear();
+            if (buildPool != null) {
+                buildPool.shutdown();
+                buildPool = null;
+            }
         } finally {
             write.unlock();
         }
@@ -187,32 +277,81 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
     public void onChanges(final FileChangeSet changes) {
         write.lock();
         try {
+            if (stopped) {
+                // A scan still pending when this handler was stopped must not build any route
+                return;
+            }
+            // The removed and replaced routes, only destroyed once the new snapshot has been published
+            List<Route> retired = new ArrayList<>();
 
             for (File file : changes.getRemovedFiles()) {
-                onRemovedFile(file);
+                onRemovedFile(file, retired);
             }
 
+            // Build all the added and modified routes (possibly in parallel) before registering any of them
+            Set<File> files = new LinkedHashSet<>(changes.getAddedFiles());
+            files.addAll(changes.getModifiedFiles());
+            Map<File, RouteBuild> builds = buildRoutes(files);
+
             for (File file : changes.getAddedFiles()) {
-                onAddedFile(file);
+                onAddedFile(file, builds.get(file));
             }
 
             for (File file : changes.getModifiedFiles()) {
-                onModifiedFile(file);
+                onModifiedFile(file, builds.get(file), retired);
             }
 
+            reindex();
+
+            // Requests are not dispatched to the retired routes anymore
+            for (Route route : retired) {
+                route.destroy();
+            }
         } finally {
             write.unlock();
         }
     }
 
-    private void onAddedFile(final File file) {
-        Route route = null;
-        try {
-            route = builder.build(file);
-        } catch (Exception e) {
+    /**
+     * Builds the routes defined in the given files, concurrently if a build pool has been configured, and logs a
+     * report of the time spent building each route.
+     */
+    private Map<File, RouteBuild> buildRoutes(final Set<File> files) {
+        Map<File, RouteBuild> builds = new LinkedHashMap<>();
+        if (files.isEmpty()) {
+            return builds;
+        }
+        for (File file : files) {
+            builds.put(file, new RouteBuild(file));
+        }
+
+        long start = System.nanoTime();
+        if (buildPool == null || builds.size() == 1) {
+            for (RouteBuild build : builds.values()) {
+                build.call();
+            }
+        } else {
+            // Wait for all the builds to complete
+            buildPool.invokeAll(builds.values());
+        }
+        long elapsed = NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        List<RouteBuild> slowestFirst = new ArrayList<>(builds.values());
+        Collections.sort(slowestFirst);
+        StringBuilder report = new StringBuilder(format("Built %d route(s) in %d ms", builds.size(), elapsed));
+        for (RouteBuild build : slowestFirst) {
+            report.append(format("%n  %6d ms  %s", NANOSECONDS.toMillis(build.elapsed), build.file));
+        }
+        logger.info(report.toString());
+        return builds;
+    }
+
+    private void onAddedFile(final File file, final RouteBuild build) {
+        Route route = build.route;
+        if (route == null) {
             logger.error(format("The route defined in file '%s' cannot be added",
                                 file));
-            logger.error(e);
+            logger.error(build.failure);
             return;
         }
         String name = route.getName();
@@ -231,23 +370,21 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
         logger.info(format("Added route '%s' defined in file '%s'", name, file));
     }
 
-    private void onRemovedFile(final File file) {
+    private void onRemovedFile(final File file, final List<Route> retired) {
         Route route = routes.remove(file);
         if (route != null) {
             sorted.remove(route);
-            route.destroy();
+            retired.add(route);
             logger.info(format("Removed route '%s' defined in file '%s'", route.getName(), file));
         }
     }
 
-    private void onModifiedFile(final File file) {
-        Route newRoute;
-        try {
-            newRoute = builder.build(file);
-        } catch (Exception e) {
+    private void onModifiedFile(final File file, final RouteBuild build, final List<Route> retired) {
+        Route newRoute = build.route;
+        if (newRoute == null) {
             logger.error(format("The route defined in file '%s' cannot be modified",
                                   file));
-            logger.error(e);
+            logger.error(build.failure);
             return;
         }
         Route oldRoute = routes.get(file);
@@ -262,9 +399,9 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
                 newRoute.destroy();
                 return;
             }
-            routes.remove(file);
+            // Replace the old route, that keeps on handling the requests until the new snapshot is published
             sorted.remove(oldRoute);
-            oldRoute.destroy();
+            retired.add(oldRoute);
         }
         newRoute.start();
         sorted.add(newRoute);
@@ -277,21 +414,57 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
         // Run the directory scanner
         directoryScanner.scan(this);
 
-        // Traverse the routes
-        read.lock();
-        try {
-            for (Route route : sorted) {
-                if (route.accept(context, request)) {
-                    return route.handle(context, request);
-                }
-            }
-            if (defaultHandler != null) {
-                return defaultHandler.handle(context, request);
+        // Traverse the current snapshot of the routes
+        Route route = index.find(context, request);
+        if (route != null) {
+            return route.handle(context, request);
+        }
+        Handler handler = defaultHandler;
+        if (handler != null) {
+            return handler.handle(context, request);
+        }
+        logger.error("no handler to dispatch to");
+        return Promises.newResultPromise(Responses.newNotFound());
+    }
+
+    /**
+     * Builds and publishes a new dispatch table from the ordered set of managed routes, must be called with the
+     * write lock held.
+     */
+    private void reindex() {
+        index = new RouteIndex(sorted, indexed);
+    }
+
+    /**
+     * Builds a single route, keeping track of the outcome and of the time spent.
+     * Builds are naturally ordered from the slowest to the fastest.
+     */
+    private final class RouteBuild implements Callable<RouteBuild>, Comparable<RouteBuild> {
+        private final File file;
+        private Route route;
+        private Exception failure;
+        private long elapsed;
+
+        RouteBuild(final File file) {
+            this.file = file;
+        }
+
+        @Override
+        public RouteBuild call() {
+            long start = System.nanoTime();
+            try {
+                route = builder.build(file);
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                elapsed = System.nanoTime() - start;
             }
-            logger.error("no handler to dispatch to");
-            return Promises.newResultPromise(Responses.newNotFound());
-        } finally {
-            read.unlock();
+            return this;
+        }
+
+        @Override
+        public int compareTo(final RouteBuild other) {
+            return Long.compare(other.elapsed, elapsed);
         }
     }
 
@@ -311,6 +484,8 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
     public static class Heaplet extends GenericHeaplet {
 
         private EndpointRegistry.Registration registration;
+        private WatchServiceDirectoryScanner watcher;
+        private ScheduledExecutorService ownedExecutor;
 
         @Override
         public Object create() throws HeapException {
@@ -325,11 +500,28 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
                 directory = new File(evaluation);
             }
 
+            if (config.get("watch").as(evaluated()).defaultTo(false).asBoolean()) {
+                ScheduledExecutorService executor = executor();
+                Duration debounce = config.get("watchDebounce")
+                                          .as(evaluated())
+                                          .defaultTo("500 milliseconds")
+                                          .as(duration());
+                watcher = new WatchServiceDirectoryScanner(directory,
+                                                           executor,
+                                                           heap.get(TIME_SERVICE_HEAP_KEY, TimeService.class),
+                                                           debounce.to(MILLISECONDS),
+                                                           logger);
+                return createRouter(watcher);
+            }
+
             DirectoryScanner scanner = new DirectoryMonitor(directory);
 
             int period = config.get("scanInterval").as(evaluated()).defaultTo(PeriodicDirectoryScanner.TEN_SECONDS)
                                .asInteger();
             if (period > 0) {
+                // Perform the scans (and the routes builds) off the request threads
+                scanner = new AsynchronousDirectoryScanner(scanner, executor());
+
                 TimeService time = heap.get(TIME_SERVICE_HEAP_KEY, TimeService.class);
                 // Wrap the scanner in another scanner that will trigger scan at given interval
                 PeriodicDirectoryScanner periodic = new PeriodicDirectoryScanner(scanner, time);
@@ -342,6 +534,29 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
                 scanner = new OnlyOnceDirectoryScanner(scanner);
             }
 
+            return createRouter(scanner);
+        }
+
+        /**
+         * Returns the configured executor, or creates one dedicated to this router (shut down when destroyed).
+         */
+        private ScheduledExecutorService executor() throws HeapException {
+            if (config.isDefined("executor")) {
+                return config.get("executor").as(requiredHeapObject(heap, ScheduledExecutorService.class));
+            }
+            final String threadName = "OpenIG-Router-" + name;
+            ownedExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, threadName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            return ownedExecutor;
+        }
+
+        private RouterHandler createRouter(final DirectoryScanner scanner) throws HeapException {
             // Register the /routes/* endpoint
             Router routes = new Router();
             routes.addRoute(requestUriMatcher(EQUALS, ""), Handlers.NO_CONTENT);
@@ -354,19 +569,36 @@ public class RouterHandler extends GenericHeapObject implements FileChangeListen
                                                                                             registration.getPath())),
                                                       scanner);
             handler.setDefaultHandler(config.get("defaultHandler").as(optionalHeapObject(heap, Handler.class)));
+            handler.setIndexed(config.get("indexed").as(evaluated()).defaultTo(false).asBoolean());
+            handler.setBuildParallelism(config.get("buildParallelism").as(evaluated()).defaultTo(1).asInteger());
             return handler;
         }
 
         @Override
         public void start() throws HeapException {
-            ((RouterHandler) object).start();
+            final RouterHandler router = (RouterHandler) object;
+            // The routes may be built by several threads: the objects of this heap are looked up once it is
+            // initialized, rather than while it is locked by the current thread
+            ((HeapImpl) heap).afterInitialization(new Runnable() {
+                @Override
+                public void run() {
+                    router.start();
+                }
+            });
         }
 
         @Override
         public void destroy() {
+            if (watcher != null) {
+                watcher.stop();
+            }
             if (object != null) {
                 ((RouterHandler) object).stop();
             }
+            if (ownedExecutor != null) {
+                // The pending scans are ignored by the stopped router
+                ownedExecutor.shutdown();
+            }
             if (registration != null) {
                 registration.unregister();
             }
@@ -0,0 +1,304 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.openig.log.Logger;
+import org.forgerock.util.time.TimeService;
+
+/**
+ * A {@link WatchServiceDirectoryScanner} relies on a {@link WatchService} to be notified of the changes in the
+ * monitored directory, instead of listing its content periodically.
+ *
+ * <p>The first call to {@link #scan(FileChangeListener)} performs an initial scan synchronously and registers the
+ * given listener, the subsequent calls do nothing. The pending watch events are then consumed in the background by
+ * the given executor, every {@literal pollInterval} milliseconds (this never blocks an executor's thread). Once no more
+ * events have been received for {@literal debounce} milliseconds (a burst of edits results in a single reload), a
+ * separate task is submitted to the executor: the delegate scanner computes the {@link FileChangeSet} that is pushed to
+ * the listener, so that a slow reload never delays the polling. A single notification runs at a time.
+ *
+ * @see DirectoryMonitor
+ */
+class WatchServiceDirectoryScanner implements DirectoryScanner {
+
+    /**
+     * Default delay between 2 polls of the watch events (in milliseconds).
+     */
+    static final long DEFAULT_POLL_INTERVAL = 100L;
+
+    /**
+     * Monitored directory.
+     */
+    private final File directory;
+
+    /**
+     * Delegate, computing the changes when watch events have been received.
+     */
+    private final DirectoryScanner delegate;
+
+    /**
+     * Executor consuming the watch events and notifying the listener.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Time service.
+     */
+    private final TimeService time;
+
+    /**
+     * Quiet period (expressed in milliseconds) after the last watch event, before the changes are notified.
+     */
+    private final long debounce;
+
+    /**
+     * Delay between 2 polls of the watch events (expressed in milliseconds).
+     */
+    private final long pollInterval;
+
+    /**
+     * Logger of the scan failures.
+     */
+    private final Logger logger;
+
+    /**
+     * Contains {@literal true} while a notification is submitted to the executor or running.
+     */
+    private final AtomicBoolean notifying = new AtomicBoolean(false);
+
+    /**
+     * Contains {@literal true} once the initial scan has been performed.
+     */
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    /**
+     * The listener registered by the initial scan.
+     */
+    private volatile FileChangeListener listener;
+
+    /**
+     * The background polling task.
+     */
+    private volatile ScheduledFuture<?> future;
+
+    // Guarded by this
+    private boolean stopped;
+    private WatchService watchService;
+    private WatchKey key;
+    private long lastEvent = -1L;
+
+    /**
+     * Builds a new scanner watching the given directory.
+     *
+     * @param directory
+     *         a non-{@literal null} directory (it may or may not exist) to monitor
+     * @param executor
+     *         executor consuming the watch events and notifying the listener
+     * @param time
+     *         time service
+     * @param debounce
+     *         quiet period (expressed in milliseconds) after the last watch event, before the changes are notified
+     * @param logger
+     *         logger of the scan failures
+     */
+    public WatchServiceDirectoryScanner(final File directory,
+                                        final ScheduledExecutorService executor,
+                                        final TimeService time,
+                                        final long debounce,
+                                        final Logger logger) {
+        this(directory, new DirectoryMonitor(directory), executor, time, debounce, DEFAULT_POLL_INTERVAL, logger);
+    }
+
+    /**
+     * Builds a new scanner watching the given directory. This constructor is intended for test cases.
+     *
+     * @param directory
+     *         a non-{@literal null} directory (it may or may not exist) to monitor
+     * @param delegate
+     *         scanner computing the changes when watch events have been received
+     * @param executor
+     *         executor consuming the watch events and notifying the listener
+     * @param time
+     *         time service
+     * @param debounce
+     *         quiet period (expressed in milliseconds) after the last watch event, before the changes are notified
+     * @param pollInterval
+     *         delay between 2 polls of the watch events (expressed in milliseconds)
+     * @param logger
+     *         logger of the scan failures
+     */
+    WatchServiceDirectoryScanner(final File directory,
+                                 final DirectoryScanner delegate,
+                                 final ScheduledExecutorService executor,
+                                 final TimeService time,
+                                 final long debounce,
+                                 final long pollInterval,
+                                 final Logger logger) {
+        if (debounce < 0 || pollInterval <= 0) {
+            throw new IllegalArgumentException("debounce cannot be negative and poll interval has to be positive");
+        }
+        this.directory = directory;
+        this.delegate = delegate;
+        this.executor = executor;
+        this.time = time;
+        this.debounce = debounce;
+        this.pollInterval = pollInterval;
+        this.logger = logger;
+    }
+
+    @Override
+    public void scan(final FileChangeListener listener) {
+        if (started.compareAndSet(false, true)) {
+            // Register for the events before the initial scan, so that no change can be missed
+            synchronized (this) {
+                register();
+            }
+            delegate.scan(listener);
+            this.listener = listener;
+            future = executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    poll();
+                }
+            }, pollInterval, pollInterval, MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops watching the directory.
+     */
+    public void stop() {
+        ScheduledFuture<?> scheduled = future;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        close();
+    }
+
+    /**
+     * Consumes the pending watch events, and notifies the listener if the debounce period is over.
+     */
+    synchronized void poll() {
+        if (stopped) {
+            return;
+        }
+        try {
+            boolean changed = false;
+            if (key == null || !key.isValid()) {
+                // The directory did not exist, or has been deleted: a successful registration is considered as a change
+                changed = register();
+            }
+            if (watchService != null) {
+                WatchKey signaled;
+                while ((signaled = watchService.poll()) != null) {
+                    if (!signaled.pollEvents().isEmpty()) {
+                        changed = true;
+                    }
+                    if (!signaled.reset()) {
+                        // The directory is not accessible anymore
+                        key = null;
+                        changed = true;
+                    }
+                }
+            }
+            if (changed) {
+                lastEvent = time.now();
+            }
+            if (lastEvent != -1L && time.since(lastEvent) >= debounce && notifyListener()) {
+                lastEvent = -1L;
+            }
+        } catch (RuntimeException e) {
+            // Do not let an exception cancel the periodic polling, next run will try again
+            logger.error("Cannot poll the changes of the directory " + directory);
+            logger.error(e);
+        }
+    }
+
+    /**
+     * Submits the notification of the listener to the executor, unless a notification is already pending: in that
+     * case the changes are notified by a next poll.
+     *
+     * @return {@literal true} if the notification has been submitted
+     */
+    private boolean notifyListener() {
+        if (!notifying.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        delegate.scan(listener);
+                    } catch (RuntimeException e) {
+                        logger.error("Cannot reload the routes of the directory " + directory);
+                        logger.error(e);
+                    } finally {
+                        notifying.set(false);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            // The executor is shutting down
+            notifying.set(false);
+            return false;
+        }
+    }
+
+    private boolean register() {
+        if (!directory.isDirectory()) {
+            return false;
+        }
+        try {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+            }
+            key = directory.toPath().register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private synchronized void close() {
+        stopped = true;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+            watchService = null;
+            key = null;
+        }
+    }
+}
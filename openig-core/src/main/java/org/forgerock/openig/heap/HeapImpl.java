@@ -40,6 +40,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.forgerock.http.Handler;
 import org.forgerock.http.util.MultiValueMap;
@@ -84,7 +85,7 @@ public class HeapImpl implements Heap {
     private Map<String, Object> objects = new HashMap<>();
 
     /** Per-heaplet decoration contexts mapped to heaplet names. */
-    private Map<String, Context> contexts = new HashMap<>();
+    private Map<String, DecorationContext> contexts = new HashMap<>();
 
     /** Per-heaplet decoration(s) mapped to heaplet names. */
     private MultiValueMap<String, JsonValue> decorations =
@@ -95,6 +96,11 @@ public class HeapImpl implements Heap {
      */
     private Decorator topLevelHandlerDecorator;
 
+    /**
+     * Decoration context of the 'main handler' reference (created on the first {@link #getHandler()} call).
+     */
+    private DecorationContext topLevelHandlerContext;
+
     /**
      * Top-level 'handler' reference decorations (effectively the root node of configuration).
      */
@@ -115,6 +121,11 @@ public class HeapImpl implements Heap {
      */
     private List<JsonValue> defaults = new ArrayList<>();
 
+    /**
+     * Tasks to run once the ongoing initialization completes ({@code null} when the heap is not being initialized).
+     */
+    private List<Runnable> initializationTasks;
+
     /**
      * Builds an anonymous root heap (will be referenced by children but has no parent itself).
      * Intended for tests only.
@@ -167,9 +178,45 @@ public class HeapImpl implements Heap {
      *                           should not be parsed as global decorators.
      * @throws HeapException if an exception occurs allocating heaplets.
      * @throws JsonValueException if the configuration object is malformed.
+     * @see #afterInitialization(Runnable)
      */
-    public synchronized void init(JsonValue config, String... reservedFieldNames)
+    public void init(JsonValue config, String... reservedFieldNames)
             throws HeapException {
+        List<Runnable> tasks;
+        synchronized (this) {
+            initializationTasks = new ArrayList<>();
+            try {
+                initialize(config, reservedFieldNames);
+                tasks = initializationTasks;
+            } finally {
+                initializationTasks = null;
+            }
+        }
+        // The heap is not locked anymore: the tasks can have its objects looked up by other threads
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    /**
+     * Runs the given task once this heap is initialized, when the heap is not locked anymore: the task can then have
+     * the heap objects looked up by other threads (for example, to build routes concurrently). The task is run
+     * immediately if this heap is not being initialized, and never if its initialization fails.
+     *
+     * @param task
+     *         task to run once this heap is initialized
+     */
+    public void afterInitialization(final Runnable task) {
+        synchronized (this) {
+            if (initializationTasks != null) {
+                initializationTasks.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    private void initialize(JsonValue config, String... reservedFieldNames) throws HeapException {
         // process configuration object model structure
         this.config = config;
         boolean logDeprecationWarning = false;
@@ -533,9 +580,9 @@ public class HeapImpl implements Heap {
         }
 
         // Create a context object for holding shared values
-        Context context = new DecorationContext(this,
-                                                this.name.child(name),
-                                                configuration);
+        DecorationContext context = new DecorationContext(this,
+                                                          this.name.child(name),
+                                                          configuration);
         // .. and save it for later use in extract()
         contexts.put(name, context);
 
@@ -572,8 +619,15 @@ public class HeapImpl implements Heap {
         for (String name : h.keySet()) {
             h.get(name).destroy();
         }
+        // let the decorators release what they have dedicated to the destroyed objects
+        for (DecorationContext context : contexts.values()) {
+            context.destroyed();
+        }
         contexts.clear();
-
+        if (topLevelHandlerContext != null) {
+            topLevelHandlerContext.destroyed();
+            topLevelHandlerContext = null;
+        }
     }
 
     /**
@@ -587,10 +641,14 @@ public class HeapImpl implements Heap {
         JsonValue reference = getWithDeprecation(config, logger, "handler", "handlerObject");
         Handler handler = resolve(reference, Handler.class);
         // FIXME: how to grab the decoration context of this object (it may not origin from this heap) ?
-        DecorationContext context = new DecorationContext(this,
-                                                          name.child("top-level-handler"),
-                                                          json(emptyMap()));
-        return (Handler) topLevelHandlerDecorator.decorate(handler, null, context);
+        synchronized (this) {
+            if (topLevelHandlerContext == null) {
+                topLevelHandlerContext = new DecorationContext(this,
+                                                               name.child("top-level-handler"),
+                                                               json(emptyMap()));
+            }
+        }
+        return (Handler) topLevelHandlerDecorator.decorate(handler, null, topLevelHandlerContext);
     }
 
     /**
@@ -600,6 +658,7 @@ public class HeapImpl implements Heap {
         private final Heap heap;
         private final Name name;
         private final JsonValue config;
+        private final List<Runnable> destroyCallbacks = new CopyOnWriteArrayList<>();
 
         public DecorationContext(final Heap heap,
                                  final Name name,
@@ -623,6 +682,18 @@ public class HeapImpl implements Heap {
         public JsonValue getConfig() {
             return config;
         }
+
+        @Override
+        public void onDestroy(final Runnable callback) {
+            destroyCallbacks.add(callback);
+        }
+
+        void destroyed() {
+            for (Runnable callback : destroyCallbacks) {
+                callback.run();
+            }
+            destroyCallbacks.clear();
+        }
     }
 
     /**
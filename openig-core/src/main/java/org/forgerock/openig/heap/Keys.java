@@ -24,6 +24,7 @@ import org.forgerock.openig.decoration.baseuri.BaseUriDecorator;
 import org.forgerock.openig.decoration.capture.CaptureDecorator;
 import org.forgerock.openig.decoration.timer.TimerDecorator;
 import org.forgerock.openig.handler.ClientHandler;
+import org.forgerock.openig.handler.router.RouteMetricsRegistry;
 import org.forgerock.openig.http.EndpointRegistry;
 import org.forgerock.openig.io.TemporaryStorage;
 import org.forgerock.openig.log.LogSink;
@@ -104,6 +105,12 @@ public final class Keys {
      */
     public static final String LOGSINK_HEAP_KEY = "LogSink";
 
+    /**
+     * Key to retrieve the gateway-wide {@link RouteMetricsRegistry} instance from the
+     * {@link org.forgerock.openig.heap.Heap}.
+     */
+    public static final String ROUTE_METRICS_REGISTRY_HEAP_KEY = "RouteMetricsRegistry";
+
     /**
      * Key to retrieve the default {@link java.util.concurrent.ScheduledExecutorService} instance from the
      * {@link org.forgerock.openig.heap.Heap}.
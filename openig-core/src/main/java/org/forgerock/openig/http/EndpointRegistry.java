@@ -19,6 +19,9 @@ package org.forgerock.openig.http;
 import static org.forgerock.http.routing.RouteMatchers.requestUriMatcher;
 import static org.forgerock.http.routing.RoutingMode.STARTS_WITH;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.forgerock.http.Handler;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.routing.Router;
@@ -36,11 +39,15 @@ import org.forgerock.services.routing.RouteMatcher;
  *     components defined inside routes</li>
  * </ul>
  *
+ * <p>Registering an endpoint under a name that is already in use replaces the previous endpoint: un-registering the
+ * replaced endpoint later on has no effect, so that a component can be replaced before the previous one is destroyed.
+ *
  * @see GenericHeaplet#endpointRegistry()
  */
 public final class EndpointRegistry {
     private final Router router;
     private final String path;
+    private final ConcurrentMap<String, Registration> registrations = new ConcurrentHashMap<>();
 
     /**
      * Creates a registry around the given Router instance.
@@ -72,8 +79,13 @@ public final class EndpointRegistry {
      */
     public Registration register(final String name, final Handler handler) {
         RouteMatcher<Request> matcher = requestUriMatcher(STARTS_WITH, name);
+        Registration registration = new Registration(this, name, matcher, pathInfo(name));
+        Registration replaced = registrations.put(name, registration);
+        if (replaced != null) {
+            router.removeRoute(replaced.matcher);
+        }
         router.addRoute(matcher, handler);
-        return new Registration(router, matcher, pathInfo(name));
+        return registration;
     }
 
     /**
@@ -107,21 +119,28 @@ public final class EndpointRegistry {
      * Handle for un-registering an endpoint.
      */
     public static class Registration {
-        private final Router router;
+        private final EndpointRegistry registry;
+        private final String name;
         private final RouteMatcher<Request> matcher;
         private final String path;
 
-        Registration(final Router router, final RouteMatcher<Request> matcher, String path) {
-            this.router = router;
+        Registration(final EndpointRegistry registry,
+                     final String name,
+                     final RouteMatcher<Request> matcher,
+                     final String path) {
+            this.registry = registry;
+            this.name = name;
             this.matcher = matcher;
             this.path = path;
         }
 
         /**
-         * Un-register the endpoint.
+         * Un-register the endpoint, unless it has been replaced by another endpoint registered under the same name.
          */
         public void unregister() {
-            router.removeRoute(matcher);
+            if (registry.registrations.remove(name, this)) {
+                registry.router.removeRoute(matcher);
+            }
         }
 
         /**
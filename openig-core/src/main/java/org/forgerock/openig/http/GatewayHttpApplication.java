@@ -39,6 +39,7 @@ import static org.forgerock.openig.heap.Keys.ENDPOINT_REGISTRY_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.ENVIRONMENT_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.FORGEROCK_CLIENT_HANDLER_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.LOGSINK_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.ROUTE_METRICS_REGISTRY_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.SESSION_FACTORY_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.TEMPORARY_STORAGE_HEAP_KEY;
@@ -84,6 +85,8 @@ import org.forgerock.openig.decoration.timer.TimerDecorator;
 import org.forgerock.openig.filter.Chain;
 import org.forgerock.openig.handler.ClientHandler;
 import org.forgerock.openig.handler.Handlers;
+import org.forgerock.openig.handler.router.PrometheusMetricsHandler;
+import org.forgerock.openig.handler.router.RouteMetricsRegistry;
 import org.forgerock.openig.heap.HeapImpl;
 import org.forgerock.openig.heap.Name;
 import org.forgerock.openig.io.TemporaryStorage;
@@ -192,10 +195,12 @@ public final class GatewayHttpApplication implements HttpApplication {
 
             // Provide the base tree:
             // /openig/api/system/objects
+            // /openig/api/system/metrics/prometheus
             Router openigRouter = new Router();
             Router apiRouter = new Router();
             Router systemRouter = new Router();
             Router systemObjectsRouter = new Router();
+            Router systemMetricsRouter = new Router();
             addSubRouter(openigRouter, "api", apiRouter);
             addSubRouter(apiRouter, "system", systemRouter);
             // TODO Could be removed after OPENIG-425 has been implemented
@@ -205,6 +210,13 @@ public final class GatewayHttpApplication implements HttpApplication {
             heap.put(ENDPOINT_REGISTRY_HEAP_KEY, new EndpointRegistry(systemObjectsRouter,
                                                                       "/openig/api/system/objects"));
 
+            // The metrics of all the monitored routes
+            RouteMetricsRegistry routeMetrics = new RouteMetricsRegistry();
+            addSubRouter(systemRouter, "metrics", systemMetricsRouter);
+            systemMetricsRouter.addRoute(requestUriMatcher(EQUALS, "prometheus"),
+                                         new PrometheusMetricsHandler(routeMetrics));
+            heap.put(ROUTE_METRICS_REGISTRY_HEAP_KEY, routeMetrics);
+
             // "Live" objects
             heap.put(ENVIRONMENT_HEAP_KEY, environment);
             heap.put(TIME_SERVICE_HEAP_KEY, TimeService.SYSTEM);
@@ -335,7 +347,7 @@ public final class GatewayHttpApplication implements HttpApplication {
                     }
                 }
             } catch (UnknownHostException e) {
-                logger.trace(format("Cannot resolve host '%s' when accessing '/openig'", remoteAddr));
+                logger.trace("Cannot resolve host '%s' when accessing '/openig'", remoteAddr);
             }
             return newResponsePromise(new Response(Status.FORBIDDEN));
         }
@@ -11,7 +11,7 @@
  * Header, with the fields enclosed by brackets [] replaced by your own identifying
  * information: "Portions copyright [year] [name of copyright owner]".
  *
- * Copyright 2014-2015 ForgeRock AS.
+ * Copyright 2014-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.jwt;
@@ -24,6 +24,7 @@ import static org.forgerock.http.util.Json.*;
 import static org.forgerock.openig.jwt.JwtSessionManager.MAX_SESSION_TIMEOUT;
 
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.util.Collection;
 import java.util.Date;
@@ -37,15 +38,9 @@ import org.forgerock.http.protocol.Cookie;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
 import org.forgerock.http.session.Session;
-import org.forgerock.json.jose.builders.EncryptedJwtBuilder;
-import org.forgerock.json.jose.builders.JwtBuilderFactory;
-import org.forgerock.json.jose.builders.JwtClaimsSetBuilder;
-import org.forgerock.json.jose.common.JwtReconstruction;
 import org.forgerock.json.jose.exceptions.JweDecryptionException;
-import org.forgerock.json.jose.jwe.EncryptedJwt;
 import org.forgerock.json.jose.jwe.EncryptionMethod;
 import org.forgerock.json.jose.jwe.JweAlgorithm;
-import org.forgerock.json.jose.jwt.JwtClaimsSet;
 import org.forgerock.openig.jwt.dirty.DirtyCollection;
 import org.forgerock.openig.jwt.dirty.DirtyListener;
 import org.forgerock.openig.jwt.dirty.DirtySet;
@@ -58,7 +53,12 @@ import org.forgerock.util.time.TimeService;
 /**
  * Represents an OpenIG {@link Session} that will be stored as an encrypted JSON Web Token in a Cookie.
  * The generated JWT is encrypted with the {@link JweAlgorithm#RSAES_PKCS1_V1_5} algorithm and {@link
- * EncryptionMethod#A128CBC_HS256} method.
+ * EncryptionMethod#A128CBC_HS256} method, unless the {@link JwtSessionManager} has been configured to directly encrypt
+ * it with a shared AES key ({@literal dir} algorithm and AES-GCM method).
+ *
+ * <p>The session cookie is only decrypted when the session's content is accessed for the first time: a session that is
+ * not used by the request processing costs nothing (and is not re-written). When a {@link JwtSessionCache} is
+ * provided, the content decrypted for a given cookie value is re-used by the next requests carrying the same cookie.
  */
 public class JwtCookieSession extends MapDecorator<String, Object> implements Session, DirtyListener {
 
@@ -84,16 +84,6 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
      */
     private static final Date EPOCH = new Date(0L);
 
-    /**
-     * Know how to rebuild a JWT from a String.
-     */
-    private final JwtReconstruction reader = new JwtReconstruction();
-
-    /**
-     * Factory for JWT.
-     */
-    private final JwtBuilderFactory factory = new JwtBuilderFactory();
-
     /**
      * Marker used to detect if the session was used or not.
      */
@@ -112,7 +102,7 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
     /**
      * Used for decryption/encryption of session's content.
      */
-    private final KeyPair pair;
+    private final JwtSessionCipher cipher;
 
     /**
      * The TimeService to use when setting the cookie session expiry time.
@@ -124,6 +114,16 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
      */
     private final Duration sessionTimeout;
 
+    /**
+     * Cache of the decrypted sessions, may be {@code null}.
+     */
+    private final JwtSessionCache cache;
+
+    /**
+     * The JWT session cookie found in the request, {@code null} once it has been loaded (or if there was none).
+     */
+    private String cookieValue;
+
     /**
      * Builds a new JwtCookieSession that will manage the given Request's session.
      *
@@ -146,8 +146,64 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
                             final Logger logger,
                             final TimeService timeService,
                             final Duration sessionTimeout) {
+        this(request, pair, cookieName, logger, timeService, sessionTimeout, null);
+    }
+
+    /**
+     * Builds a new JwtCookieSession that will manage the given Request's session.
+     *
+     * @param request
+     *         Request used to access {@literal Cookie} and {@literal Set-Cookie} headers.
+     * @param pair
+     *         Secret key used to sign the JWT payload.
+     * @param cookieName
+     *         Name to be used for the JWT Cookie.
+     * @param logger
+     *         Logger
+     * @param timeService
+     *         TimeService to use when dealing with cookie sessions
+     * @param sessionTimeout
+     *         The duration of the cookie session
+     * @param cache
+     *         Cache of the decrypted sessions (may be {@code null})
+     */
+    public JwtCookieSession(final Request request,
+                            final KeyPair pair,
+                            final String cookieName,
+                            final Logger logger,
+                            final TimeService timeService,
+                            final Duration sessionTimeout,
+                            final JwtSessionCache cache) {
+        this(request, JwtSessionCipher.rsa(pair), cookieName, logger, timeService, sessionTimeout, cache);
+    }
+
+    /**
+     * Builds a new JwtCookieSession that will manage the given Request's session.
+     *
+     * @param request
+     *         Request used to access {@literal Cookie} and {@literal Set-Cookie} headers.
+     * @param cipher
+     *         Encrypts/decrypts the JWT payload.
+     * @param cookieName
+     *         Name to be used for the JWT Cookie.
+     * @param logger
+     *         Logger
+     * @param timeService
+     *         TimeService to use when dealing with cookie sessions
+     * @param sessionTimeout
+     *         The duration of the cookie session
+     * @param cache
+     *         Cache of the decrypted sessions (may be {@code null})
+     */
+    JwtCookieSession(final Request request,
+                     final JwtSessionCipher cipher,
+                     final String cookieName,
+                     final Logger logger,
+                     final TimeService timeService,
+                     final Duration sessionTimeout,
+                     final JwtSessionCache cache) {
         super(new LinkedHashMap<String, Object>());
-        this.pair = pair;
+        this.cipher = cipher;
         this.cookieName = cookieName;
         this.logger = logger;
         this.timeService = timeService;
@@ -160,25 +216,32 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
             this.sessionTimeout = sessionTimeout;
         }
 
-        // TODO Make this lazy (intercept read methods)
-        loadJwtSession(request);
+        this.cache = cache;
+
+        // The cookie is decrypted lazily, when the session is accessed for the first time
+        Cookie cookie = findJwtSessionCookie(request);
+        this.cookieValue = (cookie != null) ? cookie.getValue() : null;
     }
 
     /**
-     * Load the session's content from the cookie (if any).
-     *
-     * @param request Request used to access {@literal Cookie} and {@literal Set-Cookie} headers.
+     * Load the session's content from the cookie (if any, and if not already done).
      */
-    private void loadJwtSession(Request request) {
-        Cookie cookie = findJwtSessionCookie(request);
-        if (cookie != null) {
+    private void loadJwtSession() {
+        String value = cookieValue;
+        if (value != null) {
+            // Mark the session as loaded before anything else, as we're calling methods that would re-enter here
+            cookieValue = null;
             try {
-                EncryptedJwt jwt = reader.reconstructJwt(cookie.getValue(), EncryptedJwt.class);
-                jwt.decrypt(pair.getPrivate());
-                JwtClaimsSet claimsSet = jwt.getClaimsSet();
-                for (String key : claimsSet.keys()) {
+                Map<String, Object> claims = (cache != null) ? cache.get(value) : null;
+                if (claims == null) {
+                    claims = cipher.decrypt(value);
+                    if (cache != null) {
+                        cache.put(value, claims);
+                    }
+                }
+                for (Map.Entry<String, Object> claim : claims.entrySet()) {
                     // directly use super to avoid session be marked as dirty
-                    super.put(key, claimsSet.getClaim(key));
+                    super.put(claim.getKey(), claim.getValue());
                 }
                 Number expiryTime = (Number) get(IG_EXP_SESSION_KEY);
                 if (expiryTime != null) {
@@ -192,7 +255,7 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
                     // but will keep the session's content with an expiration date
                     put(IG_EXP_SESSION_KEY, getNewExpiryTime());
                 }
-            } catch (JweDecryptionException e) {
+            } catch (JweDecryptionException | GeneralSecurityException e) {
                 dirty = true; // Force cookie expiration / overwrite.
                 logger.warning(format("The JWT Session Cookie '%s' could not be decrypted. This "
                         + "may be because temporary encryption keys have been used or if the "
@@ -214,6 +277,7 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
 
     @Override
     public Object put(final String key, final Object value) {
+        loadJwtSession();
         // Put null into a key, results in the complete entry removal
         if (value == null) {
             return remove(key);
@@ -231,6 +295,7 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
 
     @Override
     public void putAll(final Map<? extends String, ?> m) {
+        loadJwtSession();
         for (Entry<? extends String, ?> entry : m.entrySet()) {
             put(entry.getKey(), entry.getValue());
         }
@@ -238,28 +303,33 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
 
     @Override
     public Object remove(final Object key) {
+        loadJwtSession();
         dirty = true;
         return super.remove(key);
     }
 
     @Override
     public void clear() {
+        loadJwtSession();
         dirty = true;
         super.clear();
     }
 
     @Override
     public Set<String> keySet() {
+        loadJwtSession();
         return new DirtySet<>(super.keySet(), this);
     }
 
     @Override
     public Collection<Object> values() {
+        loadJwtSession();
         return new DirtyCollection<>(super.values(), this);
     }
 
     @Override
     public Set<Entry<String, Object>> entrySet() {
+        loadJwtSession();
         return new DirtySet<>(super.entrySet(), this);
     }
 
@@ -293,8 +363,45 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
 
     }
 
+    @Override
+    public int size() {
+        loadJwtSession();
+        return super.size();
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        loadJwtSession();
+        return super.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(final Object value) {
+        loadJwtSession();
+        return super.containsValue(value);
+    }
+
+    @Override
+    public Object get(final Object key) {
+        loadJwtSession();
+        return super.get(key);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        loadJwtSession();
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        loadJwtSession();
+        return super.hashCode();
+    }
+
     @Override
     public boolean isEmpty() {
+        loadJwtSession();
 
         // If the only item is the IG_EXP_SESSION_KEY then it should be considered empty
         if (!super.isEmpty()) {
@@ -308,7 +415,7 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
         return new Cookie().setPath("/").setName(cookieName).setExpires(EPOCH);
     }
 
-    private Cookie buildJwtCookie() {
+    private Cookie buildJwtCookie() throws IOException {
         // Reuse existing expiryTime if it exists.
         // If the value fits within a Integer, then an Integer rather than a Long is returned.
         Number expiryTime = (Number) get(IG_EXP_SESSION_KEY);
@@ -326,15 +433,12 @@ public class JwtCookieSession extends MapDecorator<String, Object> implements Se
     /**
      * Builds a JWT from the session's content.
      */
-    private String buildJwtSession() {
-        EncryptedJwtBuilder jwtBuilder = factory.jwe(pair.getPublic());
-        JwtClaimsSetBuilder claimsBuilder = factory.claims();
-        claimsBuilder.claims(this);
-        jwtBuilder.claims(claimsBuilder.build());
-        jwtBuilder.headers()
-                  .alg(JweAlgorithm.RSAES_PKCS1_V1_5)
-                  .enc(EncryptionMethod.A128CBC_HS256);
-        return jwtBuilder.build();
+    private String buildJwtSession() throws IOException {
+        try {
+            return cipher.encrypt(this);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(format("Cannot encrypt the JWT session stored in Cookie '%s'", cookieName), e);
+        }
     }
 
     /**
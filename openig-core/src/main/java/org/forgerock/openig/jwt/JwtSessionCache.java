@@ -0,0 +1,154 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.jwt;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.util.Reject;
+
+/**
+ * A bounded, thread-safe cache of decrypted JWT sessions, keyed by the (encrypted) cookie value.
+ *
+ * <p>A given cookie value always decrypts to the same content: requests carrying an unchanged cookie can reuse the
+ * claims decrypted for a previous request instead of performing an expensive RSA decryption. The complete cookie
+ * value is used as the key (not only its hash), so that 2 different cookies can never share an entry.
+ *
+ * <p>The cached claims are copied in and out of the cache, so that sessions can freely modify their content. When the
+ * cache is full, an arbitrary entry is evicted to make room for the new one.
+ */
+public final class JwtSessionCache {
+
+    private final ConcurrentHashMap<String, Map<String, Object>> entries = new ConcurrentHashMap<>();
+    private final int maximumSize;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Builds a new cache holding at most the given number of sessions.
+     *
+     * @param maximumSize
+     *         maximum number of cached sessions (must be positive)
+     */
+    public JwtSessionCache(final int maximumSize) {
+        Reject.ifFalse(maximumSize > 0, "maximumSize must be positive");
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Returns a copy of the claims cached for the given cookie value, or {@code null} if there is none.
+     *
+     * @param cookie
+     *         the encrypted cookie value
+     * @return a copy of the cached claims, or {@code null}
+     */
+    Map<String, Object> get(final String cookie) {
+        Map<String, Object> claims = entries.get(cookie);
+        if (claims == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return copy(claims);
+    }
+
+    /**
+     * Caches a copy of the claims decrypted from the given cookie value.
+     *
+     * @param cookie
+     *         the encrypted cookie value
+     * @param claims
+     *         the decrypted claims
+     */
+    void put(final String cookie, final Map<String, Object> claims) {
+        if (entries.size() >= maximumSize) {
+            Iterator<String> iterator = entries.keySet().iterator();
+            while (entries.size() >= maximumSize && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        entries.put(cookie, copy(claims));
+    }
+
+    /**
+     * Returns the number of lookups that found cached claims.
+     *
+     * @return the number of cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that did not find cached claims.
+     *
+     * @return the number of cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of cached sessions.
+     *
+     * @return the number of cached sessions
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the cache statistics as a JSON compatible structure.
+     *
+     * @return the cache statistics
+     */
+    Map<String, Object> getStatistics() {
+        return object(field("size", size()),
+                      field("maximumSize", maximumSize),
+                      field("hits", getHits()),
+                      field("misses", getMisses()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T copy(final T value) {
+        if (value instanceof Map) {
+            Map<String, Object> copy = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                copy.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return (T) copy;
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object element : (List<Object>) value) {
+                copy.add(copy(element));
+            }
+            return (T) copy;
+        }
+        // Other JSON values are immutable
+        return value;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.jwt;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.forgerock.http.util.Json.readJson;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import org.forgerock.json.jose.builders.EncryptedJwtBuilder;
+import org.forgerock.json.jose.builders.JwtBuilderFactory;
+import org.forgerock.json.jose.common.JwtReconstruction;
+import org.forgerock.json.jose.jwe.EncryptedJwt;
+import org.forgerock.json.jose.jwe.EncryptionMethod;
+import org.forgerock.json.jose.jwe.JweAlgorithm;
+import org.forgerock.json.jose.jwt.JwtClaimsSet;
+import org.forgerock.util.Reject;
+import org.forgerock.util.encode.Base64url;
+
+/**
+ * Encrypts the content of a {@link JwtCookieSession} into a compact JWE (and decrypts it back).
+ *
+ * <p>2 implementations are available:
+ * <ul>
+ *     <li>{@link #rsa(KeyPair)}: a random content encryption key is generated for each JWT, and wrapped with the RSA
+ *     public key ({@literal RSAES_PKCS1_V1_5} + {@literal A128CBC-HS256}). This is the historical format.</li>
+ *     <li>{@link #direct(SecretKey)}: the content is directly encrypted with a shared AES key ({@literal dir} +
+ *     {@literal AxxxGCM}), there is no key wrapping and no RSA operation at all. This is orders of magnitude cheaper,
+ *     and produces smaller cookies.</li>
+ * </ul>
+ *
+ * <p>Implementations are thread-safe.
+ */
+abstract class JwtSessionCipher {
+
+    /**
+     * Returns a cipher wrapping a random content encryption key with the given RSA key pair.
+     *
+     * @param pair
+     *         the RSA key pair (the public key encrypts, the private key decrypts)
+     * @return a new cipher
+     */
+    static JwtSessionCipher rsa(final KeyPair pair) {
+        return new RsaCipher(pair);
+    }
+
+    /**
+     * Returns a cipher directly encrypting the content with the given AES key, using AES in Galois/Counter Mode.
+     *
+     * @param key
+     *         the shared AES key (128, 192 or 256 bits)
+     * @return a new cipher
+     * @throws GeneralSecurityException
+     *         if the key is not a suitable AES key, or if the {@literal AES/GCM/NoPadding} transformation is not
+     *         supported by the installed providers
+     */
+    static JwtSessionCipher direct(final SecretKey key) throws GeneralSecurityException {
+        return new DirectCipher(key);
+    }
+
+    /**
+     * Encrypts the given claims.
+     *
+     * @param claims
+     *         the JSON compatible claims
+     * @return the compact JWE serialization
+     * @throws GeneralSecurityException
+     *         if the encryption failed
+     */
+    abstract String encrypt(Map<String, Object> claims) throws GeneralSecurityException;
+
+    /**
+     * Decrypts the given compact JWE serialization.
+     *
+     * @param value
+     *         the compact JWE serialization
+     * @return the decrypted claims
+     * @throws GeneralSecurityException
+     *         if the value cannot be decrypted with the configured key (wrong key or tampered value)
+     * @throws IOException
+     *         if the value is not well formed
+     */
+    abstract Map<String, Object> decrypt(String value) throws GeneralSecurityException, IOException;
+
+    /**
+     * RSA key wrapping, relying on the JWT library.
+     */
+    private static final class RsaCipher extends JwtSessionCipher {
+        private final JwtReconstruction reader = new JwtReconstruction();
+        private final JwtBuilderFactory factory = new JwtBuilderFactory();
+        private final KeyPair pair;
+
+        RsaCipher(final KeyPair pair) {
+            this.pair = pair;
+        }
+
+        @Override
+        String encrypt(final Map<String, Object> claims) {
+            EncryptedJwtBuilder jwtBuilder = factory.jwe(pair.getPublic());
+            jwtBuilder.claims(factory.claims().claims(claims).build());
+            jwtBuilder.headers()
+                      .alg(JweAlgorithm.RSAES_PKCS1_V1_5)
+                      .enc(EncryptionMethod.A128CBC_HS256);
+            return jwtBuilder.build();
+        }
+
+        @Override
+        Map<String, Object> decrypt(final String value) {
+            EncryptedJwt jwt = reader.reconstructJwt(value, EncryptedJwt.class);
+            jwt.decrypt(pair.getPrivate());
+            JwtClaimsSet claimsSet = jwt.getClaimsSet();
+            Map<String, Object> claims = new LinkedHashMap<>();
+            for (String key : claimsSet.keys()) {
+                claims.put(key, claimsSet.getClaim(key));
+            }
+            return claims;
+        }
+    }
+
+    /**
+     * Direct encryption with a shared AES key (RFC 7516 / RFC 7518 {@literal dir} algorithm with an {@literal AxxxGCM}
+     * content encryption).
+     */
+    private static final class DirectCipher extends JwtSessionCipher {
+        private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+        private static final int IV_LENGTH = 12;
+        private static final int TAG_LENGTH = 16;
+
+        private final SecureRandom random = new SecureRandom();
+        private final SecretKey key;
+
+        /**
+         * The base64url-encoded protected header, which is also the additional authenticated data.
+         */
+        private final String header;
+        private final byte[] aad;
+
+        DirectCipher(final SecretKey key) throws GeneralSecurityException {
+            this.key = Reject.checkNotNull(key);
+            byte[] encoded = key.getEncoded();
+            if (!"AES".equalsIgnoreCase(key.getAlgorithm()) || encoded == null
+                    || (encoded.length != 16 && encoded.length != 24 && encoded.length != 32)) {
+                throw new GeneralSecurityException("Direct encryption requires a 128, 192 or 256 bits AES key");
+            }
+            // Fail early if the JVM does not support AES/GCM
+            Cipher.getInstance(TRANSFORMATION).init(Cipher.ENCRYPT_MODE,
+                                                    key,
+                                                    new GCMParameterSpec(TAG_LENGTH * 8, new byte[IV_LENGTH]));
+            String enc = format("A%dGCM", encoded.length * 8);
+            this.header = Base64url.encode(format("{\"alg\":\"dir\",\"enc\":\"%s\"}", enc).getBytes(UTF_8));
+            this.aad = header.getBytes(US_ASCII);
+        }
+
+        @Override
+        String encrypt(final Map<String, Object> claims) throws GeneralSecurityException {
+            byte[] plaintext = new JwtClaimsSet(claims).build().getBytes(UTF_8);
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            cipher.updateAAD(aad);
+            // The JCE appends the authentication tag to the cipher text
+            byte[] output = cipher.doFinal(plaintext);
+            int length = output.length - TAG_LENGTH;
+            byte[] ciphertext = new byte[length];
+            byte[] tag = new byte[TAG_LENGTH];
+            System.arraycopy(output, 0, ciphertext, 0, length);
+            System.arraycopy(output, length, tag, 0, TAG_LENGTH);
+
+            // There is no encrypted key with direct encryption
+            return header + ".." + Base64url.encode(iv) + "." + Base64url.encode(ciphertext) + "."
+                    + Base64url.encode(tag);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Map<String, Object> decrypt(final String value) throws GeneralSecurityException, IOException {
+            String[] parts = value.split("\\.", -1);
+            if (parts.length != 5 || !header.equals(parts[0]) || !parts[1].isEmpty()) {
+                throw new IOException("The value is not a JWT directly encrypted with the configured key");
+            }
+            byte[] iv = Base64url.decode(parts[2]);
+            byte[] ciphertext = Base64url.decode(parts[3]);
+            byte[] tag = Base64url.decode(parts[4]);
+            if (iv == null || ciphertext == null || tag == null || iv.length != IV_LENGTH || tag.length != TAG_LENGTH) {
+                throw new IOException("Malformed JWT");
+            }
+
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            cipher.updateAAD(aad);
+            // The JCE expects the authentication tag after the cipher text, decryption fails if it does not match
+            byte[] input = new byte[ciphertext.length + TAG_LENGTH];
+            System.arraycopy(ciphertext, 0, input, 0, ciphertext.length);
+            System.arraycopy(tag, 0, input, ciphertext.length, TAG_LENGTH);
+            byte[] plaintext = cipher.doFinal(input);
+
+            Object claims = readJson(new StringReader(new String(plaintext, UTF_8)));
+            if (!(claims instanceof Map)) {
+                throw new IOException("The JWT payload is not a JSON object");
+            }
+            return new LinkedHashMap<>((Map<String, Object>) claims);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import static org.forgerock.openig.heap.Keys.TIME_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.jwt.JwtCookieSession.OPENIG_JWT_SESSION;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.optionalHeapObject;
+import static org.forgerock.util.promise.Promises.newResultPromise;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
@@ -35,14 +36,22 @@ import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.cert.Certificate;
 
+import javax.crypto.SecretKey;
+
+import org.forgerock.http.Handler;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
 import org.forgerock.http.session.Session;
 import org.forgerock.http.session.SessionManager;
 import org.forgerock.json.JsonValue;
 import org.forgerock.openig.heap.GenericHeapObject;
 import org.forgerock.openig.heap.GenericHeaplet;
 import org.forgerock.openig.heap.HeapException;
+import org.forgerock.openig.http.EndpointRegistry;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
 import org.forgerock.util.time.Duration;
 import org.forgerock.util.time.TimeService;
 
@@ -58,8 +67,10 @@ import org.forgerock.util.time.TimeService;
  *             "keystore": "Ref To A KeyStore",
  *             "alias": "PrivateKey Alias",
  *             "password": "KeyStore/Key Password",
+ *             "encryption": "RSA",
  *             "cookieName": "OpenIG",
- *             "sessionTimeout": "30 minutes"
+ *             "sessionTimeout": "30 minutes",
+ *             "cacheSize": 1000
  *         }
  *     }
  *     }
@@ -79,12 +90,29 @@ import org.forgerock.util.time.TimeService;
  * The {@literal password} static expression attribute specifies the password to use when reading the
  * private key from the KeyStore. It is only required when a {@literal keystore} is specified.
  * <p>
+ * The {@literal encryption} optional string attribute selects how the session is encrypted:
+ * <ul>
+ *     <li>{@value #RSA_ENCRYPTION} (the default): a new content encryption key is generated for each session and
+ *     wrapped with the RSA key pair ({@literal RSAES_PKCS1_V1_5} + {@literal A128CBC-HS256}).</li>
+ *     <li>{@value #DIRECT_ENCRYPTION}: the session is directly encrypted with the AES secret key ({@literal dir} +
+ *     {@literal A128GCM}, {@literal A192GCM} or {@literal A256GCM} depending on the key size). This avoids any RSA
+ *     operation, and produces much smaller cookies. The {@literal keystore} (that has to support secret keys, like a
+ *     {@literal JCEKS} one), {@literal alias} and {@literal password} attributes are then required, and the JVM has to
+ *     support the {@literal AES/GCM/NoPadding} transformation (Java 8 or an additional JCE provider). All the
+ *     OpenIG instances sharing the sessions have to be configured with the same key.</li>
+ * </ul>
+ * <p>
  * The {@literal cookieName} optional string attribute specifies the name of the cookie used to store the encrypted JWT.
  * If not set, {@link JwtCookieSession#OPENIG_JWT_SESSION} is used.
  * <p>
  * The {@literal sessionTimeout} optional duration attribute, specifies the amount of time before the cookie session
  * expires. If not set, a default of 30 minutes is used. A duration of 0 is not valid and it will be limited to
  * a maximum duration of approximately 10 years.
+ * <p>
+ * The {@literal cacheSize} optional integer attribute specifies the maximum number of decrypted sessions kept in
+ * memory, so that the requests carrying an unchanged session cookie do not have to decrypt it again. If not set, a
+ * default of {@value #DEFAULT_CACHE_SIZE} is used, {@literal 0} disables the cache. The cache statistics (hits and
+ * misses) are exposed at {@literal /openig/api/system/objects/[name]/cache}.
  *
  * @since 3.1
  */
@@ -95,6 +123,21 @@ public class JwtSessionManager extends GenericHeapObject implements SessionManag
      */
     public static final String DEFAULT_SESSION_TIMEOUT = "30 minutes";
 
+    /**
+     * Default maximum number of decrypted sessions kept in cache.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /**
+     * Value of the {@literal encryption} attribute selecting the RSA key wrapping (the default).
+     */
+    public static final String RSA_ENCRYPTION = "RSA";
+
+    /**
+     * Value of the {@literal encryption} attribute selecting the direct encryption with a shared AES key.
+     */
+    public static final String DIRECT_ENCRYPTION = "dir";
+
     /**
      * The maximum session timeout duration, allows for an expiry time of approx 10 years (does not take leap years
      * into consideration).
@@ -102,9 +145,9 @@ public class JwtSessionManager extends GenericHeapObject implements SessionManag
     public static final Duration MAX_SESSION_TIMEOUT = Duration.duration("3650 days");
 
     /**
-     * The pair of keys for JWT payload encryption/decryption.
+     * Encrypts/decrypts the JWT payload.
      */
-    private final KeyPair keyPair;
+    private final JwtSessionCipher cipher;
 
     /**
      * The name of the cookie to be used to session's content transmission.
@@ -121,6 +164,11 @@ public class JwtSessionManager extends GenericHeapObject implements SessionManag
      */
     private final Duration sessionTimeout;
 
+    /**
+     * Cache of the decrypted sessions, may be {@code null}.
+     */
+    private final JwtSessionCache cache;
+
     /**
      * Builds a new JwtSessionManager using the given KeyPair for session encryption, storing the opaque result in a
      * cookie with the given name.
@@ -138,15 +186,62 @@ public class JwtSessionManager extends GenericHeapObject implements SessionManag
                              final String cookieName,
                              final TimeService timeService,
                              final Duration sessionTimeout) {
-        this.keyPair = keyPair;
+        this(keyPair, cookieName, timeService, sessionTimeout, null);
+    }
+
+    /**
+     * Builds a new JwtSessionManager using the given KeyPair for session encryption, storing the opaque result in a
+     * cookie with the given name, and caching the decrypted sessions in the given cache.
+     *
+     * @param keyPair
+     *         Private and public keys used for ciphering/deciphering
+     * @param cookieName
+     *         name of the cookie
+     * @param timeService
+     *         TimeService to use when dealing with cookie sessions
+     * @param sessionTimeout
+     *         The duration of the cookie session
+     * @param cache
+     *         Cache of the decrypted sessions (may be {@code null})
+     */
+    public JwtSessionManager(final KeyPair keyPair,
+                             final String cookieName,
+                             final TimeService timeService,
+                             final Duration sessionTimeout,
+                             final JwtSessionCache cache) {
+        this(JwtSessionCipher.rsa(keyPair), cookieName, timeService, sessionTimeout, cache);
+    }
+
+    /**
+     * Builds a new JwtSessionManager using the given cipher for session encryption, storing the opaque result in a
+     * cookie with the given name, and caching the decrypted sessions in the given cache.
+     *
+     * @param cipher
+     *         Encrypts/decrypts the JWT payload
+     * @param cookieName
+     *         name of the cookie
+     * @param timeService
+     *         TimeService to use when dealing with cookie sessions
+     * @param sessionTimeout
+     *         The duration of the cookie session
+     * @param cache
+     *         Cache of the decrypted sessions (may be {@code null})
+     */
+    JwtSessionManager(final JwtSessionCipher cipher,
+                      final String cookieName,
+                      final TimeService timeService,
+                      final Duration sessionTimeout,
+                      final JwtSessionCache cache) {
+        this.cipher = cipher;
         this.cookieName = cookieName;
         this.timeService = timeService;
         this.sessionTimeout = sessionTimeout;
+        this.cache = cache;
     }
 
     @Override
     public Session load(final Request request) {
-        return new JwtCookieSession(request, keyPair, cookieName, logger, timeService, sessionTimeout);
+        return new JwtCookieSession(request, cipher, cookieName, logger, timeService, sessionTimeout, cache);
     }
 
     @Override
@@ -162,6 +257,8 @@ public class JwtSessionManager extends GenericHeapObject implements SessionManag
         /** RSA needs at least a 512 key length.*/
         private static final int KEY_SIZE = 1024;
 
+        private EndpointRegistry.Registration registration;
+
         @Override
         public Object create() throws HeapException {
             TimeService timeService = heap.get(TIME_SERVICE_HEAP_KEY, TimeService.class);
@@ -174,13 +271,75 @@ public class JwtSessionManager extends GenericHeapObject implements SessionManag
                 throw new HeapException("sessionTimeout duration must be greater than 0");
             }
 
-            // Create the session factory with the given KeyPair and cookie name
-            return new JwtSessionManager(keyPair(),
-                                         evaluated.get("cookieName")
-                                                  .defaultTo(OPENIG_JWT_SESSION)
-                                                  .asString(),
-                                         timeService,
-                                         sessionTimeout);
+            int cacheSize = evaluated.get("cacheSize").defaultTo(DEFAULT_CACHE_SIZE).asInteger();
+            if (cacheSize < 0) {
+                throw new HeapException("cacheSize must be positive (or 0 to disable the cache)");
+            }
+            JwtSessionCache cache = cacheSize > 0 ? new JwtSessionCache(cacheSize) : null;
+
+            // Create the session factory with the given keys and cookie name
+            JwtSessionManager manager = new JwtSessionManager(cipher(),
+                                                              evaluated.get("cookieName")
+                                                                       .defaultTo(OPENIG_JWT_SESSION)
+                                                                       .asString(),
+                                                              timeService,
+                                                              sessionTimeout,
+                                                              cache);
+            if (cache != null) {
+                registration = endpointRegistry().register("cache", new CacheStatisticsHandler(cache));
+            }
+            return manager;
+        }
+
+        @Override
+        public void destroy() {
+            if (registration != null) {
+                registration.unregister();
+            }
+            super.destroy();
+        }
+
+        private JwtSessionCipher cipher() throws HeapException {
+            String encryption = config.get("encryption").as(evaluated()).defaultTo(RSA_ENCRYPTION).asString();
+            if (DIRECT_ENCRYPTION.equals(encryption)) {
+                return directCipher();
+            } else if (RSA_ENCRYPTION.equals(encryption)) {
+                return JwtSessionCipher.rsa(keyPair());
+            }
+            throw new HeapException(format("Unsupported encryption '%s' (expecting '%s' or '%s')",
+                                           encryption,
+                                           RSA_ENCRYPTION,
+                                           DIRECT_ENCRYPTION));
+        }
+
+        private JwtSessionCipher directCipher() throws HeapException {
+            KeyStore keyStore = config.get("keystore").required().as(optionalHeapObject(heap, KeyStore.class));
+            String alias = config.get("alias").as(evaluated()).required().asString();
+            String password = config.get("password").as(evaluated()).required().asString();
+            Key key;
+            try {
+                key = keyStore.getKey(alias, password.toCharArray());
+            } catch (GeneralSecurityException e) {
+                throw new HeapException(format("Wrong password for Key[alias:%s] in KeyStore[ref:%s]",
+                                               alias,
+                                               config.get("keystore").asString()),
+                                        e);
+            }
+            if (!(key instanceof SecretKey)) {
+                throw new HeapException(format("Either no Key[alias:%s] is available in KeyStore[ref:%s], "
+                                               + "or it is not a secret key",
+                                               alias,
+                                               config.get("keystore").asString()));
+            }
+            try {
+                return JwtSessionCipher.direct((SecretKey) key);
+            } catch (GeneralSecurityException e) {
+                throw new HeapException(format("Key[alias:%s] in KeyStore[ref:%s] cannot be used for AES-GCM "
+                                               + "direct encryption",
+                                               alias,
+                                               config.get("keystore").asString()),
+                                        e);
+            }
         }
 
         private KeyPair keyPair() throws HeapException {
@@ -245,4 +404,22 @@ public class JwtSessionManager extends GenericHeapObject implements SessionManag
             return keyPair;
         }
     }
+
+    /**
+     * Exposes the statistics of the sessions cache.
+     */
+    private static final class CacheStatisticsHandler implements Handler {
+        private final JwtSessionCache cache;
+
+        CacheStatisticsHandler(final JwtSessionCache cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+            Response response = new Response(Status.OK);
+            response.getEntity().setJson(cache.getStatistics());
+            return newResultPromise(response);
+        }
+    }
 }
@@ -80,6 +80,7 @@ public class ConsoleLogSink implements LogSink {
      */
     public void setLevel(final LogLevel level) {
         this.level = level;
+        Logger.levelsChanged();
     }
 
     /**
@@ -84,6 +84,7 @@ public class FileLogSink implements LogSink {
      */
     public void setLevel(final LogLevel level) {
         this.level = level;
+        Logger.levelsChanged();
     }
 
     @Override
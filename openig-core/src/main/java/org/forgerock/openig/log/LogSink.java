@@ -34,6 +34,9 @@ public interface LogSink {
     /**
      * Returns {@code true} if the entry may be logged based on its source and/or level. This
      * does not guarantee that the entry will in fact be logged.
+     * <p>
+     * The {@link Logger}s cache this decision per level: an implementation whose decisions change over time must
+     * call {@link Logger#levelsChanged()} once they have changed.
      *
      * @param source the object and/or event related to the log entry.
      * @param level the logging level of the log entry.
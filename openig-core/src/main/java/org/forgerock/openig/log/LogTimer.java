@@ -77,11 +77,17 @@ public class LogTimer {
 
     /**
      * Starts the timer. Records a log entry indicating the timer has been started.
+     * <p>
+     * Does nothing if the level of this timer is not loggable: the timer is then never started, so neither
+     * {@link #stop()} nor {@link #pause()} record anything.
      *
      * @return this timer instance.
      */
     public LogTimer start() {
         if (logger != null) {
+            if (!logger.isLoggable(level)) {
+                return this;
+            }
             logger.log(logger.createEntry("started", level, "Started"));
         }
         started = System.nanoTime();
@@ -17,19 +17,33 @@
 
 package org.forgerock.openig.log;
 
+import static java.lang.String.format;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.forgerock.openig.heap.Name;
 
 /**
  * Wraps a log sink and exposes a set of convenience methods for various logging activities.
+ * <p>
+ * Entries are only built when their level is loggable: the parameterized methods (such as {@link #debug(String,
+ * Object...)}) only format their message in that case. The decision of the sink for the source of this logger is
+ * cached per level, until {@link #levelsChanged()} is called.
  */
 public class Logger {
 
+    /** Incremented each time the level of a sink changes, invalidating the cached decisions of all the loggers. */
+    private static final AtomicInteger LEVELS_VERSION = new AtomicInteger();
+
     /** The sink to write log entries to. */
     private final LogSink sink;
 
     /** The base source to write all log entries with. */
     private final Name source;
 
+    /** The cached decisions of the sink for the source of this logger. */
+    private volatile LoggableLevels loggableLevels = new LoggableLevels(-1, 0, 0);
+
     /**
      * Constructs a new logger. If the supplied sink is {@code null}, then a
      * {@link NullLogSink} will be used.
@@ -48,7 +62,23 @@ public class Logger {
      * @param message the message to be logged.
      */
     public void logMessage(LogLevel level, String message) {
-        log(createEntry("log", level, message));
+        if (isLoggable(level)) {
+            log(createEntry("log", level, message));
+        }
+    }
+
+    /**
+     * Logs the message at the specified log level. The message is only formatted (with
+     * {@link String#format(String, Object...)}) if the log level is loggable.
+     *
+     * @param level the log level to set in the log entry.
+     * @param format the format of the message to be logged.
+     * @param args the arguments referenced by the format.
+     */
+    public void logMessage(LogLevel level, String format, Object... args) {
+        if (isLoggable(level)) {
+            log(createEntry("log", level, format(format, args)));
+        }
     }
 
     /**
@@ -60,7 +90,9 @@ public class Logger {
      * @return the exception being logged.
      */
     public <T extends Throwable> T logException(LogLevel level, T throwable) {
-        log(createEntry("throwable", level, throwable.getMessage(), throwable));
+        if (isLoggable(level)) {
+            log(createEntry("throwable", level, throwable.getMessage(), throwable));
+        }
         return throwable;
     }
 
@@ -73,6 +105,16 @@ public class Logger {
         logMessage(LogLevel.ERROR, message);
     }
 
+    /**
+     * Logs the specified message at the {@code ERROR} log level, formatting it only if this level is loggable.
+     *
+     * @param format the format of the message to be logged.
+     * @param args the arguments referenced by the format.
+     */
+    public void error(String format, Object... args) {
+        logMessage(LogLevel.ERROR, format, args);
+    }
+
     /**
      * Logs the specified exception at the {@code ERROR} log level.
      *
@@ -93,6 +135,16 @@ public class Logger {
         logMessage(LogLevel.WARNING, message);
     }
 
+    /**
+     * Logs the specified message at the {@code WARNING} log level, formatting it only if this level is loggable.
+     *
+     * @param format the format of the message to be logged.
+     * @param args the arguments referenced by the format.
+     */
+    public void warning(String format, Object... args) {
+        logMessage(LogLevel.WARNING, format, args);
+    }
+
     /**
      * Logs the specified exception at the {@code WARNING} log level.
      *
@@ -113,6 +165,16 @@ public class Logger {
         logMessage(LogLevel.INFO, message);
     }
 
+    /**
+     * Logs the specified message at the {@code INFO} log level, formatting it only if this level is loggable.
+     *
+     * @param format the format of the message to be logged.
+     * @param args the arguments referenced by the format.
+     */
+    public void info(String format, Object... args) {
+        logMessage(LogLevel.INFO, format, args);
+    }
+
     /**
      * Logs the specified exception at the {@code INFO} log level.
      *
@@ -133,6 +195,16 @@ public class Logger {
         logMessage(LogLevel.CONFIG, message);
     }
 
+    /**
+     * Logs the specified message at the {@code CONFIG} log level, formatting it only if this level is loggable.
+     *
+     * @param format the format of the message to be logged.
+     * @param args the arguments referenced by the format.
+     */
+    public void config(String format, Object... args) {
+        logMessage(LogLevel.CONFIG, format, args);
+    }
+
     /**
      * Logs the specified exception at the {@code CONFIG} log level.
      *
@@ -153,6 +225,16 @@ public class Logger {
         logMessage(LogLevel.DEBUG, message);
     }
 
+    /**
+     * Logs the specified message at the {@code DEBUG} log level, formatting it only if this level is loggable.
+     *
+     * @param format the format of the message to be logged.
+     * @param args the arguments referenced by the format.
+     */
+    public void debug(String format, Object... args) {
+        logMessage(LogLevel.DEBUG, format, args);
+    }
+
     /**
      * Logs the specified exception at the {@code DEBUG} log level.
      *
@@ -173,6 +255,16 @@ public class Logger {
         logMessage(LogLevel.TRACE, message);
     }
 
+    /**
+     * Logs the specified message at the {@code TRACE} log level, formatting it only if this level is loggable.
+     *
+     * @param format the format of the message to be logged.
+     * @param args the arguments referenced by the format.
+     */
+    public void trace(String format, Object... args) {
+        logMessage(LogLevel.TRACE, format, args);
+    }
+
     /**
      * Logs the specified exception at the {@code TRACE} log level.
      *
@@ -268,6 +360,43 @@ public class Logger {
      * @return {@code true} if the entry may be logged.
      */
     public boolean isLoggable(LogLevel level) {
-        return sink.isLoggable(this.source, level);
+        // Read the version before asking the sink, so that a concurrent change of level is not missed
+        final int version = LEVELS_VERSION.get();
+        final int mask = 1 << level.ordinal();
+        LoggableLevels levels = loggableLevels;
+        if (levels.version == version && (levels.known & mask) != 0) {
+            return (levels.loggable & mask) != 0;
+        }
+        final boolean loggable = sink.isLoggable(this.source, level);
+        if (levels.version != version) {
+            levels = new LoggableLevels(version, 0, 0);
+        }
+        loggableLevels = new LoggableLevels(version,
+                                            levels.known | mask,
+                                            loggable ? levels.loggable | mask : levels.loggable);
+        return loggable;
+    }
+
+    /**
+     * Notifies the loggers that the level of a sink has changed: their cached decisions are discarded. A
+     * {@link LogSink} whose decisions may change must call this method once they have changed.
+     */
+    public static void levelsChanged() {
+        LEVELS_VERSION.incrementAndGet();
+    }
+
+    /**
+     * The decisions of the sink, one bit per {@link LogLevel} ordinal.
+     */
+    private static final class LoggableLevels {
+        private final int version;
+        private final int known;
+        private final int loggable;
+
+        LoggableLevels(final int version, final int known, final int loggable) {
+            this.version = version;
+            this.known = known;
+            this.loggable = loggable;
+        }
     }
 }
@@ -12,7 +12,7 @@
  * information: "Portions Copyright [year] [name of copyright owner]".
  *
  * Copyright 2010-2011 ApexIdentity Inc.
- * Portions Copyright 2011-2015 ForgeRock AS.
+ * Portions Copyright 2011-2016 ForgeRock AS.
  */
 
 package org.forgerock.openig.resolver;
@@ -20,9 +20,10 @@ package org.forgerock.openig.resolver;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.forgerock.http.util.Loader;
 
@@ -49,69 +50,35 @@ public final class Resolvers {
     private Resolvers() {
     }
 
+    /** Resolver terminating all the chains. */
+    private static final Resolver UNRESOLVER = new Unresolver();
+
+    /** Resolver chain used for native arrays. */
+    private static final Resolver[] ARRAY_CHAIN = ARRAY_RESOLVER.toArray(new Resolver[ARRAY_RESOLVER.size()]);
+
+    /**
+     * Pre-computed resolver chains, per concrete class: the class and interface hierarchies are only walked the
+     * first time an instance of a given class is resolved.
+     */
+    private static final ClassValue<Resolver[]> CHAINS = new ClassValue<Resolver[]>() {
+        @Override
+        protected Resolver[] computeValue(final Class<?> type) {
+            return type.isArray() ? ARRAY_CHAIN : chain(type);
+        }
+    };
+
     /**
      * Provides an iterable object over the resolvers that are appropriate for a
      * particular object. Resolvers are provided ordered from most specific to
-     * class/interface to least. Resolvers are provided through an iterator
-     * interface to avoid the overhead of determining all resolvers in advance.
+     * class/interface to least. The resolver chain of a given class is computed
+     * once, and then shared by all the instances of this class.
      *
      * @param object the object for which a set of resolvers is being sought.
      * @return an object that returns an iterator over the set of resolvers for
      * the object.
      */
     public static Iterable<Resolver> resolvers(final Object object) {
-        return new Iterable<Resolver>() {
-            public Iterator<Resolver> iterator() {
-                return (object.getClass().isArray() ? ARRAY_RESOLVER.iterator() : new Iterator<Resolver>() {
-                    Class<?> class1 = object.getClass();
-                    Class<?> class2 = class1;
-                    Iterator<Class<?>> interfaces = null;
-                    int n = 0;
-
-                    public boolean hasNext() {
-                        // interface hierarchy not yet exhausted
-                        return (class2 != null);
-                    }
-
-                    public Resolver next() {
-                        while (class1 != null) {
-                            // class hierarchy
-                            Resolver resolver = SERVICES.get(class1);
-                            class1 = class1.getSuperclass();
-                            if (resolver != null) {
-                                return resolver;
-                            }
-                        }
-                        // exhausted class hierarchy
-                        class1 = null;
-                        while (class2 != null && class2 != Object.class) {
-                            // interface hierarchy
-                            if (interfaces != null && interfaces.hasNext()) {
-                                Resolver resolver = SERVICES.get(interfaces.next());
-                                if (resolver != null) {
-                                    return resolver;
-                                }
-                            } else {
-                                List<Class<?>> list = getInterfaces(class2, n++);
-                                if (list.size() > 0) {
-                                    interfaces = list.iterator();
-                                } else {
-                                    class2 = class2.getSuperclass();
-                                    n = 0;
-                                }
-                            }
-                        }
-                        // exhausted interface hierarchy
-                        class2 = null;
-                        return new Unresolver();
-                    }
-
-                    public void remove() {
-                        throw new UnsupportedOperationException();
-                    }
-                });
-            }
-        };
+        return Collections.unmodifiableList(Arrays.asList(CHAINS.get(object.getClass())));
     }
 
     /**
@@ -124,7 +91,7 @@ public final class Resolvers {
      * @see Resolver#get(Object, Object)
      */
     public static Object get(Object object, Object element) {
-        for (Resolver resolver : resolvers(object)) {
+        for (Resolver resolver : CHAINS.get(object.getClass())) {
             Object value = resolver.get(object, element);
             if (value != Resolver.UNRESOLVED) {
                 // first hit wins
@@ -147,7 +114,7 @@ public final class Resolvers {
      * @see Resolver#put(Object, Object, Object)
      */
     public static Object put(Object object, Object element, Object value) {
-        for (Resolver resolver : resolvers(object)) {
+        for (Resolver resolver : CHAINS.get(object.getClass())) {
             Object resolved = resolver.put(object, element, value);
             if (resolved != Resolver.UNRESOLVED) {
                 // first hit wins
@@ -157,6 +124,37 @@ public final class Resolvers {
         return Resolver.UNRESOLVED;
     }
 
+    /**
+     * Computes the resolver chain of the given class: the resolvers registered for its class hierarchy, then the ones
+     * registered for its interface hierarchy (level by level), and finally an {@link Unresolver}. A resolver appearing
+     * several times is only kept at its first (most specific) position.
+     */
+    private static Resolver[] chain(final Class<?> type) {
+        Set<Resolver> chain = new LinkedHashSet<>();
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            // class hierarchy
+            addResolver(chain, c);
+        }
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            // interface hierarchy
+            List<Class<?>> interfaces;
+            for (int level = 0; !(interfaces = getInterfaces(c, level)).isEmpty(); level++) {
+                for (Class<?> iface : interfaces) {
+                    addResolver(chain, iface);
+                }
+            }
+        }
+        chain.add(UNRESOLVER);
+        return chain.toArray(new Resolver[chain.size()]);
+    }
+
+    private static void addResolver(final Set<Resolver> chain, final Class<?> type) {
+        Resolver resolver = SERVICES.get(type);
+        if (resolver != null) {
+            chain.add(resolver);
+        }
+    }
+
     private static List<Class<?>> getInterfaces(Class<?> c, int level) {
         List<Class<?>> interfaces;
         if (level == 0) {
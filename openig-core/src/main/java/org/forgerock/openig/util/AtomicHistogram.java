@@ -0,0 +1,298 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.util;
+
+import static java.lang.Long.numberOfLeadingZeros;
+import static java.lang.Math.ceil;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of positive {@code long} values (typically durations) that can be updated concurrently without
+ * locking.
+ * <p>
+ * As a HdrHistogram, values are counted in buckets whose width grows with the magnitude of the values: the values
+ * below 128 have their own bucket, and then each power of two is split into 64 buckets. The values reported by the
+ * {@linkplain Snapshot snapshots} are thus accurate to within 1/64 (~1.6%) of the actual values, whatever their
+ * magnitude. Recording a value increments a single counter, and does not allocate anything.
+ * <p>
+ * In order not to have all the recording threads contend on the same counters, the counts are striped: each thread
+ * increments the counters of the row selected by the hash of its identifier, and the rows are summed up when a
+ * snapshot is taken. By default, there are as many rows as available processors (rounded up to a power of two).
+ */
+public final class AtomicHistogram {
+
+    /** Number of sub-buckets per power of two, for the values above {@code 2 * SUB_BUCKETS}. */
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_STRIPES = 1 << 10;
+
+    /** The default number of rows: the number of available processors, rounded up to a power of two. */
+    private static final int DEFAULT_STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+    private final long highestTrackableValue;
+    private final int rowLength;
+    private final int stripeMask;
+    private final AtomicLongArray counts;
+
+    /**
+     * Creates a new histogram.
+     *
+     * @param highestTrackableValue
+     *            The highest value that can be told apart: the higher values are counted as this one (at least 1).
+     */
+    public AtomicHistogram(final long highestTrackableValue) {
+        this(highestTrackableValue, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a new histogram whose counts are striped over the given number of rows.
+     *
+     * @param highestTrackableValue
+     *            The highest value that can be told apart: the higher values are counted as this one (at least 1).
+     * @param stripes
+     *            The number of rows the counts are striped over (at least 1), rounded up to a power of two
+     */
+    public AtomicHistogram(final long highestTrackableValue, final int stripes) {
+        if (highestTrackableValue < 1) {
+            throw new IllegalArgumentException("The highest trackable value must be at least 1");
+        }
+        if (stripes < 1) {
+            throw new IllegalArgumentException("The number of stripes must be at least 1");
+        }
+        final int rows = stripesFor(stripes);
+        this.highestTrackableValue = highestTrackableValue;
+        this.rowLength = indexOf(highestTrackableValue) + 1;
+        this.stripeMask = rows - 1;
+        this.counts = new AtomicLongArray(rows * rowLength);
+    }
+
+    /**
+     * Records a value. Negative values are counted as zero, and the values higher than the highest trackable value
+     * are counted as it.
+     *
+     * @param value
+     *            The value to record
+     */
+    public void record(final long value) {
+        final int index = indexOf(Math.max(0L, Math.min(value, highestTrackableValue)));
+        counts.incrementAndGet(row() * rowLength + index);
+    }
+
+    /**
+     * Returns a point-in-time copy of the counts of this histogram. The values recorded while the copy is taken may
+     * or may not be part of it.
+     *
+     * @return a snapshot of this histogram
+     */
+    public Snapshot getSnapshot() {
+        final long[] copy = new long[rowLength];
+        for (int i = 0; i < counts.length(); i++) {
+            copy[i % rowLength] += counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    /** Returns the row of the current thread. */
+    private int row() {
+        // Spread the (usually sequential) thread identifiers over the rows
+        final long id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) (id >>> 32) & stripeMask;
+    }
+
+    private static int stripesFor(final int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(Math.min(n, MAX_STRIPES) - 1) << 1;
+    }
+
+    private static int indexOf(final long value) {
+        // Position of the highest bit, minus the number of bits identifying a sub-bucket
+        final int shift = Math.max(0, (Long.SIZE - 1 - numberOfLeadingZeros(value)) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    private static long lowestValueAt(final int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return ((long) ((index & (SUB_BUCKETS - 1)) + SUB_BUCKETS)) << shift;
+    }
+
+    private static long highestValueAt(final int index) {
+        return lowestValueAt(index + 1) - 1;
+    }
+
+    /**
+     * An immutable copy of the counts of a histogram.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+
+        private Snapshot(final long[] counts) {
+            this.counts = counts;
+            long total = 0L;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+        }
+
+        /**
+         * Returns the number of values recorded in this snapshot.
+         *
+         * @return the number of values recorded in this snapshot
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the value under which the given fraction of the recorded values are (for example, the median is
+         * the value at the 0.5 quantile).
+         *
+         * @param quantile
+         *            The quantile, between 0 and 1
+         * @return the value at the given quantile, or 0 if no value has been recorded
+         */
+        public long getValue(final double quantile) {
+            if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+                throw new IllegalArgumentException(quantile + " is not in [0..1]");
+            }
+            if (count == 0) {
+                return 0L;
+            }
+            final long rank = Math.max(1L, (long) ceil(quantile * count));
+            long cumulated = 0L;
+            for (int i = 0; i < counts.length; i++) {
+                cumulated += counts[i];
+                if (cumulated >= rank) {
+                    return highestValueAt(i);
+                }
+            }
+            return highestValueAt(counts.length - 1);
+        }
+
+        /**
+         * Returns a sample of the recorded values, evenly spread over their distribution, in ascending order.
+         *
+         * @param size
+         *            The maximum number of values to return
+         * @return at most {@code size} values, and at most as many values as recorded
+         */
+        public long[] getValues(final int size) {
+            final int n = (int) Math.min(size, count);
+            final long[] values = new long[n];
+            int i = 0;
+            long cumulated = 0L;
+            for (int index = 0; index < counts.length && i < n; index++) {
+                cumulated += counts[index];
+                // The i-th value of the sample is the value at the (i + 0.5) / n quantile
+                while (i < n && Math.max(1L, (long) ceil((i + 0.5) * count / n)) <= cumulated) {
+                    values[i++] = highestValueAt(index);
+                }
+            }
+            return values;
+        }
+
+        /**
+         * Returns the mean of the recorded values.
+         *
+         * @return the mean of the recorded values, or 0 if no value has been recorded
+         */
+        public double getMean() {
+            if (count == 0) {
+                return 0.0;
+            }
+            double total = 0.0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    // Middle of the bucket
+                    total += counts[i] * ((lowestValueAt(i) + highestValueAt(i)) / 2.0);
+                }
+            }
+            return total / count;
+        }
+
+        /**
+         * Returns the standard deviation of the recorded values.
+         *
+         * @return the standard deviation of the recorded values, or 0 if less than two values have been recorded
+         */
+        public double getStdDev() {
+            if (count < 2) {
+                return 0.0;
+            }
+            final double mean = getMean();
+            double variance = 0.0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    final double deviation = ((lowestValueAt(i) + highestValueAt(i)) / 2.0) - mean;
+                    variance += counts[i] * deviation * deviation;
+                }
+            }
+            return Math.sqrt(variance / (count - 1));
+        }
+
+        /**
+         * Returns the lowest recorded value.
+         *
+         * @return the lowest recorded value, or 0 if no value has been recorded
+         */
+        public long getMin() {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    return highestValueAt(i);
+                }
+            }
+            return 0L;
+        }
+
+        /**
+         * Returns the highest recorded value.
+         *
+         * @return the highest recorded value, or 0 if no value has been recorded
+         */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return highestValueAt(i);
+                }
+            }
+            return 0L;
+        }
+
+        /**
+         * Returns the values recorded since the given snapshot of the same histogram was taken.
+         *
+         * @param previous
+         *            An older snapshot of the same histogram
+         * @return the snapshot of the values recorded since {@code previous}
+         */
+        public Snapshot minus(final Snapshot previous) {
+            if (previous.counts.length != counts.length) {
+                throw new IllegalArgumentException("The snapshots are not taken from the same histogram");
+            }
+            final long[] difference = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                difference[i] = counts[i] - previous.counts[i];
+            }
+            return new Snapshot(difference);
+        }
+    }
+}
@@ -24,6 +24,7 @@ import static org.forgerock.openig.heap.Keys.LOGSINK_HEAP_KEY;
 import static org.mockito.Mockito.*;
 
 import java.util.ArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.forgerock.http.Filter;
 import org.forgerock.http.Handler;
@@ -33,7 +34,9 @@ import org.forgerock.openig.heap.HeapException;
 import org.forgerock.openig.heap.HeapImpl;
 import org.forgerock.openig.heap.Name;
 import org.forgerock.openig.log.LogSink;
+import org.forgerock.openig.log.Logger;
 import org.forgerock.openig.log.NullLogSink;
+import org.forgerock.util.time.TimeService;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
@@ -169,6 +172,25 @@ public class CaptureDecoratorTest {
         assertThat(decorator.decorate(o, json("all"), context)).isSameAs(o);
     }
 
+    @Test
+    public void shouldCountAndPeriodicallyLogTheDroppedMessages() throws Exception {
+        Logger logger = spy(new Logger(new NullLogSink(), Name.of("capture")));
+        TimeService time = mock(TimeService.class);
+        ThreadPoolExecutor executor = mock(ThreadPoolExecutor.class);
+        CaptureDecorator.DiscardAndCountPolicy policy = new CaptureDecorator.DiscardAndCountPolicy(logger, time);
+
+        when(time.now()).thenReturn(1000L);
+        policy.rejectedExecution(mock(Runnable.class), executor);
+        policy.rejectedExecution(mock(Runnable.class), executor);
+        when(time.now()).thenReturn(61000L);
+        policy.rejectedExecution(mock(Runnable.class), executor);
+
+        assertThat(policy.getDropped()).isEqualTo(3L);
+        verify(logger).warning(anyString(), eq(1L));
+        verify(logger).warning(anyString(), eq(3L));
+        verify(logger, never()).warning(anyString(), eq(2L));
+    }
+
     @Test
     public void shouldSupportNullLogSinkReference() throws Exception {
         // This case reproduce NPE when the CaptureDecorator is created in the
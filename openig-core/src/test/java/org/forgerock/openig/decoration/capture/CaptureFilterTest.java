@@ -69,6 +69,7 @@ public class CaptureFilterTest {
         response = new Response();
         when(terminal.handle(any(Context.class), any(Request.class)))
                 .thenReturn(Promises.<Response, NeverThrowsException>newResultPromise(response));
+        when(capture.isSampled(any(Context.class), any(Request.class))).thenReturn(true);
     }
 
     @DataProvider
@@ -117,7 +118,20 @@ public class CaptureFilterTest {
             }
 
         }
+        verify(capture).isSampled(context, null);
         verifyNoMoreInteractions(capture);
     }
 
+    @Test
+    public void shouldNotCaptureTheMessagesOfAnExchangeThatIsNotSampled() throws Exception {
+        when(capture.isSampled(any(Context.class), any(Request.class))).thenReturn(false);
+        CaptureFilter filter = new CaptureFilter(delegate, capture, new TreeSet<>(asList(CapturePoint.values())));
+
+        Context context = new RootContext();
+        filter.filter(context, null, terminal).get();
+
+        verify(terminal).handle(context, null);
+        verify(capture).isSampled(context, null);
+        verifyNoMoreInteractions(capture);
+    }
 }
@@ -58,6 +58,7 @@ public class CaptureHandlerTest {
         response = new Response();
         when(delegate.handle(any(Context.class), any(Request.class)))
                 .thenReturn(Promises.<Response, NeverThrowsException>newResultPromise(response));
+        when(capture.isSampled(any(Context.class), any(Request.class))).thenReturn(true);
     }
 
     @DataProvider
@@ -104,7 +105,20 @@ public class CaptureHandlerTest {
                 break;
             }
         }
+        verify(capture).isSampled(context, null);
         verifyNoMoreInteractions(capture);
     }
 
+    @Test
+    public void shouldNotCaptureTheMessagesOfAnExchangeThatIsNotSampled() throws Exception {
+        when(capture.isSampled(any(Context.class), any(Request.class))).thenReturn(false);
+        CaptureHandler handler = new CaptureHandler(delegate, capture, new TreeSet<>(asList(CapturePoint.values())));
+
+        Context context = new RootContext();
+        handler.handle(context, null).get();
+
+        verify(delegate).handle(context, null);
+        verify(capture).isSampled(context, null);
+        verifyNoMoreInteractions(capture);
+    }
 }
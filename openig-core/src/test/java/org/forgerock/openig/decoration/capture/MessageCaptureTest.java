@@ -17,12 +17,20 @@
 package org.forgerock.openig.decoration.capture;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
 import org.forgerock.http.header.ContentTypeHeader;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
+import org.forgerock.openig.el.Expression;
 import org.forgerock.openig.heap.Name;
 import org.forgerock.openig.log.Logger;
 import org.forgerock.services.context.AttributesContext;
@@ -97,6 +105,145 @@ public class MessageCaptureTest {
         verify(logger).info(anyString());
     }
 
+    @Test
+    public void shouldTruncateTheEntity() throws Exception {
+        MessageCapture capture = new MessageCapture(logger, true, false, 5, 1.0, null, null);
+
+        Request request = new Request();
+        request.getHeaders().put(ContentTypeHeader.NAME, "text/plain; charset=UTF-8");
+        request.setEntity("0123456789");
+        capture.capture(new RootContext(), request, CapturePoint.REQUEST);
+
+        verify(logger).info(captor.capture());
+        assertThat(captor.getValue()).contains("01234")
+                                     .doesNotContain("012345")
+                                     .contains("[entity truncated after 5 characters]");
+        // The entity is left unchanged
+        assertThat(request.getEntity().getString()).isEqualTo("0123456789");
+    }
+
+    @Test
+    public void shouldNotTruncateAnEntityWithinTheLimit() throws Exception {
+        MessageCapture capture = new MessageCapture(logger, true, false, 10, 1.0, null, null);
+
+        Request request = new Request();
+        request.getHeaders().put(ContentTypeHeader.NAME, "text/plain; charset=UTF-8");
+        request.setEntity("0123456789");
+        capture.capture(new RootContext(), request, CapturePoint.REQUEST);
+
+        verify(logger).info(captor.capture());
+        assertThat(captor.getValue()).contains("0123456789").doesNotContain("truncated");
+    }
+
+    @Test
+    public void shouldSampleTheExchangesMatchingTheCondition() throws Exception {
+        MessageCapture capture = new MessageCapture(logger, false, false, -1, 1.0,
+                                                    Expression.valueOf("${request.method == 'POST'}", Boolean.class),
+                                                    null);
+
+        assertThat(capture.isSampled(new RootContext(), new Request().setMethod("POST"))).isTrue();
+        assertThat(capture.isSampled(new RootContext(), new Request().setMethod("GET"))).isFalse();
+    }
+
+    @Test
+    public void shouldSampleTheExchangesWithTheSampleRate() throws Exception {
+        assertThat(new MessageCapture(logger, false, false, -1, 1.0, null, null)
+                           .isSampled(new RootContext(), new Request())).isTrue();
+        assertThat(new MessageCapture(logger, false, false, -1, 0.0, null, null)
+                           .isSampled(new RootContext(), new Request())).isFalse();
+    }
+
+    @Test
+    public void shouldLogWithTheExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        MessageCapture capture = new MessageCapture(logger, false, true, -1, 1.0, null, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        });
+
+        AttributesContext attributesContext = new AttributesContext(new RootContext());
+        attributesContext.getAttributes().put("a", "b");
+        capture.capture(attributesContext, new Response(), CapturePoint.RESPONSE);
+        // Changed once captured
+        attributesContext.getAttributes().put("a", "c");
+
+        verify(logger, never()).info(anyString());
+        assertThat(tasks).hasSize(1);
+        tasks.get(0).run();
+        verify(logger).info(captor.capture());
+        assertThat(captor.getValue()).contains("(response)").contains("\"a\": \"b\"");
+    }
+
+    @Test
+    public void shouldSerializeTheAttributesBeforeHandingTheMessageOff() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        MessageCapture capture = new MessageCapture(logger, false, true, -1, 1.0, null, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        });
+
+        AttributesContext attributesContext = new AttributesContext(new RootContext());
+        List<String> values = new ArrayList<>();
+        values.add("b");
+        attributesContext.getAttributes().put("a", values);
+        capture.capture(attributesContext, new Response(), CapturePoint.RESPONSE);
+        // The attribute value itself is changed once captured
+        values.add("c");
+
+        tasks.get(0).run();
+        verify(logger).info(captor.capture());
+        assertThat(captor.getValue()).contains("\"b\"").doesNotContain("\"c\"");
+    }
+
+    @Test
+    public void shouldCopyTheMessageBeforeHandingItOff() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        MessageCapture capture = new MessageCapture(logger, true, false, 5, 1.0, null, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        });
+
+        Request request = new Request();
+        request.getHeaders().put(ContentTypeHeader.NAME, "text/plain; charset=UTF-8");
+        request.getHeaders().put("X-Foo", "bar");
+        request.setEntity("0123456789");
+        capture.capture(new RootContext(), request, CapturePoint.REQUEST);
+        // The message is changed once captured
+        request.getHeaders().put("X-Foo", "quix");
+        request.setEntity("abcdefghij");
+
+        tasks.get(0).run();
+        verify(logger).info(captor.capture());
+        assertThat(captor.getValue()).contains("X-Foo: bar")
+                                     .doesNotContain("quix")
+                                     .contains("01234")
+                                     .doesNotContain("abcde")
+                                     .contains("[entity truncated after 5 characters]");
+    }
+
+    @Test
+    public void shouldLogTheFailuresOfTheExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        MessageCapture capture = new MessageCapture(logger, false, false, -1, 1.0, null, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        });
+        capture.capture(new RootContext(), new Response(), CapturePoint.RESPONSE);
+        doThrow(new IllegalStateException()).when(logger).info(anyString());
+
+        tasks.get(0).run();
+
+        verify(logger).error(any(IllegalStateException.class));
+    }
+
     @DataProvider
     public static Object[][] textualContextType() {
         //@Checkstyle:off
@@ -19,6 +19,7 @@ package org.forgerock.openig.decoration.timer;
 import static java.util.Collections.*;
 import static org.assertj.core.api.Assertions.*;
 import static org.forgerock.json.JsonValue.*;
+import static org.forgerock.openig.heap.Keys.ENDPOINT_REGISTRY_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.LOGSINK_HEAP_KEY;
 import static org.mockito.Mockito.*;
 
@@ -26,10 +27,13 @@ import java.util.ArrayList;
 
 import org.forgerock.http.Filter;
 import org.forgerock.http.Handler;
+import org.forgerock.http.routing.Router;
 import org.forgerock.openig.decoration.Context;
 import org.forgerock.openig.heap.HeapImpl;
 import org.forgerock.openig.heap.Name;
+import org.forgerock.openig.http.EndpointRegistry;
 import org.forgerock.openig.log.NullLogSink;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
@@ -47,11 +51,14 @@ public class TimerDecoratorTest {
     @Mock
     private Context context;
 
+    private HeapImpl heap;
+
     @BeforeMethod
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
-        HeapImpl heap = new HeapImpl(Name.of("anonymous"));
+        heap = new HeapImpl(Name.of("anonymous"));
         heap.put(LOGSINK_HEAP_KEY, new NullLogSink());
+        heap.put(ENDPOINT_REGISTRY_HEAP_KEY, new EndpointRegistry(new Router(), "/objects"));
         when(context.getHeap()).thenReturn(heap);
         when(context.getConfig()).thenReturn(json(emptyMap()));
         when(context.getName()).thenReturn(Name.of("config.json", "Router"));
@@ -89,6 +96,46 @@ public class TimerDecoratorTest {
         assertThat(decorated).isSameAs(handler);
     }
 
+    @Test
+    public void shouldDecorateFilterWithHistograms() throws Exception {
+        TimerDecorator decorator = histogramDecorator();
+
+        Object decorated = decorator.decorate(filter, json(true), context);
+        assertThat(decorated).isInstanceOf(HistogramTimerFilter.class);
+    }
+
+    @Test
+    public void shouldDecorateHandlerWithHistograms() throws Exception {
+        TimerDecorator decorator = histogramDecorator();
+
+        Object decorated = decorator.decorate(handler, json(true), context);
+        assertThat(decorated).isInstanceOf(HistogramTimerHandler.class);
+    }
+
+    @Test
+    public void shouldRemoveTheHistogramsOfADestroyedObject() throws Exception {
+        TimerDecorator decorator = histogramDecorator();
+        decorator.decorate(handler, json(true), context);
+        ArgumentCaptor<Runnable> onDestroy = ArgumentCaptor.forClass(Runnable.class);
+        verify(context).onDestroy(onDestroy.capture());
+        assertThat(decorator.getHistograms()).containsOnlyKeys("config.json+Router");
+
+        // The object is re-created before the previous one is destroyed
+        decorator.decorate(handler, json(true), context);
+        onDestroy.getValue().run();
+        assertThat(decorator.getHistograms()).containsOnlyKeys("config.json+Router");
+
+        verify(context, times(2)).onDestroy(onDestroy.capture());
+        onDestroy.getValue().run();
+        assertThat(decorator.getHistograms()).isEmpty();
+    }
+
+    private TimerDecorator histogramDecorator() throws Exception {
+        return (TimerDecorator) new TimerDecorator.Heaplet().create(Name.of("timer"),
+                                                                    json(object(field("histogram", true))),
+                                                                    heap);
+    }
+
     @DataProvider
     public static Object[][] undecoratableObjects() {
         // @Checkstyle:off
@@ -18,6 +18,8 @@ package org.forgerock.openig.decoration.timer;
 
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.forgerock.http.Filter;
@@ -25,6 +27,7 @@ import org.forgerock.http.Handler;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
 import org.forgerock.openig.heap.Name;
+import org.forgerock.openig.log.LogLevel;
 import org.forgerock.openig.log.LogTimer;
 import org.forgerock.openig.log.Logger;
 import org.forgerock.openig.log.NullLogSink;
@@ -58,6 +61,7 @@ public class TimerFilterTest {
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
         doReturn(timer).when(logger).getTimer();
+        doReturn(true).when(logger).isLoggable(LogLevel.STAT);
         delegate = new DelegateFilter();
     }
 
@@ -78,6 +82,20 @@ public class TimerFilterTest {
         inOrder.verify(timer).stop();
     }
 
+    @Test
+    public void shouldNotTimeWhenStatIsNotLoggable() throws Exception {
+        doReturn(false).when(logger).isLoggable(LogLevel.STAT);
+        TimerFilter time = new TimerFilter(delegate, logger);
+
+        Context context = new RootContext();
+        when(terminal.handle(context, null))
+                .thenReturn(Promises.<Response, NeverThrowsException>newResultPromise(new Response()));
+        time.filter(context, null, terminal).get();
+
+        verify(terminal).handle(context, null);
+        verify(logger, never()).getTimer();
+    }
+
     private static class DelegateFilter implements Filter {
         @Override
         public Promise<Response, NeverThrowsException> filter(final Context context,
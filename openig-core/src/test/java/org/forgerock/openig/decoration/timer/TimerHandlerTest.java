@@ -18,11 +18,14 @@ package org.forgerock.openig.decoration.timer;
 
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.forgerock.http.Handler;
 import org.forgerock.http.protocol.Response;
 import org.forgerock.openig.heap.Name;
+import org.forgerock.openig.log.LogLevel;
 import org.forgerock.openig.log.LogTimer;
 import org.forgerock.openig.log.Logger;
 import org.forgerock.openig.log.NullLogSink;
@@ -53,6 +56,7 @@ public class TimerHandlerTest {
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
         doReturn(timer).when(logger).getTimer();
+        doReturn(true).when(logger).isLoggable(LogLevel.STAT);
     }
 
     @Test
@@ -70,4 +74,18 @@ public class TimerHandlerTest {
         inOrder.verify(timer).stop();
     }
 
+    @Test
+    public void shouldNotTimeWhenStatIsNotLoggable() throws Exception {
+        doReturn(false).when(logger).isLoggable(LogLevel.STAT);
+        TimerHandler time = new TimerHandler(delegate, logger);
+
+        Context context = new RootContext();
+        when(delegate.handle(context, null))
+                .thenReturn(Promises.<Response, NeverThrowsException>newResultPromise(new Response()));
+        time.handle(context, null).get();
+
+        verify(delegate).handle(context, null);
+        verify(logger, never()).getTimer();
+    }
+
 }
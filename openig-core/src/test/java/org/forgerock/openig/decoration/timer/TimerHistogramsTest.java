@@ -0,0 +1,56 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.decoration.timer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class TimerHistogramsTest {
+
+    @Test
+    public void shouldRecordTheElapsedTimes() throws Exception {
+        TimerHistograms histograms = new TimerHistograms();
+        for (int i = 0; i < 3; i++) {
+            TimerHistograms.Timing timing = histograms.start();
+            Thread.sleep(2);
+            timing.stop();
+        }
+
+        JsonValue json = new JsonValue(histograms.toJson());
+        assertThat(json.get("elapsed").get("count").asLong()).isEqualTo(3L);
+        assertThat(json.get("elapsed-within").get("count").asLong()).isEqualTo(3L);
+        assertThat(json.get("elapsed").get("p50").asNumber().doubleValue()).isGreaterThanOrEqualTo(2.0);
+        assertThat(json.get("elapsed").asMap()).containsKeys("mean", "p99", "p999", "max");
+    }
+
+    @Test
+    public void shouldNotCountThePausesInTheElapsedTimeWithin() throws Exception {
+        TimerHistograms histograms = new TimerHistograms();
+        TimerHistograms.Timing timing = histograms.start();
+        timing.pause();
+        Thread.sleep(20);
+        timing.resume();
+        timing.stop();
+
+        JsonValue json = new JsonValue(histograms.toJson());
+        assertThat(json.get("elapsed").get("max").asNumber().doubleValue()).isGreaterThanOrEqualTo(20.0);
+        assertThat(json.get("elapsed-within").get("max").asNumber().doubleValue()).isLessThan(20.0);
+    }
+}
@@ -100,6 +100,18 @@ public class BindingsTest {
                 .hasSize(4);
     }
 
+    @Test
+    public void shouldExposeClosestContextsByName() throws Exception {
+        final AttributesContext parent = new AttributesContext(new RootContext());
+        final AttributesContext leaf = new AttributesContext(parent);
+        final Map<?, ?> contexts = (Map<?, ?>) bindings(leaf, null).asMap().get("contexts");
+
+        assertThat(contexts.get("attributes")).isSameAs(leaf);
+        assertThat(contexts.containsKey("root")).isTrue();
+        assertThat(contexts.containsKey("unknown")).isFalse();
+        assertThat(contexts).isEqualTo(Bindings.flatten(leaf));
+    }
+
     @Test(expectedExceptions = UnsupportedOperationException.class)
     public void shouldFailWhenModifyingBindingAsMap() throws Exception {
         bindings().bind("a", "b")
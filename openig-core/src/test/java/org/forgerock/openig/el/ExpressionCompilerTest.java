@@ -0,0 +1,140 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.el;
+
+import static java.util.Collections.singletonMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.forgerock.openig.el.Bindings.bindings;
+
+import org.forgerock.http.protocol.Request;
+import org.forgerock.services.context.AttributesContext;
+import org.forgerock.services.context.RootContext;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ExpressionCompilerTest {
+
+    // @Checkstyle:off
+    @DataProvider
+    public static Object[][] compiledExpressions() {
+        return new Object[][] {
+            { "${request.uri.path == '/foo'}" },
+            { "${request.uri.path eq '/bar'}" },
+            { "${'/foo' != request.uri.path}" },
+            { "${request.method == 'POST' && request.uri.host == 'example.com'}" },
+            { "${request.method == 'GET' or not (request.uri.scheme == 'https')}" },
+            { "${matches(request.uri.path, '^/foo')}" },
+            { "${matches(request.uri.path, '[invalid')}" },
+            { "${matches(request.uri.query, 'a=b')}" },
+            { "${request.uri.path.startsWith('/fo')}" },
+            { "${request.headers['Host'][0]}" },
+            { "${request.headers['Missing'][0]}" },
+            { "${request.headers.Host}" },
+            { "${attributes.name}" },
+            { "${attributes['name'] == 'value'}" },
+            { "${attributes.missing.property}" },
+            { "${contexts.attributes.attributes.name}" },
+            { "${toUpperCase(request.method)}" },
+            { "${toLowerCase(attributes.missing)}" },
+            { "${contains(request.headers['Host'], 'example.com')}" },
+            { "${attributes.flag && true}" },
+            { "${!attributes.flag}" },
+            { "${attributes.flag == 'true'}" },
+            { "${null == attributes.missing}" },
+            { "${missing}" },
+        };
+    }
+
+    @DataProvider
+    public static Object[][] interpretedExpressions() {
+        return new Object[][] {
+            { "${1 + 1}" },
+            { "${request.uri.port > 80}" },
+            { "${empty request.uri.query}" },
+            { "${request.method == 'GET' ? 'a' : 'b'}" },
+            { "${request.uri.path}${request.method}" },
+            { "/path ${request.uri.path}" },
+            { "${request.uri.path} " },
+            { "${1.5}" },
+            { "${urlEncode(request.uri.path)}" },
+            { "${request.uri.path.substring(1)}" },
+            { "#{request.uri.path}" },
+        };
+    }
+    // @Checkstyle:on
+
+    @Test(dataProvider = "compiledExpressions")
+    public void shouldEvaluateLikeTheInterpreter(final String expression) throws Exception {
+        ExpressionCompiler.Node node = ExpressionCompiler.compile(expression);
+        assertThat(node).isNotNull();
+
+        assertEvaluatesLikeTheInterpreter(expression, node, bindings());
+    }
+
+    @Test(dataProvider = "compiledExpressions")
+    public void shouldEvaluateLikeTheInterpreterWithRequest(final String expression) throws Exception {
+        ExpressionCompiler.Node node = ExpressionCompiler.compile(expression);
+
+        Request request = new Request().setMethod("POST").setUri("http://example.com/foo?a=b");
+        request.getHeaders().put("Host", "example.com");
+        AttributesContext context = new AttributesContext(new RootContext());
+        context.getAttributes().put("name", "value");
+        context.getAttributes().put("flag", "true");
+        Bindings bindings = bindings(context, request);
+
+        assertEvaluatesLikeTheInterpreter(expression, node, bindings);
+    }
+
+    @Test(dataProvider = "interpretedExpressions")
+    public void shouldNotCompileUnsupportedExpressions(final String expression) throws Exception {
+        assertThat(ExpressionCompiler.compile(expression)).isNull();
+    }
+
+    @Test(expectedExceptions = ExpressionCompiler.FallbackException.class)
+    public void shouldFallbackToTheInterpreterForNumericComparisons() throws Exception {
+        ExpressionCompiler.compile("${attributes.count == '42'}")
+                          .eval(bindings("attributes", singletonMap("count", 42)).asMap());
+    }
+
+    @Test
+    public void shouldFallbackToTheInterpreterWhenAFunctionFails() throws Exception {
+        String expression = "${contains(attributes.values, 'a')}";
+        // Functions.contains() fails on a null array element
+        Bindings bindings = bindings("attributes", singletonMap("values", new Object[] { null }));
+        assertThat(Expression.valueOf(expression, Object.class).eval(bindings)).isNull();
+
+        try {
+            ExpressionCompiler.compile(expression).eval(bindings.asMap());
+            failBecauseExceptionWasNotThrown(ExpressionCompiler.FallbackException.class);
+        } catch (ExpressionCompiler.FallbackException e) {
+            // The compiled form delegates to the interpreter
+        }
+    }
+
+    private static void assertEvaluatesLikeTheInterpreter(final String expression,
+                                                          final ExpressionCompiler.Node node,
+                                                          final Bindings bindings) throws Exception {
+        Object interpreted = Expression.valueOf(expression, Object.class).eval(bindings);
+        try {
+            assertThat(node.eval(bindings.asMap())).isEqualTo(interpreted);
+        } catch (ExpressionCompiler.FallbackException e) {
+            // The compiled form explicitly delegates to the interpreter
+        }
+    }
+}
@@ -25,8 +25,14 @@ import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.openig.el.Bindings.bindings;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
@@ -381,6 +387,50 @@ public class ExpressionTest {
         assertThat(expression.eval(bindings("heap", heap))).isNull();
     }
 
+    @Test
+    public void shouldSupportNestedEvaluations() throws Exception {
+        NestedBean bean = new NestedBean(Expression.valueOf("${value}", String.class));
+        Expression<String> outer = Expression.valueOf("${bean.nested}-${value}", String.class);
+        assertThat(outer.eval(bindings().bind("bean", bean).bind("value", "outer"))).isEqualTo("inner-outer");
+    }
+
+    @Test
+    public void shouldEvaluateSameExpressionStringIndependently() throws Exception {
+        Expression<String> first = Expression.valueOf("${a}", String.class);
+        Expression<Integer> second = Expression.valueOf("${a}", Integer.class);
+        assertThat(first.eval(bindings("a", "hello"))).isEqualTo("hello");
+        assertThat(second.eval(bindings("a", "hello"))).isNull();
+        assertThat(second.eval(bindings("a", 42))).isEqualTo(42);
+    }
+
+    @Test
+    public void shouldEvaluateConcurrently() throws Exception {
+        final Expression<String> expression = Expression.valueOf("${a}-${a}", String.class);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                final String value = String.valueOf(i);
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (int j = 0; j < 100; j++) {
+                            if (!(value + "-" + value).equals(expression.eval(bindings("a", value)))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertThat(future.get()).isTrue();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     public static class ExternalBean {
         private InternalBean internal;
 
@@ -441,4 +491,16 @@ public class ExpressionTest {
         @Override
         public void save(Response response) throws IOException { }
     }
+
+    public static class NestedBean {
+        private final Expression<String> inner;
+
+        NestedBean(final Expression<String> inner) {
+            this.inner = inner;
+        }
+
+        public String getNested() {
+            return inner.eval(bindings("value", "inner"));
+        }
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class AsynchronousDirectoryScannerTest {
+
+    @Mock
+    private DirectoryScanner delegate;
+
+    @Mock
+    private FileChangeListener listener;
+
+    @Mock
+    private Executor executor;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void shouldPerformInitialScanSynchronously() throws Exception {
+        AsynchronousDirectoryScanner scanner = new AsynchronousDirectoryScanner(delegate, executor);
+
+        scanner.scan(listener);
+
+        verify(delegate).scan(listener);
+        verifyZeroInteractions(executor);
+    }
+
+    @Test
+    public void shouldSubmitOnlyOneScanAtATime() throws Exception {
+        AsynchronousDirectoryScanner scanner = new AsynchronousDirectoryScanner(delegate, executor);
+        scanner.scan(listener);
+
+        scanner.scan(listener);
+        scanner.scan(listener);
+
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).execute(captor.capture());
+
+        // Once the pending scan is done, another one can be submitted
+        captor.getValue().run();
+        verify(delegate, times(2)).scan(listener);
+        scanner.scan(listener);
+        verify(executor, times(2)).execute(any(Runnable.class));
+    }
+
+    @Test
+    public void shouldSubmitAgainWhenExecutorRejectedTheScan() throws Exception {
+        AsynchronousDirectoryScanner scanner = new AsynchronousDirectoryScanner(delegate, executor);
+        scanner.scan(listener);
+        doThrow(new RejectedExecutionException()).when(executor).execute(any(Runnable.class));
+
+        scanner.scan(listener);
+        scanner.scan(listener);
+
+        verify(executor, times(2)).execute(any(Runnable.class));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.util.time.Duration.duration;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.forgerock.http.filter.ResponseHandler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.util.time.TimeService;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.Snapshot;
+
+@SuppressWarnings("javadoc")
+public class IntervalHistogramReservoirTest {
+
+    private TimeService time;
+    private IntervalHistogramReservoir reservoir;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        time = mock(TimeService.class);
+        when(time.now()).thenReturn(0L);
+        reservoir = new IntervalHistogramReservoir(time, duration("1 minute"));
+    }
+
+    @Test
+    public void shouldSnapshotTheRecordedValues() throws Exception {
+        for (long value = 1; value <= 100; value++) {
+            reservoir.update(value);
+        }
+
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertThat(snapshot.size()).isEqualTo(100);
+        assertThat(snapshot.getMin()).isEqualTo(1L);
+        assertThat(snapshot.getMax()).isEqualTo(100L);
+        assertThat(snapshot.getMedian()).isEqualTo(50.0);
+        assertThat(snapshot.getValues()).hasSize(100).isSorted();
+        assertThat(reservoir.size()).isEqualTo(100);
+    }
+
+    @Test
+    public void shouldOnlyCoverThePreviousAndCurrentIntervals() throws Exception {
+        reservoir.update(10L);
+
+        // One interval later: the value is in the previous interval
+        when(time.now()).thenReturn(60000L);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(1);
+        reservoir.update(20L);
+
+        // Two intervals later: only the second value is still covered
+        when(time.now()).thenReturn(120000L);
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertThat(snapshot.size()).isEqualTo(1);
+        assertThat(snapshot.getMax()).isEqualTo(20L);
+
+        // Nothing recorded for two intervals
+        when(time.now()).thenReturn(180000L);
+        reservoir.getSnapshot();
+        when(time.now()).thenReturn(240000L);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldApproximateThePreviousIntervalWhenNoSnapshotHasBeenTaken() throws Exception {
+        reservoir.update(10L);
+
+        // No snapshot for more than two intervals: the values recorded since the last swap stand for the previous
+        // interval
+        when(time.now()).thenReturn(150000L);
+        assertThat(reservoir.getSnapshot().getMax()).isEqualTo(10L);
+
+        // The current interval started at 120000
+        reservoir.update(20L);
+        when(time.now()).thenReturn(179999L);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(2);
+        when(time.now()).thenReturn(180000L);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(1);
+        when(time.now()).thenReturn(240000L);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldBeUsableByTheMonitoringEndpoint() throws Exception {
+        MonitoringMetrics metrics = new MonitoringMetrics(reservoir);
+        new MetricsFilter(metrics).filter(null, new Request(), new ResponseHandler(Status.OK));
+
+        JsonValue data = new MonitoringResourceProvider(metrics).readInstance(null, null).get().getContent();
+
+        assertThat(data.get(new JsonPointer("responses/total")).asLong()).isEqualTo(1);
+        assertThat(data.get(new JsonPointer("responseTime/median")).isNumber()).isTrue();
+        assertThat(data.get(new JsonPointer("responseTime/standardDeviation")).isNumber()).isTrue();
+    }
+}
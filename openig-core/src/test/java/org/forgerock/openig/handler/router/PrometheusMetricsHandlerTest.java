@@ -0,0 +1,116 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.forgerock.http.filter.ResponseHandler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.openig.heap.Name;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class PrometheusMetricsHandlerTest {
+
+    private static final String ROUTE_1 = "{router=\"Router\",route=\"route-1\"";
+    private static final String ROUTE_2 = "{router=\"Router\",route=\"route-2\"";
+
+    @Test
+    public void shouldExposeTheMetricsOfAllTheRoutes() throws Exception {
+        RouteMetricsRegistry registry = new RouteMetricsRegistry();
+        MonitoringMetrics metrics1 = new MonitoringMetrics();
+        MonitoringMetrics metrics2 = new MonitoringMetrics();
+        registry.register(Name.of("Router"), Name.of("Router", "route-1.json"), "route-1", metrics1, asList(0.99));
+        registry.register(Name.of("Router"), Name.of("Router", "route-2.json"), "route-2", metrics2, asList(0.99));
+
+        new MetricsFilter(metrics1).filter(null, new Request(), new ResponseHandler(Status.OK));
+        new MetricsFilter(metrics1).filter(null, new Request(), new ResponseHandler(Status.NOT_FOUND));
+        new MetricsFilter(metrics2).filter(null, new Request(), new ResponseHandler(Status.OK));
+
+        Response response = new PrometheusMetricsHandler(registry).handle(null, new Request()).get();
+
+        assertThat(response.getStatus()).isEqualTo(Status.OK);
+        assertThat(response.getHeaders().getFirst("Content-Type")).isEqualTo(PrometheusMetricsHandler.CONTENT_TYPE);
+        String text = response.getEntity().getString();
+        assertThat(text).containsOnlyOnce("# TYPE openig_route_requests_total counter\n")
+                        .contains("openig_route_requests_total" + ROUTE_1 + "} 2\n",
+                                  "openig_route_requests_total" + ROUTE_2 + "} 1\n",
+                                  "openig_route_active_requests" + ROUTE_1 + "} 0\n",
+                                  "openig_route_responses_total" + ROUTE_1 + ",status=\"2xx\"} 1\n",
+                                  "openig_route_responses_total" + ROUTE_1 + ",status=\"4xx\"} 1\n",
+                                  "openig_route_response_time_seconds" + ROUTE_1 + ",quantile=\"0.5\"} ",
+                                  "openig_route_response_time_seconds" + ROUTE_1 + ",quantile=\"0.99\"} ",
+                                  "openig_route_response_time_seconds_count" + ROUTE_1 + "} 2\n");
+    }
+
+    @Test
+    public void shouldNotExposeTheMetricsOfAnUnregisteredRoute() throws Exception {
+        RouteMetricsRegistry registry = new RouteMetricsRegistry();
+        registry.register(Name.of("Router"), Name.of("Router", "route-1.json"), "route-1", new MonitoringMetrics(),
+                          asList(0.99))
+                .unregister();
+
+        String text = new PrometheusMetricsHandler(registry).handle(null, new Request()).get().getEntity().getString();
+
+        assertThat(text).doesNotContain("route-1");
+    }
+
+    @Test
+    public void shouldNotUnregisterTheMetricsOfAReplacedRoute() throws Exception {
+        RouteMetricsRegistry registry = new RouteMetricsRegistry();
+        RouteMetricsRegistry.Registration old = registry.register(Name.of("Router"),
+                                                                  Name.of("Router", "route.json"),
+                                                                  "old-route",
+                                                                  new MonitoringMetrics(),
+                                                                  asList(0.99));
+        registry.register(Name.of("Router"), Name.of("Router", "route.json"), "new-route", new MonitoringMetrics(),
+                          asList(0.99));
+        old.unregister();
+
+        String text = new PrometheusMetricsHandler(registry).handle(null, new Request()).get().getEntity().getString();
+
+        assertThat(text).contains("route=\"new-route\"").doesNotContain("old-route");
+    }
+
+    @Test
+    public void shouldDistinguishTheRoutersWithTheSameLeafName() throws Exception {
+        RouteMetricsRegistry registry = new RouteMetricsRegistry();
+        registry.register(Name.of("config.json", "Router"), Name.of("config.json", "Router", "route.json"), "route",
+                          new MonitoringMetrics(), asList(0.99));
+        registry.register(Name.of("main.json", "Router"), Name.of("main.json", "Router", "route.json"), "route",
+                          new MonitoringMetrics(), asList(0.99));
+
+        String text = new PrometheusMetricsHandler(registry).handle(null, new Request()).get().getEntity().getString();
+
+        assertThat(text).contains("openig_route_requests_total{router=\"config.json+Router\",route=\"route\"} 0\n",
+                                  "openig_route_requests_total{router=\"main.json+Router\",route=\"route\"} 0\n");
+    }
+
+    @Test
+    public void shouldEscapeTheLabelValues() throws Exception {
+        RouteMetricsRegistry registry = new RouteMetricsRegistry();
+        registry.register(Name.of("Router"), Name.of("Router", "route.json"), "a \"quoted\\route\"",
+                          new MonitoringMetrics(), asList(0.99));
+
+        String text = new PrometheusMetricsHandler(registry).handle(null, new Request()).get().getEntity().getString();
+
+        assertThat(text).contains("route=\"a \\\"quoted\\\\route\\\"\"");
+    }
+}
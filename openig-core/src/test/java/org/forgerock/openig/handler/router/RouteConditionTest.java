@@ -0,0 +1,84 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.openig.handler.router.RouteCondition.Kind.ANY;
+import static org.forgerock.openig.handler.router.RouteCondition.Kind.HOST_EQUALS;
+import static org.forgerock.openig.handler.router.RouteCondition.Kind.PATH_EQUALS;
+import static org.forgerock.openig.handler.router.RouteCondition.Kind.PATH_PREFIX;
+import static org.forgerock.openig.handler.router.RouteCondition.Kind.UNINDEXED;
+
+import org.forgerock.openig.el.Expression;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class RouteConditionTest {
+
+    @DataProvider
+    public static Object[][] conditions() {
+        // @Checkstyle:off
+        return new Object[][] {
+            { "${request.uri.path == '/login'}", PATH_EQUALS, "/login", true },
+            { "${request.uri.path eq \"/login\"}", PATH_EQUALS, "/login", true },
+            { "${'/login' == request.uri.path}", PATH_EQUALS, "/login", true },
+            { "${request.uri.path.startsWith('/api/')}", PATH_PREFIX, "/api/", true },
+            { "${matches(request.uri.path, '^/api/v1')}", PATH_PREFIX, "/api/v1", false },
+            { "${matches(request.uri.path, '^/apis?')}", PATH_PREFIX, "/api", false },
+            { "${request.uri.host == 'www.example.com'}", HOST_EQUALS, "www.example.com", true },
+            { "${request.method == 'POST' && request.uri.path == '/login'}", PATH_EQUALS, "/login", false },
+            { "${(request.uri.path == '/login') and request.method == 'POST'}", PATH_EQUALS, "/login", false },
+            { "${request.uri.host == 'a' && request.uri.path.startsWith('/b')}", PATH_PREFIX, "/b", false },
+            { "${request.uri.path == '/a' || request.uri.path == '/b'}", UNINDEXED, null, false },
+            { "${request.uri.path == '/a' && true ? true : false}", UNINDEXED, null, false },
+            { "${matches(request.uri.path, '/api')}", UNINDEXED, null, false },
+            { "${matches(request.uri.path, '^/a|^/b')}", UNINDEXED, null, false },
+            { "${request.uri.path == '/a'}${true}", UNINDEXED, null, false },
+            { "${request.uri.path != '/a'}", UNINDEXED, null, false },
+            { "${true}", UNINDEXED, null, false },
+        };
+        // @Checkstyle:on
+    }
+
+    @Test(dataProvider = "conditions")
+    public void shouldClassifyCondition(final String expression,
+                                        final RouteCondition.Kind kind,
+                                        final String key,
+                                        final boolean exact) throws Exception {
+        RouteCondition condition = RouteCondition.analyze(Expression.valueOf(expression, Boolean.class));
+        assertThat(condition.getKind()).isEqualTo(kind);
+        assertThat(condition.getKey()).isEqualTo(key);
+        assertThat(condition.isExact()).isEqualTo(exact);
+    }
+
+    @Test
+    public void shouldAcceptAllRequestsWhenNoCondition() throws Exception {
+        RouteCondition condition = RouteCondition.analyze(null);
+        assertThat(condition.getKind()).isEqualTo(ANY);
+        assertThat(condition.isExact()).isTrue();
+    }
+
+    @Test
+    public void shouldComputeRegexLiteralPrefix() throws Exception {
+        assertThat(RouteCondition.literalPrefix("^/api/v[0-9]+")).isEqualTo("/api/v");
+        assertThat(RouteCondition.literalPrefix("^/ab*")).isEqualTo("/a");
+        assertThat(RouteCondition.literalPrefix("^/a{2}")).isEqualTo("/");
+        assertThat(RouteCondition.literalPrefix("^(?i)/api")).isEmpty();
+        assertThat(RouteCondition.literalPrefix("/api")).isNull();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.openig.el.Expression;
+import org.forgerock.services.context.AttributesContext;
+import org.forgerock.services.context.RootContext;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class RouteIndexTest {
+
+    private final List<Route> routes = asList(
+            route("00-login", "${request.uri.path == '/login'}"),
+            route("01-api-admin", "${matches(request.uri.path, '^/api/admin')}"),
+            route("02-attribute", "${attributes.name == 'bob'}"),
+            route("03-api", "${request.uri.path.startsWith('/api')}"),
+            route("04-host", "${request.uri.host == 'www.example.com'}"),
+            route("05-post", "${request.method == 'POST' && request.uri.path == '/form'}"),
+            route("06-default", null),
+            route("07-unreachable", "${request.uri.path == '/unreachable'}"));
+
+    @DataProvider
+    public static Object[][] requests() {
+        // @Checkstyle:off
+        return new Object[][] {
+            { "GET", "http://localhost/login", null, "00-login" },
+            { "GET", "http://localhost/api/admin/users", "bob", "01-api-admin" },
+            { "GET", "http://localhost/api/users", "bob", "02-attribute" },
+            { "GET", "http://localhost/api/users", null, "03-api" },
+            { "GET", "http://www.example.com/api", null, "03-api" },
+            { "GET", "http://www.example.com/other", null, "04-host" },
+            { "POST", "http://localhost/form", null, "05-post" },
+            { "GET", "http://localhost/form", null, "06-default" },
+            { "GET", "http://localhost/unreachable", null, "06-default" },
+        };
+        // @Checkstyle:on
+    }
+
+    @Test(dataProvider = "requests")
+    public void shouldSelectTheSameRouteAsSequentialScan(final String method,
+                                                         final String uri,
+                                                         final String name,
+                                                         final String expected) throws Exception {
+        AttributesContext context = new AttributesContext(new RootContext());
+        if (name != null) {
+            context.getAttributes().put("name", name);
+        }
+        Request request = new Request().setMethod(method).setUri(uri);
+
+        assertThat(new RouteIndex(routes, true).find(context, request).getName()).isEqualTo(expected);
+        assertThat(new RouteIndex(routes, false).find(context, request).getName()).isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldReturnNullWhenNoRouteAccepts() throws Exception {
+        RouteIndex index = new RouteIndex(routes.subList(0, 2), true);
+        assertThat(index.find(new RootContext(), new Request().setUri("http://localhost/other"))).isNull();
+    }
+
+    @Test
+    public void shouldNotFindAnythingInEmptyIndex() throws Exception {
+        assertThat(RouteIndex.EMPTY.find(new RootContext(), new Request().setUri("http://localhost/"))).isNull();
+    }
+
+    private static Route route(final String name, final String condition) {
+        try {
+            Expression<Boolean> expression = condition == null ? null : Expression.valueOf(condition, Boolean.class);
+            return new Route(mock(Handler.class), name, expression) {
+                @Override
+                public void start() { }
+
+                @Override
+                public void destroy() { }
+            };
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -27,6 +27,8 @@ import static org.forgerock.util.Utils.closeSilently;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.matches;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
@@ -41,6 +43,10 @@ import java.io.Reader;
 import java.io.Writer;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
 
 import org.forgerock.http.Handler;
 import org.forgerock.http.io.IO;
@@ -59,11 +65,15 @@ import org.forgerock.services.context.AttributesContext;
 import org.forgerock.services.context.Context;
 import org.forgerock.services.context.RootContext;
 import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
 import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.promise.ResultHandler;
 import org.forgerock.util.time.TimeService;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -139,6 +149,54 @@ public class RouterHandlerTest {
         return new RouteBuilder(heap, Name.of("anonymous"), new EndpointRegistry(new Router(), "/"));
     }
 
+    @Test
+    public void testRoutesCanBeBuiltInParallel() throws Exception {
+        RouteBuilder builder = spy(newRouterBuilder());
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        // Both routes have to be built at the same time
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        doAnswer(new Answer<Route>() {
+            @Override
+            public Route answer(final InvocationOnMock invocation) throws Throwable {
+                threads.add(Thread.currentThread());
+                barrier.await(10L, TimeUnit.SECONDS);
+                return (Route) invocation.callRealMethod();
+            }
+        }).when(builder).build(any(File.class));
+        RouterHandler handler = new RouterHandler(builder, new DirectoryMonitor(routes));
+        handler.setLogger(logger);
+        handler.setBuildParallelism(4);
+
+        // Initial scan
+        handler.start();
+        assertThat(isAnyPoolThread(threads)).isTrue();
+
+        // Both routes have been built and the timing report has been logged
+        assertStatusAfterHandle(handler, "OpenIG", Status.TEAPOT);
+        verify(logger).info(matches("(?s)Built 2 route\\(s\\) in \\d+ ms.*one\\.json.*"));
+
+        // The next changes are built by the pool as well
+        threads.clear();
+        handler.onChanges(new FileChangeSet(routes,
+                                            Collections.<File>emptySet(),
+                                            new HashSet<>(asList(routes.listFiles())),
+                                            Collections.<File>emptySet()));
+        assertThat(isAnyPoolThread(threads)).isTrue();
+        assertStatusAfterHandle(handler, "OpenIG", Status.TEAPOT);
+
+        handler.stop();
+        assertThat(DestroyDetectHandler.destroyed).isTrue();
+    }
+
+    private static boolean isAnyPoolThread(final Set<Thread> threads) {
+        for (Thread thread : threads) {
+            if (thread instanceof ForkJoinWorkerThread) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Test
     public void testStoppingTheHandler() throws Exception {
         RouterHandler handler = new RouterHandler(newRouterBuilder(),
@@ -152,6 +210,18 @@ public class RouterHandlerTest {
         assertThat(DestroyDetectHandler.destroyed).isTrue();
     }
 
+    @Test
+    public void testChangesAreIgnoredOnceStopped() throws Exception {
+        RouterHandler handler = new RouterHandler(newRouterBuilder(),
+                                                  new DirectoryMonitor(routes));
+        handler.stop();
+
+        // A scan still pending when the handler was stopped
+        handler.start();
+        assertStatusAfterHandle(handler, "OpenIG", Status.NOT_FOUND);
+        assertThat(DestroyDetectHandler.destroyed).isFalse();
+    }
+
     @Test
     public void testDefaultHandler() throws Exception {
         RouterHandler handler =
@@ -262,6 +332,41 @@ public class RouterHandlerTest {
         verify(logger).error(matches("The route defined in file '.*' cannot be added"));
     }
 
+    @Test
+    public void testModifiedRouteIsReplacedWithoutInterruption() throws Exception {
+        RouteBuilder builder = spy(newRouterBuilder());
+        final RouterHandler router = new RouterHandler(builder, scanner);
+        router.setLogger(logger);
+        File file = new File("route.json");
+        final Status[] servedOnDestroy = new Status[1];
+
+        doReturn(new StatusRoute(Status.OK) {
+            @Override
+            public void destroy() {
+                // Requests are already dispatched to the new route
+                router.handle(new RootContext(), new Request()).thenOnResult(new ResultHandler<Response>() {
+                    @Override
+                    public void handleResult(final Response response) {
+                        servedOnDestroy[0] = response.getStatus();
+                    }
+                });
+            }
+        }).when(builder).build(file);
+        router.onChanges(new FileChangeSet(null,
+                                           Collections.singleton(file),
+                                           Collections.<File>emptySet(),
+                                           Collections.<File>emptySet()));
+
+        doReturn(new StatusRoute(Status.TEAPOT)).when(builder).build(file);
+        router.onChanges(new FileChangeSet(null,
+                                           Collections.<File>emptySet(),
+                                           Collections.singleton(file),
+                                           Collections.<File>emptySet()));
+
+        assertThat(servedOnDestroy[0]).isEqualTo(Status.TEAPOT);
+        assertThat(router.handle(new RootContext(), new Request()).get().getStatus()).isEqualTo(Status.TEAPOT);
+    }
+
     @Test
     public void testRouterEndpointIsBeingRegistered() throws Exception {
         Router router = new Router();
@@ -269,7 +374,8 @@ public class RouterHandlerTest {
         heap.put(Keys.ENVIRONMENT_HEAP_KEY, new DefaultEnvironment(new File("dont-care")));
         heap.put(Keys.TIME_SERVICE_HEAP_KEY, TimeService.SYSTEM);
 
-        RouterHandler handler = (RouterHandler) new RouterHandler.Heaplet()
+        RouterHandler.Heaplet heaplet = new RouterHandler.Heaplet();
+        RouterHandler handler = (RouterHandler) heaplet
                 .create(Name.of("this-router"),
                         json(object(field("directory", getTestResourceDirectory("endpoints").getPath()))),
                         heap);
@@ -309,6 +415,9 @@ public class RouterHandlerTest {
         Request request2 = new Request().setUri(uri);
         Response response2 = router.handle(new RootContext(), request2).get();
         assertThat(response2.getEntity().getString()).isEqualTo("Pong");
+
+        // Also shuts down the executor dedicated to this router
+        heaplet.destroy();
     }
 
     private void assertStatusAfterHandle(final RouterHandler handler,
@@ -324,4 +433,26 @@ public class RouterHandlerTest {
         context.getAttributes().put("name", value);
         return handler.handle(context, new Request()).getOrThrow();
     }
+
+    /**
+     * A route accepting all the requests, and responding with the given status.
+     */
+    private static class StatusRoute extends Route {
+        StatusRoute(final Status status) {
+            super(new Handler() {
+                @Override
+                public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+                    return Response.newResponsePromise(new Response(status));
+                }
+            }, "route", null);
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.handler.router;
+
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.io.File;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.openig.heap.Name;
+import org.forgerock.openig.log.Logger;
+import org.forgerock.openig.log.NullLogSink;
+import org.forgerock.util.time.TimeService;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class WatchServiceDirectoryScannerTest {
+
+    @Mock
+    private FileChangeListener listener;
+
+    private ScheduledExecutorService executor;
+    private File directory;
+    private Logger logger = new Logger(new NullLogSink(), Name.of("test"));
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        executor = newSingleThreadScheduledExecutor();
+        directory = java.nio.file.Files.createTempDirectory("routes").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void shouldNotifyAddedFilesInTheBackground() throws Exception {
+        WatchServiceDirectoryScanner scanner =
+                new WatchServiceDirectoryScanner(directory, executor, TimeService.SYSTEM, 10L, logger);
+        try {
+            // Initial scan of an empty directory does not notify anything
+            scanner.scan(listener);
+            verifyZeroInteractions(listener);
+
+            File route = new File(directory, "route.json");
+            assertThat(route.createNewFile()).isTrue();
+
+            ArgumentCaptor<FileChangeSet> captor = ArgumentCaptor.forClass(FileChangeSet.class);
+            verify(listener, timeout(10000L)).onChanges(captor.capture());
+            assertThat(captor.getValue().getAddedFiles()).containsOnly(route);
+        } finally {
+            scanner.stop();
+        }
+    }
+
+    @Test
+    public void shouldNotifyTheChangesInASeparateTaskAndLogTheFailures() throws Exception {
+        File missing = new File(directory, "routes");
+        DirectoryScanner delegate = mock(DirectoryScanner.class);
+        ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        Logger spied = spy(logger);
+        WatchServiceDirectoryScanner scanner =
+                new WatchServiceDirectoryScanner(missing, delegate, scheduler, mock(TimeService.class), 0L, 10L, spied);
+        try {
+            scanner.scan(listener);
+            verify(delegate).scan(listener);
+            verify(scheduler).scheduleWithFixedDelay(any(Runnable.class),
+                                                     anyLong(),
+                                                     eq(10L),
+                                                     eq(TimeUnit.MILLISECONDS));
+
+            // The creation of the directory is a change: the poll hands the notification off to the executor
+            assertThat(missing.mkdir()).isTrue();
+            scanner.poll();
+            ArgumentCaptor<Runnable> notification = ArgumentCaptor.forClass(Runnable.class);
+            verify(scheduler).execute(notification.capture());
+            verify(delegate).scan(listener);
+
+            doThrow(new IllegalStateException("Boom")).when(delegate).scan(listener);
+            notification.getValue().run();
+            verify(spied).error(anyString());
+            verify(spied).error(any(IllegalStateException.class));
+        } finally {
+            scanner.stop();
+            missing.delete();
+        }
+    }
+
+    @Test
+    public void shouldOnlyPerformInitialScanOnRequestThread() throws Exception {
+        assertThat(new File(directory, "route.json").createNewFile()).isTrue();
+        WatchServiceDirectoryScanner scanner =
+                new WatchServiceDirectoryScanner(directory, executor, TimeService.SYSTEM, 10L, logger);
+        try {
+            scanner.scan(listener);
+            verify(listener).onChanges(any(FileChangeSet.class));
+
+            // Subsequent calls are no-op
+            scanner.scan(listener);
+            scanner.scan(listener);
+            verify(listener).onChanges(any(FileChangeSet.class));
+        } finally {
+            scanner.stop();
+        }
+    }
+}
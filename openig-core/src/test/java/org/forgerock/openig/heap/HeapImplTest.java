@@ -23,6 +23,7 @@ import static org.forgerock.openig.heap.HeapUtilsTest.*;
 
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.forgerock.json.JsonValue;
@@ -144,6 +145,25 @@ public class HeapImplTest {
         assertThat(heapObject.destroyed).isTrue();
     }
 
+    @Test
+    public void shouldRunTheTasksOnceTheHeapIsInitialized() throws Exception {
+        HeapImpl heap = buildDefaultHeap();
+        heap.init(json(object(field("heap", array(object(field("name", "heapObject"),
+                                                         field("type", HeapObject.class.getName())))))));
+
+        assertThat(heap.get("heapObject", HeapObject.class).initialized).isTrue();
+
+        // Run immediately once initialized
+        final List<String> tasks = new ArrayList<>();
+        heap.afterInitialization(new Runnable() {
+            @Override
+            public void run() {
+                tasks.add("task");
+            }
+        });
+        assertThat(tasks).containsExactly("task");
+    }
+
     @Test
     public void testHeapObjectOfSameTypeCreationDestruction() throws Exception {
         HeapImpl heap = buildDefaultHeap();
@@ -249,6 +269,26 @@ public class HeapImplTest {
         assertThat(decorated.context.getConfig()).isEmpty();
     }
 
+    @Test
+    public void shouldNotifyTheDecoratorsWhenTheHeapIsDestroyed() throws Exception {
+        HeapImpl heap = buildDefaultHeap();
+        heap.put("decorator", new BookDecorator());
+        DecoratedBook book = (DecoratedBook) heap.resolve(json(object(field("type", Book.class.getName()),
+                                                                      field("decorator", "Hey"))),
+                                                          Book.class);
+        final List<String> destroyed = new ArrayList<>();
+        book.context.onDestroy(new Runnable() {
+            @Override
+            public void run() {
+                destroyed.add("book");
+            }
+        });
+        assertThat(destroyed).isEmpty();
+
+        heap.destroy();
+        assertThat(destroyed).containsExactly("book");
+    }
+
     @Test
     public void testGlobalDecorationGeneratingInfiniteRecursion() throws Exception {
         // This case reproduce a situation where a decorator have a dependency on a heap object
@@ -21,6 +21,7 @@ public class HeapObject {
 
     public boolean destroyed;
     public String message;
+    public boolean initialized;
 
     public static class Heaplet extends GenericHeaplet {
 
@@ -31,6 +32,18 @@ public class HeapObject {
             return heapObject;
         }
 
+        @Override
+        public void start() throws HeapException {
+            final HeapObject heapObject = (HeapObject) object;
+            ((HeapImpl) heap).afterInitialization(new Runnable() {
+                @Override
+                public void run() {
+                    // The heap is not locked anymore
+                    heapObject.initialized = !Thread.holdsLock(heap);
+                }
+            });
+        }
+
         @Override
         public void destroy() {
             ((HeapObject) object).destroyed = true;
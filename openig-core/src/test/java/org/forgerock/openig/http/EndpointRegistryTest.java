@@ -17,9 +17,15 @@
 package org.forgerock.openig.http;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
+import org.forgerock.http.Handler;
 import org.forgerock.http.routing.Router;
 import org.forgerock.openig.handler.Handlers;
+import org.forgerock.services.routing.RouteMatcher;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
@@ -46,4 +52,21 @@ public class EndpointRegistryTest {
 
         assertThat(registration.getPath()).isEqualTo(path);
     }
+
+    @Test
+    public void shouldNotUnregisterAReplacedEndpoint() throws Exception {
+        Router router = mock(Router.class);
+        EndpointRegistry registry = new EndpointRegistry(router, "/openig/api");
+        EndpointRegistry.Registration first = registry.register("route", Handlers.NO_CONTENT);
+        EndpointRegistry.Registration second = registry.register("route", Handlers.FORBIDDEN);
+        verify(router, times(2)).addRoute(any(RouteMatcher.class), any(Handler.class));
+        // Replacing an endpoint removes the previous one
+        verify(router).removeRoute(any(RouteMatcher.class));
+
+        first.unregister();
+        verify(router).removeRoute(any(RouteMatcher.class));
+
+        second.unregister();
+        verify(router, times(2)).removeRoute(any(RouteMatcher.class));
+    }
 }
@@ -36,6 +36,8 @@ import java.security.spec.RSAPrivateKeySpec;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.concurrent.TimeUnit;
 
+import javax.crypto.spec.SecretKeySpec;
+
 import org.forgerock.http.header.CookieHeader;
 import org.forgerock.http.header.SetCookieHeader;
 import org.forgerock.http.protocol.Cookie;
@@ -241,6 +243,8 @@ public class JwtCookieSessionTest {
         Request request = new Request();
         setRequestCookie(request, ORIGINAL);
         JwtCookieSession session = newJwtSession(request);
+        // The session is lazily loaded, read it
+        assertThat(session).isNotEmpty();
         Response response = new Response();
         session.save(response);
 
@@ -285,6 +289,80 @@ public class JwtCookieSessionTest {
         assertThat(session).contains(entry("a-value", "ForgeRock OpenIG"));
     }
 
+    @Test
+    public void shouldNotDecryptNorRewriteUnusedSession() throws Exception {
+        Request request = new Request();
+        setRequestCookie(request, ORIGINAL);
+        JwtSessionCache cache = new JwtSessionCache(10);
+        JwtCookieSession session = newJwtSession(request, cache);
+
+        Response response = new Response();
+        session.save(response);
+
+        assertThat(response.getHeaders().get("Set-Cookie")).isNull();
+        assertThat(cache.getHits()).isEqualTo(0L);
+        assertThat(cache.getMisses()).isEqualTo(0L);
+    }
+
+    @Test
+    public void shouldReuseCachedSessionContent() throws Exception {
+        JwtSessionCache cache = new JwtSessionCache(10);
+
+        Request request = new Request();
+        setRequestCookie(request, ORIGINAL);
+        JwtCookieSession first = newJwtSession(request, cache);
+        assertThat(first).contains(entry("a-value", "ForgeRock OpenIG"));
+        // Modifying a session does not affect the cached content
+        first.put("a-value", "modified");
+
+        JwtCookieSession second = newJwtSession(request, cache);
+        assertThat(second).contains(entry("a-value", "ForgeRock OpenIG"));
+
+        assertThat(cache.getMisses()).isEqualTo(1L);
+        assertThat(cache.getHits()).isEqualTo(1L);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldStoreSessionContentDirectlyEncryptedWithASharedKey() throws Exception {
+        JwtSessionCipher cipher = JwtSessionCipher.direct(new SecretKeySpec(new byte[16], "AES"));
+        JwtCookieSession session = newJwtSession(new Request(), cipher);
+        session.put("a-value", "ForgeRock OpenIG");
+        Response response = new Response();
+        session.save(response);
+
+        Cookie cookie = SetCookieHeader.valueOf(response).getCookies().get(0);
+        Request request = new Request();
+        setRequestCookie(request, cookie.getValue());
+        assertThat(newJwtSession(request, cipher)).contains(entry("a-value", "ForgeRock OpenIG"));
+    }
+
+    @Test
+    public void shouldExpireSessionEncryptedWithAnotherKey() throws Exception {
+        Request request = new Request();
+        setRequestCookie(request, ORIGINAL);
+        JwtSessionCipher cipher = JwtSessionCipher.direct(new SecretKeySpec(new byte[16], "AES"));
+        JwtCookieSession session = newJwtSession(request, cipher);
+        assertThat(session).isEmpty();
+
+        Response response = new Response();
+        session.save(response);
+        assertThat(SetCookieHeader.valueOf(response).getCookies().get(0).getExpires().getTime()).isEqualTo(0L);
+    }
+
+    @Test
+    public void shouldNotCacheInvalidJwt() throws Exception {
+        JwtSessionCache cache = new JwtSessionCache(10);
+        Request request = new Request();
+        setRequestCookie(request, "Completely-invalid-JWT");
+
+        assertThat(newJwtSession(request, cache)).isEmpty();
+        assertThat(newJwtSession(request, cache)).isEmpty();
+
+        assertThat(cache.getMisses()).isEqualTo(2L);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
     @Test(expectedExceptions = IOException.class,
           expectedExceptionsMessageRegExp = "JWT session is too large.*")
     public void shouldFailIfSessionIsLargerThanFourThousandsKB() throws Exception {
@@ -323,6 +401,26 @@ public class JwtCookieSessionTest {
         return newJwtSession(request, logger, TimeService.SYSTEM, duration(DEFAULT_SESSION_TIMEOUT));
     }
 
+    private JwtCookieSession newJwtSession(final Request request, final JwtSessionCache cache) {
+        return new JwtCookieSession(request,
+                                    keyPair,
+                                    OPENIG_JWT_SESSION,
+                                    logger,
+                                    TimeService.SYSTEM,
+                                    duration(DEFAULT_SESSION_TIMEOUT),
+                                    cache);
+    }
+
+    private JwtCookieSession newJwtSession(final Request request, final JwtSessionCipher cipher) {
+        return new JwtCookieSession(request,
+                                    cipher,
+                                    OPENIG_JWT_SESSION,
+                                    logger,
+                                    TimeService.SYSTEM,
+                                    duration(DEFAULT_SESSION_TIMEOUT),
+                                    null);
+    }
+
     private JwtCookieSession newJwtSession(final Request request,
                                            final Logger logger,
                                            final TimeService timeService,
@@ -0,0 +1,72 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.jwt;
+
+import static java.util.Collections.singletonMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class JwtSessionCacheTest {
+
+    @Test
+    public void shouldCountHitsAndMisses() throws Exception {
+        JwtSessionCache cache = new JwtSessionCache(10);
+        assertThat(cache.get("cookie")).isNull();
+        cache.put("cookie", singletonMap("key", (Object) "value"));
+        assertThat(cache.get("cookie")).containsEntry("key", "value");
+
+        assertThat(cache.getHits()).isEqualTo(1L);
+        assertThat(cache.getMisses()).isEqualTo(1L);
+        assertThat(cache.getStatistics()).containsEntry("hits", 1L)
+                                         .containsEntry("misses", 1L)
+                                         .containsEntry("size", 1)
+                                         .containsEntry("maximumSize", 10);
+    }
+
+    @Test
+    public void shouldNotExceedMaximumSize() throws Exception {
+        JwtSessionCache cache = new JwtSessionCache(3);
+        for (int i = 0; i < 10; i++) {
+            cache.put("cookie-" + i, singletonMap("index", (Object) i));
+        }
+        assertThat(cache.size()).isEqualTo(3);
+        assertThat(cache.get("cookie-9")).containsEntry("index", 9);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void shouldIsolateCachedContent() throws Exception {
+        JwtSessionCache cache = new JwtSessionCache(10);
+        Map<String, Object> claims = object(field("list", array("a")), field("map", object(field("b", "c"))));
+        cache.put("cookie", claims);
+        ((List<Object>) claims.get("list")).add("modified");
+
+        Map<String, Object> cached = cache.get("cookie");
+        ((Map<String, Object>) cached.get("map")).put("b", "modified");
+
+        assertThat(cache.get("cookie")).isEqualTo(object(field("list", array("a")),
+                                                         field("map", object(field("b", "c")))));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.jwt;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.object;
+
+import java.security.GeneralSecurityException;
+import java.util.Map;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.forgerock.util.encode.Base64url;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class JwtSessionCipherTest {
+
+    private static final SecretKeySpec KEY = new SecretKeySpec(new byte[16], "AES");
+    private static final SecretKeySpec OTHER_KEY = new SecretKeySpec(new byte[32], "AES");
+
+    @Test
+    public void shouldEncryptAndDecryptDirectly() throws Exception {
+        JwtSessionCipher cipher = JwtSessionCipher.direct(KEY);
+        Map<String, Object> claims = object(field("user", "bjensen"),
+                                            field("roles", asList("admin", "user")),
+                                            field("_ig_exp", 42L));
+
+        String jwe = cipher.encrypt(claims);
+
+        String[] parts = jwe.split("\\.", -1);
+        assertThat(parts).hasSize(5);
+        assertThat(new String(Base64url.decode(parts[0]), UTF_8)).isEqualTo("{\"alg\":\"dir\",\"enc\":\"A128GCM\"}");
+        assertThat(parts[1]).isEmpty();
+        assertThat(cipher.decrypt(jwe)).isEqualTo(object(field("user", "bjensen"),
+                                                         field("roles", asList("admin", "user")),
+                                                         field("_ig_exp", 42)));
+    }
+
+    @Test
+    public void shouldUseRandomInitializationVectors() throws Exception {
+        JwtSessionCipher cipher = JwtSessionCipher.direct(KEY);
+        Map<String, Object> claims = object(field("user", "bjensen"));
+        assertThat(cipher.encrypt(claims)).isNotEqualTo(cipher.encrypt(claims));
+    }
+
+    @Test(expectedExceptions = Exception.class)
+    public void shouldNotDecryptWithAnotherKey() throws Exception {
+        String jwe = JwtSessionCipher.direct(KEY).encrypt(object(field("user", "bjensen")));
+        JwtSessionCipher.direct(OTHER_KEY).decrypt(jwe);
+    }
+
+    @Test(expectedExceptions = GeneralSecurityException.class)
+    public void shouldNotDecryptTamperedContent() throws Exception {
+        JwtSessionCipher cipher = JwtSessionCipher.direct(KEY);
+        String[] parts = cipher.encrypt(object(field("user", "bjensen"))).split("\\.", -1);
+        byte[] ciphertext = Base64url.decode(parts[3]);
+        ciphertext[0] ^= 1;
+        cipher.decrypt(parts[0] + ".." + parts[2] + "." + Base64url.encode(ciphertext) + "." + parts[4]);
+    }
+
+    @Test(expectedExceptions = GeneralSecurityException.class)
+    public void shouldRejectInvalidKeys() throws Exception {
+        JwtSessionCipher.direct(new SecretKeySpec(new byte[10], "AES"));
+    }
+}
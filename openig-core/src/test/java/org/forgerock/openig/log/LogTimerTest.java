@@ -39,6 +39,7 @@ public class LogTimerTest {
     @BeforeMethod
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
+        doReturn(true).when(logger).isLoggable(LogLevel.STAT);
     }
 
     @Test
@@ -97,4 +98,16 @@ public class LogTimerTest {
         assertThat((Long) elapsedData.getValue())
                 .isGreaterThan((Long) withinData.getValue());
     }
+
+    @Test
+    public void shouldNotLogAnythingWhenTheLevelIsNotLoggable() throws Exception {
+        doReturn(false).when(logger).isLoggable(LogLevel.STAT);
+        LogTimer timer = new LogTimer(logger);
+        timer.start();
+        timer.pause();
+        timer.resume();
+        timer.stop();
+
+        verify(logger, never()).log(any(LogEntry.class));
+    }
 }
@@ -0,0 +1,104 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.log;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.forgerock.openig.heap.Name;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class LoggerTest {
+
+    @Test
+    public void shouldNotFormatTheMessageWhenTheLevelIsNotLoggable() throws Exception {
+        LogSink sink = mock(LogSink.class);
+        Logger logger = new Logger(sink, Name.of("Test"));
+        final int[] formatted = new int[1];
+
+        logger.debug("Value: %s", new Object() {
+            @Override
+            public String toString() {
+                formatted[0]++;
+                return "value";
+            }
+        });
+
+        assertThat(formatted[0]).isEqualTo(0);
+        verify(sink, never()).log(any(LogEntry.class));
+    }
+
+    @Test
+    public void shouldFormatTheMessageWhenTheLevelIsLoggable() throws Exception {
+        LogSink sink = mock(LogSink.class);
+        when(sink.isLoggable(any(Name.class), any(LogLevel.class))).thenReturn(true);
+        Logger logger = new Logger(sink, Name.of("Test"));
+
+        logger.info("Added route '%s' defined in file '%s'", "one", "one.json");
+
+        ArgumentCaptor<LogEntry> captor = ArgumentCaptor.forClass(LogEntry.class);
+        verify(sink).log(captor.capture());
+        assertThat(captor.getValue().getLevel()).isEqualTo(LogLevel.INFO);
+        assertThat(captor.getValue().getMessage()).isEqualTo("Added route 'one' defined in file 'one.json'");
+    }
+
+    @Test
+    public void shouldCacheTheDecisionOfTheSinkPerLevel() throws Exception {
+        LogSink sink = mock(LogSink.class);
+        Name source = Name.of("Test");
+        when(sink.isLoggable(source, LogLevel.STAT)).thenReturn(false);
+        when(sink.isLoggable(source, LogLevel.ERROR)).thenReturn(true);
+        Logger logger = new Logger(sink, source);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(logger.isLoggable(LogLevel.STAT)).isFalse();
+            assertThat(logger.isLoggable(LogLevel.ERROR)).isTrue();
+        }
+
+        verify(sink).isLoggable(source, LogLevel.STAT);
+        verify(sink).isLoggable(source, LogLevel.ERROR);
+    }
+
+    @Test
+    public void shouldDiscardTheCachedDecisionsWhenTheLevelsChange() throws Exception {
+        ConsoleLogSink sink = new ConsoleLogSink();
+        Logger logger = new Logger(sink, Name.of("Test"));
+        assertThat(logger.isLoggable(LogLevel.STAT)).isFalse();
+
+        sink.setLevel(LogLevel.ALL);
+
+        assertThat(logger.isLoggable(LogLevel.STAT)).isTrue();
+    }
+
+    @Test
+    public void shouldNotBuildTheTimerEntriesWhenStatIsNotLoggable() throws Exception {
+        LogSink sink = mock(LogSink.class);
+        Logger logger = new Logger(sink, Name.of("Test"));
+
+        logger.getTimer().start().stop();
+
+        verify(sink, times(1)).isLoggable(any(Name.class), any(LogLevel.class));
+        verify(sink, never()).log(any(LogEntry.class));
+    }
+}
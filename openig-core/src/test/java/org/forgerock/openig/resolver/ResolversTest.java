@@ -0,0 +1,77 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.resolver;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class ResolversTest {
+
+    @Test
+    public void shouldResolveMapEntries() throws Exception {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("key", "value");
+
+        assertThat(Resolvers.get(map, "key")).isEqualTo("value");
+        assertThat(Resolvers.put(map, "key", "other")).isEqualTo("value");
+        assertThat(map).containsEntry("key", "other");
+    }
+
+    @Test
+    public void shouldResolveListElements() throws Exception {
+        List<String> list = new ArrayList<>();
+        list.add("first");
+
+        assertThat(Resolvers.get(list, 0)).isEqualTo("first");
+    }
+
+    @Test
+    public void shouldResolveArrayElements() throws Exception {
+        assertThat(Resolvers.get(new String[] {"first", "second"}, 1)).isEqualTo("second");
+    }
+
+    @Test
+    public void shouldReturnUnresolvedWhenNoResolverMatches() throws Exception {
+        assertThat(Resolvers.get(new Object(), "missing")).isSameAs(Resolver.UNRESOLVED);
+    }
+
+    @Test
+    public void shouldShareResolverChainBetweenInstancesOfTheSameClass() throws Exception {
+        List<Resolver> first = toList(Resolvers.resolvers(new HashMap<String, Object>()));
+        List<Resolver> second = toList(Resolvers.resolvers(new HashMap<String, Object>()));
+
+        assertThat(first).containsExactlyElementsOf(second);
+        assertThat(first).doesNotHaveDuplicates();
+        assertThat(first.get(first.size() - 1)).isInstanceOf(Unresolver.class);
+    }
+
+    private static List<Resolver> toList(final Iterable<Resolver> resolvers) {
+        List<Resolver> list = new ArrayList<>();
+        for (Resolver resolver : resolvers) {
+            list.add(resolver);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class AtomicHistogramTest {
+
+    @DataProvider
+    private static Object[][] values() {
+        // @Checkstyle:off
+        return new Object[][] {
+            { 0L },
+            { 1L },
+            { 127L },
+            { 128L },
+            { 1000L },
+            { 123456789L },
+            { 3600000000L } };
+        // @Checkstyle:on
+    }
+
+    @Test(dataProvider = "values")
+    public void shouldRecordAValueWithinTheRelativeError(final long value) throws Exception {
+        AtomicHistogram histogram = new AtomicHistogram(3600000000L);
+        histogram.record(value);
+
+        AtomicHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertThat(snapshot.getCount()).isEqualTo(1L);
+        assertThat(snapshot.getMax()).isGreaterThanOrEqualTo(value)
+                                     .isLessThanOrEqualTo(value + value / 64);
+        assertThat(snapshot.getValue(0.5)).isEqualTo(snapshot.getMax());
+    }
+
+    @Test
+    public void shouldComputeTheQuantiles() throws Exception {
+        AtomicHistogram histogram = new AtomicHistogram(100000L);
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        AtomicHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertThat(snapshot.getCount()).isEqualTo(1000L);
+        assertThat(snapshot.getValue(0.0)).isEqualTo(1L);
+        assertThat(snapshot.getValue(0.5)).isBetween(500L, 508L);
+        assertThat(snapshot.getValue(0.99)).isBetween(990L, 1006L);
+        assertThat(snapshot.getValue(1.0)).isBetween(1000L, 1015L);
+        assertThat(snapshot.getMean()).isCloseTo(500.5, within(5.0));
+    }
+
+    @Test
+    public void shouldClampTheValuesOutOfRange() throws Exception {
+        AtomicHistogram histogram = new AtomicHistogram(1000L);
+        histogram.record(-5L);
+        histogram.record(Long.MAX_VALUE);
+
+        AtomicHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertThat(snapshot.getValue(0.0)).isEqualTo(0L);
+        assertThat(snapshot.getMax()).isBetween(1000L, 1015L);
+    }
+
+    @Test
+    public void shouldReturnZeroForAnEmptyHistogram() throws Exception {
+        AtomicHistogram.Snapshot snapshot = new AtomicHistogram(1000L).getSnapshot();
+        assertThat(snapshot.getCount()).isEqualTo(0L);
+        assertThat(snapshot.getValue(0.99)).isEqualTo(0L);
+        assertThat(snapshot.getMean()).isEqualTo(0.0);
+        assertThat(snapshot.getMax()).isEqualTo(0L);
+    }
+
+    @Test
+    public void shouldComputeTheValuesRecordedSinceAPreviousSnapshot() throws Exception {
+        AtomicHistogram histogram = new AtomicHistogram(1000L);
+        histogram.record(10L);
+        AtomicHistogram.Snapshot previous = histogram.getSnapshot();
+        histogram.record(500L);
+        histogram.record(500L);
+
+        AtomicHistogram.Snapshot interval = histogram.getSnapshot().minus(previous);
+        assertThat(interval.getCount()).isEqualTo(2L);
+        assertThat(interval.getValue(0.0)).isBetween(500L, 507L);
+    }
+
+    @Test
+    public void shouldSampleTheRecordedValues() throws Exception {
+        AtomicHistogram histogram = new AtomicHistogram(1000L);
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+
+        AtomicHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertThat(snapshot.getValues(1000)).hasSize(100).startsWith(1L, 2L, 3L).endsWith(99L, 100L);
+        assertThat(snapshot.getValues(10)).containsExactly(5L, 15L, 25L, 35L, 45L, 55L, 65L, 75L, 85L, 95L);
+        assertThat(snapshot.getMin()).isEqualTo(1L);
+        assertThat(snapshot.getStdDev()).isCloseTo(29.0, within(1.0));
+    }
+
+    @Test
+    public void shouldMergeTheStripesOfTheRecordingThreads() throws Exception {
+        final AtomicHistogram histogram = new AtomicHistogram(1000L, 8);
+        final Thread[] threads = new Thread[16];
+        for (int i = 0; i < threads.length; i++) {
+            final long value = i * 10L;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < 1000; n++) {
+                        histogram.record(value);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        AtomicHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertThat(snapshot.getCount()).isEqualTo(16000L);
+        assertThat(snapshot.getMin()).isEqualTo(0L);
+        assertThat(snapshot.getMax()).isBetween(150L, 151L);
+        assertThat(snapshot.getValue(0.5)).isEqualTo(70L);
+    }
+}
@@ -16,12 +16,22 @@
 
 package org.forgerock.authz.modules.oauth2.cache;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.forgerock.util.Reject.checkNotNull;
 import static org.forgerock.util.promise.Promises.newExceptionPromise;
+import static org.forgerock.util.promise.Promises.newResultPromise;
 import static org.forgerock.util.time.Duration.duration;
 
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.forgerock.authz.modules.oauth2.AccessTokenException;
 import org.forgerock.authz.modules.oauth2.AccessTokenInfo;
@@ -30,17 +40,70 @@ import org.forgerock.services.context.Context;
 import org.forgerock.util.AsyncFunction;
 import org.forgerock.util.Function;
 import org.forgerock.util.PerItemEvictionStrategyCache;
+import org.forgerock.util.promise.ExceptionHandler;
 import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.promise.ResultHandler;
 import org.forgerock.util.time.Duration;
 import org.forgerock.util.time.TimeService;
 
 /**
  * A {@link CachingAccessTokenResolver} is a delegating {@link AccessTokenResolver} that uses a write-through cache
  * to enable fast {@link AccessTokenInfo} resolution.
+ *
+ * <p>An {@link AccessTokenInfo} is kept until the token expires, for at most {@literal expiration}. Failed
+ * resolutions are not cached. The cache holds at most {@literal maxEntries} tokens: once full, an approximation of
+ * the least recently used token is evicted (the least recently used among a few sampled tokens), so that the
+ * requests never contend on a global lock. The expired tokens are removed by a single periodic task.
+ *
+ * <p>When a {@literal refreshWindow} is given, a token that is still used during the last {@literal refreshWindow}
+ * of its cache expiration (and that is itself valid longer than that) is resolved again in the background: the
+ * requests keep on using the cached information meanwhile, so that frequently used tokens never wait for the
+ * delegate resolver. If the background resolution fails (the token may have been revoked), the token is evicted.
  */
 public class CachingAccessTokenResolver implements AccessTokenResolver {
 
+    /** Default maximum number of cached tokens. */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /** Maximum interval between 2 removals of the expired tokens. */
+    private static final long MAX_SWEEP_INTERVAL = TimeUnit.MINUTES.toMillis(1L);
+
+    /** Number of tokens among which the least recently used one is evicted. */
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+
+    /**
+     * A cached token resolution.
+     */
+    private static final class Entry {
+        private volatile Promise<AccessTokenInfo, AccessTokenException> promise;
+        // A pending resolution never expires
+        private volatile long expiresAt = Long.MAX_VALUE;
+        private volatile long refreshAt = Long.MAX_VALUE;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        // Only used to order the entries (System.nanoTime() based)
+        private volatile long lastAccess;
+
+        Entry(final Promise<AccessTokenInfo, AccessTokenException> promise) {
+            this.promise = promise;
+            this.lastAccess = System.nanoTime();
+        }
+
+        boolean isExpired(final long now) {
+            return now >= expiresAt;
+        }
+    }
+
+    private final TimeService time;
     private final AccessTokenResolver resolver;
+    private final long expiration;
+    private final long refreshWindow;
+    private final ConcurrentMap<String, Entry> entries;
+    // The number of entries, maintained along with the map whose size() is not constant-time
+    private final AtomicInteger count = new AtomicInteger();
+    private final int maxEntries;
+    private final ScheduledFuture<?> sweeper;
+    // Only set by the deprecated constructor
     private final PerItemEvictionStrategyCache<String, Promise<AccessTokenInfo, AccessTokenException>> cache;
     private final AsyncFunction<Promise<AccessTokenInfo, AccessTokenException>, Duration, Exception> expires;
 
@@ -54,20 +117,165 @@ public class CachingAccessTokenResolver implements AccessTokenResolver {
      *         resolver to delegates to
      * @param cache
      *         access token cache
+     * @deprecated The given cache is not bounded and schedules one eviction task per token: use
+     * {@link #CachingAccessTokenResolver(TimeService, AccessTokenResolver, ScheduledExecutorService, Duration, int,
+     * Duration)} instead.
      */
+    @Deprecated
     public CachingAccessTokenResolver(final TimeService time,
                                       final AccessTokenResolver resolver,
                                       final PerItemEvictionStrategyCache
                                               <String, Promise<AccessTokenInfo, AccessTokenException>> cache) {
-        this.resolver = resolver;
-        this.cache = cache;
+        this.time = checkNotNull(time);
+        this.resolver = checkNotNull(resolver);
+        this.cache = checkNotNull(cache);
         this.expires = new AccessTokenExpirationFunction(time);
+        this.expiration = Long.MAX_VALUE;
+        this.refreshWindow = 0L;
+        this.maxEntries = 0;
+        this.entries = null;
+        this.sweeper = null;
+    }
+
+    /**
+     * Builds a {@link CachingAccessTokenResolver} delegating to the given {@link AccessTokenResolver}, without
+     * background refresh.
+     *
+     * @param time
+     *         Time service used to compute the token cache time-to-live
+     * @param resolver
+     *         resolver to delegates to
+     * @param executorService
+     *         executor used to periodically remove the expired tokens
+     * @param expiration
+     *         maximum duration a token is cached (can be unlimited, but not zero)
+     * @param maxEntries
+     *         maximum number of cached tokens
+     */
+    public CachingAccessTokenResolver(final TimeService time,
+                                      final AccessTokenResolver resolver,
+                                      final ScheduledExecutorService executorService,
+                                      final Duration expiration,
+                                      final int maxEntries) {
+        this(time, resolver, executorService, expiration, maxEntries, Duration.ZERO);
+    }
+
+    /**
+     * Builds a {@link CachingAccessTokenResolver} delegating to the given {@link AccessTokenResolver}.
+     *
+     * @param time
+     *         Time service used to compute the token cache time-to-live
+     * @param resolver
+     *         resolver to delegates to
+     * @param executorService
+     *         executor used to periodically remove the expired tokens
+     * @param expiration
+     *         maximum duration a token is cached (can be unlimited, but not zero)
+     * @param maxEntries
+     *         maximum number of cached tokens
+     * @param refreshWindow
+     *         how long before its cache expiration a used token is resolved again in the background ({@link
+     *         Duration#ZERO} to disable the background refresh)
+     */
+    public CachingAccessTokenResolver(final TimeService time,
+                                      final AccessTokenResolver resolver,
+                                      final ScheduledExecutorService executorService,
+                                      final Duration expiration,
+                                      final int maxEntries,
+                                      final Duration refreshWindow) {
+        if (expiration.isZero()) {
+            throw new IllegalArgumentException("The cache expiration can't be zero");
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The maximum number of cached tokens has to be greater than 0");
+        }
+        if (refreshWindow.isUnlimited()) {
+            throw new IllegalArgumentException("The refresh window can't be unlimited");
+        }
+        this.time = checkNotNull(time);
+        this.resolver = checkNotNull(resolver);
+        this.expiration = expiration.isUnlimited() ? Long.MAX_VALUE : expiration.to(MILLISECONDS);
+        this.refreshWindow = refreshWindow.to(MILLISECONDS);
+        this.maxEntries = maxEntries;
+        this.entries = new ConcurrentHashMap<>();
+        this.cache = null;
+        this.expires = null;
+        long sweepInterval = Math.max(1L, Math.min(this.expiration, MAX_SWEEP_INTERVAL));
+        this.sweeper = executorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                removeExpired();
+            }
+        }, sweepInterval, sweepInterval, MILLISECONDS);
     }
 
     @Override
     public Promise<AccessTokenInfo, AccessTokenException> resolve(final Context context, final String token) {
+        if (cache != null) {
+            return resolveWithCache(context, token);
+        }
+        final long now = time.now();
+        for (;;) {
+            final Entry cached = entries.get(token);
+            if (cached != null && !cached.isExpired(now)) {
+                cached.lastAccess = System.nanoTime();
+                if (now >= cached.refreshAt && cached.refreshing.compareAndSet(false, true)) {
+                    refresh(context, token, cached);
+                }
+                return cached.promise;
+            }
+
+            final PromiseImpl<AccessTokenInfo, AccessTokenException> loading = PromiseImpl.create();
+            final Entry entry = new Entry(loading);
+            if (cached == null) {
+                if (entries.putIfAbsent(token, entry) != null) {
+                    // Loaded concurrently
+                    continue;
+                }
+                if (count.incrementAndGet() > maxEntries) {
+                    evict(now);
+                }
+            } else if (!entries.replace(token, cached, entry)) {
+                // Replaced or removed concurrently
+                continue;
+            }
+            load(context, token, entry, loading);
+            return entry.promise;
+        }
+    }
+
+    /**
+     * Stops the periodic removal of the expired tokens, and empties the cache.
+     */
+    public void stop() {
+        if (cache != null) {
+            // The given cache is owned by the caller
+            return;
+        }
+        sweeper.cancel(false);
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the number of cached tokens (including the expired tokens not removed yet).
+     *
+     * @return the number of cached tokens
+     */
+    int size() {
+        return count.get();
+    }
+
+    private Promise<AccessTokenInfo, AccessTokenException> resolveWithCache(final Context context,
+                                                                           final String token) {
         try {
-            return cache.getValue(token, resolveToken(context, token), expires);
+            return cache.getValue(token, new Callable<Promise<AccessTokenInfo, AccessTokenException>>() {
+                @Override
+                public Promise<AccessTokenInfo, AccessTokenException> call() throws Exception {
+                    return resolver.resolve(context, token);
+                }
+            }, expires);
         } catch (InterruptedException e) {
             return newExceptionPromise(
                     new AccessTokenException("Timed out retrieving OAuth2 access token information", e));
@@ -77,18 +285,123 @@ public class CachingAccessTokenResolver implements AccessTokenResolver {
         }
     }
 
-    private Callable<Promise<AccessTokenInfo, AccessTokenException>> resolveToken(final Context context,
-                                                                                  final String token) {
-        return new Callable<Promise<AccessTokenInfo, AccessTokenException>>() {
-            @Override
-            public Promise<AccessTokenInfo, AccessTokenException> call() throws Exception {
-                return resolver.resolve(context, token);
+    private void load(final Context context,
+                      final String token,
+                      final Entry entry,
+                      final PromiseImpl<AccessTokenInfo, AccessTokenException> loading) {
+        try {
+            resolver.resolve(context, token)
+                    .thenOnResult(new ResultHandler<AccessTokenInfo>() {
+                        @Override
+                        public void handleResult(final AccessTokenInfo info) {
+                            update(token, entry, info);
+                            loading.handleResult(info);
+                        }
+                    })
+                    .thenOnException(new ExceptionHandler<AccessTokenException>() {
+                        @Override
+                        public void handleException(final AccessTokenException exception) {
+                            // Do not cache the AccessToken if there was a problem while resolving it
+                            remove(token, entry);
+                            loading.handleException(exception);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            remove(token, entry);
+            loading.handleException(new AccessTokenException("Initial token resolution has failed", e));
+        }
+    }
+
+    private void refresh(final Context context, final String token, final Entry entry) {
+        try {
+            resolver.resolve(context, token)
+                    .thenOnResult(new ResultHandler<AccessTokenInfo>() {
+                        @Override
+                        public void handleResult(final AccessTokenInfo info) {
+                            entry.promise = newResultPromise(info);
+                            update(token, entry, info);
+                            entry.refreshing.set(false);
+                        }
+                    })
+                    .thenOnException(new ExceptionHandler<AccessTokenException>() {
+                        @Override
+                        public void handleException(final AccessTokenException exception) {
+                            remove(token, entry);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            remove(token, entry);
+        }
+    }
+
+    /**
+     * Computes the expiration of a resolved token: it expires with the token, or after the cache expiration.
+     */
+    private void update(final String token, final Entry entry, final AccessTokenInfo info) {
+        final long now = time.now();
+        final long tokenExpiresAt = info == null ? AccessTokenInfo.NEVER_EXPIRES : info.getExpiresAt();
+        final long cacheExpiresAt = expiration > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + expiration;
+        if (tokenExpiresAt <= now) {
+            // The token is already expired
+            remove(token, entry);
+            return;
+        }
+        if (cacheExpiresAt < tokenExpiresAt) {
+            entry.expiresAt = cacheExpiresAt;
+            // Worth refreshing, as the token is still valid after the cache expiration
+            entry.refreshAt = refreshWindow > 0 ? cacheExpiresAt - refreshWindow : Long.MAX_VALUE;
+        } else {
+            entry.expiresAt = tokenExpiresAt;
+            entry.refreshAt = Long.MAX_VALUE;
+        }
+    }
+
+    private void remove(final String token, final Entry entry) {
+        // Only remove the given entry: another one may have replaced it meanwhile
+        if (entries.remove(token, entry)) {
+            count.decrementAndGet();
+        }
+    }
+
+    /**
+     * Evicts tokens until the cache is not over its capacity anymore: either an expired token, or the least recently
+     * used token among the first sampled ones.
+     */
+    private void evict(final long now) {
+        while (count.get() > maxEntries) {
+            Map.Entry<String, Entry> eldest = null;
+            int sampled = 0;
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                if (candidate.getValue().isExpired(now)) {
+                    eldest = candidate;
+                    break;
+                }
+                if (eldest == null || candidate.getValue().lastAccess - eldest.getValue().lastAccess < 0) {
+                    eldest = candidate;
+                }
+                if (++sampled == EVICTION_SAMPLE_SIZE) {
+                    break;
+                }
             }
-        };
+            if (eldest == null) {
+                // Emptied concurrently
+                return;
+            }
+            remove(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void removeExpired() {
+        final long now = time.now();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().isExpired(now)) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
     }
 
     /**
-     * A function that will compute the access token's timeout.
+     * A function that will compute the access token's timeout, for the deprecated cache.
      */
     private static class AccessTokenExpirationFunction
             implements AsyncFunction<Promise<AccessTokenInfo, AccessTokenException>, Duration, Exception> {
@@ -128,7 +441,5 @@ public class CachingAccessTokenResolver implements AccessTokenResolver {
                 Promise<AccessTokenInfo, AccessTokenException> accessTokenPromise) throws Exception {
             return accessTokenPromise.then(computeTtl, TIMEOUT_ZERO);
         }
-
     }
-
 }
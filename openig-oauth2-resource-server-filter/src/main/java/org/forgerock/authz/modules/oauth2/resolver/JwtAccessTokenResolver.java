@@ -0,0 +1,390 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.authz.modules.oauth2.resolver;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.forgerock.util.Reject.checkNotNull;
+import static org.forgerock.util.Utils.closeSilently;
+import static org.forgerock.util.promise.Promises.newExceptionPromise;
+import static org.forgerock.util.promise.Promises.newResultPromise;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import org.forgerock.authz.modules.oauth2.AccessTokenException;
+import org.forgerock.authz.modules.oauth2.AccessTokenInfo;
+import org.forgerock.authz.modules.oauth2.AccessTokenResolver;
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Responses;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.JsonValueException;
+import org.forgerock.json.jose.common.JwtReconstruction;
+import org.forgerock.json.jose.jwk.RsaJWK;
+import org.forgerock.json.jose.jws.JwsAlgorithm;
+import org.forgerock.json.jose.jws.JwsHeader;
+import org.forgerock.json.jose.jws.SignedJwt;
+import org.forgerock.json.jose.jws.SigningManager;
+import org.forgerock.json.jose.jws.handlers.SigningHandler;
+import org.forgerock.json.jose.jwt.JwtClaimsSet;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.forgerock.util.Function;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.ResultHandler;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link JwtAccessTokenResolver} validates stateless JWT access tokens locally, without calling the Authorization
+ * Server for each token.
+ *
+ * <p>A token is accepted when it is signed ({@literal RS256}, {@literal RS384} or {@literal RS512}) with one of the
+ * keys of the JWK set published by the Authorization Server, when it is not expired ({@literal exp} claim is
+ * required), already valid ({@literal nbf} claim) and, if configured, issued by the expected issuer to the expected
+ * audience ({@literal aud} claim). The scopes of the token are read from the {@literal scope} claim (either a space
+ * separated string, or an array of strings).
+ *
+ * <p>The JWK set is fetched from the {@literal jwksUri} before the first validation, and refreshed in the background
+ * every {@literal refreshInterval}. A token signed with an unknown key (the keys may have been rotated) triggers an
+ * immediate refresh, at most once per {@link #MIN_REFRESH_INTERVAL} milliseconds. The same limit applies while
+ * the JWK set could not be fetched at all: the tokens are rejected meanwhile with the last failure.
+ */
+public class JwtAccessTokenResolver implements AccessTokenResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwtAccessTokenResolver.class);
+
+    /** Minimum delay (in milliseconds) between 2 refreshes of the JWK set triggered by unknown keys. */
+    static final long MIN_REFRESH_INTERVAL = SECONDS.toMillis(30L);
+
+    /** The supported JWS algorithms: never trust another one (such as 'none' or a symmetric one). */
+    private static final Set<JwsAlgorithm> SIGNATURE_ALGORITHMS =
+            EnumSet.of(JwsAlgorithm.RS256, JwsAlgorithm.RS384, JwsAlgorithm.RS512);
+
+    /** Name under which a key without {@literal kid} is registered. */
+    private static final String NO_KEY_ID = "";
+
+    private static final JwtReconstruction JWT_DECODER = new JwtReconstruction();
+
+    private static final SigningManager SIGNING_MANAGER = new SigningManager();
+
+    private final Handler client;
+    private final TimeService time;
+    private final String jwksUri;
+    private final String issuer;
+    private final String audience;
+    private final ScheduledFuture<?> refresher;
+
+    // The verifiers of the keys of the last JWK set successfully fetched, indexed by kid (null until the first fetch
+    // succeeds)
+    private volatile Map<String, SigningHandler> keys;
+
+    // Guarded by this
+    private Promise<Map<String, SigningHandler>, AccessTokenException> fetching;
+    private long lastFetch;
+
+    /**
+     * Creates a new {@link JwtAccessTokenResolver} validating the tokens with the keys published at the given
+     * {@literal jwksUri}.
+     *
+     * @param client
+     *         Http client handler used to fetch the JWK set
+     * @param time
+     *         Time service used to check the token expiration time
+     * @param jwksUri
+     *         full URL of the JWK set
+     * @param issuer
+     *         expected value of the {@literal iss} claim (can be {@code null} to accept any issuer)
+     * @param executorService
+     *         executor used to periodically refresh the JWK set
+     * @param refreshInterval
+     *         delay between 2 refreshes of the JWK set (neither zero nor unlimited)
+     */
+    public JwtAccessTokenResolver(final Handler client,
+                                  final TimeService time,
+                                  final String jwksUri,
+                                  final String issuer,
+                                  final ScheduledExecutorService executorService,
+                                  final Duration refreshInterval) {
+        this(client, time, jwksUri, issuer, null, executorService, refreshInterval);
+    }
+
+    /**
+     * Creates a new {@link JwtAccessTokenResolver} validating the tokens with the keys published at the given
+     * {@literal jwksUri}, and only accepting the tokens issued to the given audience.
+     *
+     * @param client
+     *         Http client handler used to fetch the JWK set
+     * @param time
+     *         Time service used to check the token expiration time
+     * @param jwksUri
+     *         full URL of the JWK set
+     * @param issuer
+     *         expected value of the {@literal iss} claim (can be {@code null} to accept any issuer)
+     * @param audience
+     *         value expected among the {@literal aud} claim (can be {@code null} to accept any audience)
+     * @param executorService
+     *         executor used to periodically refresh the JWK set
+     * @param refreshInterval
+     *         delay between 2 refreshes of the JWK set (neither zero nor unlimited)
+     */
+    public JwtAccessTokenResolver(final Handler client,
+                                  final TimeService time,
+                                  final String jwksUri,
+                                  final String issuer,
+                                  final String audience,
+                                  final ScheduledExecutorService executorService,
+                                  final Duration refreshInterval) {
+        if (refreshInterval.isZero() || refreshInterval.isUnlimited()) {
+            throw new IllegalArgumentException("The JWK set refresh interval can be neither zero nor unlimited");
+        }
+        this.client = checkNotNull(client);
+        this.time = checkNotNull(time);
+        this.jwksUri = checkNotNull(jwksUri);
+        this.issuer = issuer;
+        this.audience = audience;
+        long interval = refreshInterval.to(MILLISECONDS);
+        this.refresher = executorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refreshKeys(true);
+            }
+        }, 0L, interval, MILLISECONDS);
+    }
+
+    @Override
+    public Promise<AccessTokenInfo, AccessTokenException> resolve(final Context context, final String token) {
+        final SignedJwt jwt;
+        final String keyId;
+        try {
+            jwt = JWT_DECODER.reconstructJwt(token, SignedJwt.class);
+            JwsHeader header = jwt.getHeader();
+            if (!SIGNATURE_ALGORITHMS.contains(header.getAlgorithm())) {
+                return newExceptionPromise(new AccessTokenException(
+                        format("Unsupported signature algorithm '%s'", header.getAlgorithm())));
+            }
+            keyId = header.getKeyId();
+        } catch (RuntimeException e) {
+            // The library reports the malformed tokens and headers with various runtime exceptions
+            return newExceptionPromise(new AccessTokenException("The access token is not a valid signed JWT", e));
+        }
+
+        Map<String, SigningHandler> current = keys;
+        if (current != null && findKey(current, keyId) != null) {
+            // Fast path: no remote call
+            try {
+                return newResultPromise(validate(current, token, keyId, jwt));
+            } catch (AccessTokenException e) {
+                return newExceptionPromise(e);
+            }
+        }
+
+        // Either the JWK set has not been fetched yet, or the keys have been rotated
+        return refreshKeys(false).then(
+                new Function<Map<String, SigningHandler>, AccessTokenInfo, AccessTokenException>() {
+                    @Override
+                    public AccessTokenInfo apply(final Map<String, SigningHandler> refreshed)
+                            throws AccessTokenException {
+                        return validate(refreshed, token, keyId, jwt);
+                    }
+                });
+    }
+
+    /**
+     * Stops the periodic refresh of the JWK set.
+     */
+    public void stop() {
+        refresher.cancel(false);
+    }
+
+    private AccessTokenInfo validate(final Map<String, SigningHandler> keys,
+                                     final String token,
+                                     final String keyId,
+                                     final SignedJwt jwt) throws AccessTokenException {
+        SigningHandler key = findKey(keys, keyId);
+        if (key == null) {
+            throw new AccessTokenException(format("No key matches the key ID '%s' in the JWK set", keyId));
+        }
+        try {
+            if (!jwt.verify(key)) {
+                throw new AccessTokenException("The access token signature is invalid");
+            }
+        } catch (RuntimeException e) {
+            throw new AccessTokenException("Cannot verify the access token signature", e);
+        }
+
+        try {
+            JsonValue claims = getClaims(jwt.getClaimsSet());
+            final long now = time.now();
+            if (claims.get("exp").isNull()) {
+                throw new AccessTokenException("The access token does not expire");
+            }
+            long expiresAt = SECONDS.toMillis(claims.get("exp").asLong());
+            if (expiresAt <= now) {
+                throw new AccessTokenException("The access token has expired");
+            }
+            if (claims.isDefined("nbf") && SECONDS.toMillis(claims.get("nbf").asLong()) > now) {
+                throw new AccessTokenException("The access token is not valid yet");
+            }
+            if (issuer != null && !issuer.equals(claims.get("iss").asString())) {
+                throw new AccessTokenException(format("The access token has not been issued by %s", issuer));
+            }
+            if (audience != null && !getAudiences(claims.get("aud")).contains(audience)) {
+                throw new AccessTokenException(format("The access token has not been issued to %s", audience));
+            }
+            return new AccessTokenInfo(claims, token, getScopes(claims.get("scope")), expiresAt);
+        } catch (JsonValueException e) {
+            throw new AccessTokenException("The access token has invalid claims", e);
+        }
+    }
+
+    private static JsonValue getClaims(final JwtClaimsSet claimsSet) {
+        Map<String, Object> claims = new LinkedHashMap<>();
+        for (String key : claimsSet.keys()) {
+            claims.put(key, claimsSet.getClaim(key));
+        }
+        return new JsonValue(claims);
+    }
+
+    private static Set<String> getAudiences(final JsonValue aud) {
+        Set<String> audiences = new LinkedHashSet<>();
+        if (aud.isString()) {
+            audiences.add(aud.asString());
+        } else if (aud.isList()) {
+            audiences.addAll(aud.asList(String.class));
+        }
+        return audiences;
+    }
+
+    private static Set<String> getScopes(final JsonValue scope) {
+        Set<String> scopes = new LinkedHashSet<>();
+        if (scope.isString()) {
+            for (String value : scope.asString().split(" ")) {
+                if (!value.isEmpty()) {
+                    scopes.add(value);
+                }
+            }
+        } else if (scope.isList()) {
+            scopes.addAll(scope.asList(String.class));
+        }
+        return scopes;
+    }
+
+    private static SigningHandler findKey(final Map<String, SigningHandler> keys, final String keyId) {
+        if (keyId == null && keys.size() == 1) {
+            // No ambiguity
+            return keys.values().iterator().next();
+        }
+        return keys.get(keyId == null ? NO_KEY_ID : keyId);
+    }
+
+    /**
+     * Returns the pending JWK set fetch, or starts a new one. Unless forced, a fetch is only started if the last one
+     * has been started for long enough: the current keys, or the last failure if none has been fetched yet, are
+     * returned otherwise.
+     */
+    private synchronized Promise<Map<String, SigningHandler>, AccessTokenException> refreshKeys(final boolean force) {
+        if (fetching != null && !fetching.isDone()) {
+            return fetching;
+        }
+        final long now = time.now();
+        final Map<String, SigningHandler> current = keys;
+        if (!force && fetching != null && now - lastFetch < MIN_REFRESH_INTERVAL) {
+            return current != null ? newResultPromise(current) : fetching;
+        }
+        lastFetch = now;
+        fetching = fetchKeys();
+        return fetching;
+    }
+
+    private Promise<Map<String, SigningHandler>, AccessTokenException> fetchKeys() {
+        try {
+            Request request = new Request();
+            request.setMethod("GET");
+            request.setUri(new URI(jwksUri));
+            return client.handle(new RootContext(), request)
+                         .then(parseKeys(),
+                               Responses.<Map<String, SigningHandler>, AccessTokenException>noopExceptionFunction())
+                         .thenOnResult(new ResultHandler<Map<String, SigningHandler>>() {
+                             @Override
+                             public void handleResult(final Map<String, SigningHandler> result) {
+                                 keys = result;
+                             }
+                         })
+                         .thenOnException(new ExceptionHandler<AccessTokenException>() {
+                             @Override
+                             public void handleException(final AccessTokenException exception) {
+                                 // Keep on using the previous keys
+                                 logger.warn("Cannot refresh the JWK set from {}", jwksUri, exception);
+                             }
+                         });
+        } catch (URISyntaxException e) {
+            return newExceptionPromise(new AccessTokenException(
+                    format("The JWK set %s could not be accessed because it is a malformed URI", jwksUri), e));
+        } catch (RuntimeException e) {
+            return newExceptionPromise(new AccessTokenException("Cannot fetch the JWK set", e));
+        }
+    }
+
+    private static Function<Response, Map<String, SigningHandler>, AccessTokenException> parseKeys() {
+        return new Function<Response, Map<String, SigningHandler>, AccessTokenException>() {
+            @Override
+            public Map<String, SigningHandler> apply(final Response response) throws AccessTokenException {
+                try {
+                    if (!Status.OK.equals(response.getStatus())) {
+                        throw new AccessTokenException(format("The JWK set could not be fetched (status: %s)",
+                                                              response.getStatus()));
+                    }
+                    JsonValue jwks = new JsonValue(response.getEntity().getJson());
+                    Map<String, SigningHandler> keys = new HashMap<>();
+                    for (JsonValue jwk : jwks.get("keys").required()) {
+                        // Only the RSA signing keys are used (the other key types may not even be parsable)
+                        if (!"RSA".equals(jwk.get("kty").asString())
+                                || (jwk.isDefined("use") && !"sig".equals(jwk.get("use").asString()))) {
+                            continue;
+                        }
+                        RsaJWK rsaJwk = RsaJWK.parse(jwk);
+                        String keyId = rsaJwk.getKeyId() != null ? rsaJwk.getKeyId() : NO_KEY_ID;
+                        keys.put(keyId, SIGNING_MANAGER.newRsaSigningHandler(rsaJwk.toRSAPublicKey()));
+                    }
+                    return keys;
+                } catch (IOException | RuntimeException e) {
+                    // Includes the JSON and JWK parsing errors
+                    throw new AccessTokenException("Cannot read the JWK set", e);
+                } finally {
+                    closeSilently(response);
+                }
+            }
+        };
+    }
+}
@@ -13,11 +13,14 @@
  *
  * Copyright 2014-2016 ForgeRock AS.
  */
-
 package org.forgerock.authz.modules.oauth2.cache;
 
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.util.time.Duration.duration;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
@@ -28,6 +31,7 @@ import static org.mockito.Mockito.when;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.forgerock.authz.modules.oauth2.AccessTokenException;
@@ -38,9 +42,11 @@ import org.forgerock.services.context.RootContext;
 import org.forgerock.util.AsyncFunction;
 import org.forgerock.util.PerItemEvictionStrategyCache;
 import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
 import org.forgerock.util.promise.Promises;
 import org.forgerock.util.time.Duration;
 import org.forgerock.util.time.TimeService;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
@@ -50,6 +56,7 @@ import org.testng.annotations.Test;
 public class CachingAccessTokenResolverTest {
 
     private static final String TOKEN = "TOKEN";
+    private static final Duration ONE_MINUTE = duration(1, MINUTES);
 
     @Mock
     private AccessTokenResolver resolver;
@@ -60,21 +67,43 @@ public class CachingAccessTokenResolverTest {
     @Mock
     private ScheduledExecutorService executorService;
 
-    // Don't know why but if I @Spy this field, Mockito does not re-creates the cache instance, leading to errors
-    private PerItemEvictionStrategyCache<String, Promise<AccessTokenInfo, AccessTokenException>> cache;
-
     @BeforeMethod
+    @SuppressWarnings("unchecked")
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
         when(resolver.resolve(any(Context.class), anyString()))
                 .thenReturn(Promises.<AccessTokenInfo, AccessTokenException>newResultPromise(null));
-        cache = spy(new PerItemEvictionStrategyCache<String, Promise<AccessTokenInfo, AccessTokenException>>(
-                executorService, Duration.duration(1, TimeUnit.MINUTES)));
+        when(executorService.scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class)))
+                .thenReturn(mock(ScheduledFuture.class));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRefuseAZeroExpiration() throws Exception {
+        new CachingAccessTokenResolver(time, resolver, executorService, Duration.ZERO, 10);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRefuseAnInvalidMaximumNumberOfEntries() throws Exception {
+        new CachingAccessTokenResolver(time, resolver, executorService, ONE_MINUTE, 0);
     }
 
     @Test
-    @SuppressWarnings("unchecked")
     public void shouldUseCache() throws Exception {
+        CachingAccessTokenResolver caching = newCachingResolver(10);
+
+        Promise<AccessTokenInfo, AccessTokenException> p1 = caching.resolve(new RootContext(), TOKEN);
+        Promise<AccessTokenInfo, AccessTokenException> p2 = caching.resolve(new RootContext(), TOKEN);
+
+        assertThat(p1.get()).isSameAs(p2.get());
+        verify(resolver).resolve(any(Context.class), eq(TOKEN));
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "deprecation" })
+    public void shouldStillSupportTheGivenCache() throws Exception {
+        PerItemEvictionStrategyCache<String, Promise<AccessTokenInfo, AccessTokenException>> cache =
+                spy(new PerItemEvictionStrategyCache<String, Promise<AccessTokenInfo, AccessTokenException>>(
+                        executorService, ONE_MINUTE));
         CachingAccessTokenResolver caching = new CachingAccessTokenResolver(time, resolver, cache);
 
         Promise<AccessTokenInfo, AccessTokenException> p1 = caching.resolve(new RootContext(), TOKEN);
@@ -85,36 +114,44 @@ public class CachingAccessTokenResolverTest {
     }
 
     @Test
-    @SuppressWarnings("unchecked")
     public void shouldUseExpiresAttribute() throws Exception {
-        AccessTokenInfo token = mock(AccessTokenInfo.class);
+        givenToken(TOKEN, 42L);
         when(time.now()).thenReturn(20L);
-        when(token.getExpiresAt()).thenReturn(42L);
-        when(resolver.resolve(any(Context.class), eq(TOKEN)))
-                .thenReturn(Promises.<AccessTokenInfo, AccessTokenException>newResultPromise(token));
+        CachingAccessTokenResolver caching = newCachingResolver(10);
 
-        CachingAccessTokenResolver caching = new CachingAccessTokenResolver(time, resolver, cache);
+        caching.resolve(new RootContext(), TOKEN).get();
+        when(time.now()).thenReturn(41L);
+        caching.resolve(new RootContext(), TOKEN).get();
+        verify(resolver).resolve(any(Context.class), eq(TOKEN));
+
+        // The token is expired 22 ms after it has been resolved
+        when(time.now()).thenReturn(42L);
+        caching.resolve(new RootContext(), TOKEN).get();
+        verify(resolver, times(2)).resolve(any(Context.class), eq(TOKEN));
+    }
+
+    @Test
+    public void shouldNotKeepTheTokensLongerThanTheCacheExpiration() throws Exception {
+        givenToken(TOKEN, MINUTES.toMillis(10L));
+        CachingAccessTokenResolver caching = newCachingResolver(10);
 
-        AccessTokenInfo accessToken = caching.resolve(new RootContext(), TOKEN).get();
+        caching.resolve(new RootContext(), TOKEN).get();
+        when(time.now()).thenReturn(MINUTES.toMillis(1L));
+        caching.resolve(new RootContext(), TOKEN).get();
 
-        verify(executorService).schedule(any(Runnable.class), eq(22L), eq(TimeUnit.MILLISECONDS));
+        verify(resolver, times(2)).resolve(any(Context.class), eq(TOKEN));
     }
 
     @Test
-    @SuppressWarnings("unchecked")
     public void shouldNotCacheWhenExpiresAtIsOver() throws Exception {
         // The expiresAt will be over every time,
         // so the token will never be cached,
         // thus the resolver will be called every time
 
         // Given
-        AccessTokenInfo token = mock(AccessTokenInfo.class);
+        givenToken(TOKEN, 42L);
         when(time.now()).thenReturn(60L);
-        when(token.getExpiresAt()).thenReturn(42L);
-        when(resolver.resolve(any(Context.class), eq(TOKEN)))
-                .thenReturn(Promises.<AccessTokenInfo, AccessTokenException>newResultPromise(token));
-
-        CachingAccessTokenResolver caching = new CachingAccessTokenResolver(time, resolver, cache);
+        CachingAccessTokenResolver caching = newCachingResolver(10);
 
         // When
         caching.resolve(new RootContext(), TOKEN);
@@ -124,4 +161,114 @@ public class CachingAccessTokenResolverTest {
         verify(resolver, times(2)).resolve(any(Context.class), eq(TOKEN));
     }
 
+    @Test
+    public void shouldNotCacheTheFailedResolutions() throws Exception {
+        when(resolver.resolve(any(Context.class), eq(TOKEN)))
+                .thenReturn(Promises.<AccessTokenInfo, AccessTokenException>newExceptionPromise(
+                        new AccessTokenException("Boom")));
+        CachingAccessTokenResolver caching = newCachingResolver(10);
+
+        caching.resolve(new RootContext(), TOKEN);
+        caching.resolve(new RootContext(), TOKEN);
+
+        verify(resolver, times(2)).resolve(any(Context.class), eq(TOKEN));
+        assertThat(caching.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldEvictTheLeastRecentlyUsedTokens() throws Exception {
+        CachingAccessTokenResolver caching = newCachingResolver(2);
+
+        caching.resolve(new RootContext(), "first");
+        caching.resolve(new RootContext(), "second");
+        caching.resolve(new RootContext(), "first");
+        caching.resolve(new RootContext(), "third");
+        assertThat(caching.size()).isEqualTo(2);
+
+        // "second" has been evicted
+        caching.resolve(new RootContext(), "first");
+        caching.resolve(new RootContext(), "second");
+        verify(resolver).resolve(any(Context.class), eq("first"));
+        verify(resolver, times(2)).resolve(any(Context.class), eq("second"));
+    }
+
+    @Test
+    public void shouldRemoveTheExpiredTokensPeriodically() throws Exception {
+        CachingAccessTokenResolver caching = newCachingResolver(10);
+        ArgumentCaptor<Runnable> sweeper = ArgumentCaptor.forClass(Runnable.class);
+        verify(executorService).scheduleWithFixedDelay(sweeper.capture(),
+                                                       eq(60000L),
+                                                       eq(60000L),
+                                                       eq(TimeUnit.MILLISECONDS));
+
+        caching.resolve(new RootContext(), TOKEN);
+        sweeper.getValue().run();
+        assertThat(caching.size()).isEqualTo(1);
+
+        when(time.now()).thenReturn(MINUTES.toMillis(1L));
+        sweeper.getValue().run();
+        assertThat(caching.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldRefreshTheUsedTokensInTheBackground() throws Exception {
+        AccessTokenInfo first = givenToken(TOKEN, MINUTES.toMillis(10L));
+        CachingAccessTokenResolver caching = new CachingAccessTokenResolver(time,
+                                                                            resolver,
+                                                                            executorService,
+                                                                            ONE_MINUTE,
+                                                                            10,
+                                                                            duration(10, SECONDS));
+        assertThat(caching.resolve(new RootContext(), TOKEN).get()).isSameAs(first);
+
+        // Within the refresh window: the cached information is returned while the token is resolved again
+        PromiseImpl<AccessTokenInfo, AccessTokenException> refreshing = PromiseImpl.create();
+        when(resolver.resolve(any(Context.class), eq(TOKEN))).thenReturn(refreshing);
+        when(time.now()).thenReturn(SECONDS.toMillis(55L));
+        Promise<AccessTokenInfo, AccessTokenException> promise = caching.resolve(new RootContext(), TOKEN);
+        assertThat(promise.isDone()).isTrue();
+        assertThat(promise.get()).isSameAs(first);
+        caching.resolve(new RootContext(), TOKEN);
+        verify(resolver, times(2)).resolve(any(Context.class), eq(TOKEN));
+
+        // The refreshed information is cached for another minute
+        AccessTokenInfo second = mock(AccessTokenInfo.class);
+        when(second.getExpiresAt()).thenReturn(MINUTES.toMillis(10L));
+        refreshing.handleResult(second);
+        when(time.now()).thenReturn(SECONDS.toMillis(100L));
+        assertThat(caching.resolve(new RootContext(), TOKEN).get()).isSameAs(second);
+        verify(resolver, times(2)).resolve(any(Context.class), eq(TOKEN));
+    }
+
+    @Test
+    public void shouldEvictTheTokenWhenTheBackgroundRefreshFails() throws Exception {
+        givenToken(TOKEN, MINUTES.toMillis(10L));
+        CachingAccessTokenResolver caching = new CachingAccessTokenResolver(time,
+                                                                            resolver,
+                                                                            executorService,
+                                                                            ONE_MINUTE,
+                                                                            10,
+                                                                            duration(10, SECONDS));
+        caching.resolve(new RootContext(), TOKEN).get();
+
+        when(resolver.resolve(any(Context.class), eq(TOKEN)))
+                .thenReturn(Promises.<AccessTokenInfo, AccessTokenException>newExceptionPromise(
+                        new AccessTokenException("Revoked")));
+        when(time.now()).thenReturn(SECONDS.toMillis(55L));
+        caching.resolve(new RootContext(), TOKEN).get();
+
+        assertThat(caching.size()).isEqualTo(0);
+    }
+
+    private CachingAccessTokenResolver newCachingResolver(final int maxEntries) {
+        return new CachingAccessTokenResolver(time, resolver, executorService, ONE_MINUTE, maxEntries);
+    }
+
+    private AccessTokenInfo givenToken(final String token, final long expiresAt) throws Exception {
+        AccessTokenInfo info = mock(AccessTokenInfo.class);
+        when(info.getExpiresAt()).thenReturn(expiresAt);
+        when(resolver.resolve(any(Context.class), eq(token)))
+                .thenReturn(Promises.<AccessTokenInfo, AccessTokenException>newResultPromise(info));
+        return info;
+    }
 }
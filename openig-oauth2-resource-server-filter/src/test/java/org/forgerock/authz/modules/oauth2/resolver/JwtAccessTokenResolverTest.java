@@ -0,0 +1,351 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.authz.modules.oauth2.resolver;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.forgerock.util.promise.Promises.newResultPromise;
+import static org.forgerock.util.time.Duration.duration;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.forgerock.authz.modules.oauth2.AccessTokenException;
+import org.forgerock.authz.modules.oauth2.AccessTokenInfo;
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.forgerock.util.encode.Base64url;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.time.TimeService;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class JwtAccessTokenResolverTest {
+
+    private static final String JWKS_URI = "http://as.example.com/oauth2/connect/jwk_uri";
+
+    private KeyPair keyPair;
+    private KeyPair otherKeyPair;
+
+    @Mock
+    private TimeService time;
+
+    @Mock
+    private ScheduledExecutorService executor;
+
+    private JwksHandler client;
+
+    @BeforeClass
+    public void generateKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        otherKeyPair = generator.generateKeyPair();
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(time.now()).thenReturn(1000000L);
+        client = new JwksHandler(jwks(jwk("key-1", keyPair)));
+    }
+
+    private JwtAccessTokenResolver newResolver(final String issuer) {
+        return new JwtAccessTokenResolver(client, time, JWKS_URI, issuer, executor, duration("10 minutes"));
+    }
+
+    private JwtAccessTokenResolver newResolver(final String issuer, final String audience) {
+        return new JwtAccessTokenResolver(client, time, JWKS_URI, issuer, audience, executor, duration("10 minutes"));
+    }
+
+    @Test
+    public void shouldScheduleTheRefreshOfTheJwkSet() throws Exception {
+        newResolver(null);
+
+        verify(executor).scheduleWithFixedDelay(any(Runnable.class),
+                                                eq(0L),
+                                                eq(TimeUnit.MINUTES.toMillis(10L)),
+                                                eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldResolveAValidToken() throws Exception {
+        JwtAccessTokenResolver resolver = newResolver("https://as.example.com");
+        String token = sign(keyPair, "RS256", "key-1",
+                            "{'iss':'https://as.example.com','exp':2000,'scope':'email profile','sub':'bjensen'}");
+
+        AccessTokenInfo info = resolver.resolve(new RootContext(), token).getOrThrow();
+
+        assertThat(info.getToken()).isEqualTo(token);
+        assertThat(info.getExpiresAt()).isEqualTo(2000000L);
+        assertThat(info.getScopes()).containsOnly("email", "profile");
+        assertThat(info.getInfo()).containsEntry("sub", "bjensen");
+    }
+
+    @Test
+    public void shouldReadTheScopesFromAnArray() throws Exception {
+        String token = sign(keyPair, "RS512", "key-1", "{'exp':2000,'scope':['email','profile']}");
+
+        AccessTokenInfo info = newResolver(null).resolve(new RootContext(), token).getOrThrow();
+
+        assertThat(info.getScopes()).containsOnly("email", "profile");
+    }
+
+    @Test
+    public void shouldFetchTheJwkSetOnlyOnce() throws Exception {
+        JwtAccessTokenResolver resolver = newResolver(null);
+
+        for (int i = 0; i < 10; i++) {
+            String token = sign(keyPair, "RS256", "key-1", format("{'exp':2000,'jti':'%d'}", i));
+            resolver.resolve(new RootContext(), token).getOrThrow();
+        }
+
+        assertThat(client.calls).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRefreshTheJwkSetWhenTheKeyIsUnknown() throws Exception {
+        JwtAccessTokenResolver resolver = newResolver(null);
+        resolver.resolve(new RootContext(), sign(keyPair, "RS256", "key-1", "{'exp':2000}")).getOrThrow();
+
+        // The keys have been rotated
+        client.jwks = jwks(jwk("key-2", otherKeyPair));
+        String token = sign(otherKeyPair, "RS256", "key-2", "{'exp':2000}");
+
+        assertThat(resolver.resolve(new RootContext(), token).getOrThrow().getToken()).isEqualTo(token);
+        assertThat(client.calls).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotRefreshTheJwkSetTooOftenForUnknownKeys() throws Exception {
+        JwtAccessTokenResolver resolver = newResolver(null);
+        resolver.resolve(new RootContext(), sign(keyPair, "RS256", "key-1", "{'exp':2000}")).getOrThrow();
+
+        String token = sign(otherKeyPair, "RS256", "unknown", "{'exp':2000}");
+        for (int i = 0; i < 10; i++) {
+            try {
+                resolver.resolve(new RootContext(), token).getOrThrow();
+                failBecauseExceptionWasNotThrown(AccessTokenException.class);
+            } catch (AccessTokenException e) {
+                assertThat(e).hasMessageContaining("unknown");
+            }
+        }
+        assertThat(client.calls).isEqualTo(1);
+
+        when(time.now()).thenReturn(1000000L + JwtAccessTokenResolver.MIN_REFRESH_INTERVAL);
+        resolver.resolve(new RootContext(), token);
+        assertThat(client.calls).isEqualTo(2);
+    }
+
+    @Test(expectedExceptions = AccessTokenException.class, expectedExceptionsMessageRegExp = ".*signature.*")
+    public void shouldRejectATokenWithAnInvalidSignature() throws Exception {
+        // Signed with another key than the one published under this kid
+        String token = sign(otherKeyPair, "RS256", "key-1", "{'exp':2000}");
+
+        newResolver(null).resolve(new RootContext(), token).getOrThrow();
+    }
+
+    @Test(expectedExceptions = AccessTokenException.class)
+    public void shouldRejectAnUnsignedToken() throws Exception {
+        String token = Base64url.encode(doubleQuote("{'alg':'none','kid':'key-1'}").getBytes(UTF_8)) + "."
+                + Base64url.encode(doubleQuote("{'exp':2000}").getBytes(UTF_8)) + ".";
+
+        newResolver(null).resolve(new RootContext(), token).getOrThrow();
+    }
+
+    @Test(expectedExceptions = AccessTokenException.class, expectedExceptionsMessageRegExp = ".*algorithm.*")
+    public void shouldRejectATokenSignedWithASymmetricAlgorithm() throws Exception {
+        // The public key must never be used as a HMAC secret
+        String signingInput = Base64url.encode(doubleQuote("{'alg':'HS256','kid':'key-1'}").getBytes(UTF_8)) + "."
+                + Base64url.encode(doubleQuote("{'exp':2000}").getBytes(UTF_8));
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(keyPair.getPublic().getEncoded(), "HmacSHA256"));
+        String token = signingInput + "." + Base64url.encode(mac.doFinal(signingInput.getBytes(US_ASCII)));
+
+        newResolver(null).resolve(new RootContext(), token).getOrThrow();
+    }
+
+    @Test
+    public void shouldResolveATokenIssuedToTheExpectedAudience() throws Exception {
+        JwtAccessTokenResolver resolver = newResolver(null, "https://rs.example.com");
+        String single = sign(keyPair, "RS256", "key-1", "{'aud':'https://rs.example.com','exp':2000}");
+        String several = sign(keyPair, "RS256", "key-1", "{'aud':['client','https://rs.example.com'],'exp':2000}");
+
+        assertThat(resolver.resolve(new RootContext(), single).getOrThrow().getToken()).isEqualTo(single);
+        assertThat(resolver.resolve(new RootContext(), several).getOrThrow().getToken()).isEqualTo(several);
+    }
+
+    @Test(expectedExceptions = AccessTokenException.class, expectedExceptionsMessageRegExp = ".*issued to.*")
+    public void shouldRejectATokenIssuedToAnotherAudience() throws Exception {
+        String token = sign(keyPair, "RS256", "key-1", "{'aud':['client','https://evil.example.com'],'exp':2000}");
+
+        newResolver(null, "https://rs.example.com").resolve(new RootContext(), token).getOrThrow();
+    }
+
+    @Test(expectedExceptions = AccessTokenException.class, expectedExceptionsMessageRegExp = ".*issued to.*")
+    public void shouldRejectATokenWithoutAudienceWhenOneIsExpected() throws Exception {
+        String token = sign(keyPair, "RS256", "key-1", "{'exp':2000}");
+
+        newResolver(null, "https://rs.example.com").resolve(new RootContext(), token).getOrThrow();
+    }
+
+    @Test(expectedExceptions = AccessTokenException.class, expectedExceptionsMessageRegExp = ".*expired.*")
+    public void shouldRejectAnExpiredToken() throws Exception {
+        String token = sign(keyPair, "RS256", "key-1", "{'exp':1000}");
+
+        newResolver(null).resolve(new RootContext(), token).getOrThrow();
+    }
+
+    @Test(expectedExceptions = AccessTokenException.class, expectedExceptionsMessageRegExp = ".*does not expire.*")
+    public void shouldRejectATokenWithoutExpiration() throws Exception {
+        String token = sign(keyPair, "RS256", "key-1", "{'scope':'email'}");
+
+        newResolver(null).resolve(new RootContext(), token).getOrThrow();
+    }
+
+    @Test(expectedExceptions = AccessTokenException.class, expectedExceptionsMessageRegExp = ".*issued.*")
+    public void shouldRejectATokenFromAnotherIssuer() throws Exception {
+        String token = sign(keyPair, "RS256", "key-1", "{'iss':'https://evil.example.com','exp':2000}");
+
+        newResolver("https://as.example.com").resolve(new RootContext(), token).getOrThrow();
+    }
+
+    @Test(expectedExceptions = AccessTokenException.class)
+    public void shouldRejectATokenThatIsNotAJwt() throws Exception {
+        newResolver(null).resolve(new RootContext(), "1fc0e143-f248-4e50-9c13-1d710360cec9").getOrThrow();
+    }
+
+    @Test(expectedExceptions = AccessTokenException.class)
+    public void shouldFailWhenTheJwkSetCannotBeFetched() throws Exception {
+        client.status = Status.INTERNAL_SERVER_ERROR;
+
+        newResolver(null).resolve(new RootContext(), sign(keyPair, "RS256", "key-1", "{'exp':2000}")).getOrThrow();
+    }
+
+    @Test
+    public void shouldNotFetchTheJwkSetTooOftenWhileItCannotBeFetched() throws Exception {
+        client.status = Status.INTERNAL_SERVER_ERROR;
+        JwtAccessTokenResolver resolver = newResolver(null);
+
+        String token = sign(keyPair, "RS256", "key-1", "{'exp':2000}");
+        for (int i = 0; i < 10; i++) {
+            try {
+                resolver.resolve(new RootContext(), token).getOrThrow();
+                failBecauseExceptionWasNotThrown(AccessTokenException.class);
+            } catch (AccessTokenException e) {
+                assertThat(e).hasMessageContaining("status");
+            }
+        }
+        assertThat(client.calls).isEqualTo(1);
+
+        client.status = Status.OK;
+        when(time.now()).thenReturn(1000000L + JwtAccessTokenResolver.MIN_REFRESH_INTERVAL);
+        assertThat(resolver.resolve(new RootContext(), token).getOrThrow().getToken()).isEqualTo(token);
+        assertThat(client.calls).isEqualTo(2);
+    }
+
+    @Test(expectedExceptions = AccessTokenException.class)
+    public void shouldRejectATokenWithAnInvalidHeader() throws Exception {
+        String token = Base64url.encode(doubleQuote("{'alg':256,'kid':['key-1']}").getBytes(UTF_8)) + "."
+                + Base64url.encode(doubleQuote("{'exp':2000}").getBytes(UTF_8)) + ".";
+
+        newResolver(null).resolve(new RootContext(), token).getOrThrow();
+    }
+
+    private static String sign(final KeyPair keyPair, final String alg, final String kid, final String claims)
+            throws Exception {
+        String signingInput = Base64url.encode(format("{\"alg\":\"%s\",\"kid\":\"%s\"}", alg, kid).getBytes(UTF_8))
+                + "." + Base64url.encode(doubleQuote(claims).getBytes(UTF_8));
+        Signature signer = Signature.getInstance("SHA" + alg.substring(2) + "withRSA");
+        signer.initSign(keyPair.getPrivate());
+        signer.update(signingInput.getBytes(US_ASCII));
+        return signingInput + "." + Base64url.encode(signer.sign());
+    }
+
+    private static String jwk(final String kid, final KeyPair keyPair) {
+        RSAPublicKey key = (RSAPublicKey) keyPair.getPublic();
+        return format("{\"kty\":\"RSA\",\"use\":\"sig\",\"kid\":\"%s\",\"n\":\"%s\",\"e\":\"%s\"}",
+                      kid, encode(key.getModulus()), encode(key.getPublicExponent()));
+    }
+
+    private static String jwks(final String... jwks) {
+        StringBuilder builder = new StringBuilder("{\"keys\":[");
+        for (int i = 0; i < jwks.length; i++) {
+            builder.append(i == 0 ? "" : ",").append(jwks[i]);
+        }
+        return builder.append("]}").toString();
+    }
+
+    private static String encode(final BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes[0] == 0 && bytes.length > 1) {
+            // Strip the sign byte
+            byte[] unsigned = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 1, unsigned, 0, unsigned.length);
+            bytes = unsigned;
+        }
+        return Base64url.encode(bytes);
+    }
+
+    private static String doubleQuote(final String value) {
+        return value.replaceAll("'", "\"");
+    }
+
+    /**
+     * Serves the current JWK set, and counts the requests.
+     */
+    private static final class JwksHandler implements Handler {
+        private String jwks;
+        private Status status = Status.OK;
+        private int calls;
+
+        JwksHandler(final String jwks) {
+            this.jwks = jwks;
+        }
+
+        @Override
+        public Promise<Response, NeverThrowsException> handle(final Context context, final Request request) {
+            calls++;
+            assertThat(request.getUri().toString()).isEqualTo(JWKS_URI);
+            return newResultPromise(new Response(status).setEntity(jwks));
+        }
+    }
+}
@@ -34,7 +34,6 @@ import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 
 import org.forgerock.authz.modules.oauth2.AccessTokenInfo;
-import org.forgerock.authz.modules.oauth2.AccessTokenException;
 import org.forgerock.authz.modules.oauth2.AccessTokenResolver;
 import org.forgerock.authz.modules.oauth2.ResourceAccess;
 import org.forgerock.authz.modules.oauth2.ResourceServerFilter;
@@ -46,12 +45,11 @@ import org.forgerock.openig.el.Expression;
 import org.forgerock.openig.el.ExpressionException;
 import org.forgerock.openig.filter.ConditionEnforcementFilter;
 import org.forgerock.authz.modules.oauth2.cache.CachingAccessTokenResolver;
+import org.forgerock.authz.modules.oauth2.resolver.JwtAccessTokenResolver;
 import org.forgerock.authz.modules.oauth2.resolver.OpenAmAccessTokenResolver;
 import org.forgerock.openig.heap.GenericHeaplet;
 import org.forgerock.openig.heap.HeapException;
 import org.forgerock.services.context.Context;
-import org.forgerock.util.PerItemEvictionStrategyCache;
-import org.forgerock.util.promise.Promise;
 import org.forgerock.util.time.Duration;
 import org.forgerock.util.time.TimeService;
 
@@ -73,6 +71,8 @@ import org.forgerock.util.time.TimeService;
  *           "scopes": [ "email", "profile" ],
  *           "tokenInfoEndpoint": "https://openam.example.com:8443/openam/oauth2/tokeninfo",
  *           "cacheExpiration": "2 minutes",
+ *           "cacheMaxEntries": 10000,
+ *           "cacheRefreshWindow": "10 seconds",
  *           "requireHttps": false,
  *           "providerHandler": "ClientHandler",
  *           "realm": "Informative realm name",
@@ -84,6 +84,31 @@ import org.forgerock.util.time.TimeService;
  * {@literal scopes}, {@literal tokenInfoEndpoint} and {@literal providerHandler} are the 3 only mandatory
  * configuration attributes.
  * <p>
+ * Stateless JWT access tokens can instead be validated locally, with the keys published by the Authorization Server
+ * in its JWK set: replace {@literal tokenInfoEndpoint} with the {@literal jwksUri} of the Authorization Server.
+ *
+ * <pre>
+ * {@code
+ * {
+ *         "name": "ProtectedResourceFilter",
+ *         "type": "OAuth2ResourceServerFilter",
+ *         "config": {
+ *           "scopes": [ "email", "profile" ],
+ *           "jwksUri": "https://openam.example.com:8443/openam/oauth2/connect/jwk_uri",
+ *           "jwksRefreshInterval": "10 minutes",
+ *           "issuer": "https://openam.example.com:8443/openam/oauth2",
+ *           "audience": "https://app.example.com:8081"
+ *         }
+ * }
+ * }
+ * </pre>
+ *
+ * The token signature ({@literal RS256}, {@literal RS384} or {@literal RS512}), its expiration and, if
+ * {@literal issuer} is set, its issuer are checked without any remote call. If {@literal audience} is set, it has to
+ * be one of the token's {@literal aud} claim values. The JWK set is refreshed in the background
+ * every {@literal jwksRefreshInterval} (10 minutes by default), and as soon as a token signed with an unknown key is
+ * received (at most once every 30 seconds).
+ * <p>
  * If {@literal cacheExpiration} is not set, the default is to keep the {@link AccessTokenInfo} objects for 1 minute.
  * {@literal cacheExpiration} is expressed using natural language (use {@literal zero} or {@literal none}
  * to deactivate caching, any 0 valued duration will also deactivate it):
@@ -98,6 +123,11 @@ import org.forgerock.util.time.TimeService;
  *     }
  * </pre>
  * <p>
+ * The cache holds at most {@literal cacheMaxEntries} tokens (10000 by default): once full, the least recently used
+ * token is evicted. When {@literal cacheRefreshWindow} is set, a token still used during the last
+ * {@literal cacheRefreshWindow} of its cache expiration is validated again in the background, so that the requests
+ * using it do not wait for the {@literal tokenInfoEndpoint}. By default, there is no background refresh.
+ * <p>
  * {@literal providerHandler} is a name reference to another handler available in the heap. It will be used to perform
  * access token validation against the {@literal tokenInfoEndpoint} URL.
  * It is usually a reference to some {@link org.forgerock.openig.handler.ClientHandler}.
@@ -118,7 +148,8 @@ public class OAuth2ResourceServerFilterHeaplet extends GenericHeaplet {
      */
     public static final String DEFAULT_REALM_NAME = "OpenIG";
 
-    private PerItemEvictionStrategyCache<String, Promise<AccessTokenInfo, AccessTokenException>> cache;
+    private JwtAccessTokenResolver jwtResolver;
+    private CachingAccessTokenResolver cachingResolver;
 
     @Override
     public Object create() throws HeapException {
@@ -127,22 +158,57 @@ public class OAuth2ResourceServerFilterHeaplet extends GenericHeaplet {
                 .as(requiredHeapObject(heap, Handler.class));
 
         TimeService time = heap.get(TIME_SERVICE_HEAP_KEY, TimeService.class);
-        AccessTokenResolver resolver = new OpenAmAccessTokenResolver(httpHandler,
-                                                                     time,
-                                                                     config.get("tokenInfoEndpoint")
-                                                                           .as(evaluated())
-                                                                           .required()
-                                                                           .asString());
+        AccessTokenResolver resolver;
+        String jwksUri = config.get("jwksUri").as(evaluated()).asString();
+        if (jwksUri != null) {
+            // Validate the JWT access tokens locally
+            Duration refreshInterval = config.get("jwksRefreshInterval")
+                                             .as(evaluated())
+                                             .defaultTo("10 minutes")
+                                             .as(duration());
+            try {
+                jwtResolver = new JwtAccessTokenResolver(httpHandler,
+                                                         time,
+                                                         jwksUri,
+                                                         config.get("issuer").as(evaluated()).asString(),
+                                                         config.get("audience").as(evaluated()).asString(),
+                                                         executor(),
+                                                         refreshInterval);
+            } catch (IllegalArgumentException e) {
+                throw new HeapException("Cannot build the JWT access token resolver", e);
+            }
+            resolver = jwtResolver;
+        } else {
+            resolver = new OpenAmAccessTokenResolver(httpHandler,
+                                                     time,
+                                                     config.get("tokenInfoEndpoint")
+                                                           .as(evaluated())
+                                                           .required()
+                                                           .asString());
+        }
 
         // Build the cache
         Duration expiration = config.get("cacheExpiration").as(evaluated()).defaultTo("1 minute").as(duration());
         if (!expiration.isZero()) {
-            ScheduledExecutorService executorService = config.get("executor")
-                                                             .defaultTo(SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY)
-                                                             .as(requiredHeapObject(heap,
-                                                                                    ScheduledExecutorService.class));
-            cache = new PerItemEvictionStrategyCache<>(executorService, expiration);
-            resolver = new CachingAccessTokenResolver(time, resolver, cache);
+            int maxEntries = config.get("cacheMaxEntries")
+                                   .as(evaluated())
+                                   .defaultTo(CachingAccessTokenResolver.DEFAULT_MAX_ENTRIES)
+                                   .asInteger();
+            Duration refreshWindow = config.get("cacheRefreshWindow")
+                                           .as(evaluated())
+                                           .defaultTo("zero")
+                                           .as(duration());
+            try {
+                cachingResolver = new CachingAccessTokenResolver(time,
+                                                                 resolver,
+                                                                 executor(),
+                                                                 expiration,
+                                                                 maxEntries,
+                                                                 refreshWindow);
+            } catch (IllegalArgumentException e) {
+                throw new HeapException("Cannot build the access token cache", e);
+            }
+            resolver = cachingResolver;
         }
 
         Set<Expression<String>> scopes = getWithDeprecation(config, logger, "scopes", "requiredScopes")
@@ -168,10 +234,22 @@ public class OAuth2ResourceServerFilterHeaplet extends GenericHeaplet {
         return filter;
     }
 
+    /**
+     * Only required when the JWK set is refreshed or when the tokens are cached.
+     */
+    private ScheduledExecutorService executor() throws HeapException {
+        return config.get("executor")
+                     .defaultTo(SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY)
+                     .as(requiredHeapObject(heap, ScheduledExecutorService.class));
+    }
+
     @Override
     public void destroy() {
-        if (cache != null) {
-            cache.clear();
+        if (cachingResolver != null) {
+            cachingResolver.stop();
+        }
+        if (jwtResolver != null) {
+            jwtResolver.stop();
         }
     }
 
@@ -644,7 +644,7 @@ public final class OAuth2ClientFilter extends GenericHeapObject implements Filte
                 }
 
                 // At this point, we only react once to try to refresh the access token.
-                logger.debug(format("The access token may have expired: %s", error.getErrorDescription()));
+                logger.debug("The access token may have expired: %s", error.getErrorDescription());
                 return refreshAccessTokenAndSaveSession(context, request, session, clientRegistration)
                         .thenAsync(new AsyncFunction<Void, Response, NeverThrowsException>() {
 
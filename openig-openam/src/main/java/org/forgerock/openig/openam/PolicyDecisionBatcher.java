@@ -0,0 +1,243 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.openam;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.forgerock.http.routing.Version.version;
+import static org.forgerock.util.Reject.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ActionRequest;
+import org.forgerock.json.resource.ActionResponse;
+import org.forgerock.json.resource.InternalServerErrorException;
+import org.forgerock.json.resource.RequestHandler;
+import org.forgerock.json.resource.Requests;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.ResourcePath;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.promise.ExceptionHandler;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.promise.ResultHandler;
+import org.forgerock.util.time.Duration;
+
+/**
+ * Coalesces the policy evaluations requested for the same subject, application and environment during a short
+ * window into a single OpenAM {@literal evaluate} action, as this action accepts several resources at once.
+ * <p>
+ * The first evaluation of a batch starts the window: the batch is sent when the window elapses, or as soon as it
+ * holds {@link #MAX_BATCH_SIZE} distinct resources. Then each pending evaluation is completed with the decision of its
+ * resource. The batch is sent within the context of its first evaluation.
+ */
+public class PolicyDecisionBatcher {
+
+    /** Maximum number of distinct resources evaluated by a single action. */
+    static final int MAX_BATCH_SIZE = 100;
+
+    /**
+     * The pending evaluations sharing the same subject, application and environment.
+     */
+    private static final class Batch {
+        private final Context context;
+        private final RequestHandler requestHandler;
+        private final JsonValue content;
+        // The evaluations waiting for a decision, by resource
+        private final Map<String, List<PromiseImpl<JsonValue, ResourceException>>> pending = new LinkedHashMap<>();
+
+        Batch(final Context context, final RequestHandler requestHandler, final JsonValue content) {
+            this.context = context;
+            this.requestHandler = requestHandler;
+            this.content = content;
+        }
+
+        void add(final String resource, final PromiseImpl<JsonValue, ResourceException> promise) {
+            List<PromiseImpl<JsonValue, ResourceException>> promises = pending.get(resource);
+            if (promises == null) {
+                promises = new ArrayList<>(1);
+                pending.put(resource, promises);
+            }
+            promises.add(promise);
+        }
+    }
+
+    private final ScheduledExecutorService executor;
+    private final long window;
+    // The batches waiting for their window to elapse, guarded by itself
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    /**
+     * Creates a new batcher.
+     *
+     * @param executor
+     *            The executor used to send the batches when their window elapses, not {@code null}.
+     * @param window
+     *            How long the first evaluation of a batch waits for other evaluations (neither zero nor unlimited).
+     */
+    public PolicyDecisionBatcher(final ScheduledExecutorService executor, final Duration window) {
+        if (window.isZero() || window.isUnlimited()) {
+            throw new IllegalArgumentException("The batch window can be neither zero nor unlimited");
+        }
+        this.executor = checkNotNull(executor);
+        this.window = window.to(MILLISECONDS);
+    }
+
+    /**
+     * Requests the evaluation of a policy: the evaluation is sent along with the other evaluations of the same batch.
+     *
+     * @param context
+     *            The context of the evaluation
+     * @param requestHandler
+     *            The handler sending the {@literal evaluate} action to OpenAM
+     * @param evaluation
+     *            The content of the {@literal evaluate} action, with a single resource
+     * @return the policy decision of the resource
+     */
+    Promise<JsonValue, ResourceException> evaluate(final Context context,
+                                                   final RequestHandler requestHandler,
+                                                   final JsonValue evaluation) {
+        final String resource = evaluation.get("resources").get(0).asString();
+        final JsonValue content = evaluation.copy();
+        content.remove("resources");
+        final String key = content.toString();
+
+        final PromiseImpl<JsonValue, ResourceException> promise = PromiseImpl.create();
+        final Batch batch;
+        boolean created = false;
+        boolean full = false;
+        synchronized (batches) {
+            Batch current = batches.get(key);
+            if (current == null) {
+                current = new Batch(context, requestHandler, content);
+                batches.put(key, current);
+                created = true;
+            }
+            current.add(resource, promise);
+            if (current.pending.size() >= MAX_BATCH_SIZE) {
+                // Do not wait for the window
+                batches.remove(key);
+                full = true;
+            }
+            batch = current;
+        }
+
+        if (full) {
+            send(batch);
+        } else if (created) {
+            final Runnable flush = new Runnable() {
+                @Override
+                public void run() {
+                    if (remove(key, batch)) {
+                        send(batch);
+                    }
+                }
+            };
+            try {
+                executor.schedule(flush, window, MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Do not leave the evaluations pending
+                flush.run();
+            }
+        }
+        return promise;
+    }
+
+    /**
+     * Removes the given batch if it is still waiting for its window to elapse (it has not been sent because full).
+     */
+    private boolean remove(final String key, final Batch batch) {
+        synchronized (batches) {
+            if (batches.get(key) != batch) {
+                return false;
+            }
+            batches.remove(key);
+            return true;
+        }
+    }
+
+    private static void send(final Batch batch) {
+        final ActionRequest actionRequest =
+                Requests.newActionRequest(ResourcePath.valueOf(PolicyEnforcementFilter.POLICY_ENDPOINT),
+                                          PolicyEnforcementFilter.EVALUATE_ACTION);
+        final JsonValue content = batch.content.copy();
+        content.put("resources", new ArrayList<>(batch.pending.keySet()));
+        actionRequest.setContent(content);
+        actionRequest.setResourceVersion(version(2, 0));
+
+        try {
+            batch.requestHandler.handleAction(batch.context, actionRequest)
+                                .thenOnResult(new ResultHandler<ActionResponse>() {
+                                    @Override
+                                    public void handleResult(final ActionResponse response) {
+                                        dispatch(batch, response.getJsonContent());
+                                    }
+                                })
+                                .thenOnException(new ExceptionHandler<ResourceException>() {
+                                    @Override
+                                    public void handleException(final ResourceException exception) {
+                                        fail(batch, exception);
+                                    }
+                                });
+        } catch (RuntimeException e) {
+            fail(batch, new InternalServerErrorException(e));
+        }
+    }
+
+    private static void dispatch(final Batch batch, final JsonValue decisions) {
+        if (batch.pending.size() == 1 && decisions.size() == 1) {
+            // As for an evaluation that is not batched, the decision's resource is checked by the filter
+            for (PromiseImpl<JsonValue, ResourceException> promise : batch.pending.values().iterator().next()) {
+                promise.handleResult(decisions.get(0));
+            }
+            return;
+        }
+        // The policy response is an array of decisions, one per resource
+        for (JsonValue decision : decisions) {
+            final List<PromiseImpl<JsonValue, ResourceException>> promises =
+                    batch.pending.remove(decision.get("resource").asString());
+            if (promises != null) {
+                for (PromiseImpl<JsonValue, ResourceException> promise : promises) {
+                    promise.handleResult(decision);
+                }
+            }
+        }
+        for (Map.Entry<String, List<PromiseImpl<JsonValue, ResourceException>>> missing : batch.pending.entrySet()) {
+            final ResourceException exception =
+                    new InternalServerErrorException(format("No policy decision for the resource %s",
+                                                            missing.getKey()));
+            for (PromiseImpl<JsonValue, ResourceException> promise : missing.getValue()) {
+                promise.handleException(exception);
+            }
+        }
+    }
+
+    private static void fail(final Batch batch, final ResourceException exception) {
+        for (List<PromiseImpl<JsonValue, ResourceException>> promises : batch.pending.values()) {
+            for (PromiseImpl<JsonValue, ResourceException> promise : promises) {
+                promise.handleException(exception);
+            }
+        }
+    }
+}
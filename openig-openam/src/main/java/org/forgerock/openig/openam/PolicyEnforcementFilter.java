@@ -29,9 +29,11 @@ import static org.forgerock.json.JsonValue.fieldIfNotNull;
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.json.JsonValueFunctions.duration;
+import static org.forgerock.json.JsonValueFunctions.pattern;
 import static org.forgerock.openig.el.Bindings.bindings;
 import static org.forgerock.openig.heap.Keys.FORGEROCK_CLIENT_HANDLER_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.TIME_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.expression;
 import static org.forgerock.openig.util.JsonValues.getWithDeprecation;
@@ -42,16 +44,19 @@ import static org.forgerock.util.time.Duration.duration;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.regex.Pattern;
 
 import org.forgerock.http.Filter;
 import org.forgerock.http.Handler;
-import org.forgerock.http.MutableUri;
 import org.forgerock.http.header.AcceptApiVersionHeader;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
@@ -81,6 +86,7 @@ import org.forgerock.util.annotations.VisibleForTesting;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
 import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
 
 /**
  * This filter requests policy decisions from OpenAM which evaluates the
@@ -108,6 +114,7 @@ import org.forgerock.util.time.Duration;
  *                                                                        'ForgeRockClientHandler' provided in heap.]
  *          "realm"                  :    String,             [OPTIONAL - default is '/']
  *          "ssoTokenHeader"         :    String,             [OPTIONAL]
+ *          "ssoTokenRefreshInterval":    duration,           [OPTIONAL - default to zero (no proactive refresh)]
  *          "application"            :    String,             [OPTIONAL]
  *          "ssoTokenSubject"        :    expression,         [OPTIONAL - must be specified if no jwtSubject or
  *                                                                        claimsSubject ]
@@ -117,6 +124,10 @@ import org.forgerock.util.time.Duration;
  *                                                                        ssoTokenSubject - instance of
  *                                                                        Map<String, Object> JWT claims ]
  *          "cacheMaxExpiration"     :    duration,           [OPTIONAL - default to 1 minute ]
+ *          "cacheMaxEntries"        :    integer,            [OPTIONAL - default to 10000, 0 for no limit ]
+ *          "resourceNormalization"  :    object,             [OPTIONAL - by default, the request URI is the
+ *                                                                        evaluated resource ]
+ *          "batchWindow"            :    duration,           [OPTIONAL - default to zero (no batching) ]
  *          "target"                 :    mapExpression,      [OPTIONAL - default is ${attributes.policy} ]
  *          "environment"            :    map/expression,     [OPTIONAL - instance of Map<String, List<Object>>]
  *          "executor"               :    executor            [OPTIONAL - by default uses 'ScheduledThreadPool'
@@ -132,7 +143,37 @@ import org.forgerock.util.time.Duration;
  * This heaplet adds an SsoTokenFilter to the amHandler's chain and its
  * role is to retrieve and set the SSO token header of this given user (REST API
  * calls must present the session token, aka SSO Token, in an HTTP header as
- * proof of authentication).
+ * proof of authentication). When "ssoTokenRefreshInterval" is set (it should be
+ * shorter than the OpenAM session timeouts), a token older than this interval is
+ * renewed in the background, so that it does not expire under traffic.
+ * <p>
+ * At most "cacheMaxEntries" policy decisions are cached: once reached, the least
+ * recently used decision is evicted.
+ * <p>
+ * As policy decisions are cached per resource, the requests that only differ by
+ * some query parameters or by identifiers in their path would never share a
+ * decision. The "resourceNormalization" attribute rewrites the request URI into
+ * the resource evaluated by OpenAM (and used as cache key):
+ *
+ * <pre>
+ * {@code "resourceNormalization": {
+ *      "queryParameters": [ "lang" ],
+ *      "pathMappings": [
+ *          { "pattern": "^/users/[^/]+", "replacement": "/users/*" }
+ *      ]
+ *  }
+ *  }
+ * </pre>
+ * <p>
+ * When "queryParameters" is set, only the listed query parameters are kept (an
+ * empty list removes the query). The path is rewritten by the first mapping whose
+ * pattern is found in it. The OpenAM policies have to be written for the
+ * normalized resources.
+ * <p>
+ * When "batchWindow" is set, the policy evaluations requested during this window
+ * for the same subject (with the same application and environment) are sent to
+ * OpenAM as a single request for all their resources: this trades a small
+ * latency for fewer requests to OpenAM under load.
  * <p>
  * The target represents a map in the attribute context where the "attributes"
  * and "advices" map fields from the policy decision will be saved in. By
@@ -171,12 +212,20 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
     /** The expression which will be used for storing policy decision extra attributes in the context. */
     public static final String DEFAULT_POLICY_KEY = "policy";
 
-    private static final String POLICY_ENDPOINT = "/policies";
-    private static final String EVALUATE_ACTION = "evaluate";
+    /** Default maximum number of cached policy decisions. */
+    public static final int DEFAULT_CACHE_MAX_ENTRIES = 10000;
+
+    static final String POLICY_ENDPOINT = "/policies";
+    static final String EVALUATE_ACTION = "evaluate";
     private static final String SUBJECT_ERROR =
             "The attribute 'ssoTokenSubject' or 'jwtSubject' or 'claimsSubject' must be specified";
 
     private PerItemEvictionStrategyCache<String, Promise<JsonValue, ResourceException>> policyDecisionCache;
+    // The cached keys, from the least recently used to the most recently used (guarded by itself)
+    private Map<String, Boolean> cacheKeys;
+    private int cacheMaxEntries;
+    private PolicyResourceNormalizer resourceNormalizer;
+    private PolicyDecisionBatcher batcher;
     private final RequestHandler requestHandler;
     private String application;
     private Expression<String> ssoTokenSubject;
@@ -215,13 +264,50 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
         this.policyDecisionCache = cache;
     }
 
+    /**
+     * Sets the maximum number of cached policy decisions: once reached, the least recently used decision is evicted.
+     *
+     * @param maxEntries
+     *            The maximum number of cached policy decisions, or 0 for no limit.
+     */
+    public void setCacheMaxEntries(final int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("The maximum number of cached policy decisions can't be negative");
+        }
+        this.cacheMaxEntries = maxEntries;
+        this.cacheKeys = maxEntries == 0 ? null : new LinkedHashMap<String, Boolean>(16, 0.75f, true);
+    }
+
+    /**
+     * Sets the normalizer applied to the request URI to get the resource for which a policy decision is requested
+     * (and cached). If none, the request URI is used as is.
+     *
+     * @param resourceNormalizer
+     *            The normalizer of the requested resources.
+     */
+    public void setResourceNormalizer(final PolicyResourceNormalizer resourceNormalizer) {
+        this.resourceNormalizer = resourceNormalizer;
+    }
+
+    /**
+     * Sets the batcher coalescing the concurrent policy evaluations of a same subject into a single request to
+     * OpenAM. If none, each policy evaluation is sent on its own.
+     *
+     * @param batcher
+     *            The batcher of the policy evaluations.
+     */
+    public void setBatcher(final PolicyDecisionBatcher batcher) {
+        this.batcher = batcher;
+    }
+
     @Override
     public Promise<Response, NeverThrowsException> filter(final Context context,
                                                           final Request request,
                                                           final Handler next) {
 
-        return askForPolicyDecision(context, request)
-                    .then(evaluatePolicyDecision(context, request))
+        final String resource = resourceOf(request);
+        return askForPolicyDecision(context, request, resource)
+                    .then(evaluatePolicyDecision(context, request, resource))
                     .thenAsync(allowOrDenyAccessToResource(context, request, next),
                                errorResponse);
     }
@@ -308,13 +394,14 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
     }
 
     private Promise<JsonValue, ResourceException> askForPolicyDecision(final Context context,
-                                                                       final Request request) {
+                                                                       final Request request,
+                                                                       final String resource) {
         final ActionRequest actionRequest = Requests.newActionRequest(ResourcePath.valueOf(POLICY_ENDPOINT),
                                                                       EVALUATE_ACTION);
 
         JsonValue resources = null;
         try {
-            resources = buildResources(context, request);
+            resources = buildResources(context, request, resource);
         } catch (NotSupportedException | ExpressionException ex) {
             logger.error("Unable to build the resources content");
             logger.error(ex);
@@ -324,15 +411,16 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
         actionRequest.setResourceVersion(version(2, 0));
 
         final JsonValue subject = resources.get("subject");
-        final String key = createKeyCache(request.getUri().toASCIIString(),
+        final String key = createKeyCache(resource,
                                           subject.get("ssoToken").asString(),
                                           subject.get("jwt").asString(),
                                           subject.get("claims").asMap() != null
                                                       ? subject.get("claims").asMap().hashCode()
                                                       : 0);
+        evictLeastRecentlyUsed(key);
         try {
             return policyDecisionCache.getValue(key,
-                                                getPolicyDecisionCallable(context, requestHandler, actionRequest),
+                                                getPolicyDecisionCallable(context, actionRequest),
                                                 extractDurationFromTtl());
         } catch (InterruptedException | ExecutionException e) {
             return new InternalServerErrorException(e).asPromise();
@@ -342,6 +430,11 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
     @VisibleForTesting
     JsonValue buildResources(final Context context, final Request request) throws ExpressionException,
                                                                                   NotSupportedException {
+        return buildResources(context, request, resourceOf(request));
+    }
+
+    private JsonValue buildResources(final Context context, final Request request, final String resource)
+            throws ExpressionException, NotSupportedException {
         final Bindings bindings = bindings(context, request);
         final JsonValue subject =
                  json(object(
@@ -354,12 +447,41 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
             throw new NotSupportedException(SUBJECT_ERROR);
         }
 
-        return json(object(field("resources", array(request.getUri().toASCIIString())),
+        return json(object(field("resources", array(resource)),
                            field("subject", subject.getObject()),
                            fieldIfNotNull("application", application),
                            fieldIfNotNull("environment", environment != null ? environment.apply(bindings) : null)));
     }
 
+    private String resourceOf(final Request request) {
+        if (resourceNormalizer == null) {
+            return request.getUri().toASCIIString();
+        }
+        return resourceNormalizer.normalize(request.getUri().asURI());
+    }
+
+    /**
+     * Records the use of the given key, and evicts the least recently used decision if the cache is full.
+     */
+    private void evictLeastRecentlyUsed(final String key) {
+        if (cacheKeys == null) {
+            return;
+        }
+        String evicted = null;
+        synchronized (cacheKeys) {
+            cacheKeys.put(key, Boolean.TRUE);
+            if (cacheKeys.size() > cacheMaxEntries) {
+                final Iterator<String> iterator = cacheKeys.keySet().iterator();
+                evicted = iterator.next();
+                iterator.remove();
+            }
+        }
+        if (evicted != null) {
+            // The decision may already have expired from the cache
+            policyDecisionCache.remove(evicted);
+        }
+    }
+
     private AsyncFunction<Promise<JsonValue, ResourceException>, Duration, Exception> extractDurationFromTtl() {
         //@Checkstyle:off
         return new AsyncFunction<Promise<JsonValue, ResourceException>, Duration, Exception>() {
@@ -383,14 +505,16 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
         //@Checkstyle:on
     }
 
-    private static Callable<Promise<JsonValue, ResourceException>> getPolicyDecisionCallable(
+    private Callable<Promise<JsonValue, ResourceException>> getPolicyDecisionCallable(
                                                                                   final Context context,
-                                                                                  final RequestHandler requestHandler,
                                                                                   final ActionRequest actionRequest) {
         return new Callable<Promise<JsonValue, ResourceException>>() {
 
             @Override
             public Promise<JsonValue, ResourceException> call() throws Exception {
+                if (batcher != null) {
+                    return batcher.evaluate(context, requestHandler, actionRequest.getContent());
+                }
                 return requestHandler.handleAction(context, actionRequest)
                                      .then(EXTRACT_POLICY_DECISION_AS_JSON);
             }
@@ -425,13 +549,13 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
             };
 
     private Function<JsonValue, Boolean, ResourceException> evaluatePolicyDecision(final Context context,
-                                                                                   final Request request) {
+                                                                                   final Request request,
+                                                                                   final String resource) {
         return new Function<JsonValue, Boolean, ResourceException>() {
 
             @Override
             public Boolean apply(final JsonValue policyDecision) {
-                final MutableUri original = request.getUri();
-                if (policyDecision.get("resource").asString().equals(original.toASCIIString())) {
+                if (policyDecision.get("resource").asString().equals(resource)) {
                     final Map<String, Object> extra = new LinkedHashMap<>();
                     extra.put("attributes", policyDecision.get("attributes").asMap());
                     extra.put("advices", policyDecision.get("advices").asMap());
@@ -470,6 +594,14 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
                                                  .defaultTo(format("${attributes.%s}", DEFAULT_POLICY_KEY))
                                                  .as(expression(Map.class));
 
+            final Duration ssoTokenRefreshInterval = config.get("ssoTokenRefreshInterval")
+                                                           .as(evaluated())
+                                                           .defaultTo("zero")
+                                                           .as(duration());
+            if (ssoTokenRefreshInterval.isUnlimited()) {
+                throw new HeapException("The SSO token refresh interval cannot be set to 'unlimited'");
+            }
+
             try {
                 final SsoTokenFilter ssoTokenFilter = new SsoTokenFilter(amHandler,
                                                                          new URI(openamUrl),
@@ -477,7 +609,10 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
                                                                          ssoTokenHeader,
                                                                          pepUsername,
                                                                          pepPassword,
-                                                                         logger);
+                                                                         logger,
+                                                                         heap.get(TIME_SERVICE_HEAP_KEY,
+                                                                                  TimeService.class),
+                                                                         ssoTokenRefreshInterval);
 
                 final PolicyEnforcementFilter filter =
                         new PolicyEnforcementFilter(normalizeToJsonEndpoint(openamUrl, realm),
@@ -514,6 +649,26 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
                 }
                 cache.setMaxTimeout(cacheMaxExpiration);
                 filter.setCache(cache);
+                final int cacheMaxEntries = config.get("cacheMaxEntries")
+                                                  .as(evaluated())
+                                                  .defaultTo(DEFAULT_CACHE_MAX_ENTRIES)
+                                                  .asInteger();
+                if (cacheMaxEntries < 0) {
+                    throw new HeapException("The maximum number of cached policy decisions can't be negative");
+                }
+                filter.setCacheMaxEntries(cacheMaxEntries);
+                filter.setResourceNormalizer(resourceNormalizer(config.get("resourceNormalization")));
+
+                final Duration batchWindow = config.get("batchWindow")
+                                                   .as(evaluated())
+                                                   .defaultTo("zero")
+                                                   .as(duration());
+                if (batchWindow.isUnlimited()) {
+                    throw new HeapException("The batch window cannot be set to 'unlimited'");
+                }
+                if (!batchWindow.isZero()) {
+                    filter.setBatcher(new PolicyDecisionBatcher(executor, batchWindow));
+                }
 
                 return filter;
             } catch (URISyntaxException e) {
@@ -521,6 +676,21 @@ public class PolicyEnforcementFilter extends GenericHeapObject implements Filter
             }
         }
 
+        private static PolicyResourceNormalizer resourceNormalizer(final JsonValue node) {
+            if (node.isNull()) {
+                return null;
+            }
+            final Set<String> queryParameters = node.get("queryParameters").isNull()
+                    ? null
+                    : new HashSet<>(node.get("queryParameters").asList(String.class));
+            final Map<Pattern, String> pathMappings = new LinkedHashMap<>();
+            for (JsonValue mapping : node.get("pathMappings").defaultTo(array())) {
+                pathMappings.put(mapping.get("pattern").required().as(pattern()),
+                                 mapping.get("replacement").required().asString());
+            }
+            return new PolicyResourceNormalizer(queryParameters, pathMappings);
+        }
+
         @SuppressWarnings({ "unchecked", "rawtypes" })
         private Function<Bindings, Map<String, List<Object>>, ExpressionException> environment() {
             // Double cast to satisfy compiler error due to type erasure
@@ -0,0 +1,129 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.openam;
+
+import static org.forgerock.http.util.Uris.formDecodeParameterNameOrValue;
+import static org.forgerock.http.util.Uris.formEncodeParameterNameOrValue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes the URI of a request into the resource for which a policy decision is requested, so that the requests
+ * only differing by ignored query parameters or by identifiers in their path share the same policy decision.
+ * <p>
+ * The path is rewritten by the first path mapping whose pattern is found in it (for example, {@literal
+ * ^/users/[^/]+} mapped to {@literal /users/*}). If a list of query parameters is given, only these parameters are
+ * kept (sorted by name), the other ones are removed: the names and values are decoded before being compared, and
+ * encoded again canonically, so that differently encoded parameters are treated alike (and cannot bypass the list).
+ * The fragment is always removed.
+ */
+public class PolicyResourceNormalizer {
+
+    private final Set<String> queryParameters;
+    private final Map<Pattern, String> pathMappings;
+
+    /**
+     * Creates a new normalizer.
+     *
+     * @param queryParameters
+     *            The names of the query parameters to keep, or {@code null} to keep the query unchanged.
+     * @param pathMappings
+     *            The path patterns, in the order they are tried, and their replacement (that may refer to the
+     *            captured groups, as {@link Matcher#replaceFirst(String)}), not {@code null}.
+     */
+    public PolicyResourceNormalizer(final Set<String> queryParameters, final Map<Pattern, String> pathMappings) {
+        this.queryParameters = queryParameters;
+        this.pathMappings = new LinkedHashMap<>(pathMappings);
+    }
+
+    /**
+     * Returns the normalized representation of the given URI.
+     *
+     * @param uri
+     *            The URI to normalize
+     * @return the normalized URI
+     */
+    public String normalize(final URI uri) {
+        final StringBuilder builder = new StringBuilder();
+        if (uri.getScheme() != null) {
+            builder.append(uri.getScheme()).append(':');
+        }
+        if (uri.getRawAuthority() != null) {
+            builder.append("//").append(uri.getRawAuthority());
+        }
+        builder.append(normalizePath(uri.getRawPath() == null ? "" : uri.getRawPath()));
+        final String query = normalizeQuery(uri.getRawQuery());
+        if (query != null && !query.isEmpty()) {
+            builder.append('?').append(query);
+        }
+        return builder.toString();
+    }
+
+    private String normalizePath(final String path) {
+        for (Map.Entry<Pattern, String> mapping : pathMappings.entrySet()) {
+            final Matcher matcher = mapping.getKey().matcher(path);
+            if (matcher.find()) {
+                return matcher.replaceFirst(mapping.getValue());
+            }
+        }
+        return path;
+    }
+
+    private String normalizeQuery(final String query) {
+        if (queryParameters == null || query == null) {
+            return query;
+        }
+        // Sort the kept parameters by name, keeping the order of the values of a same parameter
+        final Map<String, List<String>> kept = new TreeMap<>();
+        for (String parameter : query.split("&")) {
+            final int equals = parameter.indexOf('=');
+            final String name;
+            final String value;
+            try {
+                name = formDecodeParameterNameOrValue(equals < 0 ? parameter : parameter.substring(0, equals));
+                value = equals < 0 ? null : formDecodeParameterNameOrValue(parameter.substring(equals + 1));
+            } catch (IllegalArgumentException e) {
+                // Malformed encoding: cannot be one of the kept parameters
+                continue;
+            }
+            if (queryParameters.contains(name)) {
+                List<String> values = kept.get(name);
+                if (values == null) {
+                    values = new ArrayList<>();
+                    kept.put(name, values);
+                }
+                final String encodedName = formEncodeParameterNameOrValue(name);
+                values.add(value == null ? encodedName : encodedName + "=" + formEncodeParameterNameOrValue(value));
+            }
+        }
+        final StringBuilder builder = new StringBuilder();
+        for (List<String> parameters : kept.values()) {
+            for (String parameter : parameters) {
+                builder.append(builder.length() == 0 ? "" : "&").append(parameter);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -17,15 +17,19 @@
 package org.forgerock.openig.openam;
 
 import static java.util.Collections.emptyMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.forgerock.http.protocol.Response.newResponsePromise;
 import static org.forgerock.http.protocol.Responses.newInternalServerError;
 import static org.forgerock.http.protocol.Status.UNAUTHORIZED;
 import static org.forgerock.util.Reject.checkNotNull;
+import static org.forgerock.util.promise.Promises.newResultPromise;
 
 import java.io.IOException;
 import java.net.URI;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.forgerock.http.Filter;
 import org.forgerock.http.Handler;
@@ -38,11 +42,24 @@ import org.forgerock.util.Factory;
 import org.forgerock.util.Function;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.promise.ResultHandler;
+import org.forgerock.util.promise.RuntimeExceptionHandler;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
 
 /**
  * Provides an OpenAM SSO Token in the given header name for downstream components.
  *
  * <p>If the request failed with a {@literal 401} UNAUTHORIZED, a unique attempt to refresh the SSO token is tried.
+ * Whatever the number of concurrent requests failing with the same token, the token is only refreshed once.
+ *
+ * <p>When a refresh interval is given, the first request using a token older than this interval triggers a
+ * background authentication, while the requests keep on using the current token: the token can then be renewed
+ * before the OpenAM session times out.
+ *
+ * <p>A failed authentication is kept for a short back-off period, during which the requests fail straight away
+ * instead of all authenticating again against OpenAM.
  *
  * @see <a href="https://forgerock.org/openam/doc/bootstrap/dev-guide/index.html#rest-api-status-codes">OPENAM REST
  * API status codes</a>
@@ -53,6 +70,7 @@ public class SsoTokenFilter implements Filter {
     static final String BASE_ENDPOINT = "json";
     static final String AUTHENTICATION_ENDPOINT = "/authenticate";
     static final String DEFAULT_HEADER_NAME = "iPlanetDirectoryPro";
+    static final long FAILURE_BACKOFF = SECONDS.toMillis(1L);
 
     private final String headerName;
     private final Logger logger;
@@ -65,6 +83,19 @@ public class SsoTokenFilter implements Filter {
                    final String username,
                    final String password,
                    final Logger logger) {
+        this(ssoClientHandler, openamUrl, realm, headerName, username, password, logger, TimeService.SYSTEM,
+             Duration.ZERO);
+    }
+
+    SsoTokenFilter(final Handler ssoClientHandler,
+                   final URI openamUrl,
+                   final String realm,
+                   final String headerName,
+                   final String username,
+                   final String password,
+                   final Logger logger,
+                   final TimeService time,
+                   final Duration refreshInterval) {
         this.headerName = headerName != null ? headerName : DEFAULT_HEADER_NAME;
         this.logger = logger;
         final Factory<Request> requestFactory = new Factory<Request>() {
@@ -82,8 +113,13 @@ public class SsoTokenFilter implements Filter {
                 return request;
             }
         };
+        if (refreshInterval.isUnlimited()) {
+            throw new IllegalArgumentException("The SSO token refresh interval cannot be unlimited");
+        }
         ssoTokenHolder = new SsoTokenHolder(checkNotNull(ssoClientHandler, "The ssoClientHandler cannot be null"),
-                                            requestFactory);
+                                            requestFactory,
+                                            checkNotNull(time),
+                                            refreshInterval.to(MILLISECONDS));
     }
 
     @Override
@@ -106,20 +142,23 @@ public class SsoTokenFilter implements Filter {
                     }
                 };
 
+        final TokenGeneration generation = ssoTokenHolder.findToken(context);
         final AsyncFunction<Response, Response, NeverThrowsException> checkResponse =
                 new AsyncFunction<Response, Response, NeverThrowsException>() {
 
                     @Override
                     public Promise<Response, NeverThrowsException> apply(Response response) {
                         if (response.getStatus().equals(UNAUTHORIZED)) {
-                            return ssoTokenHolder.updateToken(context).thenAsync(executeRequestWithToken);
+                            return ssoTokenHolder.updateToken(context, generation)
+                                                 .token
+                                                 .thenAsync(executeRequestWithToken);
                         }
                         return newResponsePromise(response);
                     }
                 };
-        return ssoTokenHolder.findToken(context)
-                             .thenAsync(executeRequestWithToken)
-                             .thenAsync(checkResponse);
+        return generation.token
+                         .thenAsync(executeRequestWithToken)
+                         .thenAsync(checkResponse);
     }
 
     private static String startsWithSlash(final String realm) {
@@ -127,56 +166,130 @@ public class SsoTokenFilter implements Filter {
         return nonNullRealm.startsWith("/") ? nonNullRealm : "/" + nonNullRealm;
     }
 
+    /**
+     * A generation of the SSO token: a new generation replaces the current one each time the token is obtained again.
+     */
+    private static final class TokenGeneration {
+        private final Promise<String, NeverThrowsException> token;
+        private final long createdAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile long failedAt;
+        private volatile boolean failed;
+
+        TokenGeneration(final Promise<String, NeverThrowsException> token, final long createdAt) {
+            this.token = token;
+            this.createdAt = createdAt;
+        }
+
+        void fail(final long now) {
+            failedAt = now;
+            failed = true;
+        }
+    }
+
+    /**
+     * Holds the current SSO token without locking: the requests only read the current generation, and a new
+     * generation is only installed by the request that wins the compare-and-set, so that there is a single
+     * authentication per invalidation, whatever the number of concurrent requests.
+     */
     private class SsoTokenHolder {
 
         private final Handler ssoClientHandler;
         private final Factory<Request> authenticationRequest;
-        private final ReentrantReadWriteLock rwl = new ReentrantReadWriteLock();
-        private Promise<String, NeverThrowsException> token;
-        private boolean isTokenValid = false;
+        private final TimeService time;
+        private final long refreshInterval;
+        private final AtomicReference<TokenGeneration> current = new AtomicReference<>();
 
         SsoTokenHolder(final Handler ssoClientHandler,
-                       final Factory<Request> authenticationRequest) {
+                       final Factory<Request> authenticationRequest,
+                       final TimeService time,
+                       final long refreshInterval) {
             this.ssoClientHandler = ssoClientHandler;
             this.authenticationRequest = authenticationRequest;
+            this.time = time;
+            this.refreshInterval = refreshInterval;
         }
 
-        Promise<String, NeverThrowsException> findToken(final Context context) {
-            rwl.readLock().lock();
-            if (!isTokenValid) {
-                // Must release read lock before acquiring write lock
-                rwl.readLock().unlock();
-                rwl.writeLock().lock();
-                try {
-                    // Re-check state because another thread might have
-                    // acquired write lock and changed state before we did.
-                    if (!isTokenValid) {
-                        token = createSsoToken(context);
-                        isTokenValid = true;
-                    }
-                    // Downgrade by acquiring read lock before releasing write lock
-                    rwl.readLock().lock();
-                } finally {
-                    // Unlock write, still hold read
-                    rwl.writeLock().unlock();
-                }
+        TokenGeneration findToken(final Context context) {
+            final TokenGeneration generation = current.get();
+            if (generation == null) {
+                return renew(context, null);
             }
-
-            try {
-                return token;
-            } finally {
-                rwl.readLock().unlock();
+            if (generation.failed) {
+                // Keep on failing fast until the back-off is over, then authenticate again
+                return time.now() - generation.failedAt >= FAILURE_BACKOFF ? renew(context, generation) : generation;
+            }
+            if (refreshInterval > 0
+                    && generation.token.isDone()
+                    && time.now() - generation.createdAt >= refreshInterval
+                    && generation.refreshing.compareAndSet(false, true)) {
+                refreshInBackground(context, generation);
             }
+            return generation;
+        }
+
+        TokenGeneration updateToken(final Context context, final TokenGeneration invalid) {
+            return renew(context, invalid);
         }
 
-        Promise<String, NeverThrowsException> updateToken(final Context context) {
-            rwl.writeLock().lock();
-            try {
-                isTokenValid = false;
-            } finally {
-                rwl.writeLock().unlock();
+        /**
+         * Replaces the given generation (that may be {@code null}) with a new one, unless another request already did.
+         */
+        private TokenGeneration renew(final Context context, final TokenGeneration expected) {
+            final PromiseImpl<String, NeverThrowsException> token = PromiseImpl.create();
+            final TokenGeneration generation = new TokenGeneration(token, time.now());
+            if (!current.compareAndSet(expected, generation)) {
+                // Another request has already obtained a new token: use it
+                final TokenGeneration winner = current.get();
+                return winner != null ? winner : renew(context, null);
             }
-            return findToken(context);
+            createSsoToken(context)
+                    .thenOnResult(new ResultHandler<String>() {
+                        @Override
+                        public void handleResult(final String result) {
+                            if (result == null) {
+                                // Keep the failed authentication for a while: the requests will not all retry at once
+                                generation.fail(time.now());
+                            }
+                            token.handleResult(result);
+                        }
+                    })
+                    .thenOnRuntimeException(new RuntimeExceptionHandler() {
+                        @Override
+                        public void handleRuntimeException(final RuntimeException exception) {
+                            logger.error(exception);
+                            generation.fail(time.now());
+                            token.handleResult(null);
+                        }
+                    });
+            return generation;
+        }
+
+        /**
+         * Obtains a new token while the requests keep on using the current one, that is replaced once the new one is
+         * available.
+         */
+        private void refreshInBackground(final Context context, final TokenGeneration generation) {
+            createSsoToken(context)
+                    .thenOnResult(new ResultHandler<String>() {
+                        @Override
+                        public void handleResult(final String result) {
+                            if (result == null
+                                    || !current.compareAndSet(generation,
+                                                              new TokenGeneration(newResultPromise(result),
+                                                                                  time.now()))) {
+                                // Keep on using the current token, or it has been replaced meanwhile
+                                generation.refreshing.set(false);
+                            }
+                        }
+                    })
+                    .thenOnRuntimeException(new RuntimeExceptionHandler() {
+                        @Override
+                        public void handleRuntimeException(final RuntimeException exception) {
+                            logger.warning(exception);
+                            generation.refreshing.set(false);
+                        }
+                    });
         }
 
         private Promise<String, NeverThrowsException> createSsoToken(final Context context) {
@@ -21,8 +21,10 @@ import static org.forgerock.http.protocol.Response.newResponsePromise;
 import static org.forgerock.http.protocol.Responses.newInternalServerError;
 import static org.forgerock.json.JsonValue.field;
 import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.JsonValueFunctions.duration;
 import static org.forgerock.openig.el.Bindings.bindings;
 import static org.forgerock.openig.heap.Keys.FORGEROCK_CLIENT_HANDLER_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.TIME_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.util.JsonValues.evaluated;
 import static org.forgerock.openig.util.JsonValues.expression;
 import static org.forgerock.openig.util.JsonValues.requiredHeapObject;
@@ -48,6 +50,8 @@ import org.forgerock.services.context.Context;
 import org.forgerock.util.AsyncFunction;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
 
 /**
  * A {@link TokenTransformationFilter} is responsible to transform a token issued by OpenAM
@@ -66,7 +70,8 @@ import org.forgerock.util.promise.Promise;
  *             "idToken": "${attributes.id_token}",
  *             "target": "${attributes.saml_assertions}",
  *             "instance": "oidc-to-saml",
- *             "amHandler": "#Handler"
+ *             "amHandler": "#Handler",
+ *             "ssoTokenRefreshInterval": "10 minutes"
  *         }
  *     }
  *     }
@@ -92,6 +97,9 @@ import org.forgerock.util.promise.Promise;
  * for all REST calls to OpenAM (as opposed to the {@code next} Handler of the filter method that is dedicated to
  * continue the execution flow through the chain).
  *
+ * <p>The optional {@literal ssoTokenRefreshInterval} attribute is the age after which the SSO token used to
+ * authenticate against OpenAM is renewed in the background (by default, it is only renewed once rejected).
+ *
  * <p>If errors are happening during the token transformation, the error response is returned as-is to the caller,
  * and informative messages are being logged for the administrator.
  */
@@ -201,13 +209,22 @@ public class TokenTransformationFilter extends GenericHeapObject implements Filt
             String ssoTokenHeader = config.get("ssoTokenHeader").as(evaluated()).asString();
             String username = config.get("username").required().as(evaluated()).asString();
             String password = config.get("password").required().as(evaluated()).asString();
+            Duration ssoTokenRefreshInterval = config.get("ssoTokenRefreshInterval")
+                                                     .as(evaluated())
+                                                     .defaultTo("zero")
+                                                     .as(duration());
+            if (ssoTokenRefreshInterval.isUnlimited()) {
+                throw new HeapException("The SSO token refresh interval cannot be set to 'unlimited'");
+            }
             SsoTokenFilter ssoTokenFilter = new SsoTokenFilter(amHandler,
                                                                baseUri,
                                                                realm,
                                                                ssoTokenHeader,
                                                                username,
                                                                password,
-                                                               logger);
+                                                               logger,
+                                                               heap.get(TIME_SERVICE_HEAP_KEY, TimeService.class),
+                                                               ssoTokenRefreshInterval);
 
             Expression<String> idToken = config.get("idToken").required().as(expression(String.class));
             Expression<String> target = config.get("target").required().as(expression(String.class));
@@ -0,0 +1,183 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.openam;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.util.time.Duration.duration;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ActionRequest;
+import org.forgerock.json.resource.ActionResponse;
+import org.forgerock.json.resource.RequestHandler;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.Responses;
+import org.forgerock.json.resource.ServiceUnavailableException;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.Promises;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class PolicyDecisionBatcherTest {
+
+    private static final String RESOURCE_1 = "http://example.com/resource-1";
+    private static final String RESOURCE_2 = "http://example.com/resource-2";
+
+    @Mock
+    private ScheduledExecutorService executor;
+
+    @Mock
+    private RequestHandler requestHandler;
+
+    @Captor
+    private ArgumentCaptor<Runnable> flushCaptor;
+
+    @Captor
+    private ArgumentCaptor<ActionRequest> requestCaptor;
+
+    private PolicyDecisionBatcher batcher;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        initMocks(this);
+        batcher = new PolicyDecisionBatcher(executor, duration("10 ms"));
+        when(requestHandler.handleAction(any(Context.class), any(ActionRequest.class)))
+                .thenAnswer(new Answer<Promise<ActionResponse, ResourceException>>() {
+                    @Override
+                    public Promise<ActionResponse, ResourceException> answer(InvocationOnMock invocation) {
+                        // Returns a decision for each requested resource
+                        ActionRequest request = (ActionRequest) invocation.getArguments()[1];
+                        List<Object> decisions = new ArrayList<>();
+                        for (JsonValue resource : request.getContent().get("resources")) {
+                            decisions.add(object(field("resource", resource.asString()),
+                                                 field("actions", object(field("GET", true)))));
+                        }
+                        return Promises.<ActionResponse, ResourceException>newResultPromise(
+                                Responses.newActionResponse(json(decisions)));
+                    }
+                });
+    }
+
+    @Test
+    public void shouldCoalesceTheEvaluationsOfTheSameSubject() throws Exception {
+        Promise<JsonValue, ResourceException> decision1 = evaluate("bjensen", RESOURCE_1);
+        Promise<JsonValue, ResourceException> decision2 = evaluate("bjensen", RESOURCE_2);
+        Promise<JsonValue, ResourceException> decision3 = evaluate("bjensen", RESOURCE_1);
+
+        verify(executor).schedule(flushCaptor.capture(), eq(10L), eq(TimeUnit.MILLISECONDS));
+        verify(requestHandler, never()).handleAction(any(Context.class), any(ActionRequest.class));
+        flushCaptor.getValue().run();
+
+        verify(requestHandler).handleAction(any(Context.class), requestCaptor.capture());
+        JsonValue content = requestCaptor.getValue().getContent();
+        assertThat(content.get("resources").asList()).containsExactly(RESOURCE_1, RESOURCE_2);
+        assertThat(content.get("subject").get("ssoToken").asString()).isEqualTo("bjensen");
+        assertThat(content.get("application").asString()).isEqualTo("myApplication");
+
+        assertThat(decision1.get().get("resource").asString()).isEqualTo(RESOURCE_1);
+        assertThat(decision2.get().get("resource").asString()).isEqualTo(RESOURCE_2);
+        assertThat(decision3.get().get("resource").asString()).isEqualTo(RESOURCE_1);
+    }
+
+    @Test
+    public void shouldNotCoalesceTheEvaluationsOfDifferentSubjects() throws Exception {
+        evaluate("bjensen", RESOURCE_1);
+        evaluate("scarter", RESOURCE_1);
+
+        verify(executor, times(2)).schedule(flushCaptor.capture(), anyLong(), any(TimeUnit.class));
+        for (Runnable flush : flushCaptor.getAllValues()) {
+            flush.run();
+        }
+        verify(requestHandler, times(2)).handleAction(any(Context.class), any(ActionRequest.class));
+    }
+
+    @Test
+    public void shouldSendAFullBatchWithoutWaitingForTheWindow() throws Exception {
+        for (int i = 0; i < PolicyDecisionBatcher.MAX_BATCH_SIZE; i++) {
+            evaluate("bjensen", RESOURCE_1 + i);
+        }
+        verify(requestHandler).handleAction(any(Context.class), requestCaptor.capture());
+        assertThat(requestCaptor.getValue().getContent().get("resources").size())
+                .isEqualTo(PolicyDecisionBatcher.MAX_BATCH_SIZE);
+
+        // The window elapses later on: nothing more to send
+        verify(executor).schedule(flushCaptor.capture(), anyLong(), any(TimeUnit.class));
+        flushCaptor.getValue().run();
+        verify(requestHandler).handleAction(any(Context.class), any(ActionRequest.class));
+    }
+
+    @Test(expectedExceptions = ServiceUnavailableException.class)
+    public void shouldFailAllTheEvaluationsWhenOpenAmFails() throws Exception {
+        when(requestHandler.handleAction(any(Context.class), any(ActionRequest.class)))
+                .thenReturn(Promises.<ActionResponse, ResourceException>newExceptionPromise(
+                        new ServiceUnavailableException()));
+        Promise<JsonValue, ResourceException> decision = evaluate("bjensen", RESOURCE_1);
+        evaluate("bjensen", RESOURCE_2);
+
+        verify(executor).schedule(flushCaptor.capture(), anyLong(), any(TimeUnit.class));
+        flushCaptor.getValue().run();
+
+        decision.getOrThrow();
+    }
+
+    @Test(expectedExceptions = ResourceException.class, expectedExceptionsMessageRegExp = ".*resource-2")
+    public void shouldFailTheEvaluationOfAResourceWithoutDecision() throws Exception {
+        when(requestHandler.handleAction(any(Context.class), any(ActionRequest.class)))
+                .thenReturn(Promises.<ActionResponse, ResourceException>newResultPromise(
+                        Responses.newActionResponse(json(array(object(field("resource", RESOURCE_1)))))));
+        Promise<JsonValue, ResourceException> decision1 = evaluate("bjensen", RESOURCE_1);
+        Promise<JsonValue, ResourceException> decision2 = evaluate("bjensen", RESOURCE_2);
+
+        verify(executor).schedule(flushCaptor.capture(), anyLong(), any(TimeUnit.class));
+        flushCaptor.getValue().run();
+
+        assertThat(decision1.get().get("resource").asString()).isEqualTo(RESOURCE_1);
+        decision2.getOrThrow();
+    }
+
+    private Promise<JsonValue, ResourceException> evaluate(final String ssoToken, final String resource) {
+        return batcher.evaluate(new RootContext(),
+                                requestHandler,
+                                json(object(field("resources", array(resource)),
+                                            field("subject", object(field("ssoToken", ssoToken))),
+                                            field("application", "myApplication"))));
+    }
+}
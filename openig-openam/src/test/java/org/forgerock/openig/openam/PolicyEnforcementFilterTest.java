@@ -16,6 +16,7 @@
 
 package org.forgerock.openig.openam;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
@@ -34,6 +35,7 @@ import static org.forgerock.openig.heap.Keys.FORGEROCK_CLIENT_HANDLER_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.LOGSINK_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.heap.Keys.TEMPORARY_STORAGE_HEAP_KEY;
+import static org.forgerock.openig.heap.Keys.TIME_SERVICE_HEAP_KEY;
 import static org.forgerock.openig.openam.PolicyEnforcementFilter.DEFAULT_POLICY_KEY;
 import static org.forgerock.openig.openam.PolicyEnforcementFilter.createKeyCache;
 import static org.forgerock.openig.openam.PolicyEnforcementFilter.Heaplet.normalizeToJsonEndpoint;
@@ -49,11 +51,13 @@ import static org.mockito.MockitoAnnotations.initMocks;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import org.forgerock.http.Handler;
 import org.forgerock.http.protocol.Request;
@@ -79,6 +83,7 @@ import org.forgerock.services.context.Context;
 import org.forgerock.services.context.RootContext;
 import org.forgerock.util.PerItemEvictionStrategyCache;
 import org.forgerock.util.promise.Promise;
+import org.forgerock.util.time.TimeService;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
@@ -443,6 +448,40 @@ public class PolicyEnforcementFilterTest {
         verify(next, times(3)).handle(attributesContext, resourceRequest);
     }
 
+    @Test
+    public void shouldShareTheDecisionOfTheRequestsWithTheSameNormalizedResource() throws Exception {
+        final PolicyEnforcementFilter filter = buildPolicyEnforcementFilter();
+        filter.setResourceNormalizer(new PolicyResourceNormalizer(Collections.<String>emptySet(),
+                                                                  Collections.<Pattern, String>emptyMap()));
+        when(next.handle(any(Context.class), any(Request.class)))
+            .thenReturn(newResponsePromise(displayResourceResponse()));
+
+        for (String query : asList("?page=1", "?page=2&sort=name", "")) {
+            final Request request = new Request().setMethod("GET").setUri(RESOURCE_URI + query);
+            assertThat(filter.filter(attributesContext, request, next).get().getStatus()).isEqualTo(OK);
+        }
+
+        verify(amHandler).handle(any(Context.class), any(Request.class));
+        verify(next, times(3)).handle(eq(attributesContext), any(Request.class));
+    }
+
+    @Test
+    public void shouldEvictTheLeastRecentlyUsedDecisionWhenTheCacheIsFull() throws Exception {
+        final PolicyEnforcementFilter filter = buildPolicyEnforcementFilter();
+        filter.setCacheMaxEntries(1);
+        when(next.handle(any(Context.class), any(Request.class)))
+            .thenReturn(newResponsePromise(displayResourceResponse()));
+
+        filter.filter(attributesContext, resourceRequest, next).get();
+        filter.filter(attributesContext, resourceRequest, next).get();
+        verify(amHandler).handle(any(Context.class), any(Request.class));
+
+        // Another resource evicts the first decision
+        filter.filter(attributesContext, new Request().setMethod("GET").setUri(REQUESTED_URI), next).get();
+        filter.filter(attributesContext, resourceRequest, next).get();
+        verify(amHandler, times(3)).handle(any(Context.class), any(Request.class));
+    }
+
     @DataProvider
     private static Object[][] givenAndExpectedKey() {
         return new Object[][] {
@@ -699,6 +738,7 @@ public class PolicyEnforcementFilterTest {
         heap.put(TEMPORARY_STORAGE_HEAP_KEY, new TemporaryStorage());
         heap.put(LOGSINK_HEAP_KEY, new ConsoleLogSink());
         heap.put(SCHEDULED_EXECUTOR_SERVICE_HEAP_KEY, newSingleThreadScheduledExecutor());
+        heap.put(TIME_SERVICE_HEAP_KEY, TimeService.SYSTEM);
         heap.put(FORGEROCK_CLIENT_HANDLER_HEAP_KEY, mock(Handler.class));
         heap.put("amHandler", amHandler);
         return heap;
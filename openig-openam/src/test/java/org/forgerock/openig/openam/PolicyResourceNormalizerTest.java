@@ -0,0 +1,87 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2016 ForgeRock AS.
+ */
+
+package org.forgerock.openig.openam;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class PolicyResourceNormalizerTest {
+
+    @DataProvider
+    private static Object[][] queries() {
+        return new Object[][] {
+            { "http://example.com/resource?b=2&lang=fr&a=1", "http://example.com/resource?a=1&lang=fr" },
+            { "http://example.com/resource?lang=fr&a=1&lang=en", "http://example.com/resource?a=1&lang=fr&lang=en" },
+            { "http://example.com/resource?page=2", "http://example.com/resource" },
+            { "http://example.com/resource?a", "http://example.com/resource?a" },
+            { "http://example.com/resource", "http://example.com/resource" },
+            { "http://example.com:8080/resource?a=1#top", "http://example.com:8080/resource?a=1" },
+            // The names and values are decoded before being matched, and encoded again canonically
+            { "http://example.com/resource?l%61ng=admin", "http://example.com/resource?lang=admin" },
+            { "http://example.com/resource?lang=%66r&a=x%20y", "http://example.com/resource?a=x+y&lang=fr" },
+            { "http://example.com/resource?lang%00=fr", "http://example.com/resource" } };
+    }
+
+    @Test(dataProvider = "queries")
+    public void shouldOnlyKeepTheGivenQueryParameters(final String uri, final String expected) throws Exception {
+        final PolicyResourceNormalizer normalizer =
+                new PolicyResourceNormalizer(new HashSet<>(asList("a", "lang")),
+                                             Collections.<Pattern, String>emptyMap());
+
+        assertThat(normalizer.normalize(URI.create(uri))).isEqualTo(expected);
+    }
+
+    @Test
+    public void shouldKeepTheQueryUnchangedByDefault() throws Exception {
+        final PolicyResourceNormalizer normalizer =
+                new PolicyResourceNormalizer(null, Collections.<Pattern, String>emptyMap());
+
+        assertThat(normalizer.normalize(URI.create("http://example.com/resource?b=2&a=%20")))
+                .isEqualTo("http://example.com/resource?b=2&a=%20");
+    }
+
+    @DataProvider
+    private static Object[][] paths() {
+        return new Object[][] {
+            { "http://example.com/users/bjensen", "http://example.com/users/*" },
+            { "http://example.com/users/bjensen/groups/42", "http://example.com/users/*/groups/*" },
+            { "http://example.com/users/bjensen/devices", "http://example.com/users/*/devices" },
+            { "http://example.com/groups/42", "http://example.com/groups/42" } };
+    }
+
+    @Test(dataProvider = "paths")
+    public void shouldMapThePathWithTheFirstMatchingPattern(final String uri, final String expected)
+            throws Exception {
+        final Map<Pattern, String> mappings = new LinkedHashMap<>();
+        mappings.put(Pattern.compile("^/users/[^/]+/groups/[^/]+$"), "/users/*/groups/*");
+        mappings.put(Pattern.compile("^/users/[^/]+"), "/users/*");
+        final PolicyResourceNormalizer normalizer = new PolicyResourceNormalizer(null, mappings);
+
+        assertThat(normalizer.normalize(URI.create(uri))).isEqualTo(expected);
+    }
+}
@@ -17,6 +17,7 @@
 package org.forgerock.openig.openam;
 
 import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.forgerock.http.protocol.Response.newResponsePromise;
 import static org.forgerock.http.protocol.Status.BAD_REQUEST;
@@ -26,7 +27,9 @@ import static org.forgerock.http.protocol.Status.UNAUTHORIZED;
 import static org.forgerock.json.JsonValue.field;
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.util.time.Duration.duration;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
@@ -42,6 +45,11 @@ import org.forgerock.http.protocol.Response;
 import org.forgerock.openig.log.Logger;
 import org.forgerock.services.context.Context;
 import org.forgerock.services.context.RootContext;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.time.Duration;
+import org.forgerock.util.time.TimeService;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
@@ -251,6 +259,126 @@ public class SsoTokenFilterTest {
         shutdownExecutor(executorService);
     }
 
+    @Test
+    public void shouldOnlyUpdateTokenOnceWhenConcurrentRequestsAreUnauthorized() throws Exception {
+        // Given
+        final PromiseImpl<Response, NeverThrowsException> first = PromiseImpl.create();
+        final PromiseImpl<Response, NeverThrowsException> second = PromiseImpl.create();
+        when(authenticate.handle(any(Context.class), any(Request.class))).thenReturn(newResponsePromise(authenticated));
+        when(next.handle(context, request)).thenReturn(first, second, newResponsePromise(new Response(OK)));
+        final SsoTokenFilter ssoTokenFilter = buildSsoTokenFilter();
+
+        // When
+        final Promise<Response, NeverThrowsException> response1 = ssoTokenFilter.filter(context, request, next);
+        final Promise<Response, NeverThrowsException> response2 = ssoTokenFilter.filter(context, request, next);
+        // Both requests have been sent with the same token, that has expired meanwhile
+        first.handleResult(unauthorized);
+        second.handleResult(unauthorized);
+
+        // Then
+        assertThat(response1.get().getStatus()).isEqualTo(OK);
+        assertThat(response2.get().getStatus()).isEqualTo(OK);
+        verify(authenticate, times(2)).handle(any(Context.class), any(Request.class));
+        verify(next, times(4)).handle(context, request);
+    }
+
+    @Test
+    public void shouldAuthenticateAgainOnceTheFailureBackoffIsOver() throws Exception {
+        // Given
+        final TimeService time = mock(TimeService.class);
+        when(time.now()).thenReturn(0L);
+        when(authenticate.handle(any(Context.class), any(Request.class)))
+            .thenReturn(newResponsePromise(new Response(BAD_REQUEST)), newResponsePromise(authenticated));
+        when(next.handle(context, request)).thenReturn(newResponsePromise(new Response(OK)));
+        final SsoTokenFilter ssoTokenFilter = new SsoTokenFilter(authenticate,
+                                                                 OPENAM_URI,
+                                                                 null,
+                                                                 null,
+                                                                 "bjensen",
+                                                                 "hifalutin",
+                                                                 logger,
+                                                                 time,
+                                                                 Duration.ZERO);
+
+        // When
+        final Response failed = ssoTokenFilter.filter(context, request, next).get();
+        when(time.now()).thenReturn(FAILURE_BACKOFF);
+        final Response succeeded = ssoTokenFilter.filter(context, request, next).get();
+
+        // Then
+        assertThat(failed.getStatus()).isEqualTo(INTERNAL_SERVER_ERROR);
+        assertThat(succeeded.getStatus()).isEqualTo(OK);
+        assertThat(request.getHeaders().get(DEFAULT_HEADER_NAME).getFirstValue()).isEqualTo(VALID_TOKEN);
+        verify(authenticate, times(2)).handle(any(Context.class), any(Request.class));
+    }
+
+    @Test
+    public void shouldNotAuthenticateAgainDuringTheFailureBackoff() throws Exception {
+        // Given
+        final TimeService time = mock(TimeService.class);
+        when(time.now()).thenReturn(0L);
+        when(authenticate.handle(any(Context.class), any(Request.class)))
+            .thenReturn(newResponsePromise(new Response(BAD_REQUEST)), newResponsePromise(authenticated));
+        final SsoTokenFilter ssoTokenFilter = new SsoTokenFilter(authenticate,
+                                                                 OPENAM_URI,
+                                                                 null,
+                                                                 null,
+                                                                 "bjensen",
+                                                                 "hifalutin",
+                                                                 logger,
+                                                                 time,
+                                                                 Duration.ZERO);
+
+        // When
+        ssoTokenFilter.filter(context, request, next).get();
+        when(time.now()).thenReturn(FAILURE_BACKOFF - 1L);
+        final Response response = ssoTokenFilter.filter(context, request, next).get();
+
+        // Then
+        assertThat(response.getStatus()).isEqualTo(INTERNAL_SERVER_ERROR);
+        verify(authenticate).handle(any(Context.class), any(Request.class));
+        verifyZeroInteractions(next);
+    }
+
+    @Test
+    public void shouldRefreshTokenInTheBackgroundOnceOlderThanTheRefreshInterval() throws Exception {
+        // Given
+        final TimeService time = mock(TimeService.class);
+        when(time.now()).thenReturn(0L);
+        final Response renewed = new Response(OK).setEntity(object(field("tokenId", "renewed")));
+        when(authenticate.handle(any(Context.class), any(Request.class)))
+            .thenReturn(newResponsePromise(authenticated), newResponsePromise(renewed));
+        when(next.handle(context, request)).thenReturn(newResponsePromise(new Response(OK)));
+        final SsoTokenFilter ssoTokenFilter = new SsoTokenFilter(authenticate,
+                                                                 OPENAM_URI,
+                                                                 null,
+                                                                 null,
+                                                                 "bjensen",
+                                                                 "hifalutin",
+                                                                 logger,
+                                                                 time,
+                                                                 duration("10 minutes"));
+
+        // When
+        ssoTokenFilter.filter(context, request, next).get();
+        when(time.now()).thenReturn(MINUTES.toMillis(9L));
+        ssoTokenFilter.filter(context, request, next).get();
+
+        // Then
+        verify(authenticate).handle(any(Context.class), any(Request.class));
+
+        // When the token is old enough, it is still used while it is renewed
+        when(time.now()).thenReturn(MINUTES.toMillis(10L));
+        ssoTokenFilter.filter(context, request, next).get();
+        assertThat(request.getHeaders().get(DEFAULT_HEADER_NAME).getFirstValue()).isEqualTo(VALID_TOKEN);
+        ssoTokenFilter.filter(context, request, next).get();
+        assertThat(request.getHeaders().get(DEFAULT_HEADER_NAME).getFirstValue()).isEqualTo("renewed");
+
+        // Then
+        verify(authenticate, times(2)).handle(any(Context.class), any(Request.class));
+        verify(next, times(4)).handle(context, request);
+    }
+
     class Worker implements Runnable {
         private Runnable action;
         private final CountDownLatch started;
@@ -50,6 +50,7 @@ import org.forgerock.openig.log.NullLogSink;
 import org.forgerock.services.context.AttributesContext;
 import org.forgerock.services.context.Context;
 import org.forgerock.services.context.RootContext;
+import org.forgerock.util.time.TimeService;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
@@ -96,6 +97,7 @@ public class TokenTransformationFilterTest {
         heap = new HeapImpl(Name.of("heap"));
         heap.put(Keys.LOGSINK_HEAP_KEY, new NullLogSink());
         heap.put(Keys.TEMPORARY_STORAGE_HEAP_KEY, new TemporaryStorage());
+        heap.put(Keys.TIME_SERVICE_HEAP_KEY, TimeService.SYSTEM);
         heap.put("#mock-handler", transformationHandler);
     }
 